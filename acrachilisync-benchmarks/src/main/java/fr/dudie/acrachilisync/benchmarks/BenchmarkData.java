@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.util.Date;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.utils.ConfigurationManager;
+import fr.dudie.acrachilisync.utils.IssueDescriptionBuilder;
+
+/**
+ * Builds the issues and the reports used by the benchmarks.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class BenchmarkData {
+
+    /** The stacktrace of the issues, as reported by an Android application. */
+    public static final String STACKTRACE = "java.lang.RuntimeException: Unable to start activity "
+            + "ComponentInfo{fr.dudie.onbus/fr.dudie.onbus.ui.StationActivity}: "
+            + "java.lang.NullPointerException\n"
+            + "\tat android.app.ActivityThread.performLaunchActivity(ActivityThread.java:1647)\n"
+            + "\tat android.app.ActivityThread.handleLaunchActivity(ActivityThread.java:1663)\n"
+            + "\tat android.app.ActivityThread.access$1500(ActivityThread.java:117)\n"
+            + "\tat android.app.ActivityThread$H.handleMessage(ActivityThread.java:931)\n"
+            + "\tat android.os.Handler.dispatchMessage(Handler.java:99)\n"
+            + "\tat android.os.Looper.loop(Looper.java:130)\n"
+            + "\tat android.app.ActivityThread.main(ActivityThread.java:3683)\n"
+            + "\tat java.lang.reflect.Method.invokeNative(Native Method)\n"
+            + "\tat java.lang.reflect.Method.invoke(Method.java:507)\n"
+            + "\tat com.android.internal.os.ZygoteInit$MethodAndArgsCaller.run("
+            + "ZygoteInit.java:839)\n"
+            + "\tat com.android.internal.os.ZygoteInit.main(ZygoteInit.java:597)\n"
+            + "\tat dalvik.system.NativeStart.main(Native Method)\n"
+            + "Caused by: java.lang.NullPointerException\n"
+            + "\tat fr.dudie.onbus.ui.StationActivity.onCreate(StationActivity.java:85)\n"
+            + "\tat android.app.Instrumentation.callActivityOnCreate(Instrumentation.java:1047)\n"
+            + "\tat android.app.ActivityThread.performLaunchActivity(ActivityThread.java:1611)\n"
+            + "\t... 11 more\n";
+
+    /** The Android versions of the occurrences. */
+    private static final String[] ANDROID_VERSIONS = { "2.1-update1", "2.2", "2.2.1", "2.3.3",
+            "2.3.4", "3.2", "4.0.3" };
+
+    /** The devices of the occurrences. */
+    private static final String[] DEVICES = { "Nexus One / google / passion",
+            "GT-I9000 / samsung / GT-I9000", "HTC Desire / htc_wwe / bravo",
+            "Galaxy Nexus / google / maguro", "LT15i / SEMC / LT15i" };
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private BenchmarkData() {
+
+    }
+
+    /**
+     * Loads the test configuration of the core module.
+     * 
+     * @return the configuration
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    public static ConfigurationManager loadConfiguration() throws ConfigurationException {
+
+        return ConfigurationManager.getInstance(new PropertiesConfiguration(
+                "acrachilisync.properties"));
+    }
+
+    /**
+     * Gets the identifier of the report of the n-th occurrence of the issues.
+     * 
+     * @param pIndex
+     *            the occurrence index
+     * @return a report identifier
+     */
+    public static String getReportId(final int pIndex) {
+
+        return String.format("%08x-%04x", pIndex, pIndex % 65536);
+    }
+
+    /**
+     * Creates an issue listing the given number of occurrences in its description.
+     * 
+     * @param pOccurrences
+     *            the number of occurrences
+     * @return an issue
+     */
+    public static Issue createIssue(final int pOccurrences) {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(STACKTRACE);
+        for (int i = 0; i < pOccurrences; i++) {
+            builder.addOccurrence(createOccurrence(i));
+        }
+
+        final Issue issue = new Issue();
+        issue.setId(1);
+        issue.setDescription(builder.build());
+        final CustomField stacktraceMD5 = new CustomField();
+        stacktraceMD5.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        stacktraceMD5.setValue("2e6a58b6e0e8bd1f0a3e7a6ad1e4a7bd");
+        issue.getCustomFields().add(stacktraceMD5);
+        return issue;
+    }
+
+    /**
+     * Creates the n-th occurrence of the issues.
+     * 
+     * @param pIndex
+     *            the occurrence index
+     * @return an occurrence
+     */
+    public static ErrorOccurrence createOccurrence(final int pIndex) {
+
+        final ErrorOccurrence error = new ErrorOccurrence();
+        error.setReportId(getReportId(pIndex));
+        error.setCrashDate(new Date(1320555699000L + pIndex * 60000L));
+        error.setRunFor(new Date(pIndex * 3725000L % 86400000L));
+        error.setAndroidVersion(ANDROID_VERSIONS[pIndex % ANDROID_VERSIONS.length]);
+        error.setVersionCode(String.valueOf(pIndex % 20));
+        error.setVersionName("0.3." + pIndex % 20);
+        error.setDevice(DEVICES[pIndex % DEVICES.length]);
+        return error;
+    }
+
+    /**
+     * Creates a report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return a report
+     * @throws MalformedSpreadsheetLineException
+     *             the report is malformed
+     */
+    public static AcraReport createReport(final String pReportId)
+            throws MalformedSpreadsheetLineException {
+
+        return new AcraReport(createReportElements(pReportId));
+    }
+
+    /**
+     * Creates the spreadsheet row of a report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return the row values
+     */
+    public static CustomElementCollection createReportElements(final String pReportId) {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.STACK_TRACE.tagName(), STACKTRACE);
+        elems.setValueLocal(AcraReportHeader.APP_VERSION_CODE.tagName(), "16");
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+        return elems;
+    }
+}
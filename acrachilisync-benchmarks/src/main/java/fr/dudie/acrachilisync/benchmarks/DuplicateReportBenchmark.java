@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.utils.ChiliprojectUtils;
+import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
+
+/**
+ * Measures the detection of the reports already listed in an issue having a large occurrences
+ * table: a scan of the occurrences compared to a lookup of the report identifiers.
+ * <p>
+ * Half of the checked reports are listed in the issue.
+ * 
+ * @author Jérémie Huchet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DuplicateReportBenchmark {
+
+    /** The number of occurrences listed in the issue. */
+    @Param({ "50000" })
+    private int occurrences;
+
+    /** The number of reports checked by each benchmark invocation. */
+    @Param({ "1000" })
+    private int reportCount;
+
+    /** The parsed issue description. */
+    private IssueDescriptionReader description;
+
+    /** The reports to check. */
+    private List<AcraReport> reports;
+
+    /**
+     * Parses the issue description and creates the reports to check.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Setup
+    public void setUp() throws Exception {
+
+        BenchmarkData.loadConfiguration();
+        description = new IssueDescriptionReader(BenchmarkData.createIssue(occurrences));
+
+        reports = new ArrayList<AcraReport>(reportCount);
+        for (int i = 0; i < reportCount; i++) {
+            if (i % 2 == 0) {
+                // spread the known reports over the whole table
+                reports.add(BenchmarkData.createReport(BenchmarkData.getReportId(i
+                        * (occurrences / reportCount))));
+            } else {
+                reports.add(BenchmarkData.createReport("unknown-" + i));
+            }
+        }
+    }
+
+    /**
+     * Scans the occurrences for each report.
+     * 
+     * @return the number of reports listed in the issue
+     */
+    @Benchmark
+    public int occurrencesScan() {
+
+        int synced = 0;
+        for (final AcraReport report : reports) {
+            for (final ErrorOccurrence error : description.getOccurrences()) {
+                if (error.getReportId().equals(report.getId())) {
+                    synced++;
+                    break;
+                }
+            }
+        }
+        return synced;
+    }
+
+    /**
+     * Looks up the identifier of each report.
+     * 
+     * @return the number of reports listed in the issue
+     */
+    @Benchmark
+    public int reportIdLookup() {
+
+        int synced = 0;
+        for (final AcraReport report : reports) {
+            if (ChiliprojectUtils.isSynchronized(report, description)) {
+                synced++;
+            }
+        }
+        return synced;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redmine.ta.beans.Issue;
+
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.utils.IssueDescriptionBuilder;
+import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
+import fr.dudie.acrachilisync.utils.IssueDescriptionUtils;
+
+/**
+ * Measures the description codec on issues from a few to a hundred thousand occurrences: the
+ * parsing of a description by the {@link IssueDescriptionReader} and the rendering of the
+ * occurrences by the {@link IssueDescriptionBuilder}, or their
+ * {@link IssueDescriptionUtils#spliceOccurrences(String, List) splicing} into the description.
+ * 
+ * @author Jérémie Huchet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IssueDescriptionBenchmark {
+
+    /** The number of rows of the occurrences table. */
+    @Param({ "10", "1000", "100000" })
+    private int occurrences;
+
+    /** The issue to parse. */
+    private Issue issue;
+
+    /** The occurrences to render. */
+    private List<ErrorOccurrence> errors;
+
+    /** The occurrence to splice into the description. */
+    private List<ErrorOccurrence> added;
+
+    /**
+     * Loads the test configuration, builds the issue description and the occurrences.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @Setup
+    public void setUp() throws ConfigurationException {
+
+        BenchmarkData.loadConfiguration();
+        issue = BenchmarkData.createIssue(occurrences);
+        errors = new ArrayList<ErrorOccurrence>(occurrences);
+        for (int i = 0; i < occurrences; i++) {
+            errors.add(BenchmarkData.createOccurrence(i));
+        }
+        added = Collections.singletonList(BenchmarkData.createOccurrence(occurrences));
+    }
+
+    /**
+     * Parses the issue description.
+     * 
+     * @return the occurrences
+     * @throws IssueParseException
+     *             malformed issue description
+     */
+    @Benchmark
+    public List<ErrorOccurrence> read() throws IssueParseException {
+
+        return new IssueDescriptionReader(issue).getOccurrences();
+    }
+
+    /**
+     * Renders the issue description.
+     * 
+     * @return the description
+     */
+    @Benchmark
+    public String build() {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                BenchmarkData.STACKTRACE);
+        builder.setOccurrences(errors);
+        return builder.build();
+    }
+
+    /**
+     * Splices a new occurrence into the issue description.
+     * 
+     * @return the description
+     */
+    @Benchmark
+    public String splice() {
+
+        return IssueDescriptionUtils.spliceOccurrences(issue.getDescription(), added);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redmine.ta.beans.Issue;
+
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
+import fr.dudie.acrachilisync.utils.LegacyIssueDescriptionParser;
+
+/**
+ * Compares the {@link IssueDescriptionReader} with the regular expression based parser it
+ * replaced, on issues having a large occurrences table.
+ * <p>
+ * The regular expression based parser recurses for each row of the table and needs a larger
+ * thread stack than the default one.
+ * 
+ * @author Jérémie Huchet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class IssueDescriptionReaderBenchmark {
+
+    /** The number of rows of the occurrences table. */
+    @Param({ "10000" })
+    private int occurrences;
+
+    /** The issue to parse. */
+    private Issue issue;
+
+    /**
+     * Loads the test configuration and builds the issue description.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @Setup
+    public void setUp() throws ConfigurationException {
+
+        BenchmarkData.loadConfiguration();
+        issue = BenchmarkData.createIssue(occurrences);
+    }
+
+    /**
+     * Parses the description with the regular expressions.
+     * 
+     * @return the occurrences
+     * @throws IssueParseException
+     *             malformed issue description
+     */
+    @Benchmark
+    public List<ErrorOccurrence> legacyParser() throws IssueParseException {
+
+        LegacyIssueDescriptionParser.parseStacktrace(issue.getDescription());
+        return LegacyIssueDescriptionParser.parseAcraOccurrencesTable(issue.getDescription());
+    }
+
+    /**
+     * Parses the description with the {@link IssueDescriptionReader}.
+     * 
+     * @return the occurrences
+     * @throws IssueParseException
+     *             malformed issue description
+     */
+    @Benchmark
+    public List<ErrorOccurrence> issueDescriptionReader() throws IssueParseException {
+
+        return new IssueDescriptionReader(issue).getOccurrences();
+    }
+}
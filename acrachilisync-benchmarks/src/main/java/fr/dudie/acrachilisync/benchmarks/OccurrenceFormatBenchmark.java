@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.utils.IssueDescriptionUtils;
+import fr.dudie.acrachilisync.utils.MD5Utils;
+import fr.dudie.acrachilisync.utils.RunningTimeUtils;
+import fr.dudie.acrachilisync.utils.StacktraceFingerprint;
+
+/**
+ * Measures the formatting and parsing helpers called for each report: the rendering of an
+ * occurrences table row, the crash date and running time conversions, the stacktrace hash and the
+ * creation of a report from its spreadsheet row.
+ * <p>
+ * Each invocation works on the next of {@link #SIZE} prepared values so the results cannot be
+ * constant folded.
+ * 
+ * @author Jérémie Huchet
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OccurrenceFormatBenchmark {
+
+    /** The number of prepared values, a power of two. */
+    private static final int SIZE = 1024;
+
+    /** The occurrences to render. */
+    private final ErrorOccurrence[] errors = new ErrorOccurrence[SIZE];
+
+    /** The running times to format. */
+    private final Date[] runningTimes = new Date[SIZE];
+
+    /** The formatted running times to parse. */
+    private final String[] formattedRunningTimes = new String[SIZE];
+
+    /** The formatted crash dates to parse. */
+    private final String[] formattedCrashDates = new String[SIZE];
+
+    /** The stacktraces to hash. */
+    private final String[] stacktraces = new String[SIZE];
+
+    /** The spreadsheet rows of the reports to create. */
+    private final CustomElementCollection[] reports = new CustomElementCollection[SIZE];
+
+    /** The index of the next value. */
+    private int next;
+
+    /**
+     * Loads the test configuration and prepares the values.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @Setup
+    public void setUp() throws ConfigurationException {
+
+        BenchmarkData.loadConfiguration();
+        for (int i = 0; i < SIZE; i++) {
+            errors[i] = BenchmarkData.createOccurrence(i);
+            runningTimes[i] = errors[i].getRunFor();
+            formattedRunningTimes[i] = RunningTimeUtils.toString(runningTimes[i]);
+            formattedCrashDates[i] = IssueDescriptionUtils.getOccurrencesTableLine(errors[i])
+                    .toString().split("\\|")[2];
+            stacktraces[i] = BenchmarkData.STACKTRACE.replace("StationActivity.java:85",
+                    "StationActivity.java:" + i);
+            reports[i] = BenchmarkData.createReportElements(BenchmarkData.getReportId(i));
+        }
+    }
+
+    /**
+     * Renders an occurrences table row.
+     * 
+     * @return the row
+     */
+    @Benchmark
+    public Object occurrencesTableLine() {
+
+        return IssueDescriptionUtils.getOccurrencesTableLine(errors[nextIndex()]);
+    }
+
+    /**
+     * Parses a crash date.
+     * 
+     * @return the crash date
+     * @throws ParseException
+     *             malformed crash date
+     */
+    @Benchmark
+    public Date parseCrashDate() throws ParseException {
+
+        return IssueDescriptionUtils.parseDate(formattedCrashDates[nextIndex()]);
+    }
+
+    /**
+     * Parses a running time.
+     * 
+     * @return the running time
+     * @throws ParseException
+     *             malformed running time
+     */
+    @Benchmark
+    public Date parseRunningTime() throws ParseException {
+
+        return RunningTimeUtils.parseRunningTime(formattedRunningTimes[nextIndex()]);
+    }
+
+    /**
+     * Formats a running time.
+     * 
+     * @return the formatted running time
+     */
+    @Benchmark
+    public String formatRunningTime() {
+
+        return RunningTimeUtils.toString(runningTimes[nextIndex()]);
+    }
+
+    /**
+     * Hashes a stacktrace.
+     * 
+     * @return the hash
+     */
+    @Benchmark
+    public String stacktraceMD5() {
+
+        return MD5Utils.toMD5hash(stacktraces[nextIndex()]);
+    }
+
+    /**
+     * Computes the normalized fingerprint of a stacktrace.
+     * 
+     * @return the fingerprint
+     */
+    @Benchmark
+    public String normalizedFingerprint() {
+
+        return StacktraceFingerprint.NORMALIZED.compute(stacktraces[nextIndex()]);
+    }
+
+    /**
+     * Creates a report from its spreadsheet row, parsing its dates and hashing its stacktrace.
+     * 
+     * @return the report
+     * @throws MalformedSpreadsheetLineException
+     *             malformed row
+     */
+    @Benchmark
+    public AcraReport acraReport() throws MalformedSpreadsheetLineException {
+
+        return new AcraReport(reports[nextIndex()]);
+    }
+
+    /**
+     * Gets the index of the next prepared value.
+     * 
+     * @return an index lower than {@link #SIZE}
+     */
+    private int nextIndex() {
+
+        next = (next + 1) & (SIZE - 1);
+        return next;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Stands in for a Chiliproject server: implements the part of the Redmine XML REST API used by
+ * the synchronization.
+ * <ul>
+ * <li><code>GET /issues.xml</code> lists the issues, filtered by <code>cf_&lt;id&gt;</code>
+ * custom field values separated by <code>|</code> and paged with <code>offset</code> and
+ * <code>limit</code>,</li>
+ * <li><code>POST /issues.xml</code> creates an issue,</li>
+ * <li><code>PUT /issues/&lt;id&gt;.xml</code> updates the description, the custom field and the
+ * status of an issue.</li>
+ * </ul>
+ * The issues are kept in memory and only have the attributes read by the synchronization.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class StubRedmineServer extends StubServer {
+
+    /** The content type of the responses. */
+    private static final String CONTENT_TYPE = "application/xml; charset=utf-8";
+
+    /** The default number of issues of a page. */
+    private static final int DEFAULT_LIMIT = 25;
+
+    /** Extracts the issue identifier of an update URL. */
+    private static final Pattern ISSUE_PATH = Pattern.compile("/issues/(\\d+)\\.xml");
+
+    /** The identifier of the stacktrace MD5 custom field. */
+    private final int customFieldId;
+
+    /** The project of the issues. */
+    private final int projectId;
+
+    /** The issues by identifier, guarded by this. */
+    private final Map<Integer, StubIssue> issues = new LinkedHashMap<Integer, StubIssue>();
+
+    /** The issue identifiers by stacktrace MD5 hash, guarded by this. */
+    private final Map<String, List<Integer>> issuesByMD5 = new HashMap<String, List<Integer>>();
+
+    /** The identifier of the next created issue, guarded by this. */
+    private int nextId = 1;
+
+    /**
+     * Constructor.
+     * 
+     * @param pLatency
+     *            the delay added to each request, in milliseconds
+     * @param pProjectId
+     *            the project of the issues
+     * @param pCustomFieldId
+     *            the identifier of the stacktrace MD5 custom field
+     * @throws IOException
+     *             unable to bind a port
+     */
+    public StubRedmineServer(final long pLatency, final int pProjectId,
+            final int pCustomFieldId) throws IOException {
+
+        super(pLatency);
+        projectId = pProjectId;
+        customFieldId = pCustomFieldId;
+        createContext("/issues", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange pExchange) throws IOException {
+
+                final String method = pExchange.getRequestMethod();
+                final String path = pExchange.getRequestURI().getPath();
+                final Matcher m = ISSUE_PATH.matcher(path);
+                if ("GET".equals(method) && "/issues.xml".equals(path)) {
+                    listIssues(pExchange);
+                } else if ("POST".equals(method) && "/issues.xml".equals(path)) {
+                    createIssue(pExchange);
+                } else if ("PUT".equals(method) && m.matches()) {
+                    updateIssue(pExchange, Integer.parseInt(m.group(1)));
+                } else {
+                    respond(pExchange, 404, null, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds an issue.
+     * 
+     * @param pStacktraceMD5
+     *            the stacktrace MD5 hash
+     * @param pSubject
+     *            the subject
+     * @param pDescription
+     *            the description
+     * @return the issue identifier
+     */
+    public synchronized int addIssue(final String pStacktraceMD5, final String pSubject,
+            final String pDescription) {
+
+        final StubIssue issue = new StubIssue(nextId++);
+        issue.subject = pSubject;
+        issue.description = pDescription;
+        issues.put(issue.id, issue);
+        setStacktraceMD5(issue, pStacktraceMD5);
+        return issue.id;
+    }
+
+    /**
+     * Gets the number of issues.
+     * 
+     * @return the number of issues
+     */
+    public synchronized int getIssueCount() {
+
+        return issues.size();
+    }
+
+    /**
+     * Gets the description of an issue.
+     * 
+     * @param pId
+     *            the issue identifier
+     * @return the description, null if the issue doesn't exist
+     */
+    public synchronized String getDescription(final int pId) {
+
+        final StubIssue issue = issues.get(pId);
+        return null == issue ? null : issue.description;
+    }
+
+    /**
+     * Lists the issues matching the query parameters.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @throws IOException
+     *             unable to send the response
+     */
+    private void listIssues(final HttpExchange pExchange) throws IOException {
+
+        final Map<String, String> parameters = getParameters(pExchange.getRequestURI());
+        final int offset = getInt(parameters, "offset", 0);
+        final int limit = getInt(parameters, "limit", DEFAULT_LIMIT);
+        final String md5 = parameters.get("cf_" + customFieldId);
+
+        final StringBuilder xml = new StringBuilder();
+        synchronized (this) {
+            final List<StubIssue> matching = new ArrayList<StubIssue>();
+            if (null == md5) {
+                matching.addAll(issues.values());
+            } else {
+                for (final String value : md5.split("\\|")) {
+                    if (issuesByMD5.containsKey(value)) {
+                        for (final Integer id : issuesByMD5.get(value)) {
+                            matching.add(issues.get(id));
+                        }
+                    }
+                }
+            }
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            xml.append(String.format("<issues type=\"array\" total_count=\"%d\" offset=\"%d\" "
+                    + "limit=\"%d\">", matching.size(), offset, limit));
+            for (int i = offset; i < Math.min(matching.size(), offset + limit); i++) {
+                appendIssue(xml, matching.get(i));
+            }
+            xml.append("</issues>");
+        }
+        respond(pExchange, 200, CONTENT_TYPE, xml.toString());
+    }
+
+    /**
+     * Creates an issue from the request body.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @throws IOException
+     *             unable to read the request or to send the response
+     */
+    private void createIssue(final HttpExchange pExchange) throws IOException {
+
+        final Element request = readXml(pExchange).getDocumentElement();
+        final StringBuilder xml = new StringBuilder();
+        synchronized (this) {
+            final StubIssue issue = issues.get(addIssue(getCustomFieldValue(request),
+                    getText(request, null, "subject"), getText(request, null, "description")));
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            appendIssue(xml, issue);
+        }
+        respond(pExchange, 201, CONTENT_TYPE, xml.toString());
+    }
+
+    /**
+     * Updates an issue from the request body.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @param pId
+     *            the issue identifier
+     * @throws IOException
+     *             unable to read the request or to send the response
+     */
+    private void updateIssue(final HttpExchange pExchange, final int pId) throws IOException {
+
+        final Element request = readXml(pExchange).getDocumentElement();
+        synchronized (this) {
+            final StubIssue issue = issues.get(pId);
+            if (null == issue) {
+                respond(pExchange, 404, null, null);
+                return;
+            }
+            final String description = getText(request, null, "description");
+            if (null != description) {
+                issue.description = description;
+            }
+            final String status = getText(request, null, "status_id");
+            if (null != status && status.trim().length() > 0) {
+                issue.statusId = Integer.parseInt(status.trim());
+            }
+            final String md5 = getCustomFieldValue(request);
+            if (null != md5 && !md5.equals(issue.stacktraceMD5)) {
+                issuesByMD5.get(issue.stacktraceMD5).remove(Integer.valueOf(pId));
+                setStacktraceMD5(issue, md5);
+            }
+            issue.updatedOn = new Date();
+        }
+        respond(pExchange, 200, null, null);
+    }
+
+    /**
+     * Sets the stacktrace MD5 hash of an issue and indexes it.
+     * 
+     * @param pIssue
+     *            the issue
+     * @param pStacktraceMD5
+     *            the stacktrace MD5 hash
+     */
+    private void setStacktraceMD5(final StubIssue pIssue, final String pStacktraceMD5) {
+
+        pIssue.stacktraceMD5 = pStacktraceMD5;
+        List<Integer> ids = issuesByMD5.get(pStacktraceMD5);
+        if (null == ids) {
+            ids = new ArrayList<Integer>(1);
+            issuesByMD5.put(pStacktraceMD5, ids);
+        }
+        ids.add(pIssue.id);
+    }
+
+    /**
+     * Gets the value of the stacktrace MD5 custom field of an issue sent by the client.
+     * 
+     * @param pIssue
+     *            the issue element
+     * @return the custom field value, null if it is missing
+     */
+    private String getCustomFieldValue(final Element pIssue) {
+
+        final NodeList fields = pIssue.getElementsByTagName("custom_field");
+        for (int i = 0; i < fields.getLength(); i++) {
+            final Element field = (Element) fields.item(i);
+            if (String.valueOf(customFieldId).equals(field.getAttribute("id"))) {
+                return getText(field, null, "value");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes an issue in the Redmine XML format.
+     * 
+     * @param pXml
+     *            the buffer to write to
+     * @param pIssue
+     *            the issue
+     */
+    private void appendIssue(final StringBuilder pXml, final StubIssue pIssue) {
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        pXml.append("<issue>");
+        pXml.append("<id>").append(pIssue.id).append("</id>");
+        pXml.append("<project name=\"acra\" id=\"").append(projectId).append("\"/>");
+        pXml.append("<tracker name=\"Bug\" id=\"1\"/>");
+        pXml.append("<status name=\"New\" id=\"").append(pIssue.statusId).append("\"/>");
+        pXml.append("<subject>").append(escape(pIssue.subject)).append("</subject>");
+        pXml.append("<description>").append(escape(pIssue.description)).append("</description>");
+        pXml.append("<custom_fields type=\"array\">");
+        pXml.append("<custom_field name=\"stacktrace md5\" id=\"").append(customFieldId);
+        pXml.append("\"><value>").append(escape(pIssue.stacktraceMD5)).append("</value>");
+        pXml.append("</custom_field></custom_fields>");
+        pXml.append("<created_on>").append(format.format(pIssue.createdOn));
+        pXml.append("</created_on>");
+        pXml.append("<updated_on>").append(format.format(pIssue.updatedOn));
+        pXml.append("</updated_on>");
+        pXml.append("</issue>");
+    }
+
+    /**
+     * An issue stored by the server.
+     * 
+     * @author Jérémie Huchet
+     */
+    private static final class StubIssue {
+
+        /** The identifier. */
+        private final int id;
+
+        /** The creation date. */
+        private final Date createdOn = new Date();
+
+        /** The last update date. */
+        private Date updatedOn = createdOn;
+
+        /** The status. */
+        private int statusId = 1;
+
+        /** The subject. */
+        private String subject;
+
+        /** The description. */
+        private String description;
+
+        /** The stacktrace MD5 hash. */
+        private String stacktraceMD5;
+
+        /**
+         * Constructor.
+         * 
+         * @param pId
+         *            the identifier
+         */
+        private StubIssue(final int pId) {
+
+            id = pId;
+        }
+    }
+}
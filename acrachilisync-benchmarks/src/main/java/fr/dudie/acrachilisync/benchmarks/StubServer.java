@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server standing in for a remote service during the benchmarks.
+ * <p>
+ * Each request is counted and delayed by a fixed latency before being handled, to simulate the
+ * network round trip to the real service.
+ * 
+ * @author Jérémie Huchet
+ */
+public abstract class StubServer {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubServer.class);
+
+    /** The HTTP server, listening to an ephemeral port of the loopback interface. */
+    private final HttpServer server;
+
+    /** The threads handling the requests. */
+    private final ExecutorService executor;
+
+    /** The delay added to each request, in milliseconds. */
+    private final long latency;
+
+    /** The number of handled requests. */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Constructor.
+     * 
+     * @param pLatency
+     *            the delay added to each request, in milliseconds
+     * @throws IOException
+     *             unable to bind a port
+     */
+    protected StubServer(final long pLatency) throws IOException {
+
+        latency = Math.max(0, pLatency);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable pTask) {
+
+                final Thread thread = new Thread(pTask, StubServer.this.getClass()
+                        .getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Registers the handler of the requests whose path starts with the given prefix.
+     * 
+     * @param pPath
+     *            the path prefix
+     * @param pHandler
+     *            the handler
+     */
+    protected final void createContext(final String pPath, final HttpHandler pHandler) {
+
+        server.createContext(pPath, new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange pExchange) throws IOException {
+
+                requests.incrementAndGet();
+                try {
+                    if (latency > 0) {
+                        Thread.sleep(latency);
+                    }
+                    pHandler.handle(pExchange);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    respond(pExchange, 503, null, null);
+                } catch (final RuntimeException e) {
+                    LOGGER.error("Unable to handle " + pExchange.getRequestMethod() + " "
+                            + pExchange.getRequestURI(), e);
+                    respond(pExchange, 500, null, null);
+                } finally {
+                    pExchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts serving the requests.
+     */
+    public final void start() {
+
+        server.start();
+    }
+
+    /**
+     * Stops serving the requests.
+     */
+    public final void stop() {
+
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the URL of the server root.
+     * 
+     * @return the URL of the server root, without trailing slash
+     */
+    public final String getUrl() {
+
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the number of handled requests.
+     * 
+     * @return the number of handled requests
+     */
+    public final long getRequestCount() {
+
+        return requests.get();
+    }
+
+    /**
+     * Sends a response.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @param pStatus
+     *            the HTTP status code
+     * @param pContentType
+     *            the content type of the body
+     * @param pBody
+     *            the response body, null for an empty body
+     * @throws IOException
+     *             unable to send the response
+     */
+    protected static void respond(final HttpExchange pExchange, final int pStatus,
+            final String pContentType, final String pBody) throws IOException {
+
+        if (null == pBody) {
+            pExchange.sendResponseHeaders(pStatus, -1);
+            return;
+        }
+        final byte[] body = pBody.getBytes("UTF-8");
+        pExchange.getResponseHeaders().set("Content-Type", pContentType);
+        pExchange.sendResponseHeaders(pStatus, body.length);
+        final OutputStream out = pExchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads and parses the XML body of a request.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @return the XML document
+     * @throws IOException
+     *             unable to read or parse the request body
+     */
+    protected static Document readXml(final HttpExchange pExchange) throws IOException {
+
+        final InputStream in = pExchange.getRequestBody();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            return factory.newDocumentBuilder().parse(
+                    new ByteArrayInputStream(body.toByteArray()));
+        } catch (final ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        } catch (final SAXException e) {
+            throw new IOException("Malformed request body: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the text of the first descendant element having the given name.
+     * 
+     * @param pParent
+     *            the parent element
+     * @param pNamespace
+     *            the namespace of the element, null for any namespace
+     * @param pName
+     *            the local name of the element
+     * @return the text of the element, null if there is no such element
+     */
+    protected static String getText(final Element pParent, final String pNamespace,
+            final String pName) {
+
+        final NodeList nodes = pParent.getElementsByTagNameNS(null == pNamespace ? "*"
+                : pNamespace, pName);
+        if (nodes.getLength() == 0) {
+            return null;
+        }
+        return nodes.item(0).getTextContent();
+    }
+
+    /**
+     * Decodes the query parameters of a request URI.
+     * 
+     * @param pUri
+     *            the request URI
+     * @return the parameter values by name
+     */
+    protected static Map<String, String> getParameters(final URI pUri) {
+
+        final Map<String, String> parameters = new HashMap<String, String>();
+        final String query = pUri.getRawQuery();
+        if (null == query) {
+            return parameters;
+        }
+        try {
+            for (final String parameter : query.split("&")) {
+                final int eq = parameter.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+                }
+            }
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    /**
+     * Gets an integer query parameter.
+     * 
+     * @param pParameters
+     *            the query parameters
+     * @param pName
+     *            the parameter name
+     * @param pDefault
+     *            the value to return if the parameter is missing
+     * @return the parameter value
+     */
+    protected static int getInt(final Map<String, String> pParameters, final String pName,
+            final int pDefault) {
+
+        final String value = pParameters.get(pName);
+        return null == value ? pDefault : Integer.parseInt(value);
+    }
+
+    /**
+     * Escapes a string to be written in an XML document.
+     * 
+     * @param pText
+     *            a string, may be null
+     * @return the escaped string, empty if the given one is null
+     */
+    protected static String escape(final String pText) {
+
+        if (null == pText) {
+            return "";
+        }
+        final StringBuilder escaped = new StringBuilder(pText.length() + 16);
+        for (int i = 0; i < pText.length(); i++) {
+            final char c = pText.charAt(i);
+            switch (c) {
+            case '<':
+                escaped.append("&lt;");
+                break;
+            case '>':
+                escaped.append("&gt;");
+                break;
+            case '&':
+                escaped.append("&amp;");
+                break;
+            case '"':
+                escaped.append("&quot;");
+                break;
+            case '\r':
+                escaped.append("&#13;");
+                break;
+            default:
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
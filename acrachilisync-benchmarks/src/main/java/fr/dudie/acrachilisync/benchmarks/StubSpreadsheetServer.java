@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+
+/**
+ * Stands in for the Google spreadsheet service: serves the list feed and the cell feed of a
+ * single worksheet whose first row holds the {@link AcraReportHeader} tag names.
+ * <ul>
+ * <li>the list feed supports the <code>sq=stacktracemd5==""</code> query only, paged with
+ * <code>start-index</code> and <code>max-results</code>, and the retrieval and update of a
+ * row,</li>
+ * <li>the cell feed supports the <code>min-row</code>, <code>max-row</code>, <code>min-col</code>
+ * and <code>max-col</code> range parameters, and batch updates.</li>
+ * </ul>
+ * Entry versions are not checked.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class StubSpreadsheetServer extends StubServer {
+
+    /** The content type of the responses. */
+    private static final String CONTENT_TYPE = "application/atom+xml; charset=UTF-8";
+
+    /** The Atom namespace. */
+    private static final String ATOM = "http://www.w3.org/2005/Atom";
+
+    /** The namespace of the list feed columns. */
+    private static final String GSX = "http://schemas.google.com/spreadsheets/2006/extended";
+
+    /** The namespace of the spreadsheet elements. */
+    private static final String GS = "http://schemas.google.com/spreadsheets/2006";
+
+    /** The namespace of the batch elements. */
+    private static final String BATCH = "http://schemas.google.com/gdata/batch";
+
+    /** The namespace declarations of the feeds. */
+    private static final String NAMESPACES = "xmlns=\"" + ATOM + "\" xmlns:openSearch="
+            + "\"http://a9.com/-/spec/opensearchrss/1.0/\" xmlns:gsx=\"" + GSX + "\" xmlns:gs=\""
+            + GS + "\" xmlns:batch=\"" + BATCH + "\"";
+
+    /** The worksheet columns. */
+    private static final AcraReportHeader[] COLUMNS = AcraReportHeader.values();
+
+    /** The list feed path. */
+    private final String listPath;
+
+    /** The cell feed path. */
+    private final String cellPath;
+
+    /** The column values of each row below the header row, guarded by this. */
+    private final List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+
+    /**
+     * Constructor.
+     * 
+     * @param pLatency
+     *            the delay added to each request, in milliseconds
+     * @param pDocumentKey
+     *            the spreadsheet document key
+     * @param pWorksheetId
+     *            the worksheet identifier
+     * @throws IOException
+     *             unable to bind a port
+     */
+    public StubSpreadsheetServer(final long pLatency, final String pDocumentKey,
+            final String pWorksheetId) throws IOException {
+
+        super(pLatency);
+        listPath = String.format("/feeds/list/%s/%s/private/full", pDocumentKey, pWorksheetId);
+        cellPath = String.format("/feeds/cells/%s/%s/private/full", pDocumentKey, pWorksheetId);
+        createContext(listPath, new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange pExchange) throws IOException {
+
+                final String method = pExchange.getRequestMethod();
+                final String[] path = getSubPath(pExchange, listPath);
+                if ("GET".equals(method) && path.length == 0) {
+                    listRows(pExchange);
+                } else if ("GET".equals(method) && path.length == 1) {
+                    getRow(pExchange, Integer.parseInt(path[0]));
+                } else if ("PUT".equals(method) && path.length == 2) {
+                    updateRow(pExchange, Integer.parseInt(path[0]));
+                } else {
+                    respond(pExchange, 404, null, null);
+                }
+            }
+        });
+        createContext(cellPath, new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange pExchange) throws IOException {
+
+                final String method = pExchange.getRequestMethod();
+                final String[] path = getSubPath(pExchange, cellPath);
+                if ("GET".equals(method) && path.length == 0) {
+                    listCells(pExchange);
+                } else if ("POST".equals(method) && path.length == 1
+                        && "batch".equals(path[0])) {
+                    batchUpdateCells(pExchange);
+                } else {
+                    respond(pExchange, 404, null, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends a row to the worksheet.
+     * 
+     * @param pValues
+     *            the cell values by column
+     */
+    public synchronized void addRow(final Map<AcraReportHeader, String> pValues) {
+
+        final Map<String, String> row = new HashMap<String, String>();
+        for (final Map.Entry<AcraReportHeader, String> value : pValues.entrySet()) {
+            row.put(value.getKey().tagName(), value.getValue());
+        }
+        rows.add(row);
+    }
+
+    /**
+     * Gets the number of rows whose stacktrace MD5 cell is empty.
+     * 
+     * @return the number of unsynchronized rows
+     */
+    public synchronized int getUnsyncedRowCount() {
+
+        return getUnsyncedRows().size();
+    }
+
+    /**
+     * Gets the segments of the request path following the feed path.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @param pFeedPath
+     *            the feed path
+     * @return the following path segments
+     */
+    private static String[] getSubPath(final HttpExchange pExchange, final String pFeedPath) {
+
+        final String path = pExchange.getRequestURI().getPath().substring(pFeedPath.length());
+        final String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        return trimmed.length() == 0 ? new String[0] : trimmed.split("/");
+    }
+
+    /**
+     * Gets the numbers of the rows whose stacktrace MD5 cell is empty.
+     * 
+     * @return the row numbers, starting at 2
+     */
+    private List<Integer> getUnsyncedRows() {
+
+        final List<Integer> unsynced = new ArrayList<Integer>();
+        for (int i = 0; i < rows.size(); i++) {
+            final String md5 = rows.get(i).get(AcraReportHeader.STACK_TRACE_MD5.tagName());
+            if (null == md5 || md5.length() == 0) {
+                unsynced.add(i + 2);
+            }
+        }
+        return unsynced;
+    }
+
+    /**
+     * Serves a page of the list feed.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @throws IOException
+     *             unable to send the response
+     */
+    private void listRows(final HttpExchange pExchange) throws IOException {
+
+        final Map<String, String> parameters = getParameters(pExchange.getRequestURI());
+        final StringBuilder xml = new StringBuilder();
+        synchronized (this) {
+            final List<Integer> matching;
+            if (parameters.containsKey("sq")) {
+                matching = getUnsyncedRows();
+            } else {
+                matching = new ArrayList<Integer>();
+                for (int i = 0; i < rows.size(); i++) {
+                    matching.add(i + 2);
+                }
+            }
+            final int start = getInt(parameters, "start-index", 1) - 1;
+            final int max = getInt(parameters, "max-results", Integer.MAX_VALUE);
+            final int end = (int) Math.min(matching.size(), (long) start + max);
+
+            appendFeedStart(xml, listPath);
+            xml.append("<openSearch:totalResults>").append(matching.size());
+            xml.append("</openSearch:totalResults>");
+            xml.append("<openSearch:startIndex>").append(start + 1);
+            xml.append("</openSearch:startIndex>");
+            for (int i = start; i < end; i++) {
+                appendListEntry(xml, matching.get(i), "");
+            }
+            xml.append("</feed>");
+        }
+        respond(pExchange, 200, CONTENT_TYPE, xml.toString());
+    }
+
+    /**
+     * Serves a list feed entry.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @param pRow
+     *            the row number
+     * @throws IOException
+     *             unable to send the response
+     */
+    private void getRow(final HttpExchange pExchange, final int pRow) throws IOException {
+
+        final StringBuilder xml = new StringBuilder();
+        synchronized (this) {
+            if (pRow < 2 || pRow - 2 >= rows.size()) {
+                respond(pExchange, 404, null, null);
+                return;
+            }
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            appendListEntry(xml, pRow, " " + NAMESPACES);
+        }
+        respond(pExchange, 200, CONTENT_TYPE, xml.toString());
+    }
+
+    /**
+     * Updates a row from a list feed entry.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @param pRow
+     *            the row number
+     * @throws IOException
+     *             unable to read the request or to send the response
+     */
+    private void updateRow(final HttpExchange pExchange, final int pRow) throws IOException {
+
+        final Element entry = readXml(pExchange).getDocumentElement();
+        synchronized (this) {
+            if (pRow < 2 || pRow - 2 >= rows.size()) {
+                respond(pExchange, 404, null, null);
+                return;
+            }
+            final Map<String, String> row = rows.get(pRow - 2);
+            final NodeList columns = entry.getElementsByTagNameNS(GSX, "*");
+            for (int i = 0; i < columns.getLength(); i++) {
+                row.put(columns.item(i).getLocalName(), columns.item(i).getTextContent());
+            }
+        }
+        getRow(pExchange, pRow);
+    }
+
+    /**
+     * Serves the non-empty cells of a range.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @throws IOException
+     *             unable to send the response
+     */
+    private void listCells(final HttpExchange pExchange) throws IOException {
+
+        final Map<String, String> parameters = getParameters(pExchange.getRequestURI());
+        final StringBuilder xml = new StringBuilder();
+        synchronized (this) {
+            final int minRow = getInt(parameters, "min-row", 1);
+            final int maxRow = Math.min(getInt(parameters, "max-row", Integer.MAX_VALUE),
+                    rows.size() + 1);
+            final int minCol = getInt(parameters, "min-col", 1);
+            final int maxCol = Math.min(getInt(parameters, "max-col", Integer.MAX_VALUE),
+                    COLUMNS.length);
+
+            appendFeedStart(xml, cellPath);
+            xml.append("<link rel=\"http://schemas.google.com/g/2005#batch\" ");
+            xml.append("type=\"application/atom+xml\" href=\"").append(getUrl()).append(cellPath);
+            xml.append("/batch\"/>");
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    final String value = getCell(row, col);
+                    if (null != value && value.length() > 0) {
+                        appendCellEntry(xml, row, col, value);
+                    }
+                }
+            }
+            xml.append("</feed>");
+        }
+        respond(pExchange, 200, CONTENT_TYPE, xml.toString());
+    }
+
+    /**
+     * Updates cells with a batch request.
+     * 
+     * @param pExchange
+     *            the HTTP exchange
+     * @throws IOException
+     *             unable to read the request or to send the response
+     */
+    private void batchUpdateCells(final HttpExchange pExchange) throws IOException {
+
+        final NodeList entries = readXml(pExchange).getElementsByTagNameNS(ATOM, "entry");
+        final StringBuilder xml = new StringBuilder();
+        synchronized (this) {
+            appendFeedStart(xml, cellPath);
+            for (int i = 0; i < entries.getLength(); i++) {
+                final Element entry = (Element) entries.item(i);
+                final String batchId = getText(entry, BATCH, "id");
+                final Element cell = (Element) entry.getElementsByTagNameNS(GS, "cell").item(0);
+                final int row = Integer.parseInt(cell.getAttribute("row"));
+                final int col = Integer.parseInt(cell.getAttribute("col"));
+
+                xml.append("<entry><batch:id>").append(escape(batchId)).append("</batch:id>");
+                xml.append("<batch:operation type=\"update\"/>");
+                if (row < 2 || row - 2 >= rows.size() || col < 1 || col > COLUMNS.length) {
+                    xml.append("<batch:status code=\"404\" reason=\"Not Found\"/></entry>");
+                } else {
+                    final String value = cell.getAttribute("inputValue");
+                    rows.get(row - 2).put(COLUMNS[col - 1].tagName(), value);
+                    xml.append("<batch:status code=\"200\" reason=\"Success\"/>");
+                    appendCell(xml, row, col, value);
+                    xml.append("</entry>");
+                }
+            }
+            xml.append("</feed>");
+        }
+        respond(pExchange, 200, CONTENT_TYPE, xml.toString());
+    }
+
+    /**
+     * Gets the value of a cell.
+     * 
+     * @param pRow
+     *            the row number, the first row holds the tag names
+     * @param pCol
+     *            the column number
+     * @return the cell value, null if empty
+     */
+    private String getCell(final int pRow, final int pCol) {
+
+        final String tagName = COLUMNS[pCol - 1].tagName();
+        if (pRow == 1) {
+            return tagName;
+        }
+        return rows.get(pRow - 2).get(tagName);
+    }
+
+    /**
+     * Opens a feed element.
+     * 
+     * @param pXml
+     *            the buffer to write to
+     * @param pPath
+     *            the feed path
+     */
+    private void appendFeedStart(final StringBuilder pXml, final String pPath) {
+
+        pXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        pXml.append("<feed ").append(NAMESPACES).append('>');
+        pXml.append("<id>").append(getUrl()).append(pPath).append("</id>");
+        pXml.append("<updated>2011-11-06T05:01:39.000Z</updated>");
+        pXml.append("<title type=\"text\">reports</title>");
+        pXml.append("<link rel=\"http://schemas.google.com/g/2005#feed\" ");
+        pXml.append("type=\"application/atom+xml\" href=\"").append(getUrl()).append(pPath);
+        pXml.append("\"/>");
+    }
+
+    /**
+     * Writes a list feed entry.
+     * 
+     * @param pXml
+     *            the buffer to write to
+     * @param pRow
+     *            the row number
+     * @param pAttributes
+     *            the attributes of the entry element, such as namespace declarations
+     */
+    private void appendListEntry(final StringBuilder pXml, final int pRow,
+            final String pAttributes) {
+
+        final String url = getUrl() + listPath + "/" + pRow;
+        final Map<String, String> row = rows.get(pRow - 2);
+        pXml.append("<entry").append(pAttributes).append('>');
+        pXml.append("<id>").append(url).append("</id>");
+        pXml.append("<updated>2011-11-06T05:01:39.000Z</updated>");
+        pXml.append("<category scheme=\"http://schemas.google.com/spreadsheets/2006\" ");
+        pXml.append("term=\"http://schemas.google.com/spreadsheets/2006#list\"/>");
+        pXml.append("<title type=\"text\">");
+        pXml.append(escape(row.get(AcraReportHeader.REPORT_ID.tagName()))).append("</title>");
+        pXml.append("<content type=\"text\"/>");
+        pXml.append("<link rel=\"self\" type=\"application/atom+xml\" href=\"").append(url);
+        pXml.append("\"/>");
+        pXml.append("<link rel=\"edit\" type=\"application/atom+xml\" href=\"").append(url);
+        pXml.append("/1\"/>");
+        for (final AcraReportHeader column : COLUMNS) {
+            pXml.append("<gsx:").append(column.tagName()).append('>');
+            pXml.append(escape(row.get(column.tagName())));
+            pXml.append("</gsx:").append(column.tagName()).append('>');
+        }
+        pXml.append("</entry>");
+    }
+
+    /**
+     * Writes a cell feed entry.
+     * 
+     * @param pXml
+     *            the buffer to write to
+     * @param pRow
+     *            the row number
+     * @param pCol
+     *            the column number
+     * @param pValue
+     *            the cell value
+     */
+    private void appendCellEntry(final StringBuilder pXml, final int pRow, final int pCol,
+            final String pValue) {
+
+        pXml.append("<entry>");
+        appendCell(pXml, pRow, pCol, pValue);
+        pXml.append("</entry>");
+    }
+
+    /**
+     * Writes the content of a cell feed entry.
+     * 
+     * @param pXml
+     *            the buffer to write to
+     * @param pRow
+     *            the row number
+     * @param pCol
+     *            the column number
+     * @param pValue
+     *            the cell value
+     */
+    private void appendCell(final StringBuilder pXml, final int pRow, final int pCol,
+            final String pValue) {
+
+        final String url = String.format("%s%s/R%dC%d", getUrl(), cellPath, pRow, pCol);
+        pXml.append("<id>").append(url).append("</id>");
+        pXml.append("<updated>2011-11-06T05:01:39.000Z</updated>");
+        pXml.append("<category scheme=\"http://schemas.google.com/spreadsheets/2006\" ");
+        pXml.append("term=\"http://schemas.google.com/spreadsheets/2006#cell\"/>");
+        pXml.append("<title type=\"text\">").append(url.substring(url.lastIndexOf('/') + 1));
+        pXml.append("</title>");
+        pXml.append("<link rel=\"self\" type=\"application/atom+xml\" href=\"").append(url);
+        pXml.append("\"/>");
+        pXml.append("<link rel=\"edit\" type=\"application/atom+xml\" href=\"").append(url);
+        pXml.append("/1\"/>");
+        pXml.append(String.format("<gs:cell row=\"%d\" col=\"%d\" inputValue=\"%s\">%s</gs:cell>",
+                pRow, pCol, escape(pValue), escape(pValue)));
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.redmine.ta.RedmineManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+
+import fr.dudie.acrachilisync.AcraToChiliprojectSyncer;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.utils.ConfigurationManager;
+import fr.dudie.acrachilisync.utils.IssueDescriptionBuilder;
+import fr.dudie.acrachilisync.utils.MD5Utils;
+
+/**
+ * Runs a synchronization against a {@link StubRedmineServer} and a {@link StubSpreadsheetServer}
+ * and reports its throughput.
+ * <p>
+ * The benchmark is configured with system properties:
+ * <ul>
+ * <li><code>backlog</code>: the number of unsynchronized reports of the spreadsheet (defaults to
+ * 10000),</li>
+ * <li><code>stacks</code>: the number of distinct stacktraces of the reports (defaults to
+ * 100),</li>
+ * <li><code>latency</code>: the delay added to each HTTP request, in milliseconds (defaults to
+ * 0),</li>
+ * <li><code>history</code>: when greater than 0, an issue listing this number of occurrences
+ * already exists for each stacktrace (defaults to 0),</li>
+ * <li>the <code>sync.*</code> properties override the synchronization settings of the
+ * configuration.</li>
+ * </ul>
+ * For example:
+ * 
+ * <pre>
+ * java -Dbacklog=50000 -Dstacks=500 -Dlatency=20 -Dsync.concurrency=4 \
+ *     -cp benchmarks.jar fr.dudie.acrachilisync.benchmarks.SyncThroughputBenchmark
+ * </pre>
+ * 
+ * It prints the number of reports synchronized per second, the number of HTTP requests per report
+ * to each server and the peak heap usage of the synchronization.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SyncThroughputBenchmark {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncThroughputBenchmark.class);
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private SyncThroughputBenchmark() {
+
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            unused, see the system properties
+     * @throws Exception
+     *             an error occurred
+     */
+    public static void main(final String[] args) throws Exception {
+
+        final int backlog = Integer.getInteger("backlog", 10000);
+        final int stacks = Math.max(1, Integer.getInteger("stacks", 100));
+        final long latency = Long.getLong("latency", 0L);
+        final int history = Integer.getInteger("history", 0);
+
+        final PropertiesConfiguration configuration = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        for (final String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("sync.")) {
+                configuration.setProperty(name, System.getProperty(name));
+            }
+        }
+        final ConfigurationManager config = ConfigurationManager.getInstance(configuration);
+
+        final StubRedmineServer redmine = new StubRedmineServer(latency,
+                config.CHILIPROJECT_PROJECT_ID, config.CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        final StubSpreadsheetServer spreadsheet = new StubSpreadsheetServer(latency,
+                configuration.getString("google.spreadsheet.document.key"),
+                configuration.getString("google.spreadsheet.worksheet.id"));
+        redmine.start();
+        spreadsheet.start();
+        try {
+            populate(redmine, spreadsheet, backlog, stacks, history);
+            configuration.setProperty("chiliproject.host", redmine.getUrl());
+            configuration.setProperty("google.spreadsheet.host", spreadsheet.getUrl());
+
+            final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(configuration,
+                    new RedmineManager(redmine.getUrl(), config.CHILIPROJECT_API_KEY),
+                    new SpreadsheetService("dudie-acrachilisync-benchmark"));
+
+            System.gc();
+            resetPeakHeapUsage();
+            final long redmineCalls = redmine.getRequestCount();
+            final long spreadsheetCalls = spreadsheet.getRequestCount();
+            final long start = System.nanoTime();
+            final int committed = syncer.startSynchronization();
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final long peakHeap = getPeakHeapUsage();
+
+            final int remaining = spreadsheet.getUnsyncedRowCount();
+            final int synced = backlog - remaining;
+            System.out.println(String.format("backlog=%d stacks=%d latency=%dms history=%d",
+                    backlog, stacks, latency, history));
+            System.out.println(String.format("%d reports committed, %d synchronized in %.2f s: "
+                    + "%.1f reports/s", committed, synced, seconds, synced / seconds));
+            System.out.println(String.format("Chiliproject requests per report: %.3f",
+                    (redmine.getRequestCount() - redmineCalls) / (double) Math.max(1, synced)));
+            System.out.println(String.format("spreadsheet requests per report: %.3f",
+                    (spreadsheet.getRequestCount() - spreadsheetCalls)
+                            / (double) Math.max(1, synced)));
+            System.out.println(String.format("peak heap usage: %.1f MB", peakHeap / 1048576.0));
+            System.out.println(String.format("issues: %d", redmine.getIssueCount()));
+            if (remaining > 0) {
+                LOGGER.warn("{} reports remain unsynchronized", remaining);
+            }
+        } finally {
+            spreadsheet.stop();
+            redmine.stop();
+        }
+    }
+
+    /**
+     * Fills the spreadsheet with the reports to synchronize and creates the existing issues.
+     * 
+     * @param pRedmine
+     *            the Chiliproject server
+     * @param pSpreadsheet
+     *            the spreadsheet server
+     * @param pBacklog
+     *            the number of reports
+     * @param pStacks
+     *            the number of distinct stacktraces
+     * @param pHistory
+     *            the number of occurrences listed by the existing issues, 0 for no existing issue
+     */
+    private static void populate(final StubRedmineServer pRedmine,
+            final StubSpreadsheetServer pSpreadsheet, final int pBacklog, final int pStacks,
+            final int pHistory) {
+
+        final String[] stacktraces = new String[pStacks];
+        for (int s = 0; s < pStacks; s++) {
+            stacktraces[s] = BenchmarkData.STACKTRACE.replace("StationActivity.java:85",
+                    "StationActivity.java:" + (s + 1));
+            if (pHistory > 0) {
+                final IssueDescriptionBuilder description = new IssueDescriptionBuilder(
+                        stacktraces[s]);
+                for (int i = 0; i < pHistory; i++) {
+                    description.addOccurrence(BenchmarkData.createOccurrence(pBacklog + s
+                            * pHistory + i));
+                }
+                pRedmine.addIssue(MD5Utils.toMD5hash(stacktraces[s].trim()),
+                        "java.lang.NullPointerException", description.build());
+            }
+        }
+
+        for (int i = 0; i < pBacklog; i++) {
+            final Map<AcraReportHeader, String> row = new EnumMap<AcraReportHeader, String>(
+                    AcraReportHeader.class);
+            for (final AcraReportHeader column : AcraReportHeader.values()) {
+                row.put(column, column.name());
+            }
+            row.put(AcraReportHeader.REPORT_ID, BenchmarkData.getReportId(i));
+            row.put(AcraReportHeader.STACK_TRACE, stacktraces[i % pStacks]);
+            row.put(AcraReportHeader.STACK_TRACE_MD5, "");
+            row.put(AcraReportHeader.ANDROID_VERSION, "2.3.3");
+            row.put(AcraReportHeader.APP_VERSION_CODE, String.valueOf(i % 20));
+            row.put(AcraReportHeader.APP_VERSION_NAME, "0.3." + i % 20);
+            row.put(AcraReportHeader.USER_APP_START_DATE, "2011-11-06T04:59:21.000+01:00");
+            row.put(AcraReportHeader.USER_CRASH_DATE, "2011-11-06T05:01:39.000+01:00");
+            pSpreadsheet.addRow(row);
+        }
+    }
+
+    /**
+     * Resets the peak usage of the heap memory pools.
+     */
+    private static void resetPeakHeapUsage() {
+
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (MemoryType.HEAP.equals(pool.getType())) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Gets the peak heap usage since the last {@link #resetPeakHeapUsage() reset}.
+     * 
+     * @return the sum of the peak usage of the heap memory pools, in bytes
+     */
+    private static long getPeakHeapUsage() {
+
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (MemoryType.HEAP.equals(pool.getType())) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -18,8 +18,16 @@
 package fr.dudie.acrachilisync;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.ParseException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.redmine.ta.AuthenticationException;
@@ -30,7 +38,11 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gdata.util.ServiceException;
 
+import fr.dudie.acrachilisync.utils.SyncMetrics;
+
 /**
+ * Runs a synchronization, or synchronizations in a loop with the <code>--daemon</code> option.
+ * 
  * @author Jérémie Huchet
  */
 public final class AcraChiliSync {
@@ -38,8 +50,28 @@ public final class AcraChiliSync {
     /** The event logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(AcraChiliSync.class);
 
+    /** The default configuration file. */
+    private static final String DEFAULT_CONFIGURATION = "acrachilisync.properties";
+
+    /** The default delay between two synchronizations in daemon mode, in seconds. */
+    private static final String DEFAULT_INTERVAL = "10";
+
+    /** The default maximum delay between two synchronizations in daemon mode, in seconds. */
+    private static final String DEFAULT_MAX_INTERVAL = "300";
+
+    /** The JMX name of the synchronization metrics. */
+    private static final String METRICS_MBEAN_NAME = "fr.dudie.acrachilisync:type=SyncMetrics";
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private AcraChiliSync() {
+
+    }
+
     /**
      * @param args
+     *            the command line arguments, <code>--help</code> to list them
      * @throws RedmineException
      * @throws NotFoundException
      * @throws AuthenticationException
@@ -52,8 +84,105 @@ public final class AcraChiliSync {
             AuthenticationException, NotFoundException, RedmineException, ParseException,
             ConfigurationException {
 
-        final PropertiesConfiguration conf = new PropertiesConfiguration("acrachilisync.properties");
+        final Options options = new Options();
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("c", "config", true, "the configuration file (defaults to "
+                + DEFAULT_CONFIGURATION + ")");
+        options.addOption("d", "daemon", false, "keep synchronizing until the process is stopped");
+        options.addOption("i", "interval", true, "daemon mode: seconds between two "
+                + "synchronizations committing reports (defaults to " + DEFAULT_INTERVAL + ")");
+        options.addOption("m", "max-interval", true, "daemon mode: maximum seconds between two "
+                + "synchronizations when idle (defaults to " + DEFAULT_MAX_INTERVAL + ")");
+        options.addOption("p", "metrics-port", true,
+                "daemon mode: serve the metrics in the Prometheus text format on this port");
+
+        final CommandLine cmd;
+        final long interval;
+        final long maxInterval;
+        final int metricsPort;
+        try {
+            cmd = new GnuParser().parse(options, args);
+            interval = Long.parseLong(cmd.getOptionValue("i", DEFAULT_INTERVAL)) * 1000;
+            maxInterval = Long.parseLong(cmd.getOptionValue("m", DEFAULT_MAX_INTERVAL)) * 1000;
+            metricsPort = Integer.parseInt(cmd.getOptionValue("p", "0"));
+        } catch (final org.apache.commons.cli.ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("acrachilisync", options);
+            System.exit(1);
+            return;
+        } catch (final NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            new HelpFormatter().printHelp("acrachilisync", options);
+            System.exit(1);
+            return;
+        }
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("acrachilisync", options);
+            return;
+        }
+
+        final PropertiesConfiguration conf = new PropertiesConfiguration(cmd.getOptionValue("c",
+                DEFAULT_CONFIGURATION));
         final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(conf);
-        syncer.startSynchronization();
+        if (cmd.hasOption("d")) {
+            registerMBean(syncer.getMetrics());
+            MetricsHttpServer metricsServer = null;
+            if (metricsPort > 0) {
+                metricsServer = new MetricsHttpServer(metricsPort, syncer.getMetrics());
+                metricsServer.start();
+            }
+            try {
+                runDaemon(new SyncDaemon(syncer, interval, maxInterval));
+            } finally {
+                if (null != metricsServer) {
+                    metricsServer.stop();
+                }
+            }
+        } else {
+            syncer.startSynchronization();
+        }
+    }
+
+    /**
+     * Exposes the synchronization metrics through JMX.
+     * 
+     * @param pMetrics
+     *            the metrics
+     */
+    private static void registerMBean(final SyncMetrics pMetrics) {
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(pMetrics,
+                    new ObjectName(METRICS_MBEAN_NAME));
+        } catch (final JMException e) {
+            LOGGER.warn("Unable to register the synchronization metrics MBean", e);
+        }
+    }
+
+    /**
+     * Runs the daemon in the current thread, stops it when the JVM shuts down and waits for the
+     * running synchronization to complete.
+     * 
+     * @param pDaemon
+     *            the daemon
+     */
+    private static void runDaemon(final SyncDaemon pDaemon) {
+
+        final Thread daemonThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread("acrachilisync-shutdown") {
+
+            @Override
+            public void run() {
+
+                LOGGER.info("Stopping the synchronization daemon");
+                pDaemon.stop();
+                try {
+                    daemonThread.join();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        pDaemon.run();
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import fr.dudie.acrachilisync.utils.SyncMetrics;
+
+/**
+ * Serves the synchronization metrics in the Prometheus text exposition format on
+ * <code>/metrics</code>.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class MetricsHttpServer {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    /** The content type of the Prometheus text exposition format. */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The HTTP server. */
+    private final HttpServer server;
+
+    /**
+     * Creates the server, call {@link #start()} to serve the metrics.
+     * 
+     * @param pPort
+     *            the port to listen to
+     * @param pMetrics
+     *            the metrics to serve
+     * @throws IOException
+     *             unable to bind the port
+     */
+    public MetricsHttpServer(final int pPort, final SyncMetrics pMetrics) throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(pPort), 0);
+        server.createContext("/metrics", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange pExchange) throws IOException {
+
+                final byte[] body = pMetrics.getPrometheusText().getBytes("UTF-8");
+                pExchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                pExchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = pExchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts serving the metrics in a background thread.
+     */
+    public void start() {
+
+        server.start();
+        LOGGER.info("Serving metrics on http://{}/metrics", server.getAddress());
+    }
+
+    /**
+     * Stops serving the metrics.
+     */
+    public void stop() {
+
+        server.stop(0);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs synchronizations in a loop with the same {@link AcraToChiliprojectSyncer}, so the
+ * authenticated clients and the parsed issue descriptions are reused from a cycle to the next.
+ * <p>
+ * A cycle starts <code>minInterval</code> milliseconds after the end of a cycle which committed
+ * reports. Each idle or failed cycle doubles the delay, up to <code>maxInterval</code>
+ * milliseconds: a cycle only reading reports which keep failing is idle, so these reports don't
+ * keep the daemon polling at <code>minInterval</code>.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SyncDaemon implements Runnable {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncDaemon.class);
+
+    /** The synchronizer. */
+    private final AcraToChiliprojectSyncer syncer;
+
+    /** The delay between two cycles when reports are committed, in milliseconds. */
+    private final long minInterval;
+
+    /** The maximum delay between two cycles, in milliseconds. */
+    private final long maxInterval;
+
+    /** Guards {@link #running}, notified when the daemon is stopped. */
+    private final Object lock = new Object();
+
+    /** False once the daemon has been stopped. */
+    private boolean running = true;
+
+    /**
+     * Constructor.
+     * 
+     * @param pSyncer
+     *            the synchronizer
+     * @param pMinInterval
+     *            the delay between two cycles when reports are committed, in milliseconds
+     * @param pMaxInterval
+     *            the maximum delay between two cycles, in milliseconds
+     */
+    public SyncDaemon(final AcraToChiliprojectSyncer pSyncer, final long pMinInterval,
+            final long pMaxInterval) {
+
+        syncer = pSyncer;
+        minInterval = Math.max(1, pMinInterval);
+        maxInterval = Math.max(minInterval, pMaxInterval);
+    }
+
+    /**
+     * Runs synchronization cycles until the daemon is {@link #stop() stopped}.
+     * 
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+
+        LOGGER.info("Synchronization daemon started: polling every {} to {} ms", minInterval,
+                maxInterval);
+        long delay = minInterval;
+        while (isRunning()) {
+            try {
+                final int committed = syncer.startSynchronization();
+                if (committed > 0) {
+                    LOGGER.info("{} reports synchronized", committed);
+                    delay = minInterval;
+                } else {
+                    delay = nextDelay(delay);
+                }
+            } catch (final Exception e) {
+                delay = nextDelay(delay);
+                LOGGER.error("Synchronization failed, next attempt in " + delay + " ms", e);
+            }
+            await(delay);
+        }
+        LOGGER.info("Synchronization daemon stopped");
+    }
+
+    /**
+     * Stops the daemon: the running cycle completes, then {@link #run()} returns.
+     */
+    public void stop() {
+
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Gets whether or not the daemon is running.
+     * 
+     * @return false once the daemon has been stopped
+     */
+    private boolean isRunning() {
+
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Computes the delay following an idle or failed cycle.
+     * 
+     * @param pDelay
+     *            the current delay
+     * @return the doubled delay, at most {@link #maxInterval}
+     */
+    private long nextDelay(final long pDelay) {
+
+        return Math.min(maxInterval, pDelay * 2);
+    }
+
+    /**
+     * Waits for the given delay or for the daemon to be stopped.
+     * 
+     * @param pDelay
+     *            the delay in milliseconds
+     */
+    private void await(final long pDelay) {
+
+        final long end = System.currentTimeMillis() + pDelay;
+        synchronized (lock) {
+            long remaining = pDelay;
+            while (running && remaining > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                    return;
+                }
+                remaining = end - System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -18,14 +18,24 @@
 package fr.dudie.acrachilisync;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.configuration.Configuration;
@@ -39,19 +49,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gdata.client.spreadsheet.SpreadsheetService;
-import com.google.gdata.data.spreadsheet.ListEntry;
-import com.google.gdata.data.spreadsheet.ListFeed;
 import com.google.gdata.util.ServiceException;
 
-import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
 import fr.dudie.acrachilisync.exception.SynchronizationException;
 import fr.dudie.acrachilisync.handler.AcraReportHandler;
 import fr.dudie.acrachilisync.handler.AcraToChiliprojectSyncHandler;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
 import fr.dudie.acrachilisync.model.EditableAcraReport;
 import fr.dudie.acrachilisync.model.SyncStatus;
+import fr.dudie.acrachilisync.utils.ChiliprojectClient;
 import fr.dudie.acrachilisync.utils.ChiliprojectUtils;
 import fr.dudie.acrachilisync.utils.ConfigurationManager;
 import fr.dudie.acrachilisync.utils.CreationDateIssueComparator;
+import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
+import fr.dudie.acrachilisync.utils.IssueIndex;
+import fr.dudie.acrachilisync.utils.LookupPlan;
+import fr.dudie.acrachilisync.utils.ParsedIssueCache;
+import fr.dudie.acrachilisync.utils.RemoteCallGuard;
+import fr.dudie.acrachilisync.utils.SpreadsheetBatchCommitter;
+import fr.dudie.acrachilisync.utils.SyncMetrics;
+import fr.dudie.acrachilisync.utils.SyncStateStore;
+import fr.dudie.acrachilisync.utils.UnsyncedReportReader;
 
 /**
  * Main service to executes a synchronization.
@@ -66,28 +84,77 @@ public final class AcraToChiliprojectSyncer {
     /** The application name used during Google authentication. */
     private static final String APP_NAME = "dudie-acrachilisync-0.2";
 
+    /** The default Google spreadsheet feeds host. */
+    public static final String SPREADSHEET_HOST = "https://spreadsheets.google.com";
+
     /**
-     * A format string to build a worksheet list feed URL. You must provide two string arguments to
-     * format it:
+     * A format string to build a worksheet list feed URL. You must provide three string arguments
+     * to format it:
      * <ol>
+     * <li>the spreadsheet host, such as {@link #SPREADSHEET_HOST}</li>
      * <li>the document key</li>
      * <li>the worksheet id</li>
      * </ol>
      */
-    public static final String WORKSHEET_URL_FORMAT = "https://spreadsheets.google.com"
+    public static final String WORKSHEET_URL_FORMAT = "%s"
             + "/feeds/list/%s/%s/private/full?sq=stacktracemd5%%3D%%3D%%22%%22";
 
+    /**
+     * A format string to build a worksheet cell feed URL. You must provide three string arguments
+     * to format it:
+     * <ol>
+     * <li>the spreadsheet host, such as {@link #SPREADSHEET_HOST}</li>
+     * <li>the document key</li>
+     * <li>the worksheet id</li>
+     * </ol>
+     */
+    public static final String CELL_FEED_URL_FORMAT = "%s/feeds/cells/%s/%s/private/full";
+
+    /**
+     * The report columns read during the synchronization: the stacktrace and the fields of an
+     * {@link fr.dudie.acrachilisync.model.ErrorOccurrence}.
+     */
+    private static final Set<AcraReportHeader> REQUIRED_COLUMNS = EnumSet.of(
+            AcraReportHeader.REPORT_ID, AcraReportHeader.STACK_TRACE,
+            AcraReportHeader.ANDROID_VERSION, AcraReportHeader.APP_VERSION_CODE,
+            AcraReportHeader.APP_VERSION_NAME, AcraReportHeader.PHONE_MODEL,
+            AcraReportHeader.BRAND, AcraReportHeader.PRODUCT);
+
     private final ConfigurationManager config;
 
     /** The Chiliproject client. */
-    private final RedmineManager redmineClient;
+    private final ChiliprojectClient redmineClient;
 
     /** The Spreadsheet client. */
     private final SpreadsheetService client;
 
+    /** Guards the calls to the Spreadsheet client. */
+    private final RemoteCallGuard spreadsheetGuard;
+
     /** The URL to access the worksheet containing Acra reports. */
     private final URL listFeedUrl;
 
+    /**
+     * Commits the stacktrace MD5 hashes with batch requests, null if disabled: each report is then
+     * committed through its list entry, the projected reports fetch it again by its link.
+     */
+    private final SpreadsheetBatchCommitter batchCommitter;
+
+    /**
+     * The parsed issue descriptions, checked against the issue update date, cleared at the end of
+     * each synchronization.
+     */
+    private final ParsedIssueCache issueCache;
+
+    /** The metrics of the synchronizations run by this synchronizer. */
+    private final SyncMetrics metrics;
+
+    /**
+     * The number of stacktraces synchronized in parallel: at least the maximum number of
+     * concurrent issue writes when they are limited adaptively, so the limit can be reached.
+     */
+    private final int concurrency;
+
     /** The list of report handler to invoke during synchronization. */
     private final List<AcraReportHandler> reportHandlers;
 
@@ -102,13 +169,68 @@ public final class AcraToChiliprojectSyncer {
     public AcraToChiliprojectSyncer(final Configuration pConfiguration)
             throws com.google.gdata.util.AuthenticationException {
 
-        config = ConfigurationManager.getInstance(pConfiguration);
+        this(ConfigurationManager.getInstance(pConfiguration));
+    }
 
-        redmineClient = new RedmineManager(config.CHILIPROJECT_HOST.toString(),
-                config.CHILIPROJECT_API_KEY);
+    /**
+     * Constructor.
+     * <p>
+     * The given clients are used as is: they must be authenticated if their server requires it.
+     * 
+     * @param pConfiguration
+     *            the configuration
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pSpreadsheetClient
+     *            the Spreadsheet client
+     */
+    public AcraToChiliprojectSyncer(final Configuration pConfiguration,
+            final RedmineManager pRedmineClient, final SpreadsheetService pSpreadsheetClient) {
 
-        client = new SpreadsheetService(APP_NAME);
-        client.setUserCredentials(config.GOOGLE_LOGIN, config.GOOGLE_PASSWORD);
+        this(ConfigurationManager.getInstance(pConfiguration), pRedmineClient, pSpreadsheetClient);
+    }
+
+    /**
+     * Constructor, creates the clients from the configuration.
+     * 
+     * @param pConfig
+     *            the loaded configuration
+     * @throws com.google.gdata.util.AuthenticationException
+     *             invalid Google credentials
+     */
+    private AcraToChiliprojectSyncer(final ConfigurationManager pConfig)
+            throws com.google.gdata.util.AuthenticationException {
+
+        this(pConfig, new RedmineManager(pConfig.CHILIPROJECT_HOST.toString(),
+                pConfig.CHILIPROJECT_API_KEY), createSpreadsheetClient(pConfig));
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pConfig
+     *            the loaded configuration
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pSpreadsheetClient
+     *            the Spreadsheet client
+     */
+    private AcraToChiliprojectSyncer(final ConfigurationManager pConfig,
+            final RedmineManager pRedmineClient, final SpreadsheetService pSpreadsheetClient) {
+
+        config = pConfig;
+        metrics = new SyncMetrics();
+        redmineClient = new ChiliprojectClient(pRedmineClient, config, new RemoteCallGuard(
+                "Chiliproject", config.CHILIPROJECT_RATE_LIMIT, config, metrics),
+                ChiliprojectClient.createWriteLimiter(config, metrics));
+        if (config.CHILIPROJECT_WRITE_LATENCY_TARGET > 0) {
+            concurrency = Math.max(config.SYNC_CONCURRENCY, config.CHILIPROJECT_MAX_CONNECTIONS);
+        } else {
+            concurrency = config.SYNC_CONCURRENCY;
+        }
+        client = pSpreadsheetClient;
+        spreadsheetGuard = new RemoteCallGuard("Google spreadsheet",
+                config.SPREADSHEET_RATE_LIMIT, config, metrics);
 
         listFeedUrl = config.SPREADSHEET_FEED_URL;
 
@@ -116,12 +238,50 @@ public final class AcraToChiliprojectSyncer {
             LOGGER.info("spreadsheet list feed URL: {}", listFeedUrl);
         }
 
+        if (config.SYNC_COMMIT_BATCH_SIZE > 1) {
+            batchCommitter = new SpreadsheetBatchCommitter(client,
+                    config.SPREADSHEET_CELL_FEED_URL, config.SYNC_COMMIT_BATCH_SIZE);
+        } else {
+            batchCommitter = null;
+        }
+
+        issueCache = new ParsedIssueCache(metrics);
         reportHandlers = new ArrayList<AcraReportHandler>();
-        reportHandlers.add(new AcraToChiliprojectSyncHandler(redmineClient));
+        reportHandlers.add(new AcraToChiliprojectSyncHandler(redmineClient, issueCache, metrics));
+    }
+
+    /**
+     * Creates a Spreadsheet client authenticated with the configured Google account.
+     * 
+     * @param pConfig
+     *            the configuration
+     * @return the Spreadsheet client
+     * @throws com.google.gdata.util.AuthenticationException
+     *             invalid Google credentials
+     */
+    private static SpreadsheetService createSpreadsheetClient(final ConfigurationManager pConfig)
+            throws com.google.gdata.util.AuthenticationException {
+
+        final SpreadsheetService client = new SpreadsheetService(APP_NAME);
+        client.setUserCredentials(pConfig.GOOGLE_LOGIN, pConfig.GOOGLE_PASSWORD);
+        return client;
+    }
+
+    /**
+     * Gets the metrics of the synchronizations run by this synchronizer.
+     * 
+     * @return the metrics
+     */
+    public SyncMetrics getMetrics() {
+
+        return metrics;
     }
 
     /**
      * Adds a report handler.
+     * <p>
+     * The reports given to the handler only retain the columns required by the synchronization and
+     * the ones listed in {@link ConfigurationManager#SYNC_REPORT_COLUMNS}.
      * 
      * @param pHandler
      *            the report handler to add
@@ -143,129 +303,597 @@ public final class AcraToChiliprojectSyncer {
     }
 
     /**
-     * Gets unsynchronized Acra reports from the Google spreadsheet.
+     * Starts the synchronization between Acra reports Google spreadsheet and Chiliproject
+     * bugtracker.
+     * <p>
+     * The unsynchronized reports are read by pages of {@link ConfigurationManager#SYNC_PAGE_SIZE}
+     * rows. Each page is synchronized and committed before the next one is read, so the memory
+     * usage doesn't depend on the number of reports to synchronize. The issues looked up are
+     * indexed for the whole synchronization, so the issue of a stacktrace spanning several pages
+     * is looked up once. It is however updated once per page: the reports of a page are only
+     * committed once their issue is written. Reading all the rows at once, the default, writes
+     * each issue once per synchronization.
+     * <p>
+     * Each issue description is parsed once until the issue is updated: the parsed descriptions
+     * are kept until the end of the synchronization, so a synchronizer run for every cycle of a
+     * daemon doesn't keep the descriptions of all the issues it met.
+     * <p>
+     * The way to look up the issues of the stacktraces is chosen once the first page is read,
+     * unless {@link ConfigurationManager#SYNC_LOOKUP_PLAN} forces it: the {@link LookupPlan}
+     * sending the fewest requests is predicted from the number of rows of the spreadsheet, the
+     * proportion of distinct stacktraces in the first page and the number of issues of the
+     * project.
+     * <p>
+     * When {@link ConfigurationManager#SYNC_STATE_DIR} is set, the reports synchronized with the
+     * Chiliproject server are recorded in a {@link SyncStateStore} until their stacktrace MD5 hash
+     * is committed: the reports a previous synchronization failed to commit are committed again
+     * without querying the Chiliproject server.
+     * <p>
+     * The calls to the Chiliproject server and to the spreadsheet are rate limited, retried on
+     * transient errors and paused while the server keeps failing, see {@link RemoteCallGuard}.
+     * <p>
+     * A summary of the {@link #getMetrics() metrics} of the synchronization is logged when it
+     * completes.
      * 
-     * @return the list of rows of the Acra reports spreadsheet not already synchronized
+     * @return the number of reports committed to the spreadsheet: the reports which failed to be
+     *         synchronized or committed are left in the spreadsheet and aren't counted
      * @throws IOException
      * @throws ServiceException
+     * @throws RedmineException
+     * @throws NotFoundException
+     * @throws AuthenticationException
+     * @throws ParseException
      */
-    private List<EditableAcraReport> retrieveUnsyncedElements() throws IOException,
-            ServiceException {
+    public int startSynchronization() throws IOException, ServiceException,
+            AuthenticationException, NotFoundException, RedmineException, ParseException {
 
-        final ListFeed listFeed = client.getFeed(listFeedUrl, ListFeed.class);
-        final List<EditableAcraReport> reports = new ArrayList<EditableAcraReport>();
-        for (final ListEntry listEntry : listFeed.getEntries()) {
-            try {
-                reports.add(new EditableAcraReport(listEntry));
-            } catch (final MalformedSpreadsheetLineException e) {
-                // log the error message
-                LOGGER.error(e.getMessage());
-            }
+        final UnsyncedReportReader reader = new UnsyncedReportReader(client, listFeedUrl,
+                config.SYNC_PAGE_SIZE, getRetainedColumns(), config.SYNC_FINGERPRINT);
+        IssueIndex index = null;
+        LookupPlan plan = null;
+        int count = 0;
+        final Map<String, long[]> before = metrics.snapshot();
+        metrics.increment(SyncMetrics.SYNCHRONIZATIONS, 1);
+        if (null != batchCommitter) {
+            batchCommitter.reset();
         }
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("found {} reports to sync", CollectionUtils.size(reports));
-            if (LOGGER.isTraceEnabled()) {
-                for (final EditableAcraReport report : reports) {
-                    LOGGER.trace("reportId={} stacktraceMd5={}", report.getId(),
-                            report.getStacktraceMD5());
+        final SyncStateStore state;
+        if (null == config.SYNC_STATE_DIR) {
+            state = null;
+        } else {
+            state = new SyncStateStore(config.SYNC_STATE_DIR);
+        }
+        try {
+            while (reader.hasNextPage()) {
+
+                // retrieve new issues
+                final long start = metrics.start();
+                final List<EditableAcraReport> listReports = callSpreadsheet(
+                        new Callable<List<EditableAcraReport>>() {
+
+                            @Override
+                            public List<EditableAcraReport> call() throws Exception {
+
+                                return reader.nextPage();
+                            }
+                        });
+                metrics.stop(SyncMetrics.SPREADSHEET_READ, start);
+                metrics.increment(SyncMetrics.REPORTS_READ, listReports.size());
+                final List<EditableAcraReport> unsynced = skipSynchronized(listReports, state);
+                metrics.increment(SyncMetrics.REPORTS_SKIPPED,
+                        listReports.size() - unsynced.size());
+
+                // update Chiliproject: one issue creation or update per stacktrace
+                final Map<String, List<EditableAcraReport>> groups = groupByStacktrace(unsynced);
+                if (null == plan && !groups.isEmpty()) {
+                    plan = chooseLookupPlan(Math.max(reader.getTotalRows(), unsynced.size()),
+                            unsynced.size(), groups.size());
                 }
+
+                // load all project issues at once, or index the issues looked up by each page
+                if (null == index && plan == LookupPlan.PREFETCH) {
+                    index = IssueIndex.prefetch(redmineClient, config.CHILIPROJECT_PROJECT_ID,
+                            config.CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+                } else if (null == index && !groups.isEmpty()) {
+                    index = IssueIndex.create();
+                }
+
+                // look up the issues of the stacktraces of the page, several per request
+                if (plan == LookupPlan.BATCH && !groups.isEmpty()) {
+                    final long lookupStart = metrics.start();
+                    try {
+                        index.lookup(redmineClient, config.CHILIPROJECT_PROJECT_ID,
+                                config.CHILIPROJECT_STACKTRACE_MD5_CF_ID, groups.keySet(),
+                                getLookupChunkSize());
+                    } finally {
+                        metrics.stop(SyncMetrics.ISSUE_LOOKUP, lookupStart);
+                    }
+                }
+                synchronizeStacktraces(groups.values(), index);
+
+                if (!reader.hasNextPage()) {
+                    finishSynchronization(listReports);
+                }
+
+                // update/set stack_trace_md5 cells, committed rows leave the feed
+                if (null != state) {
+                    state.recordSynchronized(listReports);
+                }
+                final List<EditableAcraReport> committed = commitStacktraceMD5(listReports);
+                if (null != state) {
+                    state.recordCommitted(committed);
+                }
+                count += committed.size();
+                reader.skip(listReports.size() - committed.size());
+            }
+        } finally {
+            issueCache.clear();
+            if (null != state) {
+                state.close();
             }
         }
-        return reports;
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("synchronization completed: {}", metrics.summarySince(before));
+        }
+        return count;
     }
 
     /**
-     * Starts the synchronization between Acra reports Google spreadsheet and Chiliproject
-     * bugtracker.
+     * Calls the Spreadsheet client through the {@link #spreadsheetGuard}. The call must be
+     * idempotent: the spreadsheet reads and the stacktrace MD5 hash commits are.
      * 
+     * @param pCall
+     *            the call
+     * @return the result of the call
      * @throws IOException
      * @throws ServiceException
-     * @throws RedmineException
-     * @throws NotFoundException
+     */
+    private <T> T callSpreadsheet(final Callable<T> pCall) throws IOException, ServiceException {
+
+        try {
+            return spreadsheetGuard.call(pCall, true);
+        } catch (final IOException e) {
+            throw e;
+        } catch (final ServiceException e) {
+            throw e;
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IOException("Google spreadsheet call failed", e);
+        }
+    }
+
+    /**
+     * Chooses the way to look up the issues of the stacktraces, unless it is forced by the
+     * configuration, and logs the plan with its predicted number of requests.
+     * <p>
+     * The number of issues of the project is counted with a single request. When it can't be
+     * counted, the issues aren't prefetched.
+     * 
+     * @param pReports
+     *            the number of unsynchronized reports of the spreadsheet
+     * @param pPageReports
+     *            the number of unsynchronized reports of the first page
+     * @param pPageStacktraces
+     *            the number of distinct stacktraces of the first page
+     * @return the lookup plan
      * @throws AuthenticationException
-     * @throws ParseException
+     * @throws NotFoundException
+     * @throws RedmineException
      */
-    public void startSynchronization() throws IOException, ServiceException,
-            AuthenticationException, NotFoundException, RedmineException, ParseException {
+    private LookupPlan chooseLookupPlan(final int pReports, final int pPageReports,
+            final int pPageStacktraces) throws AuthenticationException, NotFoundException,
+            RedmineException {
+
+        final int stacktraces = LookupPlan.estimateStacktraces(pReports, pPageReports,
+                pPageStacktraces);
+        final int pages = LookupPlan.getPages(pReports, config.SYNC_PAGE_SIZE);
+        final int chunkSize = getLookupChunkSize();
+        LookupPlan plan = config.SYNC_LOOKUP_PLAN;
+        int issues = -1;
+        if (null == plan) {
+            final long start = metrics.start();
+            try {
+                issues = redmineClient.countIssues(Collections.singletonMap("project_id",
+                        String.valueOf(config.CHILIPROJECT_PROJECT_ID)));
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to count the issues of the project, they won't be prefetched: "
+                        + e.getMessage());
+            } finally {
+                metrics.stop(SyncMetrics.ISSUE_LOOKUP, start);
+            }
+            plan = LookupPlan.choose(pReports, stacktraces, config.SYNC_PAGE_SIZE,
+                    issues < 0 ? Integer.MAX_VALUE : issues, config.SYNC_LOOKUP_BATCH_SIZE);
+        }
 
-        // retrieve new issues
-        final List<EditableAcraReport> listReports = retrieveUnsyncedElements();
+        if (LOGGER.isInfoEnabled()) {
+            final String predicted;
+            if (plan == LookupPlan.PREFETCH && issues < 0) {
+                predicted = "unknown";
+            } else {
+                predicted = String.valueOf(plan.predictRequests(stacktraces, pages, issues,
+                        chunkSize));
+            }
+            LOGGER.info("lookup plan {}{}: {} requests predicted for ~{} stacktraces of {} reports "
+                    + "and {} issues", new Object[] { plan,
+                    null == config.SYNC_LOOKUP_PLAN ? "" : " (forced)", predicted, stacktraces,
+                    pReports, issues < 0 ? "?" : issues });
+        }
+        return plan;
+    }
 
-        // update Chiliproject
-        for (final EditableAcraReport report : listReports) {
+    /**
+     * Gets the maximum number of stacktraces queried by a request of the {@link LookupPlan#BATCH}
+     * plan.
+     * 
+     * @return {@link ConfigurationManager#SYNC_LOOKUP_BATCH_SIZE} if it is greater than 1, else
+     *         {@link LookupPlan#DEFAULT_CHUNK_SIZE}
+     */
+    private int getLookupChunkSize() {
+
+        if (config.SYNC_LOOKUP_BATCH_SIZE > 1) {
+            return config.SYNC_LOOKUP_BATCH_SIZE;
+        }
+        return LookupPlan.DEFAULT_CHUNK_SIZE;
+    }
 
-            final Issue issue = getIssueForStack(report.getStacktraceMD5());
+    /**
+     * Marks the reports recorded as synchronized by a previous synchronization as successfully
+     * synchronized.
+     * 
+     * @param pReports
+     *            the reports
+     * @param pState
+     *            the synchronization state, may be null
+     * @return the reports to synchronize with the Chiliproject server
+     */
+    private static List<EditableAcraReport> skipSynchronized(
+            final List<EditableAcraReport> pReports, final SyncStateStore pState) {
 
-            try {
-                if (null == issue) {
-                    LOGGER.debug("Got a new bugreport: reportId={}", report.getId());
-                    for (final AcraReportHandler handler : reportHandlers) {
-                        handler.onNewReport(report);
-                    }
-                } else if (ChiliprojectUtils.isSynchronized(report, issue)) {
-                    LOGGER.debug("Got a bugreport already synchronized: reportId={}",
-                            report.getId());
-                    for (final AcraReportHandler handler : reportHandlers) {
-                        handler.onKnownIssueAlreadySynchronized(report, issue);
-                    }
-                } else {
-                    LOGGER.debug(
-                            "Got a new bugreport with a stacktrace similar to an existing ticket: reportId={}",
-                            report.getId());
-                    for (final AcraReportHandler handler : reportHandlers) {
-                        handler.onKnownIssueNotSynchronized(report, issue);
-                    }
-                }
-            } catch (final SynchronizationException e) {
-                report.mergeSyncStatus(SyncStatus.FAILURE);
-                LOGGER.error("Unable to synchronize ACRA report " + report.getId(), e);
+        if (null == pState) {
+            return pReports;
+        }
+        final List<EditableAcraReport> unsynced = new ArrayList<EditableAcraReport>(
+                pReports.size());
+        for (final EditableAcraReport report : pReports) {
+            if (pState.isSynchronized(report.getId())) {
+                report.setIssueId(pState.getIssueId(report.getId()));
+                report.setStatus(SyncStatus.SUCCESS);
+            } else {
+                unsynced.add(report);
             }
         }
+        if (LOGGER.isDebugEnabled() && unsynced.size() < pReports.size()) {
+            LOGGER.debug("{} reports already synchronized, waiting for their stacktrace MD5 commit",
+                    pReports.size() - unsynced.size());
+        }
+        return unsynced;
+    }
+
+    /**
+     * Gets the report columns to retain in memory during the synchronization.
+     * 
+     * @return the {@link #REQUIRED_COLUMNS} and the
+     *         {@link ConfigurationManager#SYNC_REPORT_COLUMNS additional columns}, null to retain
+     *         all columns
+     */
+    private Set<AcraReportHeader> getRetainedColumns() {
+
+        if (null == config.SYNC_REPORT_COLUMNS) {
+            return null;
+        }
+        final Set<AcraReportHeader> columns = EnumSet.copyOf(REQUIRED_COLUMNS);
+        columns.addAll(config.SYNC_REPORT_COLUMNS);
+        return columns;
+    }
+
+    /**
+     * Notifies the report handlers all the reports have been synchronized.
+     * 
+     * @param pLastReports
+     *            the reports of the last page, not committed yet
+     */
+    private void finishSynchronization(final List<EditableAcraReport> pLastReports) {
 
         try {
             for (final AcraReportHandler handler : reportHandlers) {
                 handler.onFinishReceivingNewReports();
             }
         } catch (final SynchronizationException e) {
-            for (final EditableAcraReport report : listReports) {
+            for (final EditableAcraReport report : pLastReports) {
                 report.mergeSyncStatus(SyncStatus.FAILURE);
             }
             LOGGER.error("Unable to finalize ACRA report synchronization");
         }
+    }
 
-        // update/set stack_trace_md5 cells
-        for (final EditableAcraReport report : listReports) {
+    /**
+     * Updates the stacktrace MD5 hash of the successfully synchronized reports on the remote Google
+     * spreadsheet.
+     * 
+     * @param pReports
+     *            the reports
+     * @return the committed reports
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private List<EditableAcraReport> commitStacktraceMD5(final List<EditableAcraReport> pReports)
+            throws IOException, ServiceException {
+
+        final List<EditableAcraReport> succeeded = new ArrayList<EditableAcraReport>();
+        for (final EditableAcraReport report : pReports) {
             if (SyncStatus.SUCCESS.equals(report.getStatus())) {
-                report.commitStacktraceMD5();
+                succeeded.add(report);
+            }
+        }
+        final long start = metrics.start();
+        try {
+            if (null == batchCommitter) {
+                for (final EditableAcraReport report : succeeded) {
+                    callSpreadsheet(new Callable<Void>() {
+
+                        @Override
+                        public Void call() throws Exception {
+
+                            report.commitStacktraceMD5();
+                            return null;
+                        }
+                    });
+                }
+            } else {
+                callSpreadsheet(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+
+                        batchCommitter.commitStacktraceMD5(succeeded);
+                        return null;
+                    }
+                });
             }
+        } finally {
+            metrics.stop(SyncMetrics.MD5_COMMIT, start);
+        }
+        return succeeded;
+    }
+
+    /**
+     * Groups the given reports by stacktrace MD5 hash.
+     * 
+     * @param pReports
+     *            the reports
+     * @return the reports for each stacktrace MD5 hash, in the order of their first appearance
+     */
+    private static Map<String, List<EditableAcraReport>> groupByStacktrace(
+            final List<EditableAcraReport> pReports) {
+
+        final Map<String, List<EditableAcraReport>> groups = new LinkedHashMap<String, List<EditableAcraReport>>();
+        for (final EditableAcraReport report : pReports) {
+            List<EditableAcraReport> group = groups.get(report.getStacktraceMD5());
+            if (null == group) {
+                group = new ArrayList<EditableAcraReport>();
+                groups.put(report.getStacktraceMD5(), group);
+            }
+            group.add(report);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("found {} distinct stacktraces in {} reports", groups.size(),
+                    pReports.size());
+        }
+        return groups;
+    }
+
+    /**
+     * Synchronizes the given groups of reports with the Chiliproject server.
+     * <p>
+     * Up to {@link ConfigurationManager#SYNC_CONCURRENCY} groups are synchronized in parallel, or
+     * up to {@link ConfigurationManager#CHILIPROJECT_MAX_CONNECTIONS} groups when the issue writes
+     * are limited adaptively. The reports of a group share the same stacktrace so they are always
+     * handled by the same thread, one after the other: a Chiliproject issue is never updated by two
+     * threads at the same time.
+     * <p>
+     * The first error aborts the synchronization, as in sequential mode.
+     * 
+     * @param pGroups
+     *            the groups of reports, the reports of a group have the same stacktrace
+     * @param pIndex
+     *            the prefetched issues, may be null
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private void synchronizeStacktraces(final Collection<List<EditableAcraReport>> pGroups,
+            final IssueIndex pIndex) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        final int threads = Math.min(concurrency, pGroups.size());
+        if (threads <= 1) {
+            for (final List<EditableAcraReport> reports : pGroups) {
+                synchronizeStacktrace(reports, pIndex);
+            }
+            return;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("synchronizing {} stacktraces with {} threads", pGroups.size(), threads);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>(pGroups.size());
+            for (final List<EditableAcraReport> reports : pGroups) {
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+
+                        synchronizeStacktrace(reports, pIndex);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                waitFor(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for a stacktrace synchronization task to complete and rethrows its error.
+     * 
+     * @param pResult
+     *            the task result
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private static void waitFor(final Future<Void> pResult) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        try {
+            pResult.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while synchronizing ACRA reports");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof AuthenticationException) {
+                throw (AuthenticationException) cause;
+            } else if (cause instanceof NotFoundException) {
+                throw (NotFoundException) cause;
+            } else if (cause instanceof RedmineException) {
+                throw (RedmineException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("Unexpected synchronization error", cause);
+            }
+        }
+    }
+
+    /**
+     * Synchronizes a group of reports having the same stacktrace with the Chiliproject server.
+     * <p>
+     * The reports already listed in the related issue are skipped, the other ones are sent to the
+     * report handlers at once.
+     * <p>
+     * The issue given to the handlers is a copy owned by the calling thread: the index and the
+     * issue queries never hand the same instance to two workers. Once the handlers succeed, the
+     * updated issue replaces the indexed one.
+     * 
+     * @param pReports
+     *            the reports, all having the same stacktrace
+     * @param pIndex
+     *            the prefetched issues, may be null
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private void synchronizeStacktrace(final List<EditableAcraReport> pReports,
+            final IssueIndex pIndex) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        final String stacktraceMD5 = pReports.get(0).getStacktraceMD5();
+        final Issue issue = getIssueForStack(stacktraceMD5, pIndex);
+
+        try {
+            if (null == issue) {
+                LOGGER.debug("Got {} new bugreports: stacktraceMd5={}", pReports.size(),
+                        stacktraceMD5);
+                for (final AcraReportHandler handler : reportHandlers) {
+                    handler.onNewReports(pReports);
+                }
+                // the issue created for this stacktrace is unknown to the index
+                if (null != pIndex) {
+                    pIndex.invalidate(stacktraceMD5);
+                }
+            } else {
+                final IssueDescriptionReader description = issueCache.get(issue);
+                final List<EditableAcraReport> unsynced = new ArrayList<EditableAcraReport>();
+                for (final EditableAcraReport report : pReports) {
+                    if (ChiliprojectUtils.isSynchronized(report, description)) {
+                        LOGGER.debug("Got a bugreport already synchronized: reportId={}",
+                                report.getId());
+                        for (final AcraReportHandler handler : reportHandlers) {
+                            handler.onKnownIssueAlreadySynchronized(report, issue);
+                        }
+                    } else {
+                        unsynced.add(report);
+                    }
+                }
+                if (!unsynced.isEmpty()) {
+                    LOGGER.debug(
+                            "Got {} new bugreports with a stacktrace similar to an existing ticket: issueId={}",
+                            unsynced.size(), issue.getId());
+                    for (final AcraReportHandler handler : reportHandlers) {
+                        handler.onKnownIssueNotSynchronized(unsynced, issue);
+                    }
+                    // the next pages get a copy of the updated issue
+                    if (null != pIndex) {
+                        pIndex.put(stacktraceMD5, issue);
+                    }
+                }
+            }
+        } catch (final SynchronizationException e) {
+            for (final EditableAcraReport report : pReports) {
+                report.mergeSyncStatus(SyncStatus.FAILURE);
+            }
+            LOGGER.error("Unable to synchronize ACRA reports with stacktrace " + stacktraceMD5, e);
         }
     }
 
     /**
      * Search for the issue related to the given MD5 stacktrace hash.
+     * <p>
+     * The issue is resolved from the given index when it can, otherwise the Chiliproject server is
+     * queried.
      * 
      * @param pStacktraceMD5
      *            an MD5 stacktrace hash
+     * @param pIndex
+     *            the prefetched issues, may be null
      * @return the Chiliproject issue related to the given stacktrace or null if no issue found
      * @throws IOException
      * @throws AuthenticationException
      * @throws NotFoundException
      * @throws RedmineException
      */
-    private Issue getIssueForStack(final String pStacktraceMD5) throws IOException,
-            AuthenticationException, NotFoundException, RedmineException {
+    private Issue getIssueForStack(final String pStacktraceMD5, final IssueIndex pIndex)
+            throws IOException, AuthenticationException, NotFoundException, RedmineException {
 
-        final Map<String, String> parameters = new HashMap<String, String>();
-        parameters.put("project_id", String.valueOf(config.CHILIPROJECT_PROJECT_ID));
-        parameters.put(String.format("cf_%d", config.CHILIPROJECT_STACKTRACE_MD5_CF_ID),
-                pStacktraceMD5);
-        final List<Issue> results = redmineClient.getIssues(parameters);
+        final List<Issue> results;
+        if (null != pIndex && pIndex.isIndexed(pStacktraceMD5)) {
+            results = pIndex.get(pStacktraceMD5);
+        } else {
+            final Map<String, String> parameters = new HashMap<String, String>();
+            parameters.put("project_id", String.valueOf(config.CHILIPROJECT_PROJECT_ID));
+            parameters.put(String.format("cf_%d", config.CHILIPROJECT_STACKTRACE_MD5_CF_ID),
+                    pStacktraceMD5);
+            final long start = metrics.start();
+            try {
+                results = redmineClient.getIssues(parameters);
+            } finally {
+                metrics.stop(SyncMetrics.ISSUE_LOOKUP, start);
+            }
+        }
         Issue issue = null;
         if (CollectionUtils.size(results) > 1) {
             issue = handleMultipleIssuesForSameStacktrace(results);
         } else if (CollectionUtils.size(results) == 1) {
             issue = results.get(0);
         }
+        if (null != pIndex && null != issue) {
+            // duplicates are now closed
+            pIndex.put(pStacktraceMD5, issue);
+        }
         return issue;
     }
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an HTTP request is answered with an unexpected status.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class HttpStatusException extends IOException {
+
+    /** The serial version UID. */
+    private static final long serialVersionUID = 6022164938101745627L;
+
+    /** The HTTP status of the response. */
+    private final int status;
+
+    /**
+     * Constructor.
+     * 
+     * @param pMessage
+     *            the error message
+     * @param pStatus
+     *            the HTTP status of the response
+     */
+    public HttpStatusException(final String pMessage, final int pStatus) {
+
+        super(pMessage);
+        status = pStatus;
+    }
+
+    /**
+     * Gets the HTTP status of the response.
+     * 
+     * @return the HTTP status of the response
+     */
+    public int getStatus() {
+
+        return status;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.exception;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a request is given up because its response didn't arrive before the timeout. The
+ * request may still be processed by the server.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class RequestTimeoutException extends InterruptedIOException {
+
+    /** The serial version UID. */
+    private static final long serialVersionUID = 3370874652191484273L;
+
+    /**
+     * Constructor.
+     * 
+     * @param pMessage
+     *            the error message
+     */
+    public RequestTimeoutException(final String pMessage) {
+
+        super(pMessage);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.handler;
+
+import java.util.List;
+
+import org.redmine.ta.beans.Issue;
+
+import fr.dudie.acrachilisync.exception.SynchronizationException;
+import fr.dudie.acrachilisync.model.AcraReport;
+
+/**
+ * Adapts the report group callbacks of the {@link AcraReportHandler} to a handler processing
+ * the reports one by one, as the handlers written before the reports were grouped by stacktrace.
+ * <p>
+ * Such a handler only has to extend this class instead of implementing
+ * {@link AcraReportHandler}: {@link #onNewReport(AcraReport)} and
+ * {@link #onKnownIssueNotSynchronized(AcraReport, Issue)} are invoked for each report of a group,
+ * in the group order. The first error aborts the group.
+ * 
+ * @author Jérémie Huchet
+ */
+public abstract class AbstractAcraReportHandler implements AcraReportHandler {
+
+    /**
+     * Triggered for each new report found.
+     * 
+     * @param pReport
+     *            the new report
+     * @throws SynchronizationException
+     *             process error
+     */
+    public abstract void onNewReport(AcraReport pReport) throws SynchronizationException;
+
+    /**
+     * Triggered for each report for issues we already know and not yet synchronized.
+     * 
+     * @param pReport
+     *            the acra report
+     * @param pIssue
+     *            the Chiliproject existing issue
+     * @throws SynchronizationException
+     *             process error
+     */
+    public abstract void onKnownIssueNotSynchronized(AcraReport pReport, Issue pIssue)
+            throws SynchronizationException;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Invokes {@link #onNewReport(AcraReport)} for each report.
+     * 
+     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onNewReports(java.util.List)
+     */
+    @Override
+    public void onNewReports(final List<? extends AcraReport> pReports)
+            throws SynchronizationException {
+
+        for (final AcraReport report : pReports) {
+            onNewReport(report);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Invokes {@link #onKnownIssueNotSynchronized(AcraReport, Issue)} for each report.
+     * 
+     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onKnownIssueNotSynchronized(java.util.List,
+     *      org.redmine.ta.beans.Issue)
+     */
+    @Override
+    public void onKnownIssueNotSynchronized(final List<? extends AcraReport> pReports,
+            final Issue pIssue) throws SynchronizationException {
+
+        for (final AcraReport report : pReports) {
+            onKnownIssueNotSynchronized(report, pIssue);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Does nothing.
+     * 
+     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onKnownIssueAlreadySynchronized(fr.dudie.acrachilisync.model.AcraReport,
+     *      org.redmine.ta.beans.Issue)
+     */
+    @Override
+    public void onKnownIssueAlreadySynchronized(final AcraReport pReport, final Issue pIssue)
+            throws SynchronizationException {
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Does nothing.
+     * 
+     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onFinishReceivingNewReports()
+     */
+    @Override
+    public void onFinishReceivingNewReports() throws SynchronizationException {
+
+    }
+}
@@ -17,6 +17,8 @@
 
 package fr.dudie.acrachilisync.handler;
 
+import java.util.List;
+
 import org.redmine.ta.beans.Issue;
 
 import fr.dudie.acrachilisync.exception.SynchronizationException;
@@ -24,20 +26,38 @@ import fr.dudie.acrachilisync.model.AcraReport;
 
 /**
  * Provide a way to add behavior when synchronizing Acra reports.
+ * <p>
+ * Reports are grouped by stacktrace: all the reports of a group share the same
+ * {@link AcraReport#getStacktraceMD5() stacktrace MD5 hash}, so they are related to the same
+ * Chiliproject issue.
+ * <p>
+ * Concurrency contract: when the <code>sync.concurrency</code> setting is greater than 1, or
+ * when <code>chiliproject.write.latency.target</code> is set, the per-group callbacks
+ * ({@link #onNewReports(List)}, {@link #onKnownIssueAlreadySynchronized(AcraReport, Issue)} and
+ * {@link #onKnownIssueNotSynchronized(List, Issue)}) are invoked from several worker threads at
+ * the same time for different stacktraces, so implementations must be thread-safe. Callbacks for
+ * a given stacktrace are never invoked concurrently, and the handlers are always invoked in their
+ * registration order for a given group. {@link #onFinishReceivingNewReports()} is invoked once,
+ * from the thread which started the synchronization, after every group has been handled.
+ * <p>
+ * Compatibility: the per-report callbacks <code>onNewReport(AcraReport)</code> and
+ * <code>onKnownIssueNotSynchronized(AcraReport, Issue)</code> have been replaced by their
+ * per-group versions. A handler written for the per-report callbacks keeps working by extending
+ * {@link AbstractAcraReportHandler} instead of implementing this interface.
  * 
  * @author Jérémie Huchet
  */
 public interface AcraReportHandler {
 
     /**
-     * Triggered for each new report found.
+     * Triggered for each group of new reports found for an unknown stacktrace.
      * 
-     * @param pReport
-     *            the new report
+     * @param pReports
+     *            the new reports, all having the same stacktrace
      * @throws SynchronizationException
      *             process error
      */
-    void onNewReport(AcraReport pReport) throws SynchronizationException;
+    void onNewReports(List<? extends AcraReport> pReports) throws SynchronizationException;
 
     /**
      * Triggered for each report for issues we already know and already synchronized.
@@ -53,16 +73,16 @@ public interface AcraReportHandler {
             throws SynchronizationException;
 
     /**
-     * Triggered for each report for issues we already know and not yed synchronized.
+     * Triggered for each group of reports for issues we already know and not yed synchronized.
      * 
-     * @param report
-     *            the acra report
-     * @param issue
+     * @param pReports
+     *            the acra reports, all having the same stacktrace
+     * @param pIssue
      *            the Chiliproject existing issue
      * @throws SynchronizationException
      *             process error
      */
-    void onKnownIssueNotSynchronized(AcraReport pReport, Issue pIssue)
+    void onKnownIssueNotSynchronized(List<? extends AcraReport> pReports, Issue pIssue)
             throws SynchronizationException;
 
     /**
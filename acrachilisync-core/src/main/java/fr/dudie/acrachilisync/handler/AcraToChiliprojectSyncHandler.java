@@ -17,6 +17,8 @@
 
 package fr.dudie.acrachilisync.handler;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,15 +36,23 @@ import fr.dudie.acrachilisync.exception.IssueParseException;
 import fr.dudie.acrachilisync.exception.SynchronizationException;
 import fr.dudie.acrachilisync.model.AcraReport;
 import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
 import fr.dudie.acrachilisync.model.SyncStatus;
+import fr.dudie.acrachilisync.utils.ChiliprojectClient;
+import fr.dudie.acrachilisync.utils.ChiliprojectUtils;
 import fr.dudie.acrachilisync.utils.ConfigurationManager;
 import fr.dudie.acrachilisync.utils.IssueDescriptionBuilder;
 import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
 import fr.dudie.acrachilisync.utils.IssueDescriptionUtils;
+import fr.dudie.acrachilisync.utils.ParsedIssueCache;
+import fr.dudie.acrachilisync.utils.SyncMetrics;
 
 /**
  * The first {@link AcraReportHandler} triggered: synchronizes Acra reports to the Chiliproject
  * server.
+ * <p>
+ * This handler holds no state besides the Chiliproject client and the parsed issue descriptions,
+ * so it may be shared by the synchronization worker threads.
  * 
  * @author Jérémie Huchet
  */
@@ -53,7 +63,13 @@ public final class AcraToChiliprojectSyncHandler implements AcraReportHandler {
             .getLogger(AcraToChiliprojectSyncHandler.class);
 
     /** The Chiliproject client. */
-    private final RedmineManager redmineClient;
+    private final ChiliprojectClient redmineClient;
+
+    /** The parsed issue descriptions. */
+    private final ParsedIssueCache issueCache;
+
+    /** The synchronization metrics. */
+    private final SyncMetrics metrics;
 
     /**
      * Constructor.
@@ -63,17 +79,69 @@ public final class AcraToChiliprojectSyncHandler implements AcraReportHandler {
      */
     public AcraToChiliprojectSyncHandler(final RedmineManager pRedmineClient) {
 
+        this(pRedmineClient, new ParsedIssueCache());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pIssueCache
+     *            the parsed issue descriptions, shared with the synchronizer
+     */
+    public AcraToChiliprojectSyncHandler(final RedmineManager pRedmineClient,
+            final ParsedIssueCache pIssueCache) {
+
+        this(pRedmineClient, pIssueCache, new SyncMetrics());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pIssueCache
+     *            the parsed issue descriptions, shared with the synchronizer
+     * @param pMetrics
+     *            the metrics recording the description builds and the Chiliproject requests
+     */
+    public AcraToChiliprojectSyncHandler(final RedmineManager pRedmineClient,
+            final ParsedIssueCache pIssueCache, final SyncMetrics pMetrics) {
+
+        this(new ChiliprojectClient(pRedmineClient), pIssueCache, pMetrics);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pIssueCache
+     *            the parsed issue descriptions, shared with the synchronizer
+     * @param pMetrics
+     *            the metrics recording the description builds and the Chiliproject requests
+     */
+    public AcraToChiliprojectSyncHandler(final ChiliprojectClient pRedmineClient,
+            final ParsedIssueCache pIssueCache, final SyncMetrics pMetrics) {
+
         redmineClient = pRedmineClient;
+        issueCache = pIssueCache;
+        metrics = pMetrics;
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Creates one issue containing an occurrence for each given report.
      * 
-     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onNewReport(fr.dudie.acrachilisync.model.AcraReport)
+     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onNewReports(java.util.List)
      */
     @Override
-    public void onNewReport(final AcraReport pReport) throws SynchronizationException {
+    public void onNewReports(final List<? extends AcraReport> pReports)
+            throws SynchronizationException {
 
+        final AcraReport first = pReports.get(0);
         final Issue issue = new Issue();
 
         final Project project = new Project();
@@ -86,32 +154,43 @@ public final class AcraToChiliprojectSyncHandler implements AcraReportHandler {
 
         final CustomField md5CustomField = new CustomField();
         md5CustomField.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
-        md5CustomField.setValue(pReport.getStacktraceMD5());
+        md5CustomField.setValue(first.getStacktraceMD5());
         issue.getCustomFields().add(md5CustomField);
 
-        final String stack = pReport.getValue(AcraReportHeader.STACK_TRACE);
+        final String stack = first.getValue(AcraReportHeader.STACK_TRACE);
         final IssueDescriptionBuilder description = new IssueDescriptionBuilder(stack);
-        description.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(pReport));
+        description.setRollupKeep(ConfigurationManager.getInstance().SYNC_DESCRIPTION_ROLLUP_KEEP);
+        for (final AcraReport report : pReports) {
+            description.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(report));
+        }
 
         final Matcher m = Pattern.compile("(.*)$", Pattern.MULTILINE).matcher(stack);
         m.find();
         issue.setSubject(m.group());
-        issue.setDescription(description.build());
+        issue.setDescription(build(description));
 
+        final Issue created;
+        final long start = metrics.start();
         try {
-            redmineClient.createIssue(
+            created = redmineClient.createIssue(
                     String.valueOf(ConfigurationManager.getInstance().CHILIPROJECT_PROJECT_ID),
                     issue);
         } catch (final Exception e) {
-            pReport.setStatus(SyncStatus.FAILURE);
+            setStatus(pReports, SyncStatus.FAILURE);
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Failure while creating issue: \n{}",
                         ToStringBuilder.reflectionToString(issue, ToStringStyle.MULTI_LINE_STYLE));
             }
-            throw new SynchronizationException("Unable to create issue for ACRA report: "
-                    + pReport.getId(), e);
+            throw new SynchronizationException(String.format(
+                    "Unable to create issue for %d ACRA reports with stacktrace %s",
+                    pReports.size(), first.getStacktraceMD5()), e);
+        } finally {
+            metrics.stop(SyncMetrics.ISSUE_CREATE, start);
         }
-        pReport.setStatus(SyncStatus.SUCCESS);
+        if (null != created) {
+            setIssueId(pReports, created.getId());
+        }
+        setStatus(pReports, SyncStatus.SUCCESS);
     }
 
     /**
@@ -124,47 +203,87 @@ public final class AcraToChiliprojectSyncHandler implements AcraReportHandler {
     public void onKnownIssueAlreadySynchronized(final AcraReport pReport, final Issue pIssue)
             throws SynchronizationException {
 
+        pReport.setIssueId(pIssue.getId());
         pReport.setStatus(SyncStatus.SUCCESS);
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Adds an occurrence for each given report to the issue description, then updates the issue
+     * once. The issue description is parsed once per synchronization, the parsed description is
+     * kept up to date for the next reports with the same stacktrace. It still lists the
+     * occurrences rolled up by these updates, which are rolled up again from its parse-time rollup
+     * instead of being counted twice.
+     * <p>
+     * When no occurrence has to be rolled up and the description is in the current format, the
+     * new occurrences are spliced into the description text instead of building the whole
+     * description again.
      * 
-     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onKnownIssueNotSynchronized(fr.dudie.acrachilisync.model.AcraReport,
+     * @see fr.dudie.acrachilisync.handler.AcraReportHandler#onKnownIssueNotSynchronized(java.util.List,
      *      org.redmine.ta.beans.Issue)
      */
     @Override
-    public void onKnownIssueNotSynchronized(final AcraReport pReport, final Issue pIssue)
-            throws SynchronizationException {
+    public void onKnownIssueNotSynchronized(final List<? extends AcraReport> pReports,
+            final Issue pIssue) throws SynchronizationException {
 
         IssueDescriptionReader reader = null;
         try {
-            reader = new IssueDescriptionReader(pIssue);
+            reader = issueCache.get(pIssue);
 
         } catch (final IssueParseException e) {
             throw new SynchronizationException("Unable to parse description of issue "
                     + pIssue.getId(), e);
         }
 
-        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(reader.getStacktrace());
-        builder.setOccurrences(reader.getOccurrences());
-        builder.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(pReport));
+        final List<ErrorOccurrence> added = new ArrayList<ErrorOccurrence>(pReports.size());
+        for (final AcraReport report : pReports) {
+            added.add(IssueDescriptionUtils.toErrorOccurrence(report));
+        }
+
+        final int rollupKeep = ConfigurationManager.getInstance().SYNC_DESCRIPTION_ROLLUP_KEEP;
+        String description = null;
+        if (rollupKeep == 0 || reader.getOccurrences().size() + added.size() <= rollupKeep) {
+            description = splice(pIssue, added);
+        }
+        if (null == description) {
+            final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                    reader.getStacktrace());
+            builder.setOccurrences(reader.getOccurrences());
+            builder.setRollup(reader.getRollup());
+            builder.setRollupKeep(rollupKeep);
+            for (final ErrorOccurrence error : added) {
+                builder.addOccurrence(error);
+            }
+            description = build(builder);
+        }
 
-        pIssue.setDescription(builder.build());
+        // the issue is kept unchanged until the update succeeds, it's still in line with the
+        // parsed description if the update fails
+        final Issue update = ChiliprojectUtils.copy(pIssue);
+        update.setDescription(description);
 
+        final long start = metrics.start();
         try {
-            redmineClient.updateIssue(pIssue);
+            redmineClient.updateIssue(update);
         } catch (final Exception e) {
-            pReport.setStatus(SyncStatus.FAILURE);
+            setStatus(pReports, SyncStatus.FAILURE);
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Failure while updating issue: \n{}",
-                        ToStringBuilder.reflectionToString(pIssue, ToStringStyle.MULTI_LINE_STYLE));
+                        ToStringBuilder.reflectionToString(update, ToStringStyle.MULTI_LINE_STYLE));
             }
-            throw new SynchronizationException(
-                    String.format("Unable to update issue %s for ACRA report %s", pIssue.getId(),
-                            pReport.getId()), e);
+            throw new SynchronizationException(String.format(
+                    "Unable to update issue %s for %d ACRA reports", pIssue.getId(),
+                    pReports.size()), e);
+        } finally {
+            metrics.stop(SyncMetrics.ISSUE_UPDATE, start);
         }
-        pReport.setStatus(SyncStatus.SUCCESS);
+        pIssue.setDescription(description);
+        for (final ErrorOccurrence error : added) {
+            reader.addOccurrence(error);
+        }
+        setIssueId(pReports, pIssue.getId());
+        setStatus(pReports, SyncStatus.SUCCESS);
     }
 
     /**
@@ -178,4 +297,78 @@ public final class AcraToChiliprojectSyncHandler implements AcraReportHandler {
         // TJHU Auto-generated method stub
 
     }
+
+    /**
+     * Builds an issue description and records the build time and the description length.
+     * 
+     * @param pBuilder
+     *            the description builder
+     * @return the issue description
+     */
+    private String build(final IssueDescriptionBuilder pBuilder) {
+
+        final long start = metrics.start();
+        final String description = pBuilder.build();
+        metrics.stop(SyncMetrics.DESCRIPTION_BUILD, start);
+        metrics.record(SyncMetrics.DESCRIPTION_LENGTH, description.length());
+        return description;
+    }
+
+    /**
+     * Splices occurrences into an issue description and records the splice time and the
+     * description length.
+     * 
+     * @param pIssue
+     *            the issue
+     * @param pOccurrences
+     *            the occurrences to add
+     * @return the issue description, null if the description has to be built again
+     * @see IssueDescriptionUtils#spliceOccurrences(String, List)
+     */
+    private String splice(final Issue pIssue, final List<ErrorOccurrence> pOccurrences) {
+
+        final long start = metrics.start();
+        final String description = IssueDescriptionUtils.spliceOccurrences(
+                pIssue.getDescription(), pOccurrences);
+        if (null == description) {
+            LOGGER.debug("Description of issue {} not in the current format, building it again",
+                    pIssue.getId());
+            return null;
+        }
+        metrics.stop(SyncMetrics.DESCRIPTION_BUILD, start);
+        metrics.record(SyncMetrics.DESCRIPTION_LENGTH, description.length());
+        return description;
+    }
+
+    /**
+     * Sets the identifier of the issue each given report has been synchronized to.
+     * 
+     * @param pReports
+     *            the reports
+     * @param pIssueId
+     *            the issue identifier
+     */
+    private static void setIssueId(final List<? extends AcraReport> pReports,
+            final Integer pIssueId) {
+
+        for (final AcraReport report : pReports) {
+            report.setIssueId(pIssueId);
+        }
+    }
+
+    /**
+     * Sets the status of each given report.
+     * 
+     * @param pReports
+     *            the reports
+     * @param pStatus
+     *            the status to set
+     */
+    private static void setStatus(final List<? extends AcraReport> pReports,
+            final SyncStatus pStatus) {
+
+        for (final AcraReport report : pReports) {
+            report.setStatus(pStatus);
+        }
+    }
 }
@@ -20,16 +20,23 @@ package fr.dudie.acrachilisync.model;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 
 import com.google.gdata.data.spreadsheet.CustomElementCollection;
 
 import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
-import fr.dudie.acrachilisync.utils.MD5Utils;
+import fr.dudie.acrachilisync.utils.StacktraceFingerprint;
 
 /**
  * Wrapper class to access Acra Report field values.
+ * <p>
+ * A report may retain only a projection of the spreadsheet columns: the values of the other
+ * columns are dropped once the report is built, so that the large fields (logcat, settings...)
+ * can be garbage collected. The {@link AcraReportHeader#REPORT_ID} column is always retained.
  * 
  * @author Jérémie Huchet
  */
@@ -38,8 +45,18 @@ public class AcraReport {
     /** RFC 3339 date format. */
     private static final String RFC_339_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
 
-    /** Google documents row values. */
-    private final CustomElementCollection elements;
+    /** Parses the RFC 3339 dates, one parser per thread. */
+    private static final ThreadLocal<SimpleDateFormat> RFC_339_DATE_PARSER = new ThreadLocal<SimpleDateFormat>() {
+
+        @Override
+        protected SimpleDateFormat initialValue() {
+
+            return new SimpleDateFormat(RFC_339_DATE_FORMAT);
+        }
+    };
+
+    /** The retained row values. */
+    private final Map<AcraReportHeader, String> values;
 
     /** The {@link AcraReportHeader#USER_APP_START_DATE} field value. */
     private final Date userAppStartDate;
@@ -50,13 +67,25 @@ public class AcraReport {
     /** The MD5 hash of the ACRA report tacktrace field. */
     private final String stacktraceMD5;
 
-    /** Stores the synchronized states of this report entry. */
+    /**
+     * Stores the synchronized states of this report entry.
+     * <p>
+     * Guarded by <code>this</code>: the status may be merged by report handlers running on
+     * synchronization worker threads.
+     */
     private SyncStatus status = SyncStatus.NOT_STARTED;
 
+    /**
+     * The identifier of the Chiliproject issue the report has been synchronized to, null if
+     * unknown. Guarded by <code>this</code>.
+     */
+    private Integer issueId;
+
     /**
      * Constructor.
      * <p>
      * Wraps the given spreadsheet list entry and provides read only access to report field values.
+     * All the report field values are retained.
      * 
      * @param pCustomElements
      *            custom element collection of a Google Spreadsheet list entry
@@ -67,22 +96,73 @@ public class AcraReport {
     public AcraReport(final CustomElementCollection pCustomElements)
             throws MalformedSpreadsheetLineException {
 
-        this.elements = pCustomElements;
+        this(pCustomElements, null);
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * Wraps the given spreadsheet list entry and provides read only access to the values of the
+     * given columns.
+     * 
+     * @param pCustomElements
+     *            custom element collection of a Google Spreadsheet list entry
+     * @param pColumns
+     *            the columns to retain, null to retain all columns
+     * @throws MalformedSpreadsheetLineException
+     *             the given ListEntry havn't all {@link AcraReportHeader} tag values, <br>
+     *             unable to parse the crash date from the ACRA report
+     */
+    public AcraReport(final CustomElementCollection pCustomElements,
+            final Set<AcraReportHeader> pColumns) throws MalformedSpreadsheetLineException {
+
+        this(pCustomElements, pColumns, StacktraceFingerprint.MD5);
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * Wraps the given spreadsheet list entry and provides read only access to the values of the
+     * given columns.
+     * 
+     * @param pCustomElements
+     *            custom element collection of a Google Spreadsheet list entry
+     * @param pColumns
+     *            the columns to retain, null to retain all columns
+     * @param pFingerprint
+     *            the fingerprint of the stacktrace used as its MD5 hash
+     * @throws MalformedSpreadsheetLineException
+     *             the given ListEntry havn't all {@link AcraReportHeader} tag values, <br>
+     *             unable to parse the crash date from the ACRA report
+     */
+    public AcraReport(final CustomElementCollection pCustomElements,
+            final Set<AcraReportHeader> pColumns, final StacktraceFingerprint pFingerprint)
+            throws MalformedSpreadsheetLineException {
 
         // check the list entry contains the
         for (final AcraReportHeader header : AcraReportHeader.values()) {
-            if (!elements.getTags().contains(header.tagName()) || header.isMandatory()
-                    && StringUtils.isEmpty(elements.getValue(header.tagName()))) {
-                throw new MalformedSpreadsheetLineException(header, elements.getValue(header
-                        .tagName()));
+            if (!pCustomElements.getTags().contains(header.tagName()) || header.isMandatory()
+                    && StringUtils.isEmpty(pCustomElements.getValue(header.tagName()))) {
+                throw new MalformedSpreadsheetLineException(header,
+                        pCustomElements.getValue(header.tagName()));
+            }
+        }
+
+        values = new EnumMap<AcraReportHeader, String>(AcraReportHeader.class);
+        for (final AcraReportHeader header : AcraReportHeader.values()) {
+            if (null == pColumns || pColumns.contains(header)
+                    || AcraReportHeader.REPORT_ID == header) {
+                values.put(header, pCustomElements.getValue(header.tagName()));
             }
         }
 
-        userAppStartDate = toDate(getValue(AcraReportHeader.USER_APP_START_DATE));
-        userCrashDate = toDate(getValue(AcraReportHeader.USER_CRASH_DATE));
+        userAppStartDate = toDate(pCustomElements.getValue(AcraReportHeader.USER_APP_START_DATE
+                .tagName()));
+        userCrashDate = toDate(pCustomElements.getValue(AcraReportHeader.USER_CRASH_DATE
+                .tagName()));
 
-        stacktraceMD5 = MD5Utils
-                .toMD5hash(StringUtils.trim(getValue(AcraReportHeader.STACK_TRACE)));
+        stacktraceMD5 = pFingerprint.compute(pCustomElements.getValue(AcraReportHeader.STACK_TRACE
+                .tagName()));
     }
 
     /**
@@ -94,14 +174,13 @@ public class AcraReport {
      */
     private Date toDate(final String pStringDate) {
 
-        // weird manipulation to parse the date... remove ':' from the timezone
+        // remove ':' from the timezone, SimpleDateFormat doesn't parse it
         // before: 2011-07-12T22:42:40.000+02:00
         // after: 2011-07-12T22:42:40.000+0200
-        final StringBuilder _date = new StringBuilder();
-        _date.append(pStringDate.substring(0, pStringDate.length() - 3));
-        _date.append(pStringDate.substring(pStringDate.length() - 2));
+        final StringBuilder _date = new StringBuilder(pStringDate);
+        _date.deleteCharAt(pStringDate.length() - 3);
         try {
-            return new SimpleDateFormat(RFC_339_DATE_FORMAT).parse(_date.toString());
+            return RFC_339_DATE_PARSER.get().parse(_date.toString());
         } catch (final ParseException e) {
             throw new IllegalArgumentException(
                     "The given spreadsheet ListEntry usercrashdate field value is malformed", e);
@@ -114,7 +193,7 @@ public class AcraReport {
      * @param pStatus
      *            the new status to set
      */
-    public final void mergeSyncStatus(final SyncStatus pStatus) {
+    public final synchronized void mergeSyncStatus(final SyncStatus pStatus) {
 
         switch (status) {
         case FAILURE:
@@ -136,10 +215,17 @@ public class AcraReport {
      * @param pHeader
      *            the field name
      * @return the field value
+     * @throws IllegalStateException
+     *             the given field hasn't been retained when building the report
      */
-    public final String getValue(final AcraReportHeader pHeader) {
+    public final String getValue(final AcraReportHeader pHeader) throws IllegalStateException {
 
-        return elements.getValue(pHeader.tagName());
+        if (!values.containsKey(pHeader)) {
+            throw new IllegalStateException(String.format(
+                    "The %s field value of report %s has not been retained", pHeader.tagName(),
+                    getId()));
+        }
+        return values.get(pHeader);
     }
 
     /**
@@ -147,7 +233,7 @@ public class AcraReport {
      * 
      * @return the status
      */
-    public final SyncStatus getStatus() {
+    public final synchronized SyncStatus getStatus() {
 
         return status;
     }
@@ -158,11 +244,32 @@ public class AcraReport {
      * @param pStatus
      *            the status to set
      */
-    public final void setStatus(final SyncStatus pStatus) {
+    public final synchronized void setStatus(final SyncStatus pStatus) {
 
         this.status = pStatus;
     }
 
+    /**
+     * Gets the identifier of the Chiliproject issue the report has been synchronized to.
+     * 
+     * @return the issue identifier, null if unknown
+     */
+    public final synchronized Integer getIssueId() {
+
+        return issueId;
+    }
+
+    /**
+     * Sets the identifier of the Chiliproject issue the report has been synchronized to.
+     * 
+     * @param pIssueId
+     *            the issue identifier
+     */
+    public final synchronized void setIssueId(final Integer pIssueId) {
+
+        this.issueId = pIssueId;
+    }
+
     /*
      * Easy access/shortcuts to some properties.
      */
@@ -18,20 +18,40 @@
 package fr.dudie.acrachilisync.model;
 
 import java.io.IOException;
+import java.net.URL;
+import java.util.Set;
 
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
 import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.util.PreconditionFailedException;
 import com.google.gdata.util.ServiceException;
 
 import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.utils.StacktraceFingerprint;
 
 /**
+ * An {@link AcraReport} whose stacktrace MD5 hash can be committed to the Google spreadsheet.
+ * <p>
+ * When only a projection of the columns is retained, the list entry is dropped too. A list entry
+ * can only be written whole, the values of the dropped columns would be erased:
+ * {@link #commitStacktraceMD5()} fetches the list entry again by its link, then updates it. With
+ * batch requests, the synchronizer commits the reports through the worksheet cell feed with a
+ * {@link fr.dudie.acrachilisync.utils.SpreadsheetBatchCommitter} instead, and only the rows whose
+ * cell can't be located or written are committed one by one.
+ * 
  * @author Jérémie Huchet
  */
 public final class EditableAcraReport extends AcraReport {
 
-    /** The Google spreadsheet list entry. */
+    /** The Google spreadsheet list entry, null if it has been dropped. */
     private final ListEntry listEntry;
 
+    /** The URL of the Google spreadsheet list entry, null if the entry is retained. */
+    private final String listEntryUrl;
+
+    /** The Spreadsheet client used to fetch the list entry, null if the entry is retained. */
+    private final SpreadsheetService client;
+
     /**
      * Constructor.
      * 
@@ -43,20 +63,102 @@ public final class EditableAcraReport extends AcraReport {
      */
     public EditableAcraReport(final ListEntry pEntry) throws MalformedSpreadsheetLineException {
 
-        super(pEntry.getCustomElements());
+        this(pEntry, StacktraceFingerprint.MD5);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pEntry
+     *            the Google spreadsheet list entry
+     * @param pFingerprint
+     *            the fingerprint of the stacktrace used as its MD5 hash
+     * @throws MalformedSpreadsheetLineException
+     *             the given ListEntry havn't all {@link AcraReportHeader} tag values, <br>
+     *             unable to parse the crash date from the ACRA report
+     */
+    public EditableAcraReport(final ListEntry pEntry, final StacktraceFingerprint pFingerprint)
+            throws MalformedSpreadsheetLineException {
+
+        super(pEntry.getCustomElements(), null, pFingerprint);
         this.listEntry = pEntry;
+        this.listEntryUrl = null;
+        this.client = null;
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * Retains the values of the given columns only, the list entry is dropped.
+     * 
+     * @param pEntry
+     *            the Google spreadsheet list entry
+     * @param pClient
+     *            the Spreadsheet client used to fetch the list entry again when committing
+     * @param pColumns
+     *            the columns to retain
+     * @throws MalformedSpreadsheetLineException
+     *             the given ListEntry havn't all {@link AcraReportHeader} tag values, <br>
+     *             unable to parse the crash date from the ACRA report
+     */
+    public EditableAcraReport(final ListEntry pEntry, final SpreadsheetService pClient,
+            final Set<AcraReportHeader> pColumns) throws MalformedSpreadsheetLineException {
+
+        this(pEntry, pClient, pColumns, StacktraceFingerprint.MD5);
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * Retains the values of the given columns only, the list entry is dropped.
+     * 
+     * @param pEntry
+     *            the Google spreadsheet list entry
+     * @param pClient
+     *            the Spreadsheet client used to fetch the list entry again when committing
+     * @param pColumns
+     *            the columns to retain
+     * @param pFingerprint
+     *            the fingerprint of the stacktrace used as its MD5 hash
+     * @throws MalformedSpreadsheetLineException
+     *             the given ListEntry havn't all {@link AcraReportHeader} tag values, <br>
+     *             unable to parse the crash date from the ACRA report
+     */
+    public EditableAcraReport(final ListEntry pEntry, final SpreadsheetService pClient,
+            final Set<AcraReportHeader> pColumns, final StacktraceFingerprint pFingerprint)
+            throws MalformedSpreadsheetLineException {
+
+        super(pEntry.getCustomElements(), pColumns, pFingerprint);
+        this.listEntry = null;
+        this.listEntryUrl = pEntry.getSelfLink().getHref();
+        this.client = pClient;
     }
 
     /**
      * Updates the stacktrace MD5 hash on the remote Google spreadsheet.
      * 
+     * @throws PreconditionFailedException
+     *             the list entry fetched again no longer holds this report
      * @throws ServiceException
      * @throws IOException
      */
     public void commitStacktraceMD5() throws IOException, ServiceException {
 
-        listEntry.getCustomElements().setValueLocal(AcraReportHeader.STACK_TRACE_MD5.tagName(),
+        final ListEntry entry;
+        if (null == listEntry) {
+            entry = client.getEntry(new URL(listEntryUrl), ListEntry.class);
+            final String reportId = entry.getCustomElements().getValue(
+                    AcraReportHeader.REPORT_ID.tagName());
+            if (!getId().equals(reportId)) {
+                throw new PreconditionFailedException(String.format(
+                        "The list entry %s holds report %s instead of %s", listEntryUrl,
+                        reportId, getId()));
+            }
+        } else {
+            entry = listEntry;
+        }
+        entry.getCustomElements().setValueLocal(AcraReportHeader.STACK_TRACE_MD5.tagName(),
                 getStacktraceMD5());
-        listEntry.update();
+        entry.update();
     }
 }
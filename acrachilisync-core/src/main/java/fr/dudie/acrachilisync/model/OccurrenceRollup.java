@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.model;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated counts of the error occurrences which are no longer listed one by one in an issue
+ * description.
+ * <p>
+ * The occurrences are counted by application version, by Android version and by device.
+ * 
+ * @author Jérémie Huchet
+ */
+public class OccurrenceRollup {
+
+    /**
+     * The criteria the occurrences are counted by.
+     * 
+     * @author Jérémie Huchet
+     */
+    public enum Dimension {
+
+        /** The application version name and code. */
+        APP_VERSION("app version"),
+
+        /** The Android version. */
+        ANDROID_VERSION("android"),
+
+        /** The device. */
+        DEVICE("device");
+
+        /** The label of the dimension in the issue description. */
+        private final String label;
+
+        /**
+         * Constructor.
+         * 
+         * @param pLabel
+         *            the label of the dimension in the issue description
+         */
+        private Dimension(final String pLabel) {
+
+            label = pLabel;
+        }
+
+        /**
+         * Gets the label of the dimension in the issue description.
+         * 
+         * @return the label
+         */
+        public String label() {
+
+            return label;
+        }
+
+        /**
+         * Gets the dimension having the given label.
+         * 
+         * @param pLabel
+         *            a label
+         * @return the dimension, null if no dimension has this label
+         */
+        public static Dimension fromLabel(final String pLabel) {
+
+            for (final Dimension dimension : values()) {
+                if (dimension.label.equals(pLabel)) {
+                    return dimension;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gets the value of this dimension for the given occurrence.
+         * 
+         * @param pError
+         *            an error occurrence
+         * @return the value the occurrence is counted for
+         */
+        public String valueOf(final ErrorOccurrence pError) {
+
+            switch (this) {
+            case APP_VERSION:
+                return pError.getVersionName() + " / " + pError.getVersionCode();
+            case ANDROID_VERSION:
+                return pError.getAndroidVersion();
+            default:
+                return pError.getDevice();
+            }
+        }
+    }
+
+    /** The number of occurrences for each value of each dimension, values are sorted. */
+    private final Map<Dimension, Map<String, Integer>> counts;
+
+    /** The number of occurrences. */
+    private int count;
+
+    /**
+     * Creates an empty rollup.
+     */
+    public OccurrenceRollup() {
+
+        counts = new EnumMap<Dimension, Map<String, Integer>>(Dimension.class);
+        for (final Dimension dimension : Dimension.values()) {
+            counts.put(dimension, new TreeMap<String, Integer>());
+        }
+    }
+
+    /**
+     * Creates a copy of the given rollup.
+     * 
+     * @param pRollup
+     *            the rollup to copy
+     */
+    public OccurrenceRollup(final OccurrenceRollup pRollup) {
+
+        counts = new EnumMap<Dimension, Map<String, Integer>>(Dimension.class);
+        for (final Dimension dimension : Dimension.values()) {
+            counts.put(dimension, new TreeMap<String, Integer>(pRollup.counts.get(dimension)));
+        }
+        count = pRollup.count;
+    }
+
+    /**
+     * Counts an occurrence.
+     * 
+     * @param pError
+     *            the error occurrence
+     */
+    public void add(final ErrorOccurrence pError) {
+
+        for (final Dimension dimension : Dimension.values()) {
+            increment(dimension, dimension.valueOf(pError), 1);
+        }
+    }
+
+    /**
+     * Adds a number of occurrences to the count of a value.
+     * <p>
+     * The total number of occurrences is the sum of the {@link Dimension#APP_VERSION} counts.
+     * 
+     * @param pDimension
+     *            the dimension
+     * @param pValue
+     *            the value of the dimension
+     * @param pCount
+     *            the number of occurrences to add
+     */
+    public void increment(final Dimension pDimension, final String pValue, final int pCount) {
+
+        final Map<String, Integer> values = counts.get(pDimension);
+        final Integer current = values.get(pValue);
+        values.put(pValue, null == current ? pCount : current + pCount);
+        if (Dimension.APP_VERSION.equals(pDimension)) {
+            count += pCount;
+        }
+    }
+
+    /**
+     * Gets the number of occurrences for each value of the given dimension.
+     * 
+     * @param pDimension
+     *            the dimension
+     * @return an unmodifiable map of the counts by value, sorted by value
+     */
+    public Map<String, Integer> getCounts(final Dimension pDimension) {
+
+        return Collections.unmodifiableMap(counts.get(pDimension));
+    }
+
+    /**
+     * Gets the number of occurrences.
+     * 
+     * @return the number of occurrences
+     */
+    public int getCount() {
+
+        return count;
+    }
+
+    /**
+     * Gets whether or not no occurrence has been counted.
+     * 
+     * @return true if the rollup is empty
+     */
+    public boolean isEmpty() {
+
+        return counts.get(Dimension.APP_VERSION).isEmpty();
+    }
+}
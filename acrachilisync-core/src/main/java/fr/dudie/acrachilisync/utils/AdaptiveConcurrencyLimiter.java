@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent calls to a remote service, adapting the limit to its latency
+ * with an additive increase, multiplicative decrease (AIMD) policy.
+ * <p>
+ * The latencies of the successful calls are gathered by windows of {@link #WINDOW} calls. At the
+ * end of a window, the limit grows by one if the 95th percentile of the latencies is under the
+ * target and the limit has been reached during the window, and it shrinks by
+ * {@link #LATENCY_DECREASE} if the percentile is over the target. A call failing with a timeout
+ * or an HTTP 429 or 5xx status halves the limit, once per limit change: the failures of the calls
+ * started before the limit changed are ignored.
+ * <p>
+ * The current limit is recorded by the {@link SyncMetrics#WRITE_CONCURRENCY_LIMIT} gauge.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    /** The number of latencies of a window. */
+    public static final int WINDOW = 20;
+
+    /** The factor applied to the limit when the latency is over the target. */
+    public static final double LATENCY_DECREASE = 0.9;
+
+    /** The factor applied to the limit when a call fails because the service is overloaded. */
+    public static final double OVERLOAD_DECREASE = 0.5;
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(AdaptiveConcurrencyLimiter.class);
+
+    /** The minimum limit. */
+    private final int minLimit;
+
+    /** The maximum limit. */
+    private final int maxLimit;
+
+    /** The target of the 95th percentile of the latencies, in nanoseconds. */
+    private final long latencyTarget;
+
+    /** The metrics recording the limit, may be null. */
+    private final SyncMetrics metrics;
+
+    /** The latencies of the current window, in nanoseconds. */
+    private final long[] latencies = new long[WINDOW];
+
+    /** The number of latencies of the current window. */
+    private int sampled;
+
+    /** The current limit. */
+    private double limit;
+
+    /** The number of calls in flight. */
+    private int inFlight;
+
+    /** Whether or not the limit has been reached during the current window. */
+    private boolean saturated;
+
+    /** Incremented on each limit change. */
+    private long epoch;
+
+    /**
+     * Creates a limiter starting at its minimum limit.
+     * 
+     * @param pMinLimit
+     *            the minimum limit
+     * @param pMaxLimit
+     *            the maximum limit
+     * @param pLatencyTarget
+     *            the target of the 95th percentile of the latencies, in milliseconds
+     * @param pMetrics
+     *            the metrics recording the limit, may be null
+     */
+    public AdaptiveConcurrencyLimiter(final int pMinLimit, final int pMaxLimit,
+            final long pLatencyTarget, final SyncMetrics pMetrics) {
+
+        minLimit = Math.max(1, pMinLimit);
+        maxLimit = Math.max(minLimit, pMaxLimit);
+        latencyTarget = TimeUnit.MILLISECONDS.toNanos(Math.max(1, pLatencyTarget));
+        metrics = pMetrics;
+        limit = minLimit;
+        record();
+    }
+
+    /**
+     * Calls the remote service once the number of calls in flight is under the limit.
+     * 
+     * @param pCall
+     *            the call
+     * @return the result of the call
+     * @throws InterruptedIOException
+     *             interrupted while waiting for the number of calls in flight to decrease
+     * @throws Exception
+     *             the exception thrown by the call
+     */
+    public <T> T call(final Callable<T> pCall) throws Exception {
+
+        final long callEpoch = acquire();
+        final long start = System.nanoTime();
+        boolean overloaded = false;
+        try {
+            return pCall.call();
+        } catch (final Exception e) {
+            overloaded = RemoteCallGuard.isOverload(e);
+            throw e;
+        } finally {
+            release(callEpoch, System.nanoTime() - start, overloaded);
+        }
+    }
+
+    /**
+     * Gets the current limit.
+     * 
+     * @return the maximum number of calls in flight
+     */
+    public synchronized int getLimit() {
+
+        return (int) limit;
+    }
+
+    /**
+     * Waits for the number of calls in flight to be under the limit.
+     * 
+     * @return the epoch of the limit when the call starts
+     * @throws InterruptedIOException
+     *             interrupted while waiting
+     */
+    private synchronized long acquire() throws InterruptedIOException {
+
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a call slot");
+        }
+        inFlight++;
+        if (inFlight >= (int) limit) {
+            saturated = true;
+        }
+        return epoch;
+    }
+
+    /**
+     * Records the outcome of a call and adapts the limit.
+     * 
+     * @param pEpoch
+     *            the epoch of the limit when the call started
+     * @param pLatency
+     *            the latency of the call, in nanoseconds
+     * @param pOverloaded
+     *            true if the call failed because the service is overloaded
+     */
+    private synchronized void release(final long pEpoch, final long pLatency,
+            final boolean pOverloaded) {
+
+        inFlight--;
+        if (pOverloaded) {
+            if (pEpoch == epoch) {
+                update(limit * OVERLOAD_DECREASE, "overloaded");
+            }
+        } else {
+            latencies[sampled++] = pLatency;
+            if (sampled == WINDOW) {
+                final long p95 = percentile95();
+                if (p95 > latencyTarget) {
+                    update(limit * LATENCY_DECREASE, "p95 latency "
+                            + TimeUnit.NANOSECONDS.toMillis(p95) + " ms");
+                } else if (saturated) {
+                    update(limit + 1, "p95 latency " + TimeUnit.NANOSECONDS.toMillis(p95)
+                            + " ms");
+                } else {
+                    sampled = 0;
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Changes the limit and starts a new window.
+     * 
+     * @param pLimit
+     *            the new limit, bounded by the minimum and maximum limits
+     * @param pReason
+     *            the reason of the change, for the logs
+     */
+    private void update(final double pLimit, final String pReason) {
+
+        final int previous = (int) limit;
+        limit = Math.min(maxLimit, Math.max(minLimit, pLimit));
+        epoch++;
+        sampled = 0;
+        saturated = inFlight >= (int) limit;
+        if (previous != (int) limit) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("concurrency limit {} -> {} ({})", new Object[] { previous,
+                        (int) limit, pReason });
+            }
+            record();
+        }
+    }
+
+    /**
+     * Computes the 95th percentile of the latencies of the window.
+     * 
+     * @return the 95th percentile, in nanoseconds
+     */
+    private long percentile95() {
+
+        final long[] sorted = Arrays.copyOf(latencies, sampled);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+    }
+
+    /**
+     * Records the current limit.
+     */
+    private void record() {
+
+        if (null != metrics) {
+            metrics.set(SyncMetrics.WRITE_CONCURRENCY_LIMIT, (long) limit);
+        }
+    }
+}
@@ -0,0 +1,921 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.redmine.ta.AuthenticationException;
+import org.redmine.ta.NotFoundException;
+import org.redmine.ta.RedmineException;
+import org.redmine.ta.RedmineManager;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+import org.redmine.ta.beans.Project;
+import org.redmine.ta.beans.Tracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.dudie.acrachilisync.exception.HttpStatusException;
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.exception.RequestTimeoutException;
+
+/**
+ * Sends the requests of the synchronization and of the tools to the Chiliproject server through a
+ * {@link RedmineManager}.
+ * <p>
+ * Concurrent identical issue queries, such as two lookups of the same stacktrace MD5 hash, are
+ * coalesced into a single request: the callers arriving while the request is in flight get its
+ * result. The number of requests in flight is bounded, and each request may be given a timeout.
+ * When a request times out, its caller gets a {@link RequestTimeoutException} and the request
+ * keeps its slot until the server answers.
+ * <p>
+ * The transport of the {@link RedmineManager} isn't configurable: it opens a connection for each
+ * request, and its requests can't be aborted. The bound and the timeout are applied by this client
+ * around the calls to the {@link RedmineManager}. Only the issue list pages read to
+ * {@link #countIssues(Map) count the issues} and to {@link #getIssuePage(Map, int, int) page
+ * through them} are requested by this client itself, compressed and with socket timeouts.
+ * <p>
+ * The requests may be guarded by a {@link RemoteCallGuard}: only the issue creations aren't
+ * retried, unless they couldn't reach the server. The number of concurrent issue creations and
+ * updates may be adapted to the latency of the server by an {@link AdaptiveConcurrencyLimiter}.
+ * <p>
+ * This class is thread-safe. The coalesced callers get their own copies of the issues.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class ChiliprojectClient {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChiliprojectClient.class);
+
+    /** Creates the readers of the issue lists, without DTD nor external entity. */
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /** The Chiliproject client. */
+    private final RedmineManager redmine;
+
+    /** The Chiliproject server URL, without trailing slash, null if it is unknown. */
+    private final String host;
+
+    /** The API access key, may be null. */
+    private final String apiKey;
+
+    /** The slots of the requests in flight. */
+    private final Semaphore slots;
+
+    /** The timeout of a request in milliseconds, 0 for no timeout. */
+    private final long timeout;
+
+    /** Guards the requests. */
+    private final RemoteCallGuard guard;
+
+    /** Limits the concurrent issue creations and updates, null for no adaptive limit. */
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+
+    /** Runs the requests given a timeout, null if the requests have no timeout. */
+    private final ExecutorService executor;
+
+    /** The issue queries in flight, by parameters. */
+    private final ConcurrentMap<Map<String, String>, Future<List<Issue>>> queries = new ConcurrentHashMap<Map<String, String>, Future<List<Issue>>>();
+
+    /** The number of issue queries coalesced with a query in flight. */
+    private final AtomicInteger coalesced = new AtomicInteger();
+
+    /**
+     * Creates a client without bound on the requests in flight nor timeout.
+     * 
+     * @param pRedmine
+     *            the Chiliproject client
+     */
+    public ChiliprojectClient(final RedmineManager pRedmine) {
+
+        this(pRedmine, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Creates a client with the connection, rate limit, retry and circuit breaker settings of the
+     * given configuration.
+     * 
+     * @param pRedmine
+     *            the Chiliproject client
+     * @param pConfig
+     *            the configuration
+     */
+    public ChiliprojectClient(final RedmineManager pRedmine, final ConfigurationManager pConfig) {
+
+        this(pRedmine, pConfig, new RemoteCallGuard("Chiliproject",
+                pConfig.CHILIPROJECT_RATE_LIMIT, pConfig, null), createWriteLimiter(pConfig,
+                null));
+    }
+
+    /**
+     * Creates a client with the connection settings of the given configuration.
+     * 
+     * @param pRedmine
+     *            the Chiliproject client
+     * @param pConfig
+     *            the configuration
+     * @param pGuard
+     *            guards the requests
+     * @param pWriteLimiter
+     *            limits the concurrent issue creations and updates, null for no adaptive limit
+     */
+    public ChiliprojectClient(final RedmineManager pRedmine, final ConfigurationManager pConfig,
+            final RemoteCallGuard pGuard, final AdaptiveConcurrencyLimiter pWriteLimiter) {
+
+        this(pRedmine, pConfig.CHILIPROJECT_HOST.toString(), pConfig.CHILIPROJECT_API_KEY,
+                pConfig.CHILIPROJECT_MAX_CONNECTIONS, pConfig.CHILIPROJECT_TIMEOUT, pGuard,
+                pWriteLimiter);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pRedmine
+     *            the Chiliproject client
+     * @param pMaxConnections
+     *            the maximum number of requests in flight
+     * @param pTimeout
+     *            the timeout of a request in milliseconds, 0 for no timeout
+     */
+    public ChiliprojectClient(final RedmineManager pRedmine, final int pMaxConnections,
+            final long pTimeout) {
+
+        this(pRedmine, null, null, pMaxConnections, pTimeout);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pRedmine
+     *            the Chiliproject client
+     * @param pHost
+     *            the Chiliproject server URL used to {@link #countIssues(Map) count the issues},
+     *            may be null
+     * @param pApiKey
+     *            the API access key, may be null
+     * @param pMaxConnections
+     *            the maximum number of requests in flight
+     * @param pTimeout
+     *            the timeout of a request in milliseconds, 0 for no timeout
+     */
+    public ChiliprojectClient(final RedmineManager pRedmine, final String pHost,
+            final String pApiKey, final int pMaxConnections, final long pTimeout) {
+
+        this(pRedmine, pHost, pApiKey, pMaxConnections, pTimeout, RemoteCallGuard
+                .unguarded("Chiliproject"), null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pRedmine
+     *            the Chiliproject client
+     * @param pHost
+     *            the Chiliproject server URL used to {@link #countIssues(Map) count the issues},
+     *            may be null
+     * @param pApiKey
+     *            the API access key, may be null
+     * @param pMaxConnections
+     *            the maximum number of requests in flight
+     * @param pTimeout
+     *            the timeout of a request in milliseconds, 0 for no timeout
+     * @param pGuard
+     *            guards the requests
+     * @param pWriteLimiter
+     *            limits the concurrent issue creations and updates, null for no adaptive limit
+     */
+    public ChiliprojectClient(final RedmineManager pRedmine, final String pHost,
+            final String pApiKey, final int pMaxConnections, final long pTimeout,
+            final RemoteCallGuard pGuard, final AdaptiveConcurrencyLimiter pWriteLimiter) {
+
+        redmine = pRedmine;
+        host = StringUtils.removeEnd(pHost, "/");
+        apiKey = pApiKey;
+        guard = pGuard;
+        writeLimiter = pWriteLimiter;
+        slots = new Semaphore(Math.max(1, pMaxConnections), true);
+        timeout = Math.max(0, pTimeout);
+        if (timeout > 0) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                /** The number of threads created. */
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable pRunnable) {
+
+                    final Thread thread = new Thread(pRunnable, "chiliproject-request-"
+                            + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Creates the limiter of the concurrent issue creations and updates configured by
+     * {@link ConfigurationManager#CHILIPROJECT_WRITE_LATENCY_TARGET}.
+     * 
+     * @param pConfig
+     *            the configuration
+     * @param pMetrics
+     *            the metrics recording the limit, may be null
+     * @return the limiter, null if no latency target is configured
+     */
+    public static AdaptiveConcurrencyLimiter createWriteLimiter(
+            final ConfigurationManager pConfig, final SyncMetrics pMetrics) {
+
+        if (pConfig.CHILIPROJECT_WRITE_LATENCY_TARGET == 0) {
+            return null;
+        }
+        return new AdaptiveConcurrencyLimiter(1, pConfig.CHILIPROJECT_MAX_CONNECTIONS,
+                pConfig.CHILIPROJECT_WRITE_LATENCY_TARGET, pMetrics);
+    }
+
+    /**
+     * Gets the issues matching the given parameters. The callers arriving while an identical query
+     * is in flight get the result of this query. Each caller gets its own copies of the issues, so
+     * they may be updated without affecting the other callers.
+     * 
+     * @param pParameters
+     *            the query parameters
+     * @return the matching issues
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public List<Issue> getIssues(final Map<String, String> pParameters) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        final Map<String, String> key = new TreeMap<String, String>(pParameters);
+        final FutureTask<List<Issue>> query = new FutureTask<List<Issue>>(
+                new Callable<List<Issue>>() {
+
+                    @Override
+                    public List<Issue> call() throws Exception {
+
+                        return execute(new Callable<List<Issue>>() {
+
+                            @Override
+                            public List<Issue> call() throws Exception {
+
+                                return redmine.getIssues(pParameters);
+                            }
+                        }, true, false);
+                    }
+                });
+
+        final Future<List<Issue>> inFlight = queries.putIfAbsent(key, query);
+        final List<Issue> results;
+        if (null == inFlight) {
+            try {
+                query.run();
+            } finally {
+                queries.remove(key, query);
+            }
+            results = get(query);
+        } else {
+            coalesced.incrementAndGet();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("issue query {} coalesced with the query in flight", key);
+            }
+            results = get(inFlight);
+        }
+        if (null == results) {
+            return null;
+        }
+        final List<Issue> copies = new ArrayList<Issue>(results.size());
+        for (final Issue issue : results) {
+            copies.add(ChiliprojectUtils.copy(issue));
+        }
+        return copies;
+    }
+
+    /**
+     * Counts the issues matching the given parameters with a single request.
+     * <p>
+     * The {@link RedmineManager} retrieves all the pages of the issue list, so the count is read
+     * from the <code>total_count</code> attribute of a list limited to one issue.
+     * 
+     * @param pParameters
+     *            the query parameters
+     * @return the number of matching issues
+     * @throws IOException
+     *             the request failed or the response has no total count
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public int countIssues(final Map<String, String> pParameters) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        final IssueList issues = listIssues(pParameters, 0, 1, false);
+        if (issues.totalCount < 0) {
+            throw new IssueParseException("No total count in the issue list of " + host);
+        }
+        return issues.totalCount;
+    }
+
+    /**
+     * Gets the identifiers of a page of the issues matching the given parameters, sorted by
+     * identifier so the issues created meanwhile are appended to the last page.
+     * 
+     * @param pParameters
+     *            the query parameters
+     * @param pOffset
+     *            the number of issues before the page
+     * @param pLimit
+     *            the maximum number of issues of the page
+     * @return the issue identifiers, empty after the last page
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public List<Integer> getIssueIds(final Map<String, String> pParameters, final int pOffset,
+            final int pLimit) throws IOException, AuthenticationException, NotFoundException,
+            RedmineException {
+
+        final Map<String, String> parameters = new HashMap<String, String>(pParameters);
+        parameters.put("sort", "id");
+        return listIssues(parameters, pOffset, pLimit, false).ids;
+    }
+
+    /**
+     * Gets a page of the issues matching the given parameters, sorted by identifier so the issues
+     * created meanwhile are appended to the last page.
+     * <p>
+     * The issues are read from the issue list with a single request: they hold their identifier,
+     * subject, description, project, tracker, status and custom fields, the other fields are left
+     * null.
+     * 
+     * @param pParameters
+     *            the query parameters
+     * @param pOffset
+     *            the number of issues before the page
+     * @param pLimit
+     *            the maximum number of issues of the page
+     * @return the issues, empty after the last page
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public List<Issue> getIssuePage(final Map<String, String> pParameters, final int pOffset,
+            final int pLimit) throws IOException, AuthenticationException, NotFoundException,
+            RedmineException {
+
+        final Map<String, String> parameters = new HashMap<String, String>(pParameters);
+        parameters.put("sort", "id");
+        return listIssues(parameters, pOffset, pLimit, true).issues;
+    }
+
+    /**
+     * Gets an issue.
+     * 
+     * @param pId
+     *            the issue identifier
+     * @return the issue
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public Issue getIssue(final int pId) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        return execute(new Callable<Issue>() {
+
+            @Override
+            public Issue call() throws Exception {
+
+                return redmine.getIssueById(pId);
+            }
+        }, true, false);
+    }
+
+    /**
+     * Creates an issue.
+     * 
+     * @param pProjectKey
+     *            the project identifier
+     * @param pIssue
+     *            the issue to create
+     * @return the created issue
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public Issue createIssue(final String pProjectKey, final Issue pIssue) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        return execute(new Callable<Issue>() {
+
+            @Override
+            public Issue call() throws Exception {
+
+                return redmine.createIssue(pProjectKey, pIssue);
+            }
+        }, false, true);
+    }
+
+    /**
+     * Updates an issue.
+     * 
+     * @param pIssue
+     *            the issue to update
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public void updateIssue(final Issue pIssue) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        execute(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+
+                redmine.updateIssue(pIssue);
+                return null;
+            }
+        }, true, true);
+    }
+
+    /**
+     * Gets the number of issue queries which have been coalesced with a query in flight.
+     * 
+     * @return the number of coalesced queries
+     */
+    public int getCoalescedCount() {
+
+        return coalesced.get();
+    }
+
+    /**
+     * Sends a request through the {@link #guard}, and through the {@link #writeLimiter} if it
+     * creates or updates an issue.
+     * 
+     * @param pRequest
+     *            the request
+     * @param pIdempotent
+     *            true if the request can be repeated without side effect
+     * @param pWrite
+     *            true if the request creates or updates an issue
+     * @return the response
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private <T> T execute(final Callable<T> pRequest, final boolean pIdempotent,
+            final boolean pWrite) throws IOException, AuthenticationException, NotFoundException,
+            RedmineException {
+
+        final Callable<T> request = new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+
+                return send(pRequest);
+            }
+        };
+        try {
+            if (pWrite && null != writeLimiter) {
+                return guard.call(new Callable<T>() {
+
+                    @Override
+                    public T call() throws Exception {
+
+                        return writeLimiter.call(request);
+                    }
+                }, pIdempotent);
+            }
+            return guard.call(request, pIdempotent);
+        } catch (final Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Sends a request once a slot is available, and waits for its response until the timeout. The
+     * timeout of the response starts once the slot is acquired. A request timing out before it
+     * started doesn't run and gives its slot back, a started one keeps its slot until it completes.
+     * 
+     * @param pRequest
+     *            the request
+     * @return the response
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private <T> T send(final Callable<T> pRequest) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        try {
+            if (timeout == 0) {
+                slots.acquire();
+            } else if (!slots.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new RequestTimeoutException(String.format(
+                        "No Chiliproject connection available after %d ms", timeout));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+
+        final long deadline = System.currentTimeMillis() + timeout;
+        final AtomicBoolean started = new AtomicBoolean();
+        final FutureTask<T> request = new FutureTask<T>(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+
+                if (!started.compareAndSet(false, true)) {
+                    // timed out before it started, its slot has been given back
+                    throw new CancellationException();
+                }
+                try {
+                    return pRequest.call();
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+        if (null == executor) {
+            request.run();
+            return get(request);
+        }
+
+        executor.execute(request);
+        try {
+            return request.get(Math.max(1, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            // the request can't be aborted once started
+            request.cancel(false);
+            if (started.compareAndSet(false, true)) {
+                slots.release();
+            }
+            throw new RequestTimeoutException(String.format(
+                    "Chiliproject request timed out after %d ms", timeout));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (final ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Gets a page of the XML issue list with a single request, and reads the total number of
+     * issues and the issues of the page.
+     * 
+     * @param pParameters
+     *            the query parameters
+     * @param pOffset
+     *            the number of issues before the page
+     * @param pLimit
+     *            the maximum number of issues of the page
+     * @param pFull
+     *            true to read the issues, false to read their identifiers only
+     * @return the issue list page
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private IssueList listIssues(final Map<String, String> pParameters, final int pOffset,
+            final int pLimit, final boolean pFull) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        if (null == host) {
+            throw new IllegalStateException("The Chiliproject server URL is unknown");
+        }
+        final StringBuilder query = new StringBuilder(host).append("/issues.xml");
+        query.append("?offset=").append(pOffset).append("&limit=").append(pLimit);
+        for (final Map.Entry<String, String> parameter : new TreeMap<String, String>(
+                pParameters).entrySet()) {
+            query.append('&').append(URLEncoder.encode(parameter.getKey(), "UTF-8"));
+            query.append('=').append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+        }
+        if (null != apiKey) {
+            query.append("&key=").append(URLEncoder.encode(apiKey, "UTF-8"));
+        }
+        final URL url = new URL(query.toString());
+
+        return execute(new Callable<IssueList>() {
+
+            @Override
+            public IssueList call() throws Exception {
+
+                final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout((int) Math.min(Integer.MAX_VALUE, timeout));
+                connection.setReadTimeout((int) Math.min(Integer.MAX_VALUE, timeout));
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+                try {
+                    final int status = connection.getResponseCode();
+                    if (status == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                        throw new AuthenticationException("Authorization error for " + host);
+                    } else if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                        throw new NotFoundException("Issue list not found on " + host);
+                    } else if (status != HttpURLConnection.HTTP_OK) {
+                        throw new HttpStatusException(String.format(
+                                "HTTP %d listing the issues on %s", status, host), status);
+                    }
+                    InputStream in = connection.getInputStream();
+                    if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                        in = new GZIPInputStream(in);
+                    }
+                    return readIssueList(in, pFull);
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        }, true, false);
+    }
+
+    /**
+     * Reads the total number of issues and the issues of an XML issue list, and closes it.
+     * 
+     * @param pBody
+     *            the response body
+     * @param pFull
+     *            true to read the issues, false to read their identifiers only
+     * @return the issue list page
+     * @throws IOException
+     *             unable to read the response body, or malformed issue list
+     */
+    private IssueList readIssueList(final InputStream pBody, final boolean pFull)
+            throws IOException {
+
+        final IssueList issues = new IssueList();
+        try {
+            final XMLStreamReader xml = XML_FACTORY.createXMLStreamReader(pBody);
+            try {
+                // <issues total_count="..."><issue><id>...</id>...</issue>...</issues>
+                Issue issue = null;
+                int depth = 0;
+                while (xml.hasNext()) {
+                    final int event = xml.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                        if (depth == 1 && null != issue) {
+                            issues.issues.add(issue);
+                            issue = null;
+                        }
+                        continue;
+                    } else if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    if (depth == 0) {
+                        final String count = xml.getAttributeValue(null, "total_count");
+                        if (null != count) {
+                            issues.totalCount = Integer.parseInt(count.trim());
+                        }
+                    } else if (depth == 1 && pFull) {
+                        issue = new Issue();
+                        issue.setCustomFields(new ArrayList<CustomField>());
+                    } else if (depth == 2 && "id".equals(xml.getLocalName())) {
+                        // getElementText() consumes the end of the element
+                        final Integer id = Integer.valueOf(xml.getElementText().trim());
+                        issues.ids.add(id);
+                        if (null != issue) {
+                            issue.setId(id);
+                        }
+                        continue;
+                    } else if (null != issue && readIssueField(xml, depth, issue)) {
+                        // the text of the field has been read up to the end of the element
+                        continue;
+                    }
+                    depth++;
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (final XMLStreamException e) {
+            throw new IssueParseException("Malformed issue list of " + host, e);
+        } catch (final NumberFormatException e) {
+            throw new IssueParseException("Malformed issue list of " + host, e);
+        } finally {
+            pBody.close();
+        }
+        return issues;
+    }
+
+    /**
+     * Reads a field of an issue of an XML issue list.
+     * 
+     * @param pXml
+     *            the XML reader, on a start element
+     * @param pDepth
+     *            the depth of the element, the issue element being at depth 1
+     * @param pIssue
+     *            the issue
+     * @return true if the text of the element has been read, up to the end of the element
+     * @throws XMLStreamException
+     *             malformed issue list
+     */
+    private static boolean readIssueField(final XMLStreamReader pXml, final int pDepth,
+            final Issue pIssue) throws XMLStreamException {
+
+        final String name = pXml.getLocalName();
+        if (pDepth == 2 && "subject".equals(name)) {
+            pIssue.setSubject(pXml.getElementText());
+            return true;
+        } else if (pDepth == 2 && "description".equals(name)) {
+            pIssue.setDescription(pXml.getElementText());
+            return true;
+        } else if (pDepth == 2 && "project".equals(name)) {
+            final Project project = new Project();
+            project.setId(getIntAttribute(pXml, "id"));
+            project.setName(pXml.getAttributeValue(null, "name"));
+            pIssue.setProject(project);
+        } else if (pDepth == 2 && "tracker".equals(name)) {
+            final Tracker tracker = new Tracker();
+            tracker.setId(getIntAttribute(pXml, "id"));
+            tracker.setName(pXml.getAttributeValue(null, "name"));
+            pIssue.setTracker(tracker);
+        } else if (pDepth == 2 && "status".equals(name)) {
+            pIssue.setStatusId(getIntAttribute(pXml, "id"));
+            pIssue.setStatusName(pXml.getAttributeValue(null, "name"));
+        } else if (pDepth == 3 && "custom_field".equals(name)) {
+            final CustomField field = new CustomField();
+            final Integer id = getIntAttribute(pXml, "id");
+            if (null != id) {
+                field.setId(id);
+            }
+            field.setName(pXml.getAttributeValue(null, "name"));
+            pIssue.getCustomFields().add(field);
+        } else if (pDepth == 4 && "value".equals(name) && !pIssue.getCustomFields().isEmpty()
+                && !"array".equals(pXml.getAttributeValue(null, "type"))) {
+            // the multiple values custom fields are left without value
+            final List<CustomField> fields = pIssue.getCustomFields();
+            fields.get(fields.size() - 1).setValue(pXml.getElementText());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads an integer attribute of the current element.
+     * 
+     * @param pXml
+     *            the XML reader, on a start element
+     * @param pName
+     *            the attribute name
+     * @return the attribute value, null if the element has no such attribute
+     */
+    private static Integer getIntAttribute(final XMLStreamReader pXml, final String pName) {
+
+        final String value = pXml.getAttributeValue(null, pName);
+        return null == value ? null : Integer.valueOf(value.trim());
+    }
+
+    /**
+     * Waits for the response of a request.
+     * 
+     * @param pRequest
+     *            the request
+     * @return the response
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private static <T> T get(final Future<T> pRequest) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        try {
+            return pRequest.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (final ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Rethrows the exception thrown by a request.
+     * 
+     * @param pException
+     *            the exception wrapping the request exception
+     * @return never returns, declared to be thrown by the callers
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private static IOException unwrap(final ExecutionException pException) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        return rethrow(pException.getCause());
+    }
+
+    /**
+     * Rethrows the exception thrown by a request with its type.
+     * 
+     * @param pCause
+     *            the exception thrown by the request
+     * @return the request exception wrapped in an {@link IOException} if it has an unexpected type
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    private static IOException rethrow(final Throwable pCause) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        if (pCause instanceof IOException) {
+            throw (IOException) pCause;
+        } else if (pCause instanceof AuthenticationException) {
+            throw (AuthenticationException) pCause;
+        } else if (pCause instanceof NotFoundException) {
+            throw (NotFoundException) pCause;
+        } else if (pCause instanceof RedmineException) {
+            throw (RedmineException) pCause;
+        } else if (pCause instanceof RuntimeException) {
+            throw (RuntimeException) pCause;
+        } else if (pCause instanceof Error) {
+            throw (Error) pCause;
+        }
+        return new IOException("Chiliproject request failed", pCause);
+    }
+
+    /**
+     * A page of an issue list.
+     */
+    private static final class IssueList {
+
+        /** The total number of issues, -1 if the list doesn't tell it. */
+        private int totalCount = -1;
+
+        /** The identifiers of the issues of the page. */
+        private final List<Integer> ids = new ArrayList<Integer>();
+
+        /** The issues of the page, only read on demand. */
+        private final List<Issue> issues = new ArrayList<Issue>();
+    }
+}
@@ -17,8 +17,11 @@
 
 package fr.dudie.acrachilisync.utils;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.Predicate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.redmine.ta.beans.CustomField;
 import org.redmine.ta.beans.Issue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,34 +58,83 @@ public final class ChiliprojectUtils {
     public static boolean isSynchronized(final AcraReport pReport, final Issue pIssue)
             throws IssueParseException {
 
-        final IssueDescriptionReader reader = new IssueDescriptionReader(pIssue);
-        return CollectionUtils.exists(reader.getOccurrences(), new ReportPredicate(pReport));
+        return isSynchronized(pReport, new IssueDescriptionReader(pIssue));
     }
 
     /**
-     * A predicate to find two reports with the same identifier.
+     * Gets wheter or not the given report has already been synchronized with the issue having the
+     * given description.
      * 
-     * @see AcraReport#getId()
-     * @author Jérémie Huchet
+     * @param pReport
+     *            an ACRA report
+     * @param pDescription
+     *            the parsed description of a Chiliproject issue
+     * @return true if the given report is listed in the given description
      */
-    private static class ReportPredicate implements Predicate {
-
-        private final AcraReport report;
-
-        public ReportPredicate(final AcraReport pReport) {
+    public static boolean isSynchronized(final AcraReport pReport,
+            final IssueDescriptionReader pDescription) {
 
-            this.report = pReport;
-        }
-
-        @Override
-        public boolean evaluate(final Object object) {
+        return pDescription.containsReport(pReport.getId());
+    }
 
-            if (object instanceof AcraReport) {
-                return ((AcraReport) object).getId().equals(this.report.getId());
-            } else {
-                return false;
+    /**
+     * Copies an issue, so the copy may be modified while the original is shared by other threads.
+     * <p>
+     * The fields sent by an issue update and read by the synchronization are copied. The custom
+     * fields are copied too, the other beans, such as the project or the assignee, are shared.
+     * 
+     * @param pIssue
+     *            the issue to copy
+     * @return a copy of the issue
+     */
+    public static Issue copy(final Issue pIssue) {
+
+        final Issue copy = new Issue();
+        copy.setId(pIssue.getId());
+        copy.setSubject(pIssue.getSubject());
+        copy.setDescription(pIssue.getDescription());
+        copy.setProject(pIssue.getProject());
+        copy.setTracker(pIssue.getTracker());
+        copy.setStatusId(pIssue.getStatusId());
+        copy.setStatusName(pIssue.getStatusName());
+        copy.setPriorityId(pIssue.getPriorityId());
+        copy.setAssignee(pIssue.getAssignee());
+        copy.setAuthor(pIssue.getAuthor());
+        copy.setParentId(pIssue.getParentId());
+        copy.setStartDate(copy(pIssue.getStartDate()));
+        copy.setDueDate(copy(pIssue.getDueDate()));
+        copy.setDoneRatio(pIssue.getDoneRatio());
+        copy.setEstimatedHours(pIssue.getEstimatedHours());
+        copy.setCreatedOn(copy(pIssue.getCreatedOn()));
+        copy.setUpdatedOn(copy(pIssue.getUpdatedOn()));
+        copy.setNotes(pIssue.getNotes());
+        if (null != pIssue.getCustomFields()) {
+            final List<CustomField> fields = new ArrayList<CustomField>(pIssue.getCustomFields()
+                    .size());
+            for (final CustomField field : pIssue.getCustomFields()) {
+                final CustomField fieldCopy = new CustomField();
+                fieldCopy.setId(field.getId());
+                fieldCopy.setName(field.getName());
+                fieldCopy.setValue(field.getValue());
+                fields.add(fieldCopy);
             }
+            copy.setCustomFields(fields);
         }
+        if (null != pIssue.getRelations()) {
+            copy.getRelations().addAll(pIssue.getRelations());
+        }
+        return copy;
+    }
+
+    /**
+     * Copies a date.
+     * 
+     * @param pDate
+     *            the date, may be null
+     * @return a copy of the date, null if the date is null
+     */
+    private static Date copy(final Date pDate) {
 
+        return null == pDate ? null : new Date(pDate.getTime());
     }
 }
@@ -17,15 +17,21 @@
 
 package fr.dudie.acrachilisync.utils;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConversionException;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.dudie.acrachilisync.AcraToChiliprojectSyncer;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
 
 /**
  * Loads some configuration elements from a file.
@@ -64,15 +70,163 @@ public final class ConfigurationManager {
     /** The Chiliproject <i>duplicate relationship</i> name. */
     public final String CHILIPROJECT_RELATION_DUPLICATE_NAME;
 
-    /** The feed URL of the Google spreadsheet worksheet containing Acra reports. */
+    /**
+     * The maximum number of requests in flight to the Chiliproject server (defaults to 8). The
+     * requests are bounded by the {@link ChiliprojectClient}, not by a connection pool: the
+     * transport of the Redmine client isn't configurable.
+     */
+    public final int CHILIPROJECT_MAX_CONNECTIONS;
+
+    /**
+     * The timeout of a request to the Chiliproject server in milliseconds (defaults to 0, i.e. no
+     * timeout). The {@link ChiliprojectClient} gives up waiting for the response, the request
+     * itself isn't aborted.
+     */
+    public final long CHILIPROJECT_TIMEOUT;
+
+    /**
+     * The maximum number of requests per second to the Chiliproject server (defaults to 0, i.e. no
+     * limit).
+     */
+    public final double CHILIPROJECT_RATE_LIMIT;
+
+    /**
+     * The target of the 95th percentile of the latency of the issue creations and updates in
+     * milliseconds (defaults to 0, i.e. no adaptive limit). When set, the number of concurrent
+     * issue creations and updates adapts to the latency of the Chiliproject server, between 1 and
+     * {@link #CHILIPROJECT_MAX_CONNECTIONS}: the synchronization then runs at least as many
+     * threads, whatever {@link #SYNC_CONCURRENCY} is.
+     */
+    public final long CHILIPROJECT_WRITE_LATENCY_TARGET;
+
+    /**
+     * The feed URL of the Google spreadsheet worksheet containing Acra reports, on the
+     * <code>google.spreadsheet.host</code> server (defaults to
+     * {@link AcraToChiliprojectSyncer#SPREADSHEET_HOST}).
+     */
     public final URL SPREADSHEET_FEED_URL;
 
+    /** The URL of the cell feed of the worksheet containing Acra reports. */
+    public final URL SPREADSHEET_CELL_FEED_URL;
+
     /** The Google account login to use. */
     public final String GOOGLE_LOGIN;
 
     /** The Google account password. */
     public final String GOOGLE_PASSWORD;
 
+    /**
+     * The maximum number of requests per second to the Google spreadsheet (defaults to 0, i.e. no
+     * limit).
+     */
+    public final double SPREADSHEET_RATE_LIMIT;
+
+    /**
+     * True to retrieve all issues of the project once at the beginning of the synchronization
+     * instead of querying the Chiliproject server for each report (defaults to false). Superseded
+     * by {@link #SYNC_LOOKUP_PLAN}.
+     */
+    public final boolean SYNC_LOOKUP_PREFETCH;
+
+    /**
+     * The number of stacktraces looked up by a single Chiliproject request of the
+     * {@link LookupPlan#BATCH batch} lookup plan: the stacktraces of a page of reports are looked
+     * up before it is synchronized. Defaults to 0: the batch plan isn't chosen unless it is forced,
+     * the server must support the multiple values custom field filters.
+     */
+    public final int SYNC_LOOKUP_BATCH_SIZE;
+
+    /**
+     * The way to look up the issues of the stacktraces: <code>per_stacktrace</code>,
+     * <code>batch</code> or <code>prefetch</code>. Defaults to <code>auto</code>, represented by
+     * null: the plan sending the fewest requests is chosen from the number of unsynchronized
+     * reports and the number of issues of the project, <code>batch</code> being only considered
+     * when {@link #SYNC_LOOKUP_BATCH_SIZE} is greater than 1. Defaults to <code>prefetch</code>
+     * when {@link #SYNC_LOOKUP_PREFETCH} is set.
+     */
+    public final LookupPlan SYNC_LOOKUP_PLAN;
+
+    /**
+     * The number of stacktraces synchronized in parallel with the Chiliproject server (defaults to
+     * 1, i.e. sequential synchronization). Raised to {@link #CHILIPROJECT_MAX_CONNECTIONS} when
+     * {@link #CHILIPROJECT_WRITE_LATENCY_TARGET} is set.
+     */
+    public final int SYNC_CONCURRENCY;
+
+    /**
+     * The maximum number of cells written by a single Google spreadsheet batch request when
+     * committing the stacktrace MD5 hashes (defaults to 500). A value lower than 2 disables batch
+     * requests: each row is then updated through its list entry, fetched again by its link when
+     * only a projection of the report columns is retained.
+     */
+    public final int SYNC_COMMIT_BATCH_SIZE;
+
+    /**
+     * The number of spreadsheet rows read, synchronized and committed at once (defaults to 0, all
+     * the unsynchronized rows are read at once). The issue of a stacktrace spanning several pages
+     * is updated once per page.
+     */
+    public final int SYNC_PAGE_SIZE;
+
+    /**
+     * The report columns to retain in memory in addition to the ones required by the
+     * synchronization, <code>null</code> to retain all columns (<code>*</code>). Defaults to no
+     * additional columns.
+     */
+    public final Set<AcraReportHeader> SYNC_REPORT_COLUMNS;
+
+    /**
+     * The number of most recent occurrences listed in an issue description, the older ones are
+     * rolled up into counts by application version, Android version and device (defaults to 0, i.e.
+     * all occurrences are listed). Only the counts of the rolled up occurrences are kept: a report
+     * whose stacktrace MD5 hash failed to be committed may be added again once rolled up, unless
+     * the {@link #SYNC_STATE_DIR synchronization state} is kept.
+     */
+    public final int SYNC_DESCRIPTION_ROLLUP_KEEP;
+
+    /**
+     * The directory of the local synchronization state, which remembers the reports synchronized
+     * with the Chiliproject server until their stacktrace MD5 hash is written to the spreadsheet.
+     * A synchronization fails if another one uses the same directory. Defaults to null: no local
+     * state is kept.
+     */
+    public final File SYNC_STATE_DIR;
+
+    /**
+     * The fingerprint of the stacktraces stored as their MD5 hash: <code>md5</code> hashes the
+     * whole stacktrace, <code>normalized</code> hashes the stacktrace without its line numbers,
+     * messages and generated class names. Defaults to <code>md5</code>, the fingerprint of the
+     * existing issues.
+     */
+    public final StacktraceFingerprint SYNC_FINGERPRINT;
+
+    /**
+     * The maximum number of attempts of a remote call failing with a transient error (defaults to
+     * 3). Only the calls without side effect, or which couldn't reach the server, are retried.
+     */
+    public final int SYNC_RETRY_ATTEMPTS;
+
+    /**
+     * The maximum backoff before the first retry of a remote call in milliseconds, doubled on each
+     * retry (defaults to 500). The backoff is drawn at random up to this maximum.
+     */
+    public final long SYNC_RETRY_DELAY;
+
+    /** The maximum backoff before a retry in milliseconds (defaults to 30000). */
+    public final long SYNC_RETRY_MAX_DELAY;
+
+    /**
+     * The number of consecutive transient errors of a remote service pausing its calls (defaults
+     * to 5). A value of 0 disables the circuit breaker.
+     */
+    public final int SYNC_BREAKER_FAILURES;
+
+    /**
+     * The pause of the calls to a failing remote service in milliseconds, before a trial call is
+     * let through (defaults to 60000).
+     */
+    public final long SYNC_BREAKER_PAUSE;
+
     /** The unique instance of the configuration manage. */
     private static ConfigurationManager instance;
 
@@ -90,17 +244,111 @@ public final class ConfigurationManager {
         CHILIPROJECT_STATUS_CLOSED_ID = pConf.getInt("chiliproject.issue.status.closed.id");
         CHILIPROJECT_RELATION_DUPLICATE_NAME = pConf
                 .getString("chiliproject.issue.relation.duplicate.name");
+        CHILIPROJECT_MAX_CONNECTIONS = Math.max(1,
+                pConf.getInt("chiliproject.max.connections", 8));
+        CHILIPROJECT_TIMEOUT = Math.max(0, pConf.getLong("chiliproject.timeout", 0));
+        CHILIPROJECT_RATE_LIMIT = Math.max(0, pConf.getDouble("chiliproject.rate.limit", 0));
+        CHILIPROJECT_WRITE_LATENCY_TARGET = Math.max(0,
+                pConf.getLong("chiliproject.write.latency.target", 0));
 
         final String documentKey = pConf.getString("google.spreadsheet.document.key");
         final String worksheetId = pConf.getString("google.spreadsheet.worksheet.id");
 
-        final String url = String.format(AcraToChiliprojectSyncer.WORKSHEET_URL_FORMAT,
+        final String host = StringUtils.removeEnd(pConf.getString("google.spreadsheet.host",
+                AcraToChiliprojectSyncer.SPREADSHEET_HOST), "/");
+
+        final String url = String.format(AcraToChiliprojectSyncer.WORKSHEET_URL_FORMAT, host,
                 documentKey, worksheetId);
         SPREADSHEET_FEED_URL = getURL(url);
+        SPREADSHEET_CELL_FEED_URL = getURL(String.format(
+                AcraToChiliprojectSyncer.CELL_FEED_URL_FORMAT, host, documentKey, worksheetId));
 
         GOOGLE_LOGIN = pConf.getString("google.account.username");
         GOOGLE_PASSWORD = pConf.getString("google.account.password");
+        SPREADSHEET_RATE_LIMIT = Math.max(0,
+                pConf.getDouble("google.spreadsheet.rate.limit", 0));
+
+        SYNC_LOOKUP_PREFETCH = pConf.getBoolean("sync.lookup.prefetch", false);
+        SYNC_LOOKUP_BATCH_SIZE = pConf.getInt("sync.lookup.batch.size", 0);
+        SYNC_LOOKUP_PLAN = getLookupPlan(pConf.getString("sync.lookup.plan",
+                SYNC_LOOKUP_PREFETCH ? "prefetch" : "auto"));
+        SYNC_CONCURRENCY = Math.max(1, pConf.getInt("sync.concurrency", 1));
+        SYNC_COMMIT_BATCH_SIZE = pConf.getInt("sync.commit.batch.size", 500);
+        SYNC_PAGE_SIZE = Math.max(0, pConf.getInt("sync.page.size", 0));
+        SYNC_REPORT_COLUMNS = getColumns(pConf.getStringArray("sync.report.columns"));
+        SYNC_DESCRIPTION_ROLLUP_KEEP = Math.max(0,
+                pConf.getInt("sync.description.rollup.keep", 0));
+        final String stateDir = pConf.getString("sync.state.dir");
+        SYNC_STATE_DIR = StringUtils.isBlank(stateDir) ? null : new File(stateDir.trim());
+        SYNC_FINGERPRINT = getFingerprint(pConf.getString("sync.fingerprint", "md5"));
+        SYNC_RETRY_ATTEMPTS = Math.max(1, pConf.getInt("sync.retry.attempts", 3));
+        SYNC_RETRY_DELAY = Math.max(0, pConf.getLong("sync.retry.delay", 500));
+        SYNC_RETRY_MAX_DELAY = Math.max(SYNC_RETRY_DELAY,
+                pConf.getLong("sync.retry.max.delay", 30000));
+        SYNC_BREAKER_FAILURES = Math.max(0, pConf.getInt("sync.breaker.failures", 5));
+        SYNC_BREAKER_PAUSE = Math.max(0, pConf.getLong("sync.breaker.pause", 60000));
+    }
+
+    /**
+     * Converts a lookup plan name to a {@link LookupPlan} or throw a
+     * {@link org.apache.commons.configuration.ConversionException}.
+     * 
+     * @param pPlan
+     *            the plan name such as <code>prefetch</code>
+     * @return the plan, null for <code>auto</code>
+     */
+    private static LookupPlan getLookupPlan(final String pPlan) {
+
+        if ("auto".equalsIgnoreCase(pPlan.trim())) {
+            return null;
+        }
+        try {
+            return LookupPlan.valueOf(pPlan.trim().toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            throw new ConversionException("Unknown lookup plan " + pPlan, e);
+        }
+    }
+
+    /**
+     * Converts a fingerprint name to a {@link StacktraceFingerprint} or throw a
+     * {@link org.apache.commons.configuration.ConversionException}.
+     * 
+     * @param pFingerprint
+     *            the fingerprint name such as <code>md5</code>
+     * @return the fingerprint
+     */
+    private static StacktraceFingerprint getFingerprint(final String pFingerprint) {
+
+        try {
+            return StacktraceFingerprint.valueOf(pFingerprint.trim().toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            throw new ConversionException("Unknown stacktrace fingerprint " + pFingerprint, e);
+        }
+    }
 
+    /**
+     * Converts a list of column names to a set of {@link AcraReportHeader} or throw a
+     * {@link org.apache.commons.configuration.ConversionException}.
+     * 
+     * @param pColumns
+     *            header names such as <code>LOGCAT</code> or <code>*</code> for all columns
+     * @return the set of columns, null for all columns
+     */
+    private static Set<AcraReportHeader> getColumns(final String[] pColumns) {
+
+        final Set<AcraReportHeader> columns = EnumSet.noneOf(AcraReportHeader.class);
+        for (final String column : pColumns) {
+            if ("*".equals(column.trim())) {
+                return null;
+            } else if (column.trim().length() > 0) {
+                try {
+                    columns.add(AcraReportHeader.valueOf(column.trim().toUpperCase()));
+                } catch (final IllegalArgumentException e) {
+                    throw new ConversionException("Unknown report column " + column, e);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(columns);
     }
 
     /**
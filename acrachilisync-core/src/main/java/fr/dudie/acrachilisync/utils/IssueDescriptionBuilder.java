@@ -20,14 +20,25 @@ package fr.dudie.acrachilisync.utils;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.model.OccurrenceRollup;
+import fr.dudie.acrachilisync.model.OccurrenceRollup.Dimension;
 
 /**
  * Helper class to build a formatted issue description to be able to retrieve informations later.
+ * <p>
+ * When a {@link #setRollupKeep(int) rollup} is enabled, only the most recent occurrences are
+ * listed, the older ones are counted by application version, Android version and device in the
+ * occurrences rollup table.
+ * <p>
+ * The description is written in the {@link IssueDescriptionUtils#DESCRIPTION_VERSION current
+ * format} unless an {@link #setVersion(int) older version} is required. The version 2 format has
+ * no occurrences rollup.
  * 
  * @author Jérémie Huchet
  * @see IssueDescriptionReader
@@ -37,6 +48,9 @@ public final class IssueDescriptionBuilder {
     /** The event logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(IssueDescriptionBuilder.class);
 
+    /** The first description format version holding an occurrences rollup. */
+    private static final int ROLLUP_VERSION = 3;
+
     /** The error stacktrace. */
     private final String stacktrace;
 
@@ -46,6 +60,15 @@ public final class IssueDescriptionBuilder {
     /** The occurrence time for each ACRA bug report. */
     private final List<ErrorOccurrence> occurrences;
 
+    /** The occurrences already rolled up. */
+    private OccurrenceRollup rollup;
+
+    /** The number of occurrences listed when the rollup is enabled, 0 to list all occurrences. */
+    private int rollupKeep;
+
+    /** The format version of the description. */
+    private int version = IssueDescriptionUtils.DESCRIPTION_VERSION;
+
     /**
      * Default constructor.
      * 
@@ -57,23 +80,57 @@ public final class IssueDescriptionBuilder {
         stacktrace = pStacktrace;
         stacktraceMD5 = MD5Utils.toMD5hash(pStacktrace);
         occurrences = new ArrayList<ErrorOccurrence>();
+        rollup = new OccurrenceRollup();
     }
 
     /**
      * Builds the description.
      * 
      * @return the issue description
+     * @throws IllegalStateException
+     *             a version 2 description is built with occurrences already rolled up
      * @see IssueDescriptionUtils
      */
     public String build() {
 
+        if (version < ROLLUP_VERSION && !rollup.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "A version %d description can't hold an occurrences rollup", version));
+        }
+
         final StringBuilder description = new StringBuilder();
 
+        // roll up the oldest occurrences
+        final OccurrenceRollup rolledUp = new OccurrenceRollup(rollup);
+        final List<ErrorOccurrence> listed;
+        if (version >= ROLLUP_VERSION && rollupKeep > 0 && occurrences.size() > rollupKeep) {
+            final int first = occurrences.size() - rollupKeep;
+            for (final ErrorOccurrence error : occurrences.subList(0, first)) {
+                rolledUp.add(error);
+            }
+            listed = occurrences.subList(first, occurrences.size());
+        } else {
+            listed = occurrences;
+        }
+
         // append occurrences
         description.append(IssueDescriptionUtils.getOccurrencesTableHeader()).append('\n');
-        for (final ErrorOccurrence error : occurrences) {
-            description.append(IssueDescriptionUtils.getOccurrencesTableLine(error));
-            description.append('\n');
+        for (final ErrorOccurrence error : listed) {
+            IssueDescriptionUtils.appendOccurrencesTableLine(description, error).append('\n');
+        }
+
+        // append rollup
+        if (!rolledUp.isEmpty()) {
+            description.append('\n').append(IssueDescriptionUtils.getRollupTitle()).append('\n');
+            description.append(IssueDescriptionUtils.getRollupTableHeader()).append('\n');
+            for (final Dimension dimension : Dimension.values()) {
+                for (final Map.Entry<String, Integer> count : rolledUp.getCounts(dimension)
+                        .entrySet()) {
+                    description.append(IssueDescriptionUtils.getRollupTableLine(dimension,
+                            count.getKey(), count.getValue()));
+                    description.append('\n');
+                }
+            }
         }
 
         // append stacktrace
@@ -83,7 +140,7 @@ public final class IssueDescriptionBuilder {
         description.append(stacktrace.trim()).append("</pre>");
 
         // append version
-        description.append('\n').append(IssueDescriptionUtils.DESCRIPTION_VERSION_TAG);
+        description.append('\n').append(IssueDescriptionUtils.getDescriptionVersionTag(version));
 
         return description.toString();
     }
@@ -113,4 +170,49 @@ public final class IssueDescriptionBuilder {
 
         occurrences.add(pError);
     }
+
+    /**
+     * Sets the occurrences already rolled up, i.e. the ones counted in the rollup table of the
+     * description being updated.
+     * 
+     * @param pRollup
+     *            the occurrences already rolled up
+     * @see IssueDescriptionReader#getRollup()
+     */
+    public void setRollup(final OccurrenceRollup pRollup) {
+
+        rollup = new OccurrenceRollup(pRollup);
+    }
+
+    /**
+     * Sets the number of most recent occurrences listed in the description, the older ones are
+     * rolled up.
+     * 
+     * @param pRollupKeep
+     *            the number of occurrences to list, 0 to list all occurrences
+     */
+    public void setRollupKeep(final int pRollupKeep) {
+
+        rollupKeep = pRollupKeep;
+    }
+
+    /**
+     * Sets the format version of the description, the occurrences are never rolled up in the
+     * version 2 format.
+     * 
+     * @param pVersion
+     *            the format version, from
+     *            {@link IssueDescriptionUtils#OLDEST_READABLE_DESCRIPTION_VERSION} to
+     *            {@link IssueDescriptionUtils#DESCRIPTION_VERSION}
+     * @throws IllegalArgumentException
+     *             the version isn't supported
+     */
+    public void setVersion(final int pVersion) {
+
+        if (pVersion < IssueDescriptionUtils.OLDEST_READABLE_DESCRIPTION_VERSION
+                || pVersion > IssueDescriptionUtils.DESCRIPTION_VERSION) {
+            throw new IllegalArgumentException("Unsupported description version: " + pVersion);
+        }
+        version = pVersion;
+    }
 }
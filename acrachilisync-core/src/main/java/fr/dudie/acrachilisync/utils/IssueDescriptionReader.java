@@ -19,9 +19,10 @@ package fr.dudie.acrachilisync.utils;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,10 +36,18 @@ import org.slf4j.LoggerFactory;
 
 import fr.dudie.acrachilisync.exception.IssueParseException;
 import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.model.OccurrenceRollup;
+import fr.dudie.acrachilisync.model.OccurrenceRollup.Dimension;
 
 /**
  * Helper class to extract informations from an issue description generated with
  * {@link IssueDescriptionBuilder}.
+ * <p>
+ * The identifiers of the ACRA reports counted in the occurrences rollup table are not kept in the
+ * description: {@link #containsReport(String)} only knows the occurrences listed one by one. The
+ * reports rolled up are already synchronized, the spreadsheet rows holding their stacktrace MD5
+ * hash aren't read again, and the {@link SyncStateStore} knows the ones whose hash isn't committed
+ * yet.
  * 
  * @author Jérémie Huchet
  * @see IssueDescriptionBuilder
@@ -80,6 +89,31 @@ public final class IssueDescriptionReader {
     .compile("\\s*%\\(acrachilisync-description-version\\)description_version_(\\d+)%\\s*",
             Pattern.CASE_INSENSITIVE);
 
+    /** The ACRA bug occurrences table header. */
+    private static final String TABLE_HEADER = IssueDescriptionUtils.getOccurrencesTableHeader();
+
+    /** The characters of the {@link IssueDescriptionUtils#EOL} class. */
+    private static final String EOL_CHARS = IssueDescriptionUtils.EOL.substring(1,
+            IssueDescriptionUtils.EOL.length() - 1);
+
+    /** The number of fields of an occurrence line. */
+    private static final int LINE_FIELDS = 7;
+
+    /** The shape of a crash date, 0 stands for a digit. */
+    private static final String DATE_SHAPE = "00/00/0000 00:00:00";
+
+    /** The running time units, from the largest to the smallest. */
+    private static final String RUN_FOR_UNITS = "dhms";
+
+    /** The occurrences rollup table header. */
+    private static final String ROLLUP_HEADER = IssueDescriptionUtils.getRollupTableHeader();
+
+    /** The tag starting the stacktrace block. */
+    private static final String STACKTRACE_START = "<pre class=\"javastacktrace\">";
+
+    /** The tag ending the stacktrace block. */
+    private static final String STACKTRACE_END = "</pre>";
+
     /** The error stacktrace. */
     private final String stacktrace;
 
@@ -89,6 +123,12 @@ public final class IssueDescriptionReader {
     /** The occurrence time for each ACRA bug report. */
     private final List<ErrorOccurrence> occurrences = new ArrayList<ErrorOccurrence>();
 
+    /** The identifiers of the ACRA reports listed in the occurrences. */
+    private final Set<String> reportIds = new HashSet<String>();
+
+    /** The occurrences counted in the rollup table. */
+    private final OccurrenceRollup rollup;
+
     /**
      * Constructor.
      * <p>
@@ -106,9 +146,14 @@ public final class IssueDescriptionReader {
 
         stacktraceMD5 = getStacktraceMD5(pIssue);
         if (!StringUtils.isBlank(pIssue.getDescription())) {
-            occurrences.addAll(parseAcraOccurrencesTable(pIssue.getDescription(), stacktraceMD5));
+            for (final ErrorOccurrence error : parseAcraOccurrencesTable(pIssue.getDescription(),
+                    stacktraceMD5)) {
+                addOccurrence(error);
+            }
+            rollup = parseRollup(pIssue.getDescription());
             stacktrace = parseStacktrace(pIssue.getDescription(), stacktraceMD5);
         } else {
+            rollup = new OccurrenceRollup();
             stacktrace = "";
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Issue {} have an empty description", pIssue.getId());
@@ -122,7 +167,8 @@ public final class IssueDescriptionReader {
      * @param pIssue
      *            the issue
      * @throws IssueParseException
-     *             the description version tag doesn't describe the expected version
+     *             the description version tag doesn't describe a version between
+     *             {@link IssueDescriptionUtils#OLDEST_READABLE_DESCRIPTION_VERSION} and
      *             {@link IssueDescriptionUtils#DESCRIPTION_VERSION}
      */
     private void checkDescriptionVersion(final Issue pIssue) throws IssueParseException {
@@ -135,10 +181,13 @@ public final class IssueDescriptionReader {
             // default version is 1
             version = 1;
         }
-        if (IssueDescriptionUtils.DESCRIPTION_VERSION != version) {
+        if (version < IssueDescriptionUtils.OLDEST_READABLE_DESCRIPTION_VERSION
+                || version > IssueDescriptionUtils.DESCRIPTION_VERSION) {
             throw new IssueParseException(String.format(
-                    "Issue #%s has unsupported description: %d. Expected version %d ",
-                    pIssue.getId(), version, IssueDescriptionUtils.DESCRIPTION_VERSION));
+                    "Issue #%s has unsupported description: %d. Expected version %d to %d ",
+                    pIssue.getId(), version,
+                    IssueDescriptionUtils.OLDEST_READABLE_DESCRIPTION_VERSION,
+                    IssueDescriptionUtils.DESCRIPTION_VERSION));
         }
     }
 
@@ -166,6 +215,11 @@ public final class IssueDescriptionReader {
 
     /**
      * Extracts the list of bug occurrences from the description.
+     * <p>
+     * Matches the same descriptions as a search of
+     * <code>header (\r\n|EOL) (OCCURR_LINE_PATTERN EOL+)+</code> ignoring the case, where
+     * <code>EOL</code> is {@link IssueDescriptionUtils#EOL}, followed by a search of
+     * {@link #OCCURR_LINE_PATTERN} in the table found, without compiling any regular expression.
      * 
      * @param pDescription
      *            the issue description
@@ -179,59 +233,30 @@ public final class IssueDescriptionReader {
             final String pStacktraceMD5) throws IssueParseException {
 
         final List<ErrorOccurrence> occur = new ArrayList<ErrorOccurrence>();
+        final int[] fields = new int[LINE_FIELDS + 1];
 
-        // escape braces { and } to use strings in regexp
-        final String header = IssueDescriptionUtils.getOccurrencesTableHeader();
-        final String escHeader = Pattern.quote(header);
-
-        // regexp to find occurrences tables
-        final Pattern p = Pattern.compile(escHeader + IssueDescriptionUtils.EOL + "(?:"
-                + OCCURR_LINE_PATTERN + IssueDescriptionUtils.EOL + "+)+", Pattern.DOTALL
-                | Pattern.CASE_INSENSITIVE);
-        final Matcher m = p.matcher(pDescription);
+        final int[] table = findOccurrencesTable(pDescription, 0, fields);
+        if (null == table) {
+            throw new IssueParseException("No crash occurrence table found in the description");
+        }
 
-        if (m.find()) {
-            // regexp to find occurrences lines
-            final Pattern pLine = Pattern.compile(OCCURR_LINE_PATTERN);
-            final Matcher mLine = pLine.matcher(m.group());
-            while (mLine.find()) {
-                try {
-                    final StringTokenizer line = new StringTokenizer(mLine.group(), "|");
-                    final String acraReportId = line.nextToken();
-                    final String acraUserCrashDate = line.nextToken();
-                    final String acraRunFor = line.nextToken();
-                    final String acraAndroidVersion = line.nextToken();
-                    final String acraVersionCode = line.nextToken();
-                    final String acraVersionName = line.nextToken();
-                    final String acraDevice = line.nextToken();
-                    final ErrorOccurrence error = new ErrorOccurrence();
-                    error.setReportId(acraReportId);
-                    try {
-                        error.setCrashDate(IssueDescriptionUtils.parseDate(acraUserCrashDate));
-                        error.setRunFor(RunningTimeUtils.parseRunningTime(acraRunFor));
-                    } catch (final ParseException e) {
-                        throw new IssueParseException(
-                                "Unable to parse user crash date of ACRA report " + acraReportId, e);
-                    }
-                    error.setAndroidVersion(acraAndroidVersion);
-                    error.setVersionCode(acraVersionCode);
-                    error.setVersionName(acraVersionName);
-                    error.setDevice(acraDevice);
-                    occur.add(error);
-                } catch (final NoSuchElementException e) {
-                    throw new IssueParseException("Unable to parse ACRA report line: "
-                            + mLine.group(), e);
-                }
+        // the lines of the table must also match with the case of the running time units
+        int pos = pDescription.indexOf('|', table[0]);
+        while (pos >= 0 && pos < table[1]) {
+            final int end = matchOccurrenceLine(pDescription, pos, table[1], true, fields);
+            if (end < 0) {
+                pos = pDescription.indexOf('|', pos + 1);
+            } else {
+                occur.add(toErrorOccurrence(pDescription, fields));
+                pos = pDescription.indexOf('|', end);
             }
-        } else {
-            throw new IssueParseException("No crash occurrence table found in the description");
         }
 
-        if (m.find()) {
+        if (null != findOccurrencesTable(pDescription, table[1], fields)) {
             throw new IssueParseException("More than 1 occurrence table found in the description");
         }
 
-        if (CollectionUtils.isEmpty(occur)) {
+        if (occur.isEmpty()) {
             throw new IssueParseException("0 user crash occurrence found in the description");
         }
 
@@ -239,7 +264,430 @@ public final class IssueDescriptionReader {
     }
 
     /**
-     * Extracts the bug stacktrace from the description.
+     * Finds the next occurrences table: the table header, a line terminator or <code>\r\n</code>
+     * and at least one occurrence line (ignoring the case), each line being followed by one or
+     * more line terminators.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pFrom
+     *            the index to start the search from
+     * @param pFields
+     *            an array to store the positions of the line separators
+     * @return the start index (inclusive) and the end index (exclusive) of the table, null if
+     *         there is no table
+     */
+    private static int[] findOccurrencesTable(final String pDescription, final int pFrom,
+            final int[] pFields) {
+
+        final int length = pDescription.length();
+        int header = indexOfIgnoreCase(pDescription, TABLE_HEADER, pFrom);
+        while (header >= 0) {
+            int pos = header + TABLE_HEADER.length();
+            int end = -1;
+            if (pos < length && isEol(pDescription.charAt(pos))) {
+                // a description edited through the web interface ends its lines with \r\n
+                pos += pDescription.startsWith("\r\n", pos) ? 2 : 1;
+                int lineEnd = matchOccurrenceLine(pDescription, pos, length, false, pFields);
+                while (lineEnd >= 0 && lineEnd < length && isEol(pDescription.charAt(lineEnd))) {
+                    pos = lineEnd + 1;
+                    while (pos < length && isEol(pDescription.charAt(pos))) {
+                        pos++;
+                    }
+                    end = pos;
+                    lineEnd = matchOccurrenceLine(pDescription, pos, length, false, pFields);
+                }
+            }
+            if (end >= 0) {
+                return new int[] { header, end };
+            }
+            header = indexOfIgnoreCase(pDescription, TABLE_HEADER, header + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Checks an occurrence line matching {@link #OCCURR_LINE_PATTERN} starts at the given index.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStart
+     *            the index of the first <code>|</code> of the line
+     * @param pLimit
+     *            the index the line must end before
+     * @param pCaseSensitive
+     *            false to ignore the case of the running time units
+     * @param pFields
+     *            an array to store the positions of the {@value #LINE_FIELDS} + 1 separators
+     * @return the index following the last <code>|</code> of the line, -1 if there is no line
+     */
+    private static int matchOccurrenceLine(final String pDescription, final int pStart,
+            final int pLimit, final boolean pCaseSensitive, final int[] pFields) {
+
+        if (pStart >= pLimit || pDescription.charAt(pStart) != '|') {
+            return -1;
+        }
+        pFields[0] = pStart;
+        for (int i = 1; i <= LINE_FIELDS; i++) {
+            final int next = pDescription.indexOf('|', pFields[i - 1] + 1);
+            if (next < 0 || next >= pLimit || next == pFields[i - 1] + 1) {
+                return -1;
+            }
+            pFields[i] = next;
+        }
+
+        final boolean valid = isReportId(pDescription, pFields[0] + 1, pFields[1])
+                && isDate(pDescription, pFields[1] + 1, pFields[2])
+                && isRunningTime(pDescription, pFields[2] + 1, pFields[3], pCaseSensitive)
+                && isNumber(pDescription, pFields[4] + 1, pFields[5]);
+        return valid ? pFields[LINE_FIELDS] + 1 : -1;
+    }
+
+    /**
+     * Creates an occurrence from the fields of a line.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pFields
+     *            the positions of the separators of the line
+     * @return the occurrence
+     * @throws IssueParseException
+     *             the crash date or the running time can't be parsed
+     */
+    private static ErrorOccurrence toErrorOccurrence(final String pDescription,
+            final int[] pFields) throws IssueParseException {
+
+        final String acraReportId = pDescription.substring(pFields[0] + 1, pFields[1]);
+        final ErrorOccurrence error = new ErrorOccurrence();
+        error.setReportId(acraReportId);
+        try {
+            error.setCrashDate(IssueDescriptionUtils.parseDate(pDescription.substring(
+                    pFields[1] + 1, pFields[2])));
+            error.setRunFor(RunningTimeUtils.parseRunningTime(pDescription.substring(
+                    pFields[2] + 1, pFields[3])));
+        } catch (final ParseException e) {
+            throw new IssueParseException("Unable to parse user crash date of ACRA report "
+                    + acraReportId, e);
+        }
+        error.setAndroidVersion(pDescription.substring(pFields[3] + 1, pFields[4]));
+        error.setVersionCode(pDescription.substring(pFields[4] + 1, pFields[5]));
+        error.setVersionName(pDescription.substring(pFields[5] + 1, pFields[6]));
+        error.setDevice(pDescription.substring(pFields[6] + 1, pFields[7]));
+        return error;
+    }
+
+    /**
+     * Extracts the occurrences rollup table from the description, if there is one before the
+     * stacktrace block.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @return the occurrences rolled up, empty if the description has no rollup table
+     * @throws IssueParseException
+     *             malformed rollup table
+     */
+    private static OccurrenceRollup parseRollup(final String pDescription)
+            throws IssueParseException {
+
+        final OccurrenceRollup rolledUp = new OccurrenceRollup();
+        final int header = pDescription.indexOf(ROLLUP_HEADER);
+        final int stacktraceStart = indexOfIgnoreCase(pDescription, STACKTRACE_START, 0);
+        if (header < 0 || (stacktraceStart >= 0 && header > stacktraceStart)) {
+            return rolledUp;
+        }
+
+        final int length = pDescription.length();
+        int pos = skipEols(pDescription, header + ROLLUP_HEADER.length());
+        while (pos < length && pDescription.charAt(pos) == '|') {
+            int end = pos;
+            while (end < length && !isEol(pDescription.charAt(end))) {
+                end++;
+            }
+            parseRollupLine(pDescription, pos, end, rolledUp);
+            pos = skipEols(pDescription, end);
+        }
+        return rolledUp;
+    }
+
+    /**
+     * Parses a line of the occurrences rollup table: <code>|label|value|count|</code>, the value
+     * may contain <code>|</code> characters.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStart
+     *            the index of the first <code>|</code> of the line
+     * @param pEnd
+     *            the index of the end of the line (exclusive)
+     * @param pRollup
+     *            the rollup to add the count to
+     * @throws IssueParseException
+     *             malformed rollup line
+     */
+    private static void parseRollupLine(final String pDescription, final int pStart,
+            final int pEnd, final OccurrenceRollup pRollup) throws IssueParseException {
+
+        final int label = pDescription.indexOf('|', pStart + 1);
+        final int count = pDescription.lastIndexOf('|', pEnd - 2);
+        if (pDescription.charAt(pEnd - 1) != '|' || label < 0 || count <= label
+                || !isNumber(pDescription, count + 1, pEnd - 1)) {
+            throw new IssueParseException("Malformed occurrences rollup line: "
+                    + pDescription.substring(pStart, pEnd));
+        }
+        final Dimension dimension = Dimension.fromLabel(pDescription.substring(pStart + 1, label));
+        if (null == dimension) {
+            throw new IssueParseException("Unknown occurrences rollup criteria: "
+                    + pDescription.substring(pStart + 1, label));
+        }
+        try {
+            pRollup.increment(dimension, pDescription.substring(label + 1, count),
+                    Integer.parseInt(pDescription.substring(count + 1, pEnd - 1)));
+        } catch (final NumberFormatException e) {
+            throw new IssueParseException("Malformed occurrences rollup count: "
+                    + pDescription.substring(pStart, pEnd), e);
+        }
+    }
+
+    /**
+     * Skips the line terminators found at the given index.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pFrom
+     *            an index
+     * @return the index of the first character which isn't a line terminator
+     */
+    private static int skipEols(final String pDescription, final int pFrom) {
+
+        int pos = pFrom;
+        while (pos < pDescription.length() && isEol(pDescription.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Checks the characters between the given indexes match <code>[\w-]+</code>.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStart
+     *            the start index (inclusive)
+     * @param pEnd
+     *            the end index (exclusive)
+     * @return true if the field is a report identifier
+     */
+    private static boolean isReportId(final String pDescription, final int pStart, final int pEnd) {
+
+        for (int i = pStart; i < pEnd; i++) {
+            final char c = pDescription.charAt(i);
+            if (!isDigit(c) && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '_'
+                    && c != '-') {
+                return false;
+            }
+        }
+        return pStart < pEnd;
+    }
+
+    /**
+     * Checks the characters between the given indexes match
+     * <code>\d{2}/\d{2}/\d{4} \d{2}:\d{2}:\d{2}</code>.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStart
+     *            the start index (inclusive)
+     * @param pEnd
+     *            the end index (exclusive)
+     * @return true if the field is a crash date
+     */
+    private static boolean isDate(final String pDescription, final int pStart, final int pEnd) {
+
+        if (pEnd - pStart != DATE_SHAPE.length()) {
+            return false;
+        }
+        for (int i = 0; i < DATE_SHAPE.length(); i++) {
+            final char expected = DATE_SHAPE.charAt(i);
+            final char c = pDescription.charAt(pStart + i);
+            if (expected == '0' ? !isDigit(c) : c != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the characters between the given indexes match
+     * <code>(((\d{1,2}d )?\d{1,2}h )?\d{1,2}m )?\d{1,2}s</code>: the units are a suffix of
+     * {@value #RUN_FOR_UNITS}.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStart
+     *            the start index (inclusive)
+     * @param pEnd
+     *            the end index (exclusive)
+     * @param pCaseSensitive
+     *            false to ignore the case of the units
+     * @return true if the field is a running time
+     */
+    private static boolean isRunningTime(final String pDescription, final int pStart,
+            final int pEnd, final boolean pCaseSensitive) {
+
+        int unit = -1;
+        int pos = pStart;
+        while (pos < pEnd) {
+            int digits = 0;
+            while (pos < pEnd && isDigit(pDescription.charAt(pos))) {
+                pos++;
+                digits++;
+            }
+            if (digits < 1 || digits > 2 || pos == pEnd) {
+                return false;
+            }
+            char c = pDescription.charAt(pos++);
+            if (!pCaseSensitive) {
+                c = toLowerAscii(c);
+            }
+            final int next = RUN_FOR_UNITS.indexOf(c);
+            if (next < 0 || (unit >= 0 && next != unit + 1)) {
+                return false;
+            }
+            unit = next;
+            if (pos < pEnd && (pDescription.charAt(pos++) != ' ' || pos == pEnd)) {
+                return false;
+            }
+        }
+        return unit == RUN_FOR_UNITS.length() - 1;
+    }
+
+    /**
+     * Checks the characters between the given indexes match <code>\d+</code>.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStart
+     *            the start index (inclusive)
+     * @param pEnd
+     *            the end index (exclusive)
+     * @return true if the field is a number
+     */
+    private static boolean isNumber(final String pDescription, final int pStart, final int pEnd) {
+
+        for (int i = pStart; i < pEnd; i++) {
+            if (!isDigit(pDescription.charAt(i))) {
+                return false;
+            }
+        }
+        return pStart < pEnd;
+    }
+
+    /**
+     * Checks the given character matches <code>\d</code>.
+     * 
+     * @param pChar
+     *            a character
+     * @return true if the character is an ASCII digit
+     */
+    private static boolean isDigit(final char pChar) {
+
+        return pChar >= '0' && pChar <= '9';
+    }
+
+    /**
+     * Checks the given character matches {@link IssueDescriptionUtils#EOL}.
+     * 
+     * @param pChar
+     *            a character
+     * @return true if the character is a line terminator
+     */
+    private static boolean isEol(final char pChar) {
+
+        return EOL_CHARS.indexOf(pChar) >= 0;
+    }
+
+    /**
+     * Converts an ASCII upper case letter to lower case, the way regular expressions compiled
+     * with {@link Pattern#CASE_INSENSITIVE} do.
+     * 
+     * @param pChar
+     *            a character
+     * @return the lower case character
+     */
+    private static char toLowerAscii(final char pChar) {
+
+        return pChar >= 'A' && pChar <= 'Z' ? (char) (pChar + ('a' - 'A')) : pChar;
+    }
+
+    /**
+     * Checks the given string is found at the given index, ignoring the case.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pIndex
+     *            the index where the string is expected
+     * @param pStr
+     *            the string to look for
+     * @return true if the string is found at the given index
+     */
+    private static boolean regionMatchesIgnoreCase(final String pDescription, final int pIndex,
+            final String pStr) {
+
+        for (int i = 0; i < pStr.length(); i++) {
+            if (toLowerAscii(pDescription.charAt(pIndex + i)) != toLowerAscii(pStr.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first occurrence of a string, ignoring the case.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStr
+     *            the string to look for
+     * @param pFrom
+     *            the index to start the search from
+     * @return the index of the first occurrence, -1 if the string isn't found
+     */
+    private static int indexOfIgnoreCase(final String pDescription, final String pStr,
+            final int pFrom) {
+
+        for (int i = pFrom; i <= pDescription.length() - pStr.length(); i++) {
+            if (regionMatchesIgnoreCase(pDescription, i, pStr)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last occurrence of a string, ignoring the case.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pStr
+     *            the string to look for
+     * @param pFrom
+     *            the lowest index the string may be found at
+     * @return the index of the last occurrence, -1 if the string isn't found
+     */
+    private static int lastIndexOfIgnoreCase(final String pDescription, final String pStr,
+            final int pFrom) {
+
+        for (int i = pDescription.length() - pStr.length(); i >= pFrom; i--) {
+            if (regionMatchesIgnoreCase(pDescription, i, pStr)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Extracts the bug stacktrace from the description: the text between the first start tag
+     * and the last end tag, ignoring the case.
      * 
      * @param pDescription
      *            the issue description
@@ -252,28 +700,24 @@ public final class IssueDescriptionReader {
     private String parseStacktrace(final String pDescription, final String pStacktraceMD5)
             throws IssueParseException {
 
-        String stacktrace = null;
-
-        // escape braces { and } to use strings in regexp
-        final String start = "<pre class=\"javastacktrace\">";
-        final String qStart = Pattern.quote(start);
-        final String end = "</pre>";
-        final String qEnd = Pattern.quote(end);
-
-        final Pattern p = Pattern.compile(qStart + "(.*)" + qEnd, Pattern.DOTALL
-                | Pattern.CASE_INSENSITIVE);
-        final Matcher m = p.matcher(pDescription);
-
-        if (m.find()) {
-            stacktrace = m.group(1);
-            // if a start tag or an end tag is found in the stacktrace, then there is a problem
-            if (StringUtils.contains(stacktrace, start) || StringUtils.contains(stacktrace, end)) {
-                throw new IssueParseException("Invalid stacktrace block");
-            }
+        final int start = indexOfIgnoreCase(pDescription, STACKTRACE_START, 0);
+        final int end;
+        if (start < 0) {
+            end = -1;
         } else {
+            end = lastIndexOfIgnoreCase(pDescription, STACKTRACE_END,
+                    start + STACKTRACE_START.length());
+        }
+        if (end < 0) {
             throw new IssueParseException("0 stacktrace block found in the description");
         }
 
+        final String stacktrace = pDescription.substring(start + STACKTRACE_START.length(), end);
+        // if a start tag or an end tag is found in the stacktrace, then there is a problem
+        if (stacktrace.contains(STACKTRACE_START) || stacktrace.contains(STACKTRACE_END)) {
+            throw new IssueParseException("Invalid stacktrace block");
+        }
+
         return stacktrace;
     }
 
@@ -300,11 +744,47 @@ public final class IssueDescriptionReader {
     /**
      * Gets the occurrences.
      * 
-     * @return the occurrences
+     * @return an unmodifiable view of the occurrences
      */
     public List<ErrorOccurrence> getOccurrences() {
 
-        return occurrences;
+        return Collections.unmodifiableList(occurrences);
+    }
+
+    /**
+     * Gets the occurrences counted in the rollup table of the description.
+     * 
+     * @return a copy of the occurrences rollup, empty if the description has no rollup table
+     */
+    public OccurrenceRollup getRollup() {
+
+        return new OccurrenceRollup(rollup);
+    }
+
+    /**
+     * Gets whether or not an occurrence of the given ACRA report is listed in the description.
+     * 
+     * @param pReportId
+     *            an ACRA report identifier
+     * @return true if the description lists an occurrence of the given report
+     */
+    public boolean containsReport(final String pReportId) {
+
+        return reportIds.contains(pReportId);
+    }
+
+    /**
+     * Adds an occurrence to the parsed description, once it has been added to the issue
+     * description.
+     * 
+     * @param pError
+     *            the ACRA error informations
+     * @see ParsedIssueCache
+     */
+    public void addOccurrence(final ErrorOccurrence pError) {
+
+        occurrences.add(pError);
+        reportIds.add(pError.getReportId());
     }
 
 }
@@ -20,13 +20,16 @@ package fr.dudie.acrachilisync.utils;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
+import org.apache.commons.lang.time.FastDateFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.dudie.acrachilisync.model.AcraReport;
 import fr.dudie.acrachilisync.model.AcraReportHeader;
 import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.model.OccurrenceRollup.Dimension;
 
 /**
  * Utilities to parse/build issue description.
@@ -40,6 +43,13 @@ import fr.dudie.acrachilisync.model.ErrorOccurrence;
  * |<acra report id435>|dd/MM/yyyy hh:mm:ss|1d 12m 32s|2.2|12|0.3.1|Nexus One / google / passion|
  * |<acra report id..>|dd/MM/yyyy hh:mm:ss|5m 6s|2.3.3|12|0.3.1|Nexus One / google / passion|
  * 
+ * *Older occurrences*
+ * |_. rolled up by|_. value|_. occurrences|
+ * |app version|0.3.1 / 12|1205|
+ * |android|2.2|811|
+ * |android|2.3.3|394|
+ * |device|Nexus One / google / passion|1205|
+ * 
  * h2. Stacktrace
  * &lt;pre&gt;java.lang.NoClassDefFoundError: javax/mail/MessagingException
  *     at fr.dudie.acrachilisync.TestGdocsApi.listAllDocuments(TestGdocsApi.java:30)
@@ -67,12 +77,32 @@ public final class IssueDescriptionUtils {
     /** ACRA bug occurrences table header. */
     private static final String OCCURRENCES_TABLE_HEADER = "|_. ACRA report id|_. crash date|_. run for|_. android|_\\2. app version|_. device|";
 
-    /** ACRA bug occurrences table line format (use with {@link String#format(String, Object...)}). */
-    private static final String OCCURRENCES_TABLE_LINE_FORMAT = "|%s|%s|%s|%s|%s|%s|%s|";
+    /** Title of the table of the occurrences rolled up. */
+    private static final String ROLLUP_TITLE = "*Older occurrences*";
+
+    /** Occurrences rollup table header. */
+    private static final String ROLLUP_TABLE_HEADER = "|_. rolled up by|_. value|_. occurrences|";
+
+    /** Occurrences rollup table line format (use with {@link String#format(String, Object...)}). */
+    private static final String ROLLUP_TABLE_LINE_FORMAT = "|%s|%s|%d|";
 
     /** The date format used for ACRA user crash dates. */
     private static final String OCCURRENCE_DATE_FORMAT = "dd/MM/yyyy hh:mm:ss";
 
+    /** Formats the ACRA user crash dates, thread-safe. */
+    private static final FastDateFormat OCCURRENCE_DATE_FORMATTER = FastDateFormat
+            .getInstance(OCCURRENCE_DATE_FORMAT);
+
+    /** Parses the ACRA user crash dates, one parser per thread. */
+    private static final ThreadLocal<SimpleDateFormat> OCCURRENCE_DATE_PARSER = new ThreadLocal<SimpleDateFormat>() {
+
+        @Override
+        protected SimpleDateFormat initialValue() {
+
+            return new SimpleDateFormat(OCCURRENCE_DATE_FORMAT);
+        }
+    };
+
     /**
      * Gets the ACRA bug occurrences table header.
      * 
@@ -92,11 +122,122 @@ public final class IssueDescriptionUtils {
      */
     public static Object getOccurrencesTableLine(final ErrorOccurrence pError) {
 
-        final SimpleDateFormat format = new SimpleDateFormat(OCCURRENCE_DATE_FORMAT);
-        return String.format(OCCURRENCES_TABLE_LINE_FORMAT, pError.getReportId(),
-                format.format(pError.getCrashDate()),
-                RunningTimeUtils.toString(pError.getRunFor()), pError.getAndroidVersion(),
-                pError.getVersionCode(), pError.getVersionName(), pError.getDevice());
+        return appendOccurrencesTableLine(new StringBuilder(128), pError).toString();
+    }
+
+    /**
+     * Appends a table line for the ACRA bug occurrences table, without line terminator.
+     * 
+     * @param pBuffer
+     *            the buffer to append to
+     * @param pError
+     *            the ACRA error informations
+     * @return the given buffer
+     */
+    public static StringBuilder appendOccurrencesTableLine(final StringBuilder pBuffer,
+            final ErrorOccurrence pError) {
+
+        pBuffer.append('|').append(pError.getReportId());
+        pBuffer.append('|').append(OCCURRENCE_DATE_FORMATTER.format(pError.getCrashDate()));
+        RunningTimeUtils.append(pBuffer.append('|'), pError.getRunFor());
+        pBuffer.append('|').append(pError.getAndroidVersion());
+        pBuffer.append('|').append(pError.getVersionCode());
+        pBuffer.append('|').append(pError.getVersionName());
+        pBuffer.append('|').append(pError.getDevice());
+        return pBuffer.append('|');
+    }
+
+    /**
+     * Inserts lines for the given occurrences after the last line of the occurrences table of a
+     * description built by {@link IssueDescriptionBuilder} in the {@link #DESCRIPTION_VERSION
+     * current format}. The description isn't parsed: the lines already listed are copied as is.
+     * The line endings of a description edited through the web interface are turned into
+     * <code>\n</code>.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @param pOccurrences
+     *            the occurrences to add
+     * @return the updated description, null if the description isn't in the current format
+     */
+    public static String spliceOccurrences(final String pDescription,
+            final List<ErrorOccurrence> pOccurrences) {
+
+        if (null == pDescription) {
+            return null;
+        }
+        final String text = pDescription.replace("\r\n", "\n");
+        final int headerEnd = OCCURRENCES_TABLE_HEADER.length();
+        if (!text.startsWith(OCCURRENCES_TABLE_HEADER)
+                || text.length() == headerEnd || text.charAt(headerEnd) != '\n'
+                || !text.endsWith(DESCRIPTION_VERSION_TAG)) {
+            return null;
+        }
+
+        // the table is followed by an empty line, before the rollup table or the stacktrace
+        final int tableEnd = text.indexOf("\n\n", headerEnd) + 1;
+        if (tableEnd <= 0) {
+            return null;
+        }
+
+        final StringBuilder description = new StringBuilder(text.length() + 128
+                * pOccurrences.size());
+        description.append(text, 0, tableEnd);
+        for (final ErrorOccurrence error : pOccurrences) {
+            appendOccurrencesTableLine(description, error).append('\n');
+        }
+        description.append(text, tableEnd, text.length());
+        return description.toString();
+    }
+
+    /**
+     * Gets the title of the table of the occurrences rolled up.
+     * 
+     * @return the title of the occurrences rollup table
+     */
+    public static String getRollupTitle() {
+
+        return ROLLUP_TITLE;
+    }
+
+    /**
+     * Gets the occurrences rollup table header.
+     * 
+     * @return the occurrences rollup table header
+     */
+    public static String getRollupTableHeader() {
+
+        return ROLLUP_TABLE_HEADER;
+    }
+
+    /**
+     * Formats a table line for the occurrences rollup table.
+     * 
+     * @param pDimension
+     *            the criteria the occurrences are counted by
+     * @param pValue
+     *            the value of the criteria
+     * @param pCount
+     *            the number of occurrences
+     * @return a line for the occurrences rollup table
+     */
+    public static String getRollupTableLine(final Dimension pDimension, final String pValue,
+            final int pCount) {
+
+        return String.format(ROLLUP_TABLE_LINE_FORMAT, pDimension.label(), pValue, pCount);
+    }
+
+    /**
+     * Gets the version tag marking a description in the given format version.
+     * 
+     * @param pVersion
+     *            the description format version
+     * @return the description version tag
+     */
+    public static String getDescriptionVersionTag(final int pVersion) {
+
+        return String.format("%%(acrachilisync-description-version)description_version_%d%%",
+                pVersion);
     }
 
     /**
@@ -110,8 +251,7 @@ public final class IssueDescriptionUtils {
      */
     public static Date parseDate(final String pDate) throws ParseException {
 
-        final SimpleDateFormat format = new SimpleDateFormat(OCCURRENCE_DATE_FORMAT);
-        return format.parse(pDate);
+        return OCCURRENCE_DATE_PARSER.get().parse(pDate);
     }
 
     /** Regular expression to detect line terminators. */
@@ -142,11 +282,14 @@ public final class IssueDescriptionUtils {
         return error;
     }
 
-    /** The current description format version. */
-    public static final int DESCRIPTION_VERSION = 2;
+    /** The current description format version, adds the occurrences rollup table. */
+    public static final int DESCRIPTION_VERSION = 3;
+
+    /** The oldest description format version {@link IssueDescriptionReader} can read. */
+    public static final int OLDEST_READABLE_DESCRIPTION_VERSION = 2;
 
     /** The expected description version tag marking. */
-    public static final String DESCRIPTION_VERSION_TAG = String.format(
-            "%%(acrachilisync-description-version)description_version_%d%%", DESCRIPTION_VERSION);
+    public static final String DESCRIPTION_VERSION_TAG = getDescriptionVersionTag(
+            DESCRIPTION_VERSION);
 
 }
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.redmine.ta.AuthenticationException;
+import org.redmine.ta.NotFoundException;
+import org.redmine.ta.RedmineException;
+import org.redmine.ta.RedmineManager;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the Chiliproject issues of a project, keyed on the value of their
+ * {@link ConfigurationManager#CHILIPROJECT_STACKTRACE_MD5_CF_ID} custom field.
+ * <p>
+ * The index is loaded once with {@link #prefetch(RedmineManager, int, int)}, then every lookup is
+ * resolved locally. A stacktrace MD5 can be {@link #invalidate(String) invalidated} when the
+ * matching remote issues change during the synchronization, the caller is then expected to query
+ * the Chiliproject server again for this stacktrace.
+ * <p>
+ * An index {@link #create() created empty} only resolves the stacktraces it has
+ * {@link #lookup(ChiliprojectClient, int, int, Collection, int) looked up}, several stacktraces
+ * per request.
+ * <p>
+ * This class is thread-safe. The index hands out {@link ChiliprojectUtils#copy(Issue) copies} of
+ * its issues and keeps a copy of the issues {@link #put(String, Issue) put} into it, so the
+ * synchronization workers never share an issue instance: an issue modified by a worker must be
+ * put again to be seen by the next lookups.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class IssueIndex {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IssueIndex.class);
+
+    /** The issues for each stacktrace MD5 hash. */
+    private final Map<String, List<Issue>> issues = new HashMap<String, List<Issue>>();
+
+    /** The stacktrace MD5 hashes for which the index is no longer up to date. */
+    private final Set<String> invalidated = new HashSet<String>();
+
+    /** The stacktrace MD5 hashes looked up, null if all the issues of the project are indexed. */
+    private final Set<String> lookedUp;
+
+    /**
+     * Private constructor, use {@link #prefetch(RedmineManager, int, int)} or {@link #create()}.
+     * 
+     * @param pComplete
+     *            true if all the issues of the project are indexed
+     */
+    private IssueIndex(final boolean pComplete) {
+
+        lookedUp = pComplete ? null : new HashSet<String>();
+    }
+
+    /**
+     * Creates an empty index, which resolves the stacktraces once they are
+     * {@link #lookup(ChiliprojectClient, int, int, Collection, int) looked up}.
+     * 
+     * @return an empty index
+     */
+    public static IssueIndex create() {
+
+        return new IssueIndex(false);
+    }
+
+    /**
+     * Retrieves all issues of the given project and indexes them on their stacktrace MD5 custom
+     * field value.
+     * <p>
+     * The issues are retrieved using the same filters as a single stacktrace lookup (only the
+     * stacktrace MD5 custom field filter is omitted), so the number of HTTP requests only depends
+     * on the number of issues in the project.
+     * 
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pProjectId
+     *            the Chiliproject project identifier
+     * @param pStacktraceMD5CustomFieldId
+     *            the identifier of the custom field containing the stacktrace MD5 hash
+     * @return the issue index
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public static IssueIndex prefetch(final RedmineManager pRedmineClient, final int pProjectId,
+            final int pStacktraceMD5CustomFieldId) throws IOException, AuthenticationException,
+            NotFoundException, RedmineException {
+
+        return prefetch(new ChiliprojectClient(pRedmineClient), pProjectId,
+                pStacktraceMD5CustomFieldId);
+    }
+
+    /**
+     * Retrieves all issues of the given project and indexes them on their stacktrace MD5 custom
+     * field value.
+     * 
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pProjectId
+     *            the Chiliproject project identifier
+     * @param pStacktraceMD5CustomFieldId
+     *            the identifier of the custom field containing the stacktrace MD5 hash
+     * @return the issue index
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     * @see #prefetch(RedmineManager, int, int)
+     */
+    public static IssueIndex prefetch(final ChiliprojectClient pRedmineClient,
+            final int pProjectId, final int pStacktraceMD5CustomFieldId) throws IOException,
+            AuthenticationException, NotFoundException, RedmineException {
+
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("project_id", String.valueOf(pProjectId));
+        final List<Issue> results = pRedmineClient.getIssues(parameters);
+
+        final IssueIndex index = new IssueIndex(true);
+        final CustomFieldIdPredicate findStacktraceMD5 = new CustomFieldIdPredicate(
+                pStacktraceMD5CustomFieldId);
+        int ignored = 0;
+        if (null != results) {
+            for (final Issue issue : results) {
+                final CustomField field = (CustomField) CollectionUtils.find(
+                        issue.getCustomFields(), findStacktraceMD5);
+                if (null == field || null == field.getValue()) {
+                    ignored++;
+                } else {
+                    index.add(field.getValue(), issue);
+                }
+            }
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("indexed {} issues for {} stacktraces ({} issues without stacktrace MD5)",
+                    new Object[] { CollectionUtils.size(results), index.issues.size(), ignored });
+        }
+        return index;
+    }
+
+    /**
+     * Retrieves the issues related to the given stacktraces which aren't
+     * {@link #isIndexed(String) indexed} yet, and indexes them.
+     * <p>
+     * Each request queries a chunk of stacktraces, using a multiple values filter on the
+     * stacktrace MD5 custom field: <code>cf_12=md5a|md5b|md5c</code>.
+     * 
+     * @param pRedmineClient
+     *            the Chiliproject client
+     * @param pProjectId
+     *            the Chiliproject project identifier
+     * @param pStacktraceMD5CustomFieldId
+     *            the identifier of the custom field containing the stacktrace MD5 hash
+     * @param pStacktraceMD5s
+     *            the stacktrace MD5 hashes to look up
+     * @param pChunkSize
+     *            the maximum number of stacktraces queried by a request
+     * @return the number of requests
+     * @throws IOException
+     * @throws AuthenticationException
+     * @throws NotFoundException
+     * @throws RedmineException
+     */
+    public int lookup(final ChiliprojectClient pRedmineClient, final int pProjectId,
+            final int pStacktraceMD5CustomFieldId, final Collection<String> pStacktraceMD5s,
+            final int pChunkSize) throws IOException, AuthenticationException, NotFoundException,
+            RedmineException {
+
+        final List<String> missing = new ArrayList<String>();
+        for (final String md5 : new LinkedHashSet<String>(pStacktraceMD5s)) {
+            if (!isIndexed(md5)) {
+                missing.add(md5);
+            }
+        }
+
+        final CustomFieldIdPredicate findStacktraceMD5 = new CustomFieldIdPredicate(
+                pStacktraceMD5CustomFieldId);
+        final int chunkSize = Math.max(1, pChunkSize);
+        int requests = 0;
+        for (int from = 0; from < missing.size(); from += chunkSize) {
+            final List<String> chunk = missing.subList(from,
+                    Math.min(missing.size(), from + chunkSize));
+            final Map<String, String> parameters = new HashMap<String, String>();
+            parameters.put("project_id", String.valueOf(pProjectId));
+            parameters.put(String.format("cf_%d", pStacktraceMD5CustomFieldId),
+                    StringUtils.join(chunk, "|"));
+            final List<Issue> results = pRedmineClient.getIssues(parameters);
+            requests++;
+
+            final Set<String> chunkMD5s = new HashSet<String>(chunk);
+            synchronized (this) {
+                for (final String md5 : chunk) {
+                    issues.remove(md5);
+                    invalidated.remove(md5);
+                    lookedUp.add(md5);
+                }
+                if (null != results) {
+                    for (final Issue issue : results) {
+                        final CustomField field = (CustomField) CollectionUtils.find(
+                                issue.getCustomFields(), findStacktraceMD5);
+                        if (null != field && chunkMD5s.contains(field.getValue())) {
+                            add(field.getValue(), issue);
+                        }
+                    }
+                }
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("looked up {} stacktraces with {} requests", missing.size(), requests);
+        }
+        return requests;
+    }
+
+    /**
+     * Adds an issue to the index.
+     * 
+     * @param pStacktraceMD5
+     *            the stacktrace MD5 hash
+     * @param pIssue
+     *            the issue
+     */
+    private void add(final String pStacktraceMD5, final Issue pIssue) {
+
+        List<Issue> list = issues.get(pStacktraceMD5);
+        if (null == list) {
+            list = new ArrayList<Issue>(1);
+            issues.put(pStacktraceMD5, list);
+        }
+        list.add(pIssue);
+    }
+
+    /**
+     * Gets whether or not the index can resolve the given stacktrace MD5 hash.
+     * 
+     * @param pStacktraceMD5
+     *            a stacktrace MD5 hash
+     * @return false if the stacktrace MD5 hash has been {@link #invalidate(String) invalidated}
+     *         or, if the index has been created empty, hasn't been looked up
+     */
+    public synchronized boolean isIndexed(final String pStacktraceMD5) {
+
+        return (null == lookedUp || lookedUp.contains(pStacktraceMD5))
+                && !invalidated.contains(pStacktraceMD5);
+    }
+
+    /**
+     * Gets the issues related to the given stacktrace MD5 hash.
+     * 
+     * @param pStacktraceMD5
+     *            a stacktrace MD5 hash
+     * @return a modifiable list of copies of the issues related to the given stacktrace, an empty
+     *         list if there is no issue for this stacktrace
+     */
+    public synchronized List<Issue> get(final String pStacktraceMD5) {
+
+        final List<Issue> list = issues.get(pStacktraceMD5);
+        if (null == list) {
+            return new ArrayList<Issue>(0);
+        }
+        final List<Issue> copies = new ArrayList<Issue>(list.size());
+        for (final Issue issue : list) {
+            copies.add(ChiliprojectUtils.copy(issue));
+        }
+        return copies;
+    }
+
+    /**
+     * Replaces the issues related to the given stacktrace MD5 hash by the given one.
+     * 
+     * @param pStacktraceMD5
+     *            a stacktrace MD5 hash
+     * @param pIssue
+     *            the issue now related to this stacktrace, the index keeps a copy of it
+     */
+    public synchronized void put(final String pStacktraceMD5, final Issue pIssue) {
+
+        issues.put(pStacktraceMD5, new ArrayList<Issue>(Collections.singletonList(ChiliprojectUtils
+                .copy(pIssue))));
+        invalidated.remove(pStacktraceMD5);
+        if (null != lookedUp) {
+            lookedUp.add(pStacktraceMD5);
+        }
+    }
+
+    /**
+     * Marks the entry for the given stacktrace MD5 hash as out of date.
+     * 
+     * @param pStacktraceMD5
+     *            a stacktrace MD5 hash
+     */
+    public synchronized void invalidate(final String pStacktraceMD5) {
+
+        issues.remove(pStacktraceMD5);
+        invalidated.add(pStacktraceMD5);
+    }
+
+    /**
+     * Gets the number of indexed stacktraces.
+     * 
+     * @return the number of indexed stacktraces
+     */
+    public synchronized int size() {
+
+        return issues.size();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+/**
+ * The ways to look up the issues of the stacktraces of the unsynchronized reports.
+ * <p>
+ * The number of requests of a plan is predicted from the number of unsynchronized reports, the
+ * number of distinct stacktraces among them and the number of issues of the project:
+ * {@link #choose(int, int, int, int, int)} selects the plan sending the fewest requests.
+ * 
+ * @author Jérémie Huchet
+ */
+public enum LookupPlan {
+
+    /** Each stacktrace is looked up with its own request. */
+    PER_STACKTRACE {
+
+        @Override
+        public long predictRequests(final int pStacktraces, final int pPages, final int pIssues,
+                final int pChunkSize) {
+
+            return pStacktraces;
+        }
+    },
+
+    /**
+     * The stacktraces of a page of reports are looked up by chunks, using a multiple values
+     * filter on the stacktrace MD5 custom field.
+     */
+    BATCH {
+
+        @Override
+        public long predictRequests(final int pStacktraces, final int pPages, final int pIssues,
+                final int pChunkSize) {
+
+            if (pStacktraces == 0) {
+                return 0;
+            }
+            final int chunkSize = Math.max(1, pChunkSize);
+            return Math.max(Math.min(pPages, pStacktraces),
+                    ((long) pStacktraces + chunkSize - 1) / chunkSize);
+        }
+    },
+
+    /** All issues of the project are retrieved once, before the first page is synchronized. */
+    PREFETCH {
+
+        @Override
+        public long predictRequests(final int pStacktraces, final int pPages, final int pIssues,
+                final int pChunkSize) {
+
+            return Math.max(1, ((long) pIssues + ISSUES_PER_REQUEST - 1) / ISSUES_PER_REQUEST);
+        }
+    };
+
+    /** The number of issues returned by a request of the Chiliproject client. */
+    public static final int ISSUES_PER_REQUEST = 25;
+
+    /** The chunk size of the {@link #BATCH} plan when it is forced without a chunk size. */
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
+    /**
+     * Predicts the number of requests sent to look up the issues.
+     * 
+     * @param pStacktraces
+     *            the number of distinct stacktraces to look up
+     * @param pPages
+     *            the number of pages of reports
+     * @param pIssues
+     *            the number of issues of the project
+     * @param pChunkSize
+     *            the maximum number of stacktraces queried by a request of the {@link #BATCH}
+     *            plan
+     * @return the predicted number of requests
+     */
+    public abstract long predictRequests(int pStacktraces, int pPages, int pIssues,
+            int pChunkSize);
+
+    /**
+     * Estimates the number of distinct stacktraces of the unsynchronized reports from the
+     * proportion of distinct stacktraces in the first page.
+     * 
+     * @param pReports
+     *            the number of unsynchronized reports
+     * @param pPageReports
+     *            the number of reports of the first page
+     * @param pPageStacktraces
+     *            the number of distinct stacktraces of the first page
+     * @return the estimated number of distinct stacktraces
+     */
+    public static int estimateStacktraces(final int pReports, final int pPageReports,
+            final int pPageStacktraces) {
+
+        if (pPageReports <= 0 || pReports <= pPageReports) {
+            return pPageStacktraces;
+        }
+        return (int) Math.min(pReports, ((long) pReports * pPageStacktraces + pPageReports - 1)
+                / pPageReports);
+    }
+
+    /**
+     * Chooses the plan sending the fewest requests. The {@link #BATCH} plan is only considered
+     * when the chunk size is greater than 1, since the server must support the multiple values
+     * custom field filters. On equality, the first plan is chosen.
+     * 
+     * @param pReports
+     *            the number of unsynchronized reports
+     * @param pStacktraces
+     *            the estimated number of distinct stacktraces
+     * @param pPageSize
+     *            the maximum number of reports of a page, 0 if the reports are read at once
+     * @param pIssues
+     *            the number of issues of the project
+     * @param pChunkSize
+     *            the maximum number of stacktraces queried by a request of the {@link #BATCH}
+     *            plan
+     * @return the cheapest plan
+     */
+    public static LookupPlan choose(final int pReports, final int pStacktraces,
+            final int pPageSize, final int pIssues, final int pChunkSize) {
+
+        final int pages = getPages(pReports, pPageSize);
+        LookupPlan best = null;
+        long bestRequests = Long.MAX_VALUE;
+        for (final LookupPlan plan : values()) {
+            if (plan == BATCH && pChunkSize <= 1) {
+                continue;
+            }
+            final long requests = plan.predictRequests(pStacktraces, pages, pIssues, pChunkSize);
+            if (requests < bestRequests) {
+                best = plan;
+                bestRequests = requests;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Computes the number of pages of reports.
+     * 
+     * @param pReports
+     *            the number of unsynchronized reports
+     * @param pPageSize
+     *            the maximum number of reports of a page, 0 if the reports are read at once
+     * @return the number of pages
+     */
+    public static int getPages(final int pReports, final int pPageSize) {
+
+        if (pPageSize <= 0 || pReports <= pPageSize) {
+            return 1;
+        }
+        return (int) (((long) pReports + pPageSize - 1) / pPageSize);
+    }
+}
@@ -17,18 +17,43 @@
 
 package fr.dudie.acrachilisync.utils;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
  * Utility to computes MD5 hash <b>on UTF-8 strings only</b>. Do not work with binary data.
+ * <p>
+ * The digest and the UTF-8 encoder are kept per thread, the strings are encoded by chunks into a
+ * reused buffer instead of a new byte array.
  * 
  * @author Jérémie Huchet
  */
 public final class MD5Utils {
 
+    /** The hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The UTF-8 charset. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The size of the buffer receiving the encoded characters. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** The digest and the encoder of each thread. */
+    private static final ThreadLocal<Hasher> HASHER = new ThreadLocal<Hasher>() {
+
+        @Override
+        protected Hasher initialValue() {
+
+            return new Hasher();
+        }
+    };
+
     /**
      * Private constructor to avoid instantiation.
      */
@@ -38,6 +63,9 @@ public final class MD5Utils {
 
     /**
      * Gets the MD5 checksum for the given string (using UTF-8 encoding).
+     * <p>
+     * The leading zeros of the checksum are omitted, so the hashes match the ones already written
+     * to the spreadsheet and to the issues.
      * 
      * @param s
      *            a string
@@ -47,16 +75,111 @@ public final class MD5Utils {
 
         String hash = null;
         if (null != s) {
+            final char[] hex = HASHER.get().digest(s);
+            int start = 0;
+            while (start < hex.length - 1 && hex[start] == '0') {
+                start++;
+            }
+            hash = new String(hex, start, hex.length - start);
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the 32 hexadecimal digits MD5 checksum for the given string (using UTF-8 encoding).
+     * 
+     * @param s
+     *            a string
+     * @return the MD5 checksum for the given string, leading zeros included
+     */
+    public static String toFullMD5hash(final String s) {
+
+        String hash = null;
+        if (null != s) {
+            hash = new String(HASHER.get().digest(s));
+        }
+        return hash;
+    }
+
+    /**
+     * A per thread MD5 digest and UTF-8 encoder.
+     */
+    private static final class Hasher {
+
+        /** The MD5 digest. */
+        private final MessageDigest digest;
+
+        /** The UTF-8 encoder. */
+        private final CharsetEncoder encoder = UTF_8.newEncoder();
+
+        /** The buffer receiving the encoded characters. */
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Constructor.
+         */
+        private Hasher() {
+
             try {
-                final MessageDigest digest = MessageDigest.getInstance("MD5");
-                digest.update(s.getBytes(Charset.forName("utf-8")));
-                final byte[] md5sum = digest.digest();
-                final BigInteger bigInt = new BigInteger(1, md5sum);
-                hash = bigInt.toString(16);
+                digest = MessageDigest.getInstance("MD5");
             } catch (final NoSuchAlgorithmException e) {
                 throw new RuntimeException("MD5 digest algorithm implementation not found", e);
             }
         }
-        return hash;
+
+        /**
+         * Computes the MD5 checksum of the given string.
+         * 
+         * @param s
+         *            a string
+         * @return the 32 hexadecimal digits of the checksum
+         */
+        private char[] digest(final String s) {
+
+            final CharBuffer in = CharBuffer.wrap(s);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(in, buffer, true);
+                update();
+            } while (result.isOverflow());
+            if (result.isError()) {
+                // unpaired surrogates, String.getBytes() replaces them
+                digest.reset();
+                return toHex(digest.digest(s.getBytes(UTF_8)));
+            }
+            do {
+                result = encoder.flush(buffer);
+                update();
+            } while (result.isOverflow());
+            return toHex(digest.digest());
+        }
+
+        /**
+         * Updates the digest with the content of the buffer and clears the buffer.
+         */
+        private void update() {
+
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Converts a checksum to hexadecimal digits.
+     * 
+     * @param pChecksum
+     *            the checksum
+     * @return the hexadecimal digits
+     */
+    private static char[] toHex(final byte[] pChecksum) {
+
+        final char[] hex = new char[pChecksum.length * 2];
+        for (int i = 0; i < pChecksum.length; i++) {
+            hex[2 * i] = HEX_DIGITS[pChecksum[i] >> 4 & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[pChecksum[i] & 0xf];
+        }
+        return hex;
     }
 }
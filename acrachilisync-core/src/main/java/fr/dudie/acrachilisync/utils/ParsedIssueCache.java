@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.redmine.ta.beans.Issue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.dudie.acrachilisync.exception.IssueParseException;
+
+/**
+ * Holds the parsed descriptions of the issues met by a synchronization, so each issue description
+ * is parsed once until the issue is updated. The cache isn't bounded: it must be
+ * {@link #clear() cleared} once the synchronization completes.
+ * <p>
+ * A parsed description is identified by the issue identifier and its last update date: an issue
+ * modified on the Chiliproject server since it has been parsed is parsed again. The occurrences
+ * added to an issue by the synchronization must be added to its
+ * {@link IssueDescriptionReader#addOccurrence(fr.dudie.acrachilisync.model.ErrorOccurrence)
+ * parsed description} too.
+ * <p>
+ * This cache may be shared by the synchronization worker threads. The description of a given
+ * issue must not be modified by two threads at the same time.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class ParsedIssueCache {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParsedIssueCache.class);
+
+    /** The parsed descriptions by issue identifier. */
+    private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+    /** The number of descriptions parsed. */
+    private int parsed;
+
+    /** The synchronization metrics. */
+    private final SyncMetrics metrics;
+
+    /**
+     * Creates a cache recording its parsings in its own metrics.
+     */
+    public ParsedIssueCache() {
+
+        this(new SyncMetrics());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pMetrics
+     *            the metrics recording the parsings
+     */
+    public ParsedIssueCache(final SyncMetrics pMetrics) {
+
+        metrics = pMetrics;
+    }
+
+    /**
+     * Gets the parsed description of the given issue, parses it if it isn't in the cache or if it
+     * has been updated since it has been parsed.
+     * 
+     * @param pIssue
+     *            the issue
+     * @return the parsed description
+     * @throws IssueParseException
+     *             unable to parse the issue
+     */
+    public IssueDescriptionReader get(final Issue pIssue) throws IssueParseException {
+
+        synchronized (this) {
+            final Entry entry = entries.get(pIssue.getId());
+            if (null != entry && ObjectUtils.equals(entry.updatedOn, pIssue.getUpdatedOn())) {
+                return entry.reader;
+            }
+        }
+
+        final long start = metrics.start();
+        final IssueDescriptionReader reader;
+        try {
+            reader = new IssueDescriptionReader(pIssue);
+        } finally {
+            metrics.stop(SyncMetrics.DESCRIPTION_PARSE, start);
+        }
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("parsed description of issue {}: {} occurrences", pIssue.getId(),
+                    reader.getOccurrences().size());
+        }
+        synchronized (this) {
+            parsed++;
+            if (null != pIssue.getId()) {
+                entries.put(pIssue.getId(), new Entry(pIssue.getUpdatedOn(), reader));
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Removes all the parsed descriptions.
+     */
+    public synchronized void clear() {
+
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of descriptions parsed since this cache has been created.
+     * 
+     * @return the number of descriptions parsed
+     */
+    public synchronized int getParseCount() {
+
+        return parsed;
+    }
+
+    /**
+     * A parsed description and the update date of the issue it belongs to.
+     * 
+     * @author Jérémie Huchet
+     */
+    private static final class Entry {
+
+        /** The date the issue was last updated on when it was parsed. */
+        private final Date updatedOn;
+
+        /** The parsed description. */
+        private final IssueDescriptionReader reader;
+
+        /**
+         * Constructor.
+         * 
+         * @param pUpdatedOn
+         *            the date the issue was last updated on
+         * @param pReader
+         *            the parsed description
+         */
+        private Entry(final Date pUpdatedOn, final IssueDescriptionReader pReader) {
+
+            updatedOn = pUpdatedOn;
+            reader = pReader;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.redmine.ta.RedmineException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gdata.util.ServiceException;
+
+import fr.dudie.acrachilisync.exception.HttpStatusException;
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.exception.RequestTimeoutException;
+
+/**
+ * Guards the calls to a remote service with a rate limiter, retries and a circuit breaker.
+ * <p>
+ * The calls are rate limited by a token bucket holding up to one second of calls. A call failing
+ * with a transient error (an I/O error, a connection or read timeout, or an HTTP 429 or 5xx status)
+ * is retried after an exponential backoff with full jitter, if it is idempotent or if the request
+ * couldn't be sent at all. After a given number of consecutive transient errors the circuit opens:
+ * the calls are paused, then a single trial call is let through. Its success closes the circuit,
+ * its failure pauses the calls again.
+ * <p>
+ * A request given up by its caller after a timeout isn't retried: it keeps its connection until
+ * the server answers, a retry would pile up requests on a server which is already slow.
+ * <p>
+ * The time spent waiting for the rate limiter, backing off and paused by the circuit breaker is
+ * recorded by the {@link SyncMetrics#RATE_LIMIT_WAIT}, {@link SyncMetrics#RETRY_BACKOFF} and
+ * {@link SyncMetrics#CIRCUIT_PAUSE} timers.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class RemoteCallGuard {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteCallGuard.class);
+
+    /** Draws the backoff delays. */
+    private static final Random JITTER = new Random();
+
+    /** Matches the HTTP status in the message of a Chiliproject error, which has no status. */
+    private static final Pattern HTTP_STATUS = Pattern.compile(
+            "(?:HTTP|status|returned)\\W{0,3}(\\d{3})\\b", Pattern.CASE_INSENSITIVE);
+
+    /** The reason phrases of the HTTP 429 and 5xx statuses, in lower case. */
+    private static final String[] TRANSIENT_REASONS = { "too many requests",
+            "internal server error", "bad gateway", "service unavailable", "gateway timeout",
+            "gateway time-out" };
+
+    /** The name of the remote service, for the logs. */
+    private final String name;
+
+    /** The maximum number of calls per second, 0 for no limit. */
+    private final double rate;
+
+    /** The maximum number of attempts of a call, at least 1. */
+    private final int attempts;
+
+    /** The backoff delay before the first retry, in milliseconds. */
+    private final long retryDelay;
+
+    /** The maximum backoff delay, in milliseconds. */
+    private final long maxRetryDelay;
+
+    /** The number of consecutive transient errors opening the circuit, 0 to disable it. */
+    private final int breakerFailures;
+
+    /** The pause of the calls when the circuit opens, in milliseconds. */
+    private final long breakerPause;
+
+    /** The metrics recording the waits, may be null. */
+    private final SyncMetrics metrics;
+
+    /** Guards the token bucket. */
+    private final Object bucketLock = new Object();
+
+    /** The tokens of the bucket, negative when calls are waiting for a token. */
+    private double tokens;
+
+    /** The last time the bucket has been refilled, in nanoseconds. */
+    private long refilled = System.nanoTime();
+
+    /** The number of consecutive transient errors, guarded by this. */
+    private int failures;
+
+    /** The time at which the circuit half-opens, in milliseconds, guarded by this. */
+    private long openUntil;
+
+    /** Whether or not the trial call of the half-open circuit is in flight, guarded by this. */
+    private boolean trial;
+
+    /**
+     * Creates a guard with the retry and circuit breaker settings of the given configuration.
+     * 
+     * @param pName
+     *            the name of the remote service, for the logs
+     * @param pRate
+     *            the maximum number of calls per second, 0 for no limit
+     * @param pConfig
+     *            the configuration
+     * @param pMetrics
+     *            the metrics recording the waits, may be null
+     */
+    public RemoteCallGuard(final String pName, final double pRate,
+            final ConfigurationManager pConfig, final SyncMetrics pMetrics) {
+
+        this(pName, pRate, pConfig.SYNC_RETRY_ATTEMPTS, pConfig.SYNC_RETRY_DELAY,
+                pConfig.SYNC_RETRY_MAX_DELAY, pConfig.SYNC_BREAKER_FAILURES,
+                pConfig.SYNC_BREAKER_PAUSE, pMetrics);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pName
+     *            the name of the remote service, for the logs
+     * @param pRate
+     *            the maximum number of calls per second, 0 for no limit
+     * @param pAttempts
+     *            the maximum number of attempts of a call
+     * @param pRetryDelay
+     *            the backoff delay before the first retry, in milliseconds
+     * @param pMaxRetryDelay
+     *            the maximum backoff delay, in milliseconds
+     * @param pBreakerFailures
+     *            the number of consecutive transient errors opening the circuit, 0 to disable it
+     * @param pBreakerPause
+     *            the pause of the calls when the circuit opens, in milliseconds
+     * @param pMetrics
+     *            the metrics recording the waits, may be null
+     */
+    public RemoteCallGuard(final String pName, final double pRate, final int pAttempts,
+            final long pRetryDelay, final long pMaxRetryDelay, final int pBreakerFailures,
+            final long pBreakerPause, final SyncMetrics pMetrics) {
+
+        name = pName;
+        rate = Math.max(0, pRate);
+        attempts = Math.max(1, pAttempts);
+        retryDelay = Math.max(0, pRetryDelay);
+        maxRetryDelay = Math.max(retryDelay, pMaxRetryDelay);
+        breakerFailures = Math.max(0, pBreakerFailures);
+        breakerPause = Math.max(0, pBreakerPause);
+        metrics = pMetrics;
+        tokens = Math.max(1, rate);
+    }
+
+    /**
+     * Creates a guard letting all the calls through once.
+     * 
+     * @param pName
+     *            the name of the remote service, for the logs
+     * @return a guard without rate limit, retry nor circuit breaker
+     */
+    public static RemoteCallGuard unguarded(final String pName) {
+
+        return new RemoteCallGuard(pName, 0, 1, 0, 0, 0, 0, null);
+    }
+
+    /**
+     * Calls the remote service.
+     * 
+     * @param pCall
+     *            the call
+     * @param pIdempotent
+     *            true if the call can be repeated without side effect
+     * @return the result of the call
+     * @throws InterruptedIOException
+     *             interrupted while waiting for the rate limiter, a backoff or the circuit
+     * @throws Exception
+     *             the exception of the last attempt of the call
+     */
+    public <T> T call(final Callable<T> pCall, final boolean pIdempotent) throws Exception {
+
+        for (int attempt = 1;; attempt++) {
+            final boolean trialCall = awaitCircuit();
+            boolean failed = false;
+            try {
+                acquirePermit();
+                return pCall.call();
+            } catch (final Exception e) {
+                failed = isTransient(e);
+                if (!failed || attempt >= attempts || !pIdempotent && !isNotSent(e)) {
+                    throw e;
+                }
+                LOGGER.warn("{} call failed ({}), attempt {} of {}", new Object[] { name, e,
+                        attempt, attempts });
+            } finally {
+                release(trialCall, failed);
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Gets whether or not the circuit is open or half-open.
+     * 
+     * @return true if the calls are paused or wait for a trial call
+     */
+    public synchronized boolean isOpen() {
+
+        return breakerFailures > 0 && failures >= breakerFailures;
+    }
+
+    /**
+     * Waits for the circuit to let a call through.
+     * 
+     * @return true if the call is the trial call of the half-open circuit
+     * @throws InterruptedIOException
+     *             interrupted while the circuit was open
+     */
+    private synchronized boolean awaitCircuit() throws InterruptedIOException {
+
+        long start = 0;
+        try {
+            while (isOpen()) {
+                final long remaining = openUntil - System.currentTimeMillis();
+                if (remaining <= 0 && !trial) {
+                    trial = true;
+                    return true;
+                }
+                if (start == 0) {
+                    start = System.nanoTime();
+                }
+                // wait for the pause to elapse, or for the trial call to complete
+                wait(remaining > 0 ? remaining : 0);
+            }
+            return false;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while the circuit of " + name
+                    + " was open");
+        } finally {
+            if (start != 0 && null != metrics) {
+                metrics.stop(SyncMetrics.CIRCUIT_PAUSE, start);
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a call in the circuit breaker.
+     * 
+     * @param pTrial
+     *            true if the call was the trial call of the half-open circuit
+     * @param pFailed
+     *            true if the call failed with a transient error
+     */
+    private synchronized void release(final boolean pTrial, final boolean pFailed) {
+
+        if (pTrial) {
+            trial = false;
+        }
+        if (pFailed) {
+            failures++;
+            if (breakerFailures > 0 && failures >= breakerFailures) {
+                if (pTrial || failures == breakerFailures) {
+                    LOGGER.warn("{} consecutive {} call failures, pausing the calls for {} ms",
+                            new Object[] { failures, name, breakerPause });
+                }
+                openUntil = System.currentTimeMillis() + breakerPause;
+            }
+        } else {
+            if (isOpen()) {
+                LOGGER.info("{} calls resumed", name);
+            }
+            failures = 0;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Takes a token from the bucket, waiting for it to be refilled if it is empty.
+     * 
+     * @throws InterruptedIOException
+     *             interrupted while waiting for a token
+     */
+    private void acquirePermit() throws InterruptedIOException {
+
+        if (rate == 0) {
+            return;
+        }
+        final long wait;
+        synchronized (bucketLock) {
+            final long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, rate), tokens + (now - refilled) * rate / 1e9);
+            refilled = now;
+            tokens--;
+            wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1e9 / rate);
+        }
+        if (wait > 0) {
+            sleep(wait, SyncMetrics.RATE_LIMIT_WAIT);
+        }
+    }
+
+    /**
+     * Waits before the next attempt of a call.
+     * 
+     * @param pAttempt
+     *            the number of the failed attempt, starting at 1
+     * @throws InterruptedIOException
+     *             interrupted while backing off
+     */
+    private void backoff(final int pAttempt) throws InterruptedIOException {
+
+        final long ceiling = Math.min(maxRetryDelay, retryDelay << Math.min(pAttempt - 1, 30));
+        final long delay;
+        synchronized (JITTER) {
+            delay = (long) (JITTER.nextDouble() * ceiling);
+        }
+        sleep(TimeUnit.MILLISECONDS.toNanos(delay), SyncMetrics.RETRY_BACKOFF);
+    }
+
+    /**
+     * Sleeps and records the time slept.
+     * 
+     * @param pNanos
+     *            the time to sleep, in nanoseconds
+     * @param pTimer
+     *            the timer recording the time slept
+     * @throws InterruptedIOException
+     *             interrupted while sleeping
+     */
+    private void sleep(final long pNanos, final String pTimer) throws InterruptedIOException {
+
+        final long start = System.nanoTime();
+        try {
+            TimeUnit.NANOSECONDS.sleep(pNanos);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call " + name);
+        } finally {
+            if (null != metrics) {
+                metrics.stop(pTimer, start);
+            }
+        }
+    }
+
+    /**
+     * Gets whether or not an error is transient: the same call may succeed later.
+     * <p>
+     * The Chiliproject errors have no status: they are transient if they are caused by a transient
+     * error, or if their message holds an HTTP 429 or 5xx status or its reason phrase.
+     * 
+     * @param pError
+     *            the error
+     * @return true for the I/O errors and the connection and read timeouts, and for the HTTP 429
+     *         and 5xx statuses; false for the other {@link HttpStatusException HTTP statuses}, the
+     *         parse errors and the {@link RequestTimeoutException requests given up}
+     */
+    static boolean isTransient(final Exception pError) {
+
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        } else if (pError instanceof InterruptedIOException) {
+            // a request given up, or a wait interrupted, unlike a socket timeout
+            return pError instanceof SocketTimeoutException;
+        } else if (pError instanceof IssueParseException) {
+            return false;
+        } else if (pError instanceof HttpStatusException) {
+            return isTransientStatus(((HttpStatusException) pError).getStatus());
+        } else if (pError instanceof IOException) {
+            return true;
+        } else if (pError instanceof RedmineException) {
+            if (pError.getCause() instanceof Exception) {
+                return isTransient((Exception) pError.getCause());
+            }
+            return isTransientMessage(pError.getMessage());
+        } else if (pError instanceof ServiceException) {
+            final int status = ((ServiceException) pError).getHttpErrorCodeOverride();
+            if (status > 0) {
+                return isTransientStatus(status);
+            }
+            // the specific subclasses are the client errors
+            return pError.getClass() == ServiceException.class;
+        }
+        return false;
+    }
+
+    /**
+     * Gets whether or not an error tells the remote service is overloaded: a transient error or a
+     * {@link RequestTimeoutException request given up}.
+     * 
+     * @param pError
+     *            the error
+     * @return true if fewer concurrent calls may succeed
+     */
+    static boolean isOverload(final Exception pError) {
+
+        if (pError instanceof RequestTimeoutException) {
+            return !Thread.currentThread().isInterrupted();
+        }
+        return isTransient(pError);
+    }
+
+    /**
+     * Gets whether or not the message of an error without status holds a transient HTTP status.
+     * 
+     * @param pMessage
+     *            the error message, may be null
+     * @return true if the message holds an HTTP 429 or 5xx status or its reason phrase
+     */
+    private static boolean isTransientMessage(final String pMessage) {
+
+        if (null == pMessage) {
+            return false;
+        }
+        final Matcher status = HTTP_STATUS.matcher(pMessage);
+        if (status.find()) {
+            return isTransientStatus(Integer.parseInt(status.group(1)));
+        }
+        final String message = pMessage.toLowerCase();
+        for (final String reason : TRANSIENT_REASONS) {
+            if (message.contains(reason)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets whether or not an HTTP status is transient.
+     * 
+     * @param pStatus
+     *            the HTTP status
+     * @return true for the HTTP 429 and 5xx statuses
+     */
+    private static boolean isTransientStatus(final int pStatus) {
+
+        return pStatus == 429 || pStatus >= 500;
+    }
+
+    /**
+     * Gets whether or not an error occurred before the request was sent, so even a call with side
+     * effects may be retried.
+     * 
+     * @param pError
+     *            the error
+     * @return true if the server couldn't be reached
+     */
+    private static boolean isNotSent(final Exception pError) {
+
+        return pError instanceof ConnectException || pError instanceof UnknownHostException;
+    }
+}
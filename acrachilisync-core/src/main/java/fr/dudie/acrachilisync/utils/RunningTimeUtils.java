@@ -19,8 +19,6 @@ package fr.dudie.acrachilisync.utils;
 
 import java.text.ParseException;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,43 +36,105 @@ public final class RunningTimeUtils {
 
     private static final int DAY = 24 * HOUR;
 
+    /**
+     * The maximum value of a running time field, so that the sum of the four fields can't overflow.
+     */
+    private static final long MAX_FIELD_VALUE = Long.MAX_VALUE / DAY / 4;
+
     private RunningTimeUtils() {
 
     }
 
     /**
      * Parse the given time using the {@link #OCCURRENCE_RUN_FORMAT} format.
+     * <p>
+     * The number of days, hours, minutes and seconds are the first numbers followed by
+     * <code>d</code>, <code>h</code>, <code>m</code> and <code>s</code>, the missing fields are 0.
+     * The string is read in a single pass.
      * 
      * @param pTime
      * @return a {@link Date} representing the given time
      * @throws ParseException
-     *             date malformed
+     *             date malformed, or a field is too large
      */
     public static Date parseRunningTime(final String pTime) throws ParseException {
 
-        int time = 0;
-        Matcher m = Pattern.compile("(\\d+)d").matcher(pTime);
-        if (m.find()) {
-            time += Integer.parseInt(m.group(1)) * DAY;
-        }
-        m = Pattern.compile("(\\d+)h").matcher(pTime);
-        if (m.find()) {
-            time += Integer.parseInt(m.group(1)) * HOUR;
-        }
-        m = Pattern.compile("(\\d+)m").matcher(pTime);
-        if (m.find()) {
-            time += Integer.parseInt(m.group(1)) * MINUTE;
-        }
-        m = Pattern.compile("(\\d+)s").matcher(pTime);
-        if (m.find()) {
-            time += Integer.parseInt(m.group(1)) * SECOND;
+        long days = -1;
+        long hours = -1;
+        long minutes = -1;
+        long seconds = -1;
+
+        final int length = pTime.length();
+        int i = 0;
+        while (i < length) {
+            char c = pTime.charAt(i);
+            if (c < '0' || c > '9') {
+                i++;
+                continue;
+            }
+
+            // read a number, saturated above MAX_FIELD_VALUE, and the unit following it
+            final int start = i;
+            long value = 0;
+            while (c >= '0' && c <= '9') {
+                value = Math.min(value * 10 + c - '0', MAX_FIELD_VALUE + 1);
+                i++;
+                c = i < length ? pTime.charAt(i) : ' ';
+            }
+            if (c == 'd' && days < 0) {
+                days = checkField(pTime, start, value);
+            } else if (c == 'h' && hours < 0) {
+                hours = checkField(pTime, start, value);
+            } else if (c == 'm' && minutes < 0) {
+                minutes = checkField(pTime, start, value);
+            } else if (c == 's' && seconds < 0) {
+                seconds = checkField(pTime, start, value);
+            }
         }
 
-        return new Date(time);
+        return new Date(Math.max(0, days) * DAY + Math.max(0, hours) * HOUR
+                + Math.max(0, minutes) * MINUTE + Math.max(0, seconds) * SECOND);
+    }
+
+    /**
+     * Checks the value of a running time field isn't too large.
+     * 
+     * @param pTime
+     *            the running time
+     * @param pOffset
+     *            the offset of the field
+     * @param pValue
+     *            the field value
+     * @return the field value
+     * @throws ParseException
+     *             the value is larger than {@link #MAX_FIELD_VALUE}
+     */
+    private static long checkField(final String pTime, final int pOffset, final long pValue)
+            throws ParseException {
+
+        if (pValue > MAX_FIELD_VALUE) {
+            throw new ParseException("Running time field too large: " + pTime, pOffset);
+        }
+        return pValue;
     }
 
     public static String toString(final Date pTime) {
 
+        return append(new StringBuilder(16), pTime).toString();
+    }
+
+    /**
+     * Appends the given running time to a buffer, in the format read by
+     * {@link #parseRunningTime(String)}.
+     * 
+     * @param pBuffer
+     *            the buffer to append to
+     * @param pTime
+     *            the running time, null for 0
+     * @return the given buffer
+     */
+    public static StringBuilder append(final StringBuilder pBuffer, final Date pTime) {
+
         final long t;
         if (null == pTime) {
             t = 0;
@@ -87,34 +147,38 @@ public final class RunningTimeUtils {
         final long minutes = (t - days * DAY - hours * HOUR) / MINUTE;
         final long seconds = (t - days * DAY - hours * HOUR - minutes * MINUTE) / SECOND;
 
-        final StringBuilder buf = new StringBuilder();
-
+        // once a field is written, the following ones are written even if they are 0
+        boolean started = false;
         if (days != 0) {
-            buf.append(days).append('d');
+            pBuffer.append(days).append('d');
+            started = true;
         }
-        if (buf.length() != 0 || hours != 0) {
-            if (buf.length() != 0) {
-                buf.append(' ');
+        if (started || hours != 0) {
+            if (started) {
+                pBuffer.append(' ');
             }
-            buf.append(hours).append('h');
+            pBuffer.append(hours).append('h');
+            started = true;
         }
-        if (buf.length() != 0 || minutes != 0) {
-            if (buf.length() != 0) {
-                buf.append(' ');
+        if (started || minutes != 0) {
+            if (started) {
+                pBuffer.append(' ');
             }
-            buf.append(minutes).append('m');
+            pBuffer.append(minutes).append('m');
+            started = true;
         }
-        if (buf.length() != 0 || seconds != 0) {
-            if (buf.length() != 0) {
-                buf.append(' ');
+        if (started || seconds != 0) {
+            if (started) {
+                pBuffer.append(' ');
             }
-            buf.append(seconds).append('s');
+            pBuffer.append(seconds).append('s');
+            started = true;
         }
 
-        if (buf.length() == 0) {
-            buf.append("0s");
+        if (!started) {
+            pBuffer.append("0s");
         }
 
-        return buf.toString();
+        return pBuffer;
     }
 }
@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gdata.client.spreadsheet.CellQuery;
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.Link;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.data.spreadsheet.CellEntry;
+import com.google.gdata.data.spreadsheet.CellFeed;
+import com.google.gdata.util.ServiceException;
+
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.EditableAcraReport;
+
+/**
+ * Writes the {@link AcraReportHeader#STACK_TRACE_MD5} cell of many reports with Google
+ * spreadsheet batch requests.
+ * <p>
+ * List feeds don't support batch requests, so the cells are written through the worksheet cell
+ * feed:
+ * <ol>
+ * <li>the header row is read to find the {@link AcraReportHeader#REPORT_ID} and
+ * {@link AcraReportHeader#STACK_TRACE_MD5} columns,</li>
+ * <li>the {@link AcraReportHeader#REPORT_ID} column is read to find the row of each report,</li>
+ * <li>the rows are committed by chunks of at most <code>batchSize</code> rows: a batch request
+ * reads the header cells and the {@link AcraReportHeader#REPORT_ID} and
+ * {@link AcraReportHeader#STACK_TRACE_MD5} cells of the rows, then another one updates the
+ * stacktrace MD5 cells of the rows still holding their report.</li>
+ * </ol>
+ * The cells are updated with the versions read by the first batch request: a cell changed
+ * meanwhile isn't overwritten. Each row the batch requests fail to update, or which no longer
+ * holds its report, is logged then updated with its own request using
+ * {@link EditableAcraReport#commitStacktraceMD5()}. The reports whose row can't be located are
+ * updated the same way.
+ * <p>
+ * The columns and the rows are read by the first commit following a {@link #reset()}, then kept
+ * for the next commits: the committed rows only leave the unsynchronized rows list feed, their
+ * row number doesn't change. The committed reports are removed from the kept rows. A report
+ * missing from the kept rows, such as a report appended to the worksheet meanwhile, makes the
+ * {@link AcraReportHeader#REPORT_ID} column to be read again once. The rows may be inserted,
+ * deleted or moved in the worksheet meanwhile: a commit which doesn't update all its located rows
+ * with batch requests forgets the columns and the rows, the next commit reads them again.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SpreadsheetBatchCommitter {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpreadsheetBatchCommitter.class);
+
+    /** The Spreadsheet client. */
+    private final SpreadsheetService client;
+
+    /** The URL of the worksheet cell feed. */
+    private final URL cellFeedUrl;
+
+    /** The maximum number of cells updated by a batch request. */
+    private final int batchSize;
+
+    /** The index of the {@link AcraReportHeader#REPORT_ID} column, null if unknown. */
+    private Integer idColumn;
+
+    /** The index of the {@link AcraReportHeader#STACK_TRACE_MD5} column, null if unknown. */
+    private Integer md5Column;
+
+    /** The cell feed batch URL, null until the header row is read. */
+    private URL batchUrl;
+
+    /** The row of each report not committed yet, null until the rows are read. */
+    private Map<String, Integer> rowById;
+
+    /** The report identifiers appearing on several rows. */
+    private final Set<String> duplicates = new HashSet<String>();
+
+    /**
+     * Constructor.
+     * 
+     * @param pClient
+     *            the Spreadsheet client
+     * @param pCellFeedUrl
+     *            the URL of the worksheet cell feed
+     * @param pBatchSize
+     *            the maximum number of cells updated by a batch request
+     */
+    public SpreadsheetBatchCommitter(final SpreadsheetService pClient, final URL pCellFeedUrl,
+            final int pBatchSize) {
+
+        client = pClient;
+        cellFeedUrl = pCellFeedUrl;
+        batchSize = Math.max(1, pBatchSize);
+    }
+
+    /**
+     * Forgets the columns and the rows read by the previous commits.
+     */
+    public synchronized void reset() {
+
+        forget();
+    }
+
+    /**
+     * Forgets the columns and the rows.
+     */
+    private void forget() {
+
+        idColumn = null;
+        md5Column = null;
+        batchUrl = null;
+        rowById = null;
+        duplicates.clear();
+    }
+
+    /**
+     * Updates the stacktrace MD5 hash of the given reports on the remote Google spreadsheet.
+     * 
+     * @param pReports
+     *            the reports to commit
+     * @return the number of reports committed with batch requests, the other ones have been
+     *         committed one by one
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public synchronized int commitStacktraceMD5(final List<? extends EditableAcraReport> pReports)
+            throws IOException, ServiceException {
+
+        if (pReports.isEmpty()) {
+            return 0;
+        }
+
+        // locate the columns
+        if (null == batchUrl) {
+            readHeaders();
+        }
+
+        final List<EditableAcraReport> unlocated = new ArrayList<EditableAcraReport>();
+        final Map<Integer, EditableAcraReport> rows = new LinkedHashMap<Integer, EditableAcraReport>();
+        if (null == idColumn || null == md5Column) {
+            LOGGER.warn("unable to locate the {} and {} columns in the worksheet header row",
+                    AcraReportHeader.REPORT_ID.tagName(),
+                    AcraReportHeader.STACK_TRACE_MD5.tagName());
+            unlocated.addAll(pReports);
+        } else {
+            locateRows(pReports, rows, unlocated);
+        }
+
+        // batch update located rows
+        final List<EditableAcraReport> failures = new ArrayList<EditableAcraReport>();
+        boolean complete = false;
+        try {
+            Map<Integer, EditableAcraReport> chunk = new LinkedHashMap<Integer, EditableAcraReport>();
+            for (final Map.Entry<Integer, EditableAcraReport> row : rows.entrySet()) {
+                chunk.put(row.getKey(), row.getValue());
+                if (chunk.size() == batchSize) {
+                    failures.addAll(batchUpdate(chunk));
+                    chunk = new LinkedHashMap<Integer, EditableAcraReport>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                failures.addAll(batchUpdate(chunk));
+            }
+            complete = failures.isEmpty();
+        } finally {
+            if (complete) {
+                for (final EditableAcraReport report : rows.values()) {
+                    rowById.remove(report.getId());
+                }
+            } else if (!rows.isEmpty()) {
+                // the rows may have moved
+                LOGGER.debug("forgetting the worksheet columns and rows");
+                forget();
+            }
+        }
+
+        // fallback to one request per row
+        final int committed = rows.size() - failures.size();
+        final List<EditableAcraReport> remaining = new ArrayList<EditableAcraReport>(unlocated);
+        remaining.addAll(failures);
+        for (final EditableAcraReport report : remaining) {
+            report.commitStacktraceMD5();
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("committed {} stacktrace MD5 cells with batch requests, {} one by one",
+                    committed, remaining.size());
+        }
+        return committed;
+    }
+
+    /**
+     * Reads the header row to find the {@link AcraReportHeader#REPORT_ID} and
+     * {@link AcraReportHeader#STACK_TRACE_MD5} columns and the batch URL.
+     * 
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private void readHeaders() throws IOException, ServiceException {
+
+        final CellFeed headers = getCells(1, 1, null, null);
+        final Map<String, Integer> columns = new HashMap<String, Integer>();
+        for (final CellEntry cell : headers.getEntries()) {
+            columns.put(toTagName(cell.getCell().getValue()), cell.getCell().getCol());
+        }
+        idColumn = columns.get(AcraReportHeader.REPORT_ID.tagName());
+        md5Column = columns.get(AcraReportHeader.STACK_TRACE_MD5.tagName());
+        batchUrl = getBatchUrl(headers);
+    }
+
+    /**
+     * Reads the {@link AcraReportHeader#REPORT_ID} column to find the row of each report.
+     * 
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private void readRows() throws IOException, ServiceException {
+
+        rowById = new HashMap<String, Integer>();
+        duplicates.clear();
+        for (final CellEntry cell : getCells(2, null, idColumn, idColumn).getEntries()) {
+            final String id = cell.getCell().getValue();
+            if (null != rowById.put(id, cell.getCell().getRow())) {
+                duplicates.add(id);
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("located {} report rows", rowById.size());
+        }
+    }
+
+    /**
+     * Finds the row of each given report by its {@link AcraReportHeader#REPORT_ID} value.
+     * <p>
+     * The rows are read on the first call, and read again once if a report is missing from them.
+     * Reports whose identifier is missing or appears on several rows are added to the list of
+     * unlocated reports.
+     * 
+     * @param pReports
+     *            the reports to locate
+     * @param pRows
+     *            receives the located reports, by row number
+     * @param pUnlocated
+     *            receives the reports which can't be located
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private void locateRows(final List<? extends EditableAcraReport> pReports,
+            final Map<Integer, EditableAcraReport> pRows,
+            final List<EditableAcraReport> pUnlocated) throws IOException, ServiceException {
+
+        if (null == rowById) {
+            readRows();
+        } else {
+            for (final EditableAcraReport report : pReports) {
+                if (!rowById.containsKey(report.getId())) {
+                    readRows();
+                    break;
+                }
+            }
+        }
+        for (final EditableAcraReport report : pReports) {
+            final Integer row = rowById.get(report.getId());
+            if (null == row || duplicates.contains(report.getId())) {
+                LOGGER.warn("unable to locate the worksheet row of report {}", report.getId());
+                pUnlocated.add(report);
+            } else {
+                pRows.put(row, report);
+            }
+        }
+    }
+
+    /**
+     * Updates the stacktrace MD5 cell of the given rows: a batch request reads the header cells and
+     * the cells of the rows, then another one updates the stacktrace MD5 cells of the rows still
+     * holding their report, with the versions read.
+     * 
+     * @param pRows
+     *            the reports to commit, by row number
+     * @return the reports the batch requests failed to commit
+     * @throws IOException
+     */
+    private List<EditableAcraReport> batchUpdate(final Map<Integer, EditableAcraReport> pRows)
+            throws IOException {
+
+        final CellFeed query = new CellFeed();
+        query.getEntries().add(createCellQuery(1, idColumn));
+        query.getEntries().add(createCellQuery(1, md5Column));
+        for (final Integer row : pRows.keySet()) {
+            query.getEntries().add(createCellQuery(row, idColumn));
+            query.getEntries().add(createCellQuery(row, md5Column));
+        }
+        final Map<String, CellEntry> cells = new HashMap<String, CellEntry>();
+        try {
+            for (final CellEntry entry : client.batch(batchUrl, query).getEntries()) {
+                if (BatchUtils.isSuccess(entry)) {
+                    cells.put(BatchUtils.getBatchId(entry), entry);
+                }
+            }
+        } catch (final ServiceException e) {
+            LOGGER.warn(String.format("batch query of %d report rows failed", pRows.size()), e);
+            return new ArrayList<EditableAcraReport>(pRows.values());
+        }
+        final String idHeader = getTagName(cells.get(getCellId(1, idColumn)));
+        final String md5Header = getTagName(cells.get(getCellId(1, md5Column)));
+        if (!AcraReportHeader.REPORT_ID.tagName().equals(idHeader)
+                || !AcraReportHeader.STACK_TRACE_MD5.tagName().equals(md5Header)) {
+            LOGGER.warn("the {} and {} columns have moved", AcraReportHeader.REPORT_ID.tagName(),
+                    AcraReportHeader.STACK_TRACE_MD5.tagName());
+            return new ArrayList<EditableAcraReport>(pRows.values());
+        }
+
+        final List<EditableAcraReport> failures = new ArrayList<EditableAcraReport>();
+        final Map<String, EditableAcraReport> pending = new LinkedHashMap<String, EditableAcraReport>();
+        final CellFeed request = new CellFeed();
+        for (final Map.Entry<Integer, EditableAcraReport> row : pRows.entrySet()) {
+            final EditableAcraReport report = row.getValue();
+            final CellEntry id = cells.get(getCellId(row.getKey(), idColumn));
+            final String batchId = getCellId(row.getKey(), md5Column);
+            final CellEntry md5 = cells.get(batchId);
+            if (null == id || null == md5 || !report.getId().equals(id.getCell().getValue())) {
+                LOGGER.warn("row {} no longer holds report {}", row.getKey(), report.getId());
+                failures.add(report);
+            } else {
+                final CellEntry entry = new CellEntry(md5);
+                entry.changeInputValueLocal(report.getStacktraceMD5());
+                BatchUtils.setBatchId(entry, batchId);
+                BatchUtils.setBatchOperationType(entry, BatchOperationType.UPDATE);
+                request.getEntries().add(entry);
+                pending.put(batchId, report);
+            }
+        }
+        if (pending.isEmpty()) {
+            return failures;
+        }
+
+        // each cell is sent with the version read: a cell changed meanwhile isn't overwritten
+        final CellFeed response;
+        try {
+            response = client.batch(batchUrl, request);
+        } catch (final ServiceException e) {
+            LOGGER.warn(String.format("batch update of %d stacktrace MD5 cells failed",
+                    pending.size()), e);
+            failures.addAll(pending.values());
+            return failures;
+        }
+
+        for (final CellEntry entry : response.getEntries()) {
+            final String batchId = BatchUtils.getBatchId(entry);
+            if (BatchUtils.isSuccess(entry)) {
+                pending.remove(batchId);
+            } else if (pending.containsKey(batchId)) {
+                final BatchStatus status = BatchUtils.getBatchStatus(entry);
+                LOGGER.warn("unable to update the stacktrace MD5 cell of report {} ({}): {} {}",
+                        new Object[] { pending.get(batchId).getId(), batchId, status.getCode(),
+                                status.getReason() });
+            }
+        }
+        failures.addAll(pending.values());
+        return failures;
+    }
+
+    /**
+     * Creates a batch entry reading a cell.
+     * 
+     * @param pRow
+     *            the row of the cell
+     * @param pCol
+     *            the column of the cell
+     * @return the batch query entry
+     */
+    private CellEntry createCellQuery(final int pRow, final int pCol) {
+
+        final String cellId = getCellId(pRow, pCol);
+        final CellEntry entry = new CellEntry(pRow, pCol, cellId);
+        entry.setId(String.format("%s/%s", cellFeedUrl, cellId));
+        BatchUtils.setBatchId(entry, cellId);
+        BatchUtils.setBatchOperationType(entry, BatchOperationType.QUERY);
+        return entry;
+    }
+
+    /**
+     * Gets the identifier of a cell in the cell feed, such as <code>R2C3</code>.
+     * 
+     * @param pRow
+     *            the row of the cell
+     * @param pCol
+     *            the column of the cell
+     * @return the cell identifier
+     */
+    private static String getCellId(final int pRow, final int pCol) {
+
+        return String.format("R%dC%d", pRow, pCol);
+    }
+
+    /**
+     * Gets the list feed tag name of a header cell.
+     * 
+     * @param pCell
+     *            the header cell, may be null
+     * @return the tag name, null if the cell is null
+     */
+    private static String getTagName(final CellEntry pCell) {
+
+        if (null == pCell) {
+            return null;
+        }
+        return toTagName(pCell.getCell().getValue());
+    }
+
+    /**
+     * Queries a range of cells of the worksheet.
+     * 
+     * @param pMinRow
+     *            the first row
+     * @param pMaxRow
+     *            the last row, null for no limit
+     * @param pMinCol
+     *            the first column, null for no limit
+     * @param pMaxCol
+     *            the last column, null for no limit
+     * @return the non-empty cells of the given range
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private CellFeed getCells(final int pMinRow, final Integer pMaxRow, final Integer pMinCol,
+            final Integer pMaxCol) throws IOException, ServiceException {
+
+        final CellQuery query = new CellQuery(cellFeedUrl);
+        query.setMinimumRow(pMinRow);
+        query.setMaximumRow(pMaxRow);
+        query.setMinimumCol(pMinCol);
+        query.setMaximumCol(pMaxCol);
+        return client.getFeed(query, CellFeed.class);
+    }
+
+    /**
+     * Gets the batch URL of the cell feed.
+     * 
+     * @param pFeed
+     *            a cell feed
+     * @return the batch link of the given feed, or the conventional batch URL if the feed has none
+     * @throws IOException
+     */
+    private URL getBatchUrl(final CellFeed pFeed) throws IOException {
+
+        final Link link = pFeed.getLink(Link.Rel.FEED_BATCH, Link.Type.ATOM);
+        if (null == link || StringUtils.isEmpty(link.getHref())) {
+            return new URL(cellFeedUrl + "/batch");
+        } else {
+            return new URL(link.getHref());
+        }
+    }
+
+    /**
+     * Converts a column header to its list feed tag name, as {@link AcraReportHeader#tagName()}.
+     * 
+     * @param pHeader
+     *            the column header
+     * @return the tag name
+     */
+    private static String toTagName(final String pHeader) {
+
+        return StringUtils.defaultString(pHeader).toLowerCase().replaceAll("[^a-z0-9]", "");
+    }
+}
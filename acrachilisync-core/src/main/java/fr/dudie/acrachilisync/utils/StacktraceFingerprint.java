@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package fr.dudie.acrachilisync.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The ways to identify a stacktrace. The reports with the same fingerprint are synchronized with
+ * the same issue, the fingerprint is stored in the stacktrace MD5 custom field of the issue.
+ * 
+ * @author Jérémie Huchet
+ */
+public enum StacktraceFingerprint {
+
+    /** The MD5 hash of the trimmed stacktrace, the fingerprint of the existing issues. */
+    MD5 {
+
+        @Override
+        public String compute(final String pStacktrace) {
+
+            return MD5Utils.toMD5hash(StringUtils.trim(pStacktrace));
+        }
+    },
+
+    /**
+     * The MD5 hash of the {@link StacktraceFingerprint#normalize(String) normalized} stacktrace, so
+     * the same crash in different builds of the application is synchronized with a single issue.
+     */
+    NORMALIZED {
+
+        @Override
+        public String compute(final String pStacktrace) {
+
+            return null == pStacktrace ? null : MD5Utils.toFullMD5hash(normalize(pStacktrace));
+        }
+    };
+
+    /** Matches the exception lines: the class name of the exception and its message. */
+    private static final Pattern EXCEPTION_LINE = Pattern
+            .compile("^((?:Caused by: |Suppressed: )?[\\w$]+(?:\\.[\\w$]+)+)(?::.*)?$");
+
+    /** Matches the lines summarizing the frames in common with the enclosing trace. */
+    private static final Pattern MORE_LINE = Pattern.compile("^\\.\\.\\. \\d+ more$");
+
+    /** Matches the line number of a stack frame. */
+    private static final Pattern LINE_NUMBER = Pattern.compile(":\\d+\\)$");
+
+    /**
+     * Matches the suffixes of the generated classes: lambdas, synthetic classes, proxies and
+     * enhanced classes. The groups are the part of the class name to keep.
+     */
+    private static final Pattern GENERATED_CLASS = Pattern
+            .compile("(\\$\\$Lambda)[$\\w-]*(?:/(?:0x)?[0-9a-fA-F]+)?"
+                    + "|(\\$\\$ExternalSynthetic[A-Za-z]+|\\$Proxy)\\d+"
+                    + "|(\\$\\$\\w+?By\\w+?\\$\\$)[0-9a-fA-F]+");
+
+    /** Matches the identity hash codes of the objects. */
+    private static final Pattern OBJECT_HASH = Pattern.compile("@[0-9a-fA-F]{4,}\\b");
+
+    /**
+     * Computes the fingerprint of a stacktrace.
+     * 
+     * @param pStacktrace
+     *            the stacktrace
+     * @return the fingerprint, null if the stacktrace is null
+     */
+    public abstract String compute(final String pStacktrace);
+
+    /**
+     * Removes the parts of a stacktrace which differ from a build of the application to another
+     * or from a crash to another: the exception messages, the line numbers, the suffixes of the
+     * generated classes and the hash codes of the objects. The lines are trimmed, the empty lines
+     * and the lines of the multiple lines messages are removed.
+     * 
+     * @param pStacktrace
+     *            the stacktrace
+     * @return the normalized stacktrace
+     */
+    public static String normalize(final String pStacktrace) {
+
+        final StringBuilder normalized = new StringBuilder(pStacktrace.length());
+        final Matcher exception = EXCEPTION_LINE.matcher("");
+        final Matcher more = MORE_LINE.matcher("");
+        final Matcher lineNumber = LINE_NUMBER.matcher("");
+        final Matcher generated = GENERATED_CLASS.matcher("");
+        final Matcher hash = OBJECT_HASH.matcher("");
+        int start = 0;
+        while (start < pStacktrace.length()) {
+            int end = pStacktrace.indexOf('\n', start);
+            if (end < 0) {
+                end = pStacktrace.length();
+            }
+            final String line = pStacktrace.substring(start, end).trim();
+            start = end + 1;
+            final String kept;
+            if (line.startsWith("at ")) {
+                String frame = line;
+                if (lineNumber.reset(frame).find()) {
+                    frame = frame.substring(0, lineNumber.start()) + ')';
+                }
+                frame = generated.reset(frame).replaceAll("$1$2$3");
+                kept = hash.reset(frame).replaceAll("@");
+            } else if (exception.reset(line).matches()) {
+                kept = generated.reset(exception.group(1)).replaceAll("$1$2$3");
+            } else if (more.reset(line).matches()) {
+                kept = line;
+            } else {
+                kept = null;
+            }
+            if (null != kept) {
+                if (normalized.length() > 0) {
+                    normalized.append('\n');
+                }
+                normalized.append(kept);
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of the synchronization hot paths, shared by the synchronization
+ * worker threads.
+ * <p>
+ * A timer is a histogram of durations in nanoseconds:
+ * 
+ * <pre>
+ * final long start = metrics.start();
+ * try {
+ *     ...
+ * } finally {
+ *     metrics.stop(SyncMetrics.ISSUE_LOOKUP, start);
+ * }
+ * </pre>
+ * 
+ * The values are cumulated since the metrics have been created, a {@link #snapshot()} taken at
+ * the beginning of a synchronization gives the {@link #summarySince(Map) summary} of the
+ * synchronization. The gauges hold the last value {@link #set(String, long) set}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SyncMetrics implements SyncMetricsMXBean {
+
+    /** Timer of the reads of a page of unsynchronized reports from the spreadsheet. */
+    public static final String SPREADSHEET_READ = "spreadsheet_read";
+
+    /** Timer of the Chiliproject queries looking up the issue related to a stacktrace. */
+    public static final String ISSUE_LOOKUP = "issue_lookup";
+
+    /** Timer of the issue description parsings. */
+    public static final String DESCRIPTION_PARSE = "description_parse";
+
+    /** Timer of the issue description builds. */
+    public static final String DESCRIPTION_BUILD = "description_build";
+
+    /** Timer of the issue creations on the Chiliproject server. */
+    public static final String ISSUE_CREATE = "issue_create";
+
+    /** Timer of the issue updates on the Chiliproject server. */
+    public static final String ISSUE_UPDATE = "issue_update";
+
+    /** Timer of the stacktrace MD5 hash commits to the spreadsheet. */
+    public static final String MD5_COMMIT = "md5_commit";
+
+    /** Timer of the waits for the rate limiter of a remote service. */
+    public static final String RATE_LIMIT_WAIT = "rate_limit_wait";
+
+    /** Timer of the backoffs before retrying a remote call. */
+    public static final String RETRY_BACKOFF = "retry_backoff";
+
+    /** Timer of the calls paused by the circuit breaker of a remote service. */
+    public static final String CIRCUIT_PAUSE = "circuit_pause";
+
+    /** Histogram of the length of the built issue descriptions, in characters. */
+    public static final String DESCRIPTION_LENGTH = "description_length";
+
+    /** Counter of the unsynchronized reports read from the spreadsheet. */
+    public static final String REPORTS_READ = "reports_read";
+
+    /** Counter of the reports skipped thanks to the local synchronization state. */
+    public static final String REPORTS_SKIPPED = "reports_skipped";
+
+    /** Counter of the synchronizations. */
+    public static final String SYNCHRONIZATIONS = "synchronizations";
+
+    /** Gauge of the maximum number of concurrent issue creations and updates. */
+    public static final String WRITE_CONCURRENCY_LIMIT = "write_concurrency_limit";
+
+    /** The prefix of the exported metric names. */
+    private static final String PREFIX = "acrachilisync_";
+
+    /** The upper bounds of the timer buckets, in nanoseconds. */
+    private static final long[] TIME_BUCKETS = { TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(5), TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.SECONDS.toNanos(1),
+            TimeUnit.SECONDS.toNanos(5), TimeUnit.SECONDS.toNanos(10),
+            TimeUnit.SECONDS.toNanos(30) };
+
+    /** The upper bounds of the description length buckets, in characters. */
+    private static final long[] LENGTH_BUCKETS = { 1000, 10000, 100000, 1000000, 10000000 };
+
+    /** The histograms by name, timers first. */
+    private final Map<String, Histogram> histograms;
+
+    /** The counters by name. */
+    private final Map<String, AtomicLong> counters;
+
+    /** The gauges by name. */
+    private final Map<String, AtomicLong> gauges;
+
+    /**
+     * Creates the metrics, all values are 0.
+     */
+    public SyncMetrics() {
+
+        final Map<String, Histogram> h = new LinkedHashMap<String, Histogram>();
+        for (final String timer : new String[] { SPREADSHEET_READ, ISSUE_LOOKUP,
+                DESCRIPTION_PARSE, DESCRIPTION_BUILD, ISSUE_CREATE, ISSUE_UPDATE, MD5_COMMIT,
+                RATE_LIMIT_WAIT, RETRY_BACKOFF, CIRCUIT_PAUSE }) {
+            h.put(timer, new Histogram(TIME_BUCKETS, true));
+        }
+        h.put(DESCRIPTION_LENGTH, new Histogram(LENGTH_BUCKETS, false));
+        histograms = Collections.unmodifiableMap(h);
+
+        final Map<String, AtomicLong> c = new LinkedHashMap<String, AtomicLong>();
+        for (final String counter : new String[] { SYNCHRONIZATIONS, REPORTS_READ,
+                REPORTS_SKIPPED }) {
+            c.put(counter, new AtomicLong());
+        }
+        counters = Collections.unmodifiableMap(c);
+
+        final Map<String, AtomicLong> g = new LinkedHashMap<String, AtomicLong>();
+        g.put(WRITE_CONCURRENCY_LIMIT, new AtomicLong());
+        gauges = Collections.unmodifiableMap(g);
+    }
+
+    /**
+     * Starts a timer.
+     * 
+     * @return the start time to give to {@link #stop(String, long)}
+     */
+    public long start() {
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Stops a timer and records the elapsed time.
+     * 
+     * @param pTimer
+     *            the timer name
+     * @param pStart
+     *            the start time returned by {@link #start()}
+     */
+    public void stop(final String pTimer, final long pStart) {
+
+        record(pTimer, System.nanoTime() - pStart);
+    }
+
+    /**
+     * Records a value in a histogram.
+     * 
+     * @param pHistogram
+     *            the histogram name
+     * @param pValue
+     *            the value
+     */
+    public void record(final String pHistogram, final long pValue) {
+
+        getHistogram(pHistogram).record(pValue);
+    }
+
+    /**
+     * Increments a counter.
+     * 
+     * @param pCounter
+     *            the counter name
+     * @param pDelta
+     *            the value to add
+     */
+    public void increment(final String pCounter, final long pDelta) {
+
+        final AtomicLong counter = counters.get(pCounter);
+        if (null == counter) {
+            throw new IllegalArgumentException("Unknown counter: " + pCounter);
+        }
+        counter.addAndGet(pDelta);
+    }
+
+    /**
+     * Sets the value of a gauge.
+     * 
+     * @param pGauge
+     *            the gauge name
+     * @param pValue
+     *            the value
+     */
+    public void set(final String pGauge, final long pValue) {
+
+        findGauge(pGauge).set(pValue);
+    }
+
+    /**
+     * Gets the value of a gauge.
+     * 
+     * @param pGauge
+     *            the gauge name
+     * @return the last value set, 0 if the gauge has never been set
+     */
+    public long getGauge(final String pGauge) {
+
+        return findGauge(pGauge).get();
+    }
+
+    /**
+     * Gets the number of values recorded by a histogram.
+     * 
+     * @param pHistogram
+     *            the histogram name
+     * @return the number of values
+     */
+    public long getCount(final String pHistogram) {
+
+        return getHistogram(pHistogram).snapshot()[0];
+    }
+
+    /**
+     * Gets the value of a counter.
+     * 
+     * @param pCounter
+     *            the counter name
+     * @return the counter value
+     */
+    public long getCounter(final String pCounter) {
+
+        return counters.get(pCounter).get();
+    }
+
+    /**
+     * Takes a snapshot of the number of values and the sum of each histogram, and of each
+     * counter.
+     * 
+     * @return the snapshot to give to {@link #summarySince(Map)}
+     */
+    public Map<String, long[]> snapshot() {
+
+        final Map<String, long[]> snapshot = new HashMap<String, long[]>();
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        for (final Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), new long[] { entry.getValue().get(), 0 });
+        }
+        return snapshot;
+    }
+
+    /**
+     * Formats the values recorded since the given snapshot: the counters, then the number of
+     * calls and the total time of each timer called, then the gauges which have been set.
+     * 
+     * @param pSnapshot
+     *            a snapshot returned by {@link #snapshot()}
+     * @return a one line summary
+     */
+    public String summarySince(final Map<String, long[]> pSnapshot) {
+
+        final Map<String, long[]> now = snapshot();
+        final StringBuilder summary = new StringBuilder();
+        for (final String counter : counters.keySet()) {
+            summary.append(counter).append('=');
+            summary.append(now.get(counter)[0] - pSnapshot.get(counter)[0]).append(' ');
+        }
+
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            final long count = now.get(entry.getKey())[0] - pSnapshot.get(entry.getKey())[0];
+            if (entry.getValue().isTimer() && count > 0) {
+                final long nanos = now.get(entry.getKey())[1] - pSnapshot.get(entry.getKey())[1];
+                summary.append(String.format("%s=%d/%dms ", entry.getKey(), count,
+                        TimeUnit.NANOSECONDS.toMillis(nanos)));
+            }
+        }
+
+        for (final Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            if (entry.getValue().get() != 0) {
+                summary.append(entry.getKey()).append('=').append(entry.getValue().get());
+                summary.append(' ');
+            }
+        }
+        return summary.toString().trim();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see fr.dudie.acrachilisync.utils.SyncMetricsMXBean#getValues()
+     */
+    @Override
+    public Map<String, Long> getValues() {
+
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            final long[] snapshot = entry.getValue().snapshot();
+            values.put(entry.getKey() + "_count", snapshot[0]);
+            if (entry.getValue().isTimer()) {
+                values.put(entry.getKey() + "_millis", TimeUnit.NANOSECONDS.toMillis(snapshot[1]));
+            } else {
+                values.put(entry.getKey() + "_sum", snapshot[1]);
+            }
+        }
+        for (final Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see fr.dudie.acrachilisync.utils.SyncMetricsMXBean#getPrometheusText()
+     */
+    @Override
+    public String getPrometheusText() {
+
+        final StringBuilder text = new StringBuilder();
+        for (final Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            final String name = PREFIX + entry.getKey() + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            final Histogram histogram = entry.getValue();
+            final String name = PREFIX + entry.getKey()
+                    + (histogram.isTimer() ? "_seconds" : "_chars");
+            text.append("# TYPE ").append(name).append(" histogram\n");
+            final long[] buckets = histogram.buckets();
+            long cumulated = 0;
+            for (int i = 0; i < histogram.bounds.length; i++) {
+                cumulated += buckets[i];
+                text.append(name).append("_bucket{le=\"");
+                text.append(histogram.format(histogram.bounds[i])).append("\"} ");
+                text.append(cumulated).append('\n');
+            }
+            cumulated += buckets[histogram.bounds.length];
+            text.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulated).append('\n');
+            text.append(name).append("_sum ").append(histogram.format(buckets[buckets.length - 1]));
+            text.append('\n');
+            text.append(name).append("_count ").append(cumulated).append('\n');
+        }
+        for (final Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            final String name = PREFIX + entry.getKey();
+            text.append("# TYPE ").append(name).append(" gauge\n");
+            text.append(name).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Gets a histogram.
+     * 
+     * @param pHistogram
+     *            the histogram name
+     * @return the histogram
+     */
+    private Histogram getHistogram(final String pHistogram) {
+
+        final Histogram histogram = histograms.get(pHistogram);
+        if (null == histogram) {
+            throw new IllegalArgumentException("Unknown histogram: " + pHistogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets a gauge.
+     * 
+     * @param pGauge
+     *            the gauge name
+     * @return the gauge
+     */
+    private AtomicLong findGauge(final String pGauge) {
+
+        final AtomicLong gauge = gauges.get(pGauge);
+        if (null == gauge) {
+            throw new IllegalArgumentException("Unknown gauge: " + pGauge);
+        }
+        return gauge;
+    }
+
+    /**
+     * Counts the recorded values by bucket.
+     * 
+     * @author Jérémie Huchet
+     */
+    private static final class Histogram {
+
+        /** The upper bounds of the buckets, inclusive. */
+        private final long[] bounds;
+
+        /** True if the values are durations in nanoseconds. */
+        private final boolean timer;
+
+        /** The number of values of each bucket, the last bucket has no upper bound. */
+        private final long[] counts;
+
+        /** The number of values. */
+        private long count;
+
+        /** The sum of the values. */
+        private long sum;
+
+        /**
+         * Constructor.
+         * 
+         * @param pBounds
+         *            the upper bounds of the buckets
+         * @param pTimer
+         *            true if the values are durations in nanoseconds
+         */
+        private Histogram(final long[] pBounds, final boolean pTimer) {
+
+            bounds = pBounds;
+            timer = pTimer;
+            counts = new long[pBounds.length + 1];
+        }
+
+        /**
+         * Records a value.
+         * 
+         * @param pValue
+         *            the value
+         */
+        private synchronized void record(final long pValue) {
+
+            int bucket = 0;
+            while (bucket < bounds.length && pValue > bounds[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            sum += pValue;
+        }
+
+        /**
+         * Gets the number of values and their sum.
+         * 
+         * @return the number of values and their sum
+         */
+        private synchronized long[] snapshot() {
+
+            return new long[] { count, sum };
+        }
+
+        /**
+         * Gets the number of values of each bucket, followed by the sum of the values.
+         * 
+         * @return the bucket counts and the sum
+         */
+        private synchronized long[] buckets() {
+
+            final long[] buckets = new long[counts.length + 1];
+            System.arraycopy(counts, 0, buckets, 0, counts.length);
+            buckets[counts.length] = sum;
+            return buckets;
+        }
+
+        /**
+         * Gets whether or not the values are durations.
+         * 
+         * @return true if the values are durations in nanoseconds
+         */
+        private boolean isTimer() {
+
+            return timer;
+        }
+
+        /**
+         * Formats a value in the exported unit: seconds for the timers.
+         * 
+         * @param pValue
+         *            a value
+         * @return the formatted value
+         */
+        private String format(final long pValue) {
+
+            if (timer) {
+                return BigDecimal.valueOf(pValue, 9).stripTrailingZeros().toPlainString();
+            }
+            return String.valueOf(pValue);
+        }
+    }
+}
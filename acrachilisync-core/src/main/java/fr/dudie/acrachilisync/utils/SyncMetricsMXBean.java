@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link SyncMetrics}.
+ * 
+ * @author Jérémie Huchet
+ */
+public interface SyncMetricsMXBean {
+
+    /**
+     * Gets the value of each counter, and the number of calls and the total time in milliseconds
+     * of each timer.
+     * 
+     * @return the values by name
+     */
+    Map<String, Long> getValues();
+
+    /**
+     * Gets the metrics in the Prometheus text exposition format.
+     * 
+     * @return the metrics
+     */
+    String getPrometheusText();
+}
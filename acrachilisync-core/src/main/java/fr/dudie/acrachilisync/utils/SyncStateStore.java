@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.SyncStatus;
+
+/**
+ * Remembers the reports synchronized with the Chiliproject server whose stacktrace MD5 hash
+ * hasn't been written to the Google spreadsheet yet, so a later synchronization doesn't process
+ * them again.
+ * <p>
+ * The state is kept in an append-only file of the given directory, one record per line:
+ * <ul>
+ * <li><code>S&lt;tab&gt;report id&lt;tab&gt;issue id</code>: the report is synchronized with the
+ * Chiliproject server, the issue id is empty when unknown,</li>
+ * <li><code>C&lt;tab&gt;report id</code>: the stacktrace MD5 hash of the report has been written
+ * to the spreadsheet, the report won't show up again.</li>
+ * </ul>
+ * Each batch of records is written to the disk before the method recording it returns. When the
+ * store is opened, the file is read, a last line left without line terminator by a crash is
+ * ignored even if it looks complete, and the file is rewritten with the pending reports only: its
+ * size depends on the number of reports waiting for their stacktrace MD5 hash to be committed,
+ * not on the history.
+ * <p>
+ * The store holds a lock on a file of the directory until it is closed, so two synchronizations
+ * can't share the same directory.
+ * <p>
+ * The failed synchronizations aren't recorded: these reports are processed again.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SyncStateStore implements Closeable {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncStateStore.class);
+
+    /** The name of the state file. */
+    private static final String FILENAME = "sync-state.log";
+
+    /** The name of the file locked while the store is open. */
+    private static final String LOCK_FILENAME = "sync-state.lock";
+
+    /** The encoding of the state file. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The record type of a report synchronized with the Chiliproject server. */
+    private static final String SYNCHRONIZED = "S";
+
+    /** The record type of a report whose stacktrace MD5 hash has been committed. */
+    private static final String COMMITTED = "C";
+
+    /** The record field separator. */
+    private static final char SEPARATOR = '\t';
+
+    /** The state file. */
+    private final File file;
+
+    /** The compacted state file, before it replaces the state file. */
+    private final File tmp;
+
+    /** The file locked while the store is open. */
+    private final RandomAccessFile lockFile;
+
+    /** The lock held on the lock file. */
+    private final FileLock lock;
+
+    /** The identifiers of the issues of the pending reports, the value is null if unknown. */
+    private final Map<String, Integer> pending = new HashMap<String, Integer>();
+
+    /** The output stream of the state file. */
+    private FileOutputStream output;
+
+    /** The writer appending the records to the state file. */
+    private Writer writer;
+
+    /**
+     * Opens the store of the given directory, creates the directory if it doesn't exist.
+     * 
+     * @param pDirectory
+     *            the directory of the state file
+     * @throws IOException
+     *             unable to read or write the state file, or the directory is used by another
+     *             store
+     */
+    public SyncStateStore(final File pDirectory) throws IOException {
+
+        if (!pDirectory.isDirectory() && !pDirectory.mkdirs()) {
+            throw new IOException("Unable to create the sync state directory " + pDirectory);
+        }
+        file = new File(pDirectory, FILENAME);
+        tmp = new File(pDirectory, FILENAME + ".tmp");
+
+        lockFile = new RandomAccessFile(new File(pDirectory, LOCK_FILENAME), "rw");
+        FileLock acquired = null;
+        try {
+            acquired = lockFile.getChannel().tryLock();
+        } catch (final OverlappingFileLockException e) {
+            // locked by another store of this virtual machine
+            LOGGER.debug("sync state directory locked in this virtual machine", e);
+        } finally {
+            if (null == acquired) {
+                lockFile.close();
+            }
+        }
+        if (null == acquired) {
+            throw new IOException("The sync state directory " + pDirectory
+                    + " is used by another synchronization");
+        }
+        lock = acquired;
+
+        boolean opened = false;
+        try {
+            if (file.exists()) {
+                load(file);
+            } else if (tmp.exists()) {
+                // crashed while replacing the state file by the compacted one
+                load(tmp);
+            }
+            compact();
+            opened = true;
+        } finally {
+            if (!opened) {
+                unlock();
+            }
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("{} reports waiting for their stacktrace MD5 commit in {}",
+                    pending.size(), file);
+        }
+    }
+
+    /**
+     * Reads a state file.
+     * 
+     * @param pFile
+     *            the state file
+     * @throws IOException
+     *             unable to read the state file
+     */
+    private void load(final File pFile) throws IOException {
+
+        final Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(pFile), ENCODING));
+        try {
+            final StringBuilder line = new StringBuilder();
+            int lineNumber = 0;
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                lineNumber++;
+                if (!apply(line.toString())) {
+                    LOGGER.warn("Ignoring malformed line {} of {}: {}", new Object[] { lineNumber,
+                            pFile, line });
+                }
+                line.setLength(0);
+            }
+            // the record may have been cut, e.g. in its issue identifier
+            if (line.length() > 0) {
+                LOGGER.warn("Ignoring the incomplete last line of {}: {}", pFile, line);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Applies a record read from the state file.
+     * 
+     * @param pLine
+     *            the record
+     * @return false if the record is malformed
+     */
+    private boolean apply(final String pLine) {
+
+        final String[] fields = pLine.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length == 3 && SYNCHRONIZED.equals(fields[0]) && fields[1].length() > 0) {
+            if (fields[2].length() == 0) {
+                pending.put(fields[1], null);
+                return true;
+            }
+            try {
+                pending.put(fields[1], Integer.valueOf(fields[2]));
+                return true;
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        } else if (fields.length == 2 && COMMITTED.equals(fields[0])) {
+            pending.remove(fields[1]);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the state file with the pending reports, then opens it to append records.
+     * 
+     * @throws IOException
+     *             unable to write the state file
+     */
+    private void compact() throws IOException {
+
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            final Writer tmpWriter = new OutputStreamWriter(out, ENCODING);
+            for (final Map.Entry<String, Integer> entry : pending.entrySet()) {
+                writeSynchronized(tmpWriter, entry.getKey(), entry.getValue());
+            }
+            tmpWriter.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+            throw new IOException("Unable to replace the sync state file " + file);
+        }
+
+        output = new FileOutputStream(file, true);
+        writer = new OutputStreamWriter(output, ENCODING);
+    }
+
+    /**
+     * Gets whether or not the given report has been synchronized with the Chiliproject server
+     * and is waiting for its stacktrace MD5 hash to be committed.
+     * 
+     * @param pReportId
+     *            a report identifier
+     * @return true if the report has been synchronized
+     */
+    public synchronized boolean isSynchronized(final String pReportId) {
+
+        return pending.containsKey(pReportId);
+    }
+
+    /**
+     * Gets the identifier of the issue the given report has been synchronized to.
+     * 
+     * @param pReportId
+     *            a report identifier
+     * @return the issue identifier, null if the report isn't pending or the issue is unknown
+     */
+    public synchronized Integer getIssueId(final String pReportId) {
+
+        return pending.get(pReportId);
+    }
+
+    /**
+     * Gets the number of reports waiting for their stacktrace MD5 hash to be committed.
+     * 
+     * @return the number of pending reports
+     */
+    public synchronized int size() {
+
+        return pending.size();
+    }
+
+    /**
+     * Records the given reports having the {@link SyncStatus#SUCCESS} status as synchronized with
+     * the Chiliproject server. The other reports are ignored.
+     * 
+     * @param pReports
+     *            the reports
+     * @throws IOException
+     *             unable to write the state file
+     */
+    public synchronized void recordSynchronized(final Collection<? extends AcraReport> pReports)
+            throws IOException {
+
+        boolean written = false;
+        for (final AcraReport report : pReports) {
+            if (SyncStatus.SUCCESS.equals(report.getStatus()) && isRecordable(report.getId())
+                    && !pending.containsKey(report.getId())) {
+                writeSynchronized(writer, report.getId(), report.getIssueId());
+                pending.put(report.getId(), report.getIssueId());
+                written = true;
+            }
+        }
+        if (written) {
+            sync();
+        }
+    }
+
+    /**
+     * Records the stacktrace MD5 hash of the given reports has been committed to the Google
+     * spreadsheet.
+     * 
+     * @param pReports
+     *            the committed reports
+     * @throws IOException
+     *             unable to write the state file
+     */
+    public synchronized void recordCommitted(final Collection<? extends AcraReport> pReports)
+            throws IOException {
+
+        boolean written = false;
+        for (final AcraReport report : pReports) {
+            if (pending.containsKey(report.getId())) {
+                writer.write(COMMITTED);
+                writer.write(SEPARATOR);
+                writer.write(report.getId());
+                writer.write('\n');
+                pending.remove(report.getId());
+                written = true;
+            }
+        }
+        if (written) {
+            sync();
+        }
+    }
+
+    /**
+     * Closes the state file and releases the lock on the directory.
+     * 
+     * @throws IOException
+     *             unable to close the state file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        try {
+            writer.close();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Releases the lock on the directory.
+     * 
+     * @throws IOException
+     *             unable to release the lock
+     */
+    private void unlock() throws IOException {
+
+        try {
+            lock.release();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    /**
+     * Writes the records to the disk.
+     * 
+     * @throws IOException
+     *             unable to write the state file
+     */
+    private void sync() throws IOException {
+
+        writer.flush();
+        output.getFD().sync();
+    }
+
+    /**
+     * Writes a synchronized report record.
+     * 
+     * @param pWriter
+     *            the writer
+     * @param pReportId
+     *            the report identifier
+     * @param pIssueId
+     *            the issue identifier, may be null
+     * @throws IOException
+     *             unable to write the record
+     */
+    private static void writeSynchronized(final Writer pWriter, final String pReportId,
+            final Integer pIssueId) throws IOException {
+
+        pWriter.write(SYNCHRONIZED);
+        pWriter.write(SEPARATOR);
+        pWriter.write(pReportId);
+        pWriter.write(SEPARATOR);
+        if (null != pIssueId) {
+            pWriter.write(pIssueId.toString());
+        }
+        pWriter.write('\n');
+    }
+
+    /**
+     * Checks the given report identifier can be written in a record.
+     * 
+     * @param pReportId
+     *            a report identifier
+     * @return false if the identifier is empty or contains a separator or a line terminator
+     */
+    private static boolean isRecordable(final String pReportId) {
+
+        return pReportId.length() > 0 && pReportId.indexOf(SEPARATOR) < 0
+                && pReportId.indexOf('\n') < 0 && pReportId.indexOf('\r') < 0;
+    }
+}
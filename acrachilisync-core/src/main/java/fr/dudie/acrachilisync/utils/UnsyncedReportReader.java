@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.data.spreadsheet.ListFeed;
+import com.google.gdata.util.ServiceException;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.EditableAcraReport;
+
+/**
+ * Reads the unsynchronized Acra reports of the spreadsheet page by page.
+ * <p>
+ * The {@link ConfigurationManager#SPREADSHEET_FEED_URL list feed} only returns the rows having an
+ * empty stacktrace MD5 cell, so a row leaves the feed as soon as it is committed. The position of
+ * the next page is then computed from the number of rows which remain in the feed: the caller
+ * must {@link #skip(int) skip} the reports of a page it didn't commit before reading the next
+ * page.
+ * Malformed rows are skipped automatically.
+ * <p>
+ * Only one page of reports is held in memory at a time.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class UnsyncedReportReader {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnsyncedReportReader.class);
+
+    /** The Spreadsheet client. */
+    private final SpreadsheetService client;
+
+    /** The URL of the list feed of unsynchronized reports. */
+    private final URL listFeedUrl;
+
+    /** The maximum number of rows of a page, 0 to read the whole feed at once. */
+    private final int pageSize;
+
+    /** The columns retained by the reports, null to retain the whole list entries. */
+    private final Set<AcraReportHeader> columns;
+
+    /** The fingerprint of the stacktraces used as their MD5 hash. */
+    private final StacktraceFingerprint fingerprint;
+
+    /** The number of rows which remain in the feed before the next page. */
+    private int skipped;
+
+    /** Whether or not the last page has been read. */
+    private boolean finished;
+
+    /** The number of rows of the feed when the last page was read, -1 before the first page. */
+    private int totalRows = -1;
+
+    /**
+     * Constructor.
+     * 
+     * @param pClient
+     *            the Spreadsheet client
+     * @param pListFeedUrl
+     *            the URL of the list feed of unsynchronized reports
+     * @param pPageSize
+     *            the maximum number of rows of a page, 0 to read the whole feed at once
+     */
+    public UnsyncedReportReader(final SpreadsheetService pClient, final URL pListFeedUrl,
+            final int pPageSize) {
+
+        this(pClient, pListFeedUrl, pPageSize, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pClient
+     *            the Spreadsheet client
+     * @param pListFeedUrl
+     *            the URL of the list feed of unsynchronized reports
+     * @param pPageSize
+     *            the maximum number of rows of a page, 0 to read the whole feed at once
+     * @param pColumns
+     *            the columns retained by the reports, null to retain the whole list entries
+     */
+    public UnsyncedReportReader(final SpreadsheetService pClient, final URL pListFeedUrl,
+            final int pPageSize, final Set<AcraReportHeader> pColumns) {
+
+        this(pClient, pListFeedUrl, pPageSize, pColumns, StacktraceFingerprint.MD5);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pClient
+     *            the Spreadsheet client
+     * @param pListFeedUrl
+     *            the URL of the list feed of unsynchronized reports
+     * @param pPageSize
+     *            the maximum number of rows of a page, 0 to read the whole feed at once
+     * @param pColumns
+     *            the columns retained by the reports, null to retain the whole list entries
+     * @param pFingerprint
+     *            the fingerprint of the stacktraces used as their MD5 hash
+     */
+    public UnsyncedReportReader(final SpreadsheetService pClient, final URL pListFeedUrl,
+            final int pPageSize, final Set<AcraReportHeader> pColumns,
+            final StacktraceFingerprint pFingerprint) {
+
+        client = pClient;
+        listFeedUrl = pListFeedUrl;
+        pageSize = Math.max(0, pPageSize);
+        columns = pColumns;
+        fingerprint = pFingerprint;
+    }
+
+    /**
+     * Gets whether or not there may be more reports to read.
+     * 
+     * @return false when the last page has been read
+     */
+    public boolean hasNextPage() {
+
+        return !finished;
+    }
+
+    /**
+     * Reads the next page of reports.
+     * 
+     * @return the reports of the next page, may be empty if all the rows of the page are malformed
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public List<EditableAcraReport> nextPage() throws IOException, ServiceException {
+
+        if (finished) {
+            throw new IllegalStateException("The last page has already been read");
+        }
+
+        final URL url;
+        if (pageSize > 0) {
+            url = new URL(String.format("%s&start-index=%d&max-results=%d", listFeedUrl,
+                    skipped + 1, pageSize));
+        } else {
+            url = listFeedUrl;
+        }
+        final ListFeed listFeed = client.getFeed(url, ListFeed.class);
+        final List<ListEntry> entries = listFeed.getEntries();
+        finished = pageSize == 0 || entries.size() < pageSize;
+        totalRows = Math.max(listFeed.getTotalResults(), skipped + entries.size());
+
+        final List<EditableAcraReport> reports = new ArrayList<EditableAcraReport>(entries.size());
+        for (final ListEntry listEntry : entries) {
+            try {
+                if (null == columns) {
+                    reports.add(new EditableAcraReport(listEntry, fingerprint));
+                } else {
+                    reports.add(new EditableAcraReport(listEntry, client, columns, fingerprint));
+                }
+            } catch (final MalformedSpreadsheetLineException e) {
+                // log the error message
+                LOGGER.error(e.getMessage());
+                skipped++;
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("found {} reports to sync in {}", reports.size(), url);
+            if (LOGGER.isTraceEnabled()) {
+                for (final EditableAcraReport report : reports) {
+                    LOGGER.trace("reportId={} stacktraceMd5={}", report.getId(),
+                            report.getStacktraceMD5());
+                }
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Gets the number of rows of the feed when the last page was read, from the total number of
+     * results of the page. The rows which remain in the feed before the page are included.
+     * 
+     * @return the number of rows of the feed, -1 if no page has been read yet
+     */
+    public int getTotalRows() {
+
+        return totalRows;
+    }
+
+    /**
+     * Notifies the reader the given number of reports of the last page remain in the feed, because
+     * they haven't been committed.
+     * 
+     * @param pReports
+     *            the number of reports which haven't been committed
+     */
+    public void skip(final int pReports) {
+
+        skipped += pReports;
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.redmine.ta.RedmineException;
+import org.redmine.ta.RedmineManager;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+
+import com.google.gdata.client.spreadsheet.CellQuery;
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.Link;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.data.spreadsheet.CellEntry;
+import com.google.gdata.data.spreadsheet.CellFeed;
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.data.spreadsheet.ListFeed;
+
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.utils.IssueDescriptionBuilder;
+import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
+import fr.dudie.acrachilisync.utils.IssueDescriptionUtils;
+import fr.dudie.acrachilisync.utils.StacktraceFingerprint;
+import fr.dudie.acrachilisync.utils.SyncMetrics;
+
+/**
+ * Test the {@link AcraToChiliprojectSyncer} with several synchronization workers and several
+ * pages of reports.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class AcraToChiliprojectSyncerTest {
+
+    /** Matches the paging parameters of a list feed URL. */
+    private static final Pattern PAGE = Pattern.compile("start-index=(\\d+)&max-results=(\\d+)");
+
+    /** The identifier of the stacktrace MD5 custom field of the test configuration. */
+    private static final int STACKTRACE_MD5_CF_ID = 12;
+
+    /** The stacktraces of the reports. */
+    private static final String[] STACKTRACES = {
+            "java.lang.NullPointerException\n\tat fr.dudie.Foo.bar(Foo.java:12)",
+            "java.lang.IllegalStateException\n\tat fr.dudie.Foo.baz(Foo.java:42)" };
+
+    /** The Chiliproject client mock. */
+    private RedmineManager redmine;
+
+    /** The Spreadsheet client mock. */
+    private SpreadsheetService spreadsheet;
+
+    /** The issues returned by the Chiliproject client, they must never be modified. */
+    private List<Issue> issues;
+
+    /** The descriptions of the issues returned by the Chiliproject client. */
+    private Map<Integer, String> originalDescriptions;
+
+    /** The issues sent by the updates, by issue identifier. */
+    private Map<Integer, Issue> updates;
+
+    /** The rows of the spreadsheet which aren't committed yet. */
+    private List<ListEntry> rows;
+
+    /**
+     * Creates an issue for each stacktrace and a spreadsheet client serving the uncommitted rows.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        issues = new ArrayList<Issue>();
+        originalDescriptions = new HashMap<Integer, String>();
+        for (int i = 0; i < STACKTRACES.length; i++) {
+            final Issue issue = new Issue();
+            issue.setId(i + 1);
+            final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(STACKTRACES[i]);
+            builder.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(createReport("old" + i,
+                    STACKTRACES[i])));
+            issue.setDescription(builder.build());
+            final CustomField md5 = new CustomField();
+            md5.setId(STACKTRACE_MD5_CF_ID);
+            md5.setValue(StacktraceFingerprint.MD5.compute(STACKTRACES[i]));
+            issue.getCustomFields().add(md5);
+            issues.add(issue);
+            originalDescriptions.put(issue.getId(), issue.getDescription());
+        }
+
+        updates = Collections.synchronizedMap(new HashMap<Integer, Issue>());
+        redmine = mock(RedmineManager.class);
+        when(redmine.getIssues(anyMap())).thenAnswer(new Answer<List<Issue>>() {
+
+            @Override
+            public List<Issue> answer(final InvocationOnMock invocation) {
+
+                final String md5 = (String) ((Map<?, ?>) invocation.getArguments()[0])
+                        .get("cf_" + STACKTRACE_MD5_CF_ID);
+                final List<Issue> results = new ArrayList<Issue>();
+                for (final Issue issue : issues) {
+                    if (null == md5
+                            || md5.equals(issue.getCustomFields().get(0).getValue())) {
+                        results.add(issue);
+                    }
+                }
+                return results;
+            }
+        });
+
+        rows = Collections.synchronizedList(new ArrayList<ListEntry>());
+        spreadsheet = mock(SpreadsheetService.class);
+        when(spreadsheet.getFeed(any(URL.class), eq(ListFeed.class))).thenAnswer(
+                new Answer<ListFeed>() {
+
+                    @Override
+                    public ListFeed answer(final InvocationOnMock invocation) {
+
+                        final String url = invocation.getArguments()[0].toString();
+                        int from = 0;
+                        int to = rows.size();
+                        final Matcher page = PAGE.matcher(url);
+                        if (page.find()) {
+                            from = Math.min(to, Integer.parseInt(page.group(1)) - 1);
+                            to = Math.min(to, from + Integer.parseInt(page.group(2)));
+                        }
+                        final ListFeed feed = new ListFeed();
+                        feed.setTotalResults(rows.size());
+                        feed.getEntries().addAll(rows.subList(from, to));
+                        return feed;
+                    }
+                });
+    }
+
+    /**
+     * Synchronizes the two stacktraces of a page with two workers and the prefetched issues: each
+     * issue is updated once with its own reports, and the shared issues are left untouched.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testConcurrentStacktraces() throws Exception {
+
+        // both updates must be in flight together to complete
+        final CountDownLatch concurrentUpdates = new CountDownLatch(2);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+
+                final Issue issue = (Issue) invocation.getArguments()[0];
+                for (final Issue original : issues) {
+                    assertNotSame("the workers must update their own copy", original, issue);
+                }
+                concurrentUpdates.countDown();
+                assertTrue("the stacktraces must be synchronized in parallel",
+                        concurrentUpdates.await(10, TimeUnit.SECONDS));
+                assertNull("each issue must be updated once", updates.put(issue.getId(), issue));
+                return null;
+            }
+        }).when(redmine).updateIssue(any(Issue.class));
+
+        for (int i = 0; i < 2; i++) {
+            for (int s = 0; s < STACKTRACES.length; s++) {
+                rows.add(createListEntry("report" + s + i, STACKTRACES[s]));
+            }
+        }
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.concurrency", "2");
+        config.setProperty("sync.lookup.plan", "prefetch");
+        config.setProperty("sync.commit.batch.size", "1");
+        config.setProperty("sync.report.columns", "*");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(4, syncer.startSynchronization());
+
+        assertEquals(2, updates.size());
+        for (int s = 0; s < STACKTRACES.length; s++) {
+            final IssueDescriptionReader description = new IssueDescriptionReader(
+                    updates.get(s + 1));
+            assertEquals(STACKTRACES[s], description.getStacktrace());
+            assertTrue(description.containsReport("old" + s));
+            assertTrue(description.containsReport("report" + s + "0"));
+            assertTrue(description.containsReport("report" + s + "1"));
+            assertFalse(description.containsReport("report" + (1 - s) + "0"));
+        }
+        for (final Issue issue : issues) {
+            assertEquals(originalDescriptions.get(issue.getId()), issue.getDescription());
+        }
+        verify(redmine, times(1)).getIssues(anyMap());
+    }
+
+    /**
+     * Synchronizes two stacktraces with the issue writes limited adaptively: the stacktraces are
+     * synchronized by as many workers as the limiter may let through, whatever the configured
+     * concurrency is.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testWriteLimiterWorkers() throws Exception {
+
+        final Set<Thread> workers = Collections.synchronizedSet(new HashSet<Thread>());
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+
+                final Issue issue = (Issue) invocation.getArguments()[0];
+                workers.add(Thread.currentThread());
+                updates.put(issue.getId(), issue);
+                return null;
+            }
+        }).when(redmine).updateIssue(any(Issue.class));
+
+        for (int s = 0; s < STACKTRACES.length; s++) {
+            rows.add(createListEntry("report" + s, STACKTRACES[s]));
+        }
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.concurrency", "1");
+        config.setProperty("chiliproject.max.connections", "4");
+        config.setProperty("chiliproject.write.latency.target", "1000");
+        config.setProperty("sync.lookup.plan", "prefetch");
+        config.setProperty("sync.commit.batch.size", "1");
+        config.setProperty("sync.report.columns", "*");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(2, syncer.startSynchronization());
+
+        assertEquals(2, updates.size());
+        assertEquals("each stacktrace must get its own worker", 2, workers.size());
+        assertFalse(workers.contains(Thread.currentThread()));
+    }
+
+    /**
+     * Synchronizes a stacktrace spanning two pages, each stacktrace being looked up with its own
+     * request: the issue is looked up once, then updated once per page with the reports of the
+     * page.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testStacktraceSpanningPages() throws Exception {
+
+        final List<Issue> sent = Collections.synchronizedList(new ArrayList<Issue>());
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+
+                final Issue issue = (Issue) invocation.getArguments()[0];
+                sent.add(issue);
+                updates.put(issue.getId(), issue);
+                return null;
+            }
+        }).when(redmine).updateIssue(any(Issue.class));
+
+        // pages of 2 rows: [report00, report10] then [report01]
+        rows.add(createListEntry("report00", STACKTRACES[0]));
+        rows.add(createListEntry("report10", STACKTRACES[1]));
+        rows.add(createListEntry("report01", STACKTRACES[0]));
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.page.size", "2");
+        config.setProperty("sync.lookup.plan", "per_stacktrace");
+        config.setProperty("sync.commit.batch.size", "1");
+        config.setProperty("sync.report.columns", "*");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(3, syncer.startSynchronization());
+        assertTrue("all rows must be committed", rows.isEmpty());
+
+        // one lookup per stacktrace, the second page reuses the issue updated by the first one
+        verify(redmine, times(2)).getIssues(anyMap());
+        assertEquals(3, sent.size());
+        final IssueDescriptionReader first = new IssueDescriptionReader(sent.get(0).getId() == 1
+                ? sent.get(0) : sent.get(1));
+        assertTrue(first.containsReport("report00"));
+        assertFalse(first.containsReport("report01"));
+        final IssueDescriptionReader last = new IssueDescriptionReader(sent.get(2));
+        assertEquals(STACKTRACES[0], last.getStacktrace());
+        assertTrue(last.containsReport("old0"));
+        assertTrue(last.containsReport("report00"));
+        assertTrue(last.containsReport("report01"));
+        assertEquals(originalDescriptions.get(1), issues.get(0).getDescription());
+    }
+
+    /**
+     * Synchronizes projected reports without batch requests: each list entry is fetched again by
+     * its link, then updated.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testProjectedReportsCommittedThroughEntries() throws Exception {
+
+        rows.add(createListEntry("report00", STACKTRACES[0]));
+        rows.add(createListEntry("report10", STACKTRACES[1]));
+        final List<ListEntry> worksheet = new ArrayList<ListEntry>(rows);
+        when(spreadsheet.getEntry(any(URL.class), eq(ListEntry.class))).thenAnswer(
+                new Answer<ListEntry>() {
+
+                    @Override
+                    public ListEntry answer(final InvocationOnMock invocation) {
+
+                        final String url = invocation.getArguments()[0].toString();
+                        for (final ListEntry entry : worksheet) {
+                            if (url.equals(entry.getSelfLink().getHref())) {
+                                return entry;
+                            }
+                        }
+                        return null;
+                    }
+                });
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.lookup.plan", "prefetch");
+        config.setProperty("sync.commit.batch.size", "1");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(2, syncer.startSynchronization());
+        assertTrue("all rows must be committed", rows.isEmpty());
+        verify(spreadsheet, never()).batch(any(URL.class), any(CellFeed.class));
+        verify(spreadsheet, times(2)).getEntry(any(URL.class), eq(ListEntry.class));
+        for (int s = 0; s < STACKTRACES.length; s++) {
+            final ListEntry entry = worksheet.get(s);
+            verify(entry, times(1)).update();
+            assertEquals(StacktraceFingerprint.MD5.compute(STACKTRACES[s]), entry
+                    .getCustomElements().getValue(AcraReportHeader.STACK_TRACE_MD5.tagName()));
+        }
+    }
+
+    /**
+     * Synchronizes projected reports with batch requests: each stacktrace MD5 hash is written
+     * through its cell, the list entries are neither fetched again nor written whole.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testProjectedReportsCommittedThroughCells() throws Exception {
+
+        rows.add(createListEntry("report00", STACKTRACES[0]));
+        rows.add(createListEntry("report10", STACKTRACES[1]));
+        final List<ListEntry> worksheet = new ArrayList<ListEntry>(rows);
+
+        final CellFeed headers = new CellFeed();
+        headers.getEntries().add(new CellEntry(1, 1, "REPORT_ID"));
+        headers.getEntries().add(new CellEntry(1, 2, "STACK_TRACE_MD5"));
+        final CellFeed ids = new CellFeed();
+        ids.getEntries().add(new CellEntry(2, 1, "report00"));
+        ids.getEntries().add(new CellEntry(3, 1, "report10"));
+        when(spreadsheet.getFeed(any(CellQuery.class), eq(CellFeed.class))).thenReturn(headers,
+                ids);
+        when(spreadsheet.batch(any(URL.class), any(CellFeed.class))).thenAnswer(
+                new Answer<CellFeed>() {
+
+                    @Override
+                    public CellFeed answer(final InvocationOnMock invocation) {
+
+                        final CellFeed response = new CellFeed();
+                        for (final CellEntry cell : ((CellFeed) invocation.getArguments()[1])
+                                .getEntries()) {
+                            final int row = cell.getCell().getRow();
+                            final int col = cell.getCell().getCol();
+                            final CellEntry result;
+                            final BatchOperationType type = BatchUtils
+                                    .getBatchOperationType(cell);
+                            if (type == BatchOperationType.QUERY) {
+                                result = new CellEntry(row, col, getValue(headers, worksheet,
+                                        row, col));
+                            } else {
+                                rows.remove(worksheet.get(row - 2));
+                                result = new CellEntry(row, col, cell.getCell().getInputValue());
+                            }
+                            BatchUtils.setBatchId(result, BatchUtils.getBatchId(cell));
+                            final BatchStatus status = new BatchStatus();
+                            status.setCode(200);
+                            BatchUtils.setBatchStatus(result, status);
+                            response.getEntries().add(result);
+                        }
+                        return response;
+                    }
+                });
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.lookup.plan", "prefetch");
+        config.setProperty("sync.commit.batch.size", "2");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(2, syncer.startSynchronization());
+        assertTrue("all rows must be committed", rows.isEmpty());
+        // the rows are read then updated
+        verify(spreadsheet, times(2)).batch(any(URL.class), any(CellFeed.class));
+        verify(spreadsheet, never()).getEntry(any(URL.class), eq(ListEntry.class));
+        for (final ListEntry entry : worksheet) {
+            verify(entry, never()).update();
+        }
+    }
+
+    /**
+     * Synchronizes a report whose issue update fails: the report stays in the spreadsheet and
+     * isn't counted by the synchronization.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testFailedReportsNotCounted() throws Exception {
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+
+                final Issue issue = (Issue) invocation.getArguments()[0];
+                if (issue.getId() == 2) {
+                    throw new RedmineException("Unprocessable entity");
+                }
+                return null;
+            }
+        }).when(redmine).updateIssue(any(Issue.class));
+
+        rows.add(createListEntry("report00", STACKTRACES[0]));
+        rows.add(createListEntry("report10", STACKTRACES[1]));
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.lookup.plan", "prefetch");
+        config.setProperty("sync.commit.batch.size", "1");
+        config.setProperty("sync.report.columns", "*");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(1, syncer.startSynchronization());
+        assertEquals(1, rows.size());
+        assertEquals("report10", rows.get(0).getCustomElements().getValue(
+                AcraReportHeader.REPORT_ID.tagName()));
+    }
+
+    /**
+     * Runs two synchronizations with the same synchronizer: the parsed descriptions are dropped
+     * at the end of the first one, so the second one parses the issue description again.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testParsedDescriptionsCleared() throws Exception {
+
+        rows.add(createListEntry("report00", STACKTRACES[0]));
+
+        final PropertiesConfiguration config = new PropertiesConfiguration(
+                "acrachilisync.properties");
+        config.setProperty("sync.lookup.plan", "prefetch");
+        config.setProperty("sync.commit.batch.size", "1");
+        config.setProperty("sync.report.columns", "*");
+        final AcraToChiliprojectSyncer syncer = new AcraToChiliprojectSyncer(config, redmine,
+                spreadsheet);
+
+        assertEquals(1, syncer.startSynchronization());
+        assertEquals(1, syncer.getMetrics().getCount(SyncMetrics.DESCRIPTION_PARSE));
+
+        rows.add(createListEntry("report01", STACKTRACES[0]));
+        assertEquals(1, syncer.startSynchronization());
+        assertEquals(2, syncer.getMetrics().getCount(SyncMetrics.DESCRIPTION_PARSE));
+    }
+
+    /**
+     * Gets the value of a worksheet cell.
+     * 
+     * @param pHeaders
+     *            the header row cells
+     * @param pWorksheet
+     *            the rows, from the second row
+     * @param pRow
+     *            the row of the cell
+     * @param pCol
+     *            the column of the cell
+     * @return the header, the report identifier of the row, or an empty value
+     */
+    private static String getValue(final CellFeed pHeaders, final List<ListEntry> pWorksheet,
+            final int pRow, final int pCol) {
+
+        if (pRow == 1) {
+            return pHeaders.getEntries().get(pCol - 1).getCell().getValue();
+        } else if (pCol == 1) {
+            return pWorksheet.get(pRow - 2).getCustomElements().getValue(
+                    AcraReportHeader.REPORT_ID.tagName());
+        }
+        return "";
+    }
+
+    /**
+     * Creates a report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @param pStacktrace
+     *            the stacktrace
+     * @return a report
+     * @throws Exception
+     *             the report is malformed
+     */
+    private static AcraReport createReport(final String pReportId, final String pStacktrace)
+            throws Exception {
+
+        return new AcraReport(createValues(pReportId, pStacktrace));
+    }
+
+    /**
+     * Creates a list entry mock, the update removes it from the uncommitted rows.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @param pStacktrace
+     *            the stacktrace
+     * @return a list entry mock
+     * @throws Exception
+     *             an error occurred
+     */
+    private ListEntry createListEntry(final String pReportId, final String pStacktrace)
+            throws Exception {
+
+        final CustomElementCollection elems = createValues(pReportId, pStacktrace);
+        final ListEntry entry = mock(ListEntry.class);
+        when(entry.getCustomElements()).thenReturn(elems);
+        when(entry.getSelfLink()).thenReturn(
+                new Link("self", "application/atom+xml",
+                        "https://spreadsheets.google.com/feeds/list/key/od6/private/full/"
+                                + pReportId));
+        when(entry.update()).thenAnswer(new Answer<ListEntry>() {
+
+            @Override
+            public ListEntry answer(final InvocationOnMock invocation) {
+
+                rows.remove(entry);
+                return entry;
+            }
+        });
+        return entry;
+    }
+
+    /**
+     * Creates the values of a spreadsheet row.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @param pStacktrace
+     *            the stacktrace
+     * @return the values of the row
+     */
+    private static CustomElementCollection createValues(final String pReportId,
+            final String pStacktrace) {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.STACK_TRACE.tagName(), pStacktrace);
+        elems.setValueLocal(AcraReportHeader.APP_VERSION_CODE.tagName(), "16");
+        elems.setValueLocal(AcraReportHeader.STACK_TRACE_MD5.tagName(), "");
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+        return elems;
+    }
+}
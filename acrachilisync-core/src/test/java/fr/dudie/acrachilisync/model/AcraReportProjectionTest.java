@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+
+/**
+ * Test the memory retained by {@link AcraReport} instances built with a column projection.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class AcraReportProjectionTest {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AcraReportProjectionTest.class);
+
+    /** The number of reports to build for each measure. */
+    private static final int REPORTS = 200;
+
+    /** The columns used by the synchronization. */
+    private static final Set<AcraReportHeader> COLUMNS = EnumSet.of(AcraReportHeader.REPORT_ID,
+            AcraReportHeader.STACK_TRACE, AcraReportHeader.ANDROID_VERSION,
+            AcraReportHeader.APP_VERSION_CODE, AcraReportHeader.APP_VERSION_NAME,
+            AcraReportHeader.PHONE_MODEL, AcraReportHeader.BRAND, AcraReportHeader.PRODUCT);
+
+    /** The columns holding dumps of the device state, 32 kB each. */
+    private static final Set<AcraReportHeader> DUMPS = EnumSet.of(AcraReportHeader.LOGCAT,
+            AcraReportHeader.EVENTSLOG, AcraReportHeader.RADIOLOG, AcraReportHeader.DROPBOX,
+            AcraReportHeader.DUMPSYS_MEMINFO);
+
+    /**
+     * Checks a projected report retains at least 10 times less memory than a full report.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testProjectionRetainsLessMemory() throws Exception {
+
+        final long full = measure(null);
+        final long projected = measure(COLUMNS);
+        LOGGER.info("retained heap for {} reports: full={} bytes, projected={} bytes",
+                new Object[] { REPORTS, full, projected });
+
+        assertTrue(String.format("check projection divides memory by 10 (%d / %d)", full,
+                projected), projected * 10 < full);
+    }
+
+    /**
+     * Checks the values of the columns which haven't been retained can't be read.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testDroppedColumn() throws Exception {
+
+        final AcraReport report = new AcraReport(createElements(0), COLUMNS);
+        assertEquals("report0", report.getId());
+        assertEquals(AcraReportHeader.BRAND.name(), report.getValue(AcraReportHeader.BRAND));
+        assertNotNull(report.getUserCrashDate());
+        try {
+            report.getValue(AcraReportHeader.LOGCAT);
+            fail("the logcat field must not be retained");
+        } catch (final IllegalStateException e) {
+            LOGGER.debug(e.getMessage());
+        }
+    }
+
+    /**
+     * Builds {@value #REPORTS} reports and measures the heap they retain.
+     * 
+     * @param pColumns
+     *            the columns to retain
+     * @return the retained heap in bytes
+     * @throws MalformedSpreadsheetLineException
+     *             a report is malformed
+     * @throws InterruptedException
+     *             interrupted while waiting for the garbage collector
+     */
+    private static long measure(final Set<AcraReportHeader> pColumns)
+            throws MalformedSpreadsheetLineException, InterruptedException {
+
+        final long before = usedHeap();
+        final List<AcraReport> reports = new ArrayList<AcraReport>(REPORTS);
+        for (int i = 0; i < REPORTS; i++) {
+            reports.add(new AcraReport(createElements(i), pColumns));
+        }
+        final long after = usedHeap();
+        assertEquals(REPORTS, reports.size());
+        return after - before;
+    }
+
+    /**
+     * Gets the used heap size after a garbage collection.
+     * 
+     * @return the used heap size in bytes
+     * @throws InterruptedException
+     *             interrupted while waiting for the garbage collector
+     */
+    private static long usedHeap() throws InterruptedException {
+
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Creates the spreadsheet row of a report having large device state dumps.
+     * 
+     * @param pIndex
+     *            the report index
+     * @return the spreadsheet row values
+     */
+    private static CustomElementCollection createElements(final int pIndex) {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            if (DUMPS.contains(h)) {
+                elems.setValueLocal(h.tagName(), repeat(h.name() + pIndex + '\n', 32 * 1024));
+            } else {
+                elems.setValueLocal(h.tagName(), h.name());
+            }
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), "report" + pIndex);
+        elems.setValueLocal(AcraReportHeader.STACK_TRACE.tagName(),
+                repeat("\tat fr.dudie.Report.crash(Report.java:" + pIndex + ")\n", 2048));
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+        return elems;
+    }
+
+    /**
+     * Builds a new string repeating the given pattern.
+     * 
+     * @param pPattern
+     *            the pattern
+     * @param pLength
+     *            the length of the string
+     * @return a string of the given length
+     */
+    private static String repeat(final String pPattern, final int pLength) {
+
+        final StringBuilder value = new StringBuilder(pLength);
+        while (value.length() < pLength) {
+            value.append(pPattern);
+        }
+        value.setLength(pLength);
+        return value.toString();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.redmine.ta.beans.Issue;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.exception.SynchronizationException;
+import fr.dudie.acrachilisync.handler.AbstractAcraReportHandler;
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+
+/**
+ * Test the {@link AbstractAcraReportHandler}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class AbstractAcraReportHandlerTest {
+
+    /**
+     * Checks the groups of reports are handed to the per-report callbacks one report at a time.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testPerReportCallbacks() throws Exception {
+
+        final List<String> calls = new ArrayList<String>();
+        final AbstractAcraReportHandler handler = new AbstractAcraReportHandler() {
+
+            @Override
+            public void onNewReport(final AcraReport pReport) {
+
+                calls.add("new " + pReport.getId());
+            }
+
+            @Override
+            public void onKnownIssueNotSynchronized(final AcraReport pReport, final Issue pIssue) {
+
+                calls.add("known " + pReport.getId() + " #" + pIssue.getId());
+            }
+        };
+
+        final Issue issue = new Issue();
+        issue.setId(12);
+        handler.onNewReports(Arrays.asList(createReport("report1"), createReport("report2")));
+        handler.onKnownIssueNotSynchronized(Arrays.asList(createReport("report3")), issue);
+        handler.onFinishReceivingNewReports();
+
+        assertEquals(Arrays.asList("new report1", "new report2", "known report3 #12"), calls);
+    }
+
+    /**
+     * Checks the first error aborts the group.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testErrorAbortsGroup() throws Exception {
+
+        final List<String> calls = new ArrayList<String>();
+        final AbstractAcraReportHandler handler = new AbstractAcraReportHandler() {
+
+            @Override
+            public void onNewReport(final AcraReport pReport) throws SynchronizationException {
+
+                calls.add(pReport.getId());
+                throw new SynchronizationException("failed", null);
+            }
+
+            @Override
+            public void onKnownIssueNotSynchronized(final AcraReport pReport, final Issue pIssue) {
+
+            }
+        };
+
+        try {
+            handler.onNewReports(Arrays.asList(createReport("report1"), createReport("report2")));
+            fail("the error must be thrown");
+        } catch (final SynchronizationException e) {
+            assertEquals(Arrays.asList("report1"), calls);
+        }
+    }
+
+    /**
+     * Creates a report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return a report
+     * @throws MalformedSpreadsheetLineException
+     *             the report is malformed
+     */
+    private static AcraReport createReport(final String pReportId)
+            throws MalformedSpreadsheetLineException {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+        return new AcraReport(elems);
+    }
+}
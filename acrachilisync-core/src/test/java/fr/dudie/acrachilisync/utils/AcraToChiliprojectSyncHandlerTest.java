@@ -17,11 +17,13 @@
 
 package fr.dudie.acrachilisync.utils;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -32,6 +34,8 @@ import org.apache.commons.lang.builder.ToStringBuilder;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.redmine.ta.RedmineException;
 import org.redmine.ta.RedmineManager;
 import org.redmine.ta.beans.CustomField;
 import org.redmine.ta.beans.Issue;
@@ -102,19 +106,95 @@ public final class AcraToChiliprojectSyncHandlerTest {
     public void testOnNewReportAlreadyKnown() throws SynchronizationException,
             MalformedSpreadsheetLineException {
 
+        final AcraReport report = createReport("reportID");
+        report.setStatus(SyncStatus.SUCCESS);
+
+        final Issue issue = createIssue();
+
+        handler.onKnownIssueNotSynchronized(Arrays.asList(report), issue);
+
+        LOGGER.debug("New issue description:\n {}", ToStringBuilder.reflectionToString(issue));
+    }
+
+    @Test
+    public void testOnKnownIssueNotSynchronizedUpdatesOnce() throws Exception {
+
+        final List<AcraReport> reports = new ArrayList<AcraReport>();
+        for (int i = 0; i < 10; i++) {
+            reports.add(createReport("newReport" + i));
+        }
+        final Issue issue = createIssue();
+
+        handler.onKnownIssueNotSynchronized(reports, issue);
+
+        final ArgumentCaptor<Issue> update = ArgumentCaptor.forClass(Issue.class);
+        verify(redmineClient, times(1)).updateIssue(update.capture());
+        assertEquals(issue.getId(), update.getValue().getId());
+        assertEquals(issue.getDescription(), update.getValue().getDescription());
+        final IssueDescriptionReader reader = new IssueDescriptionReader(issue);
+        assertEquals(occurrences.size() + reports.size(), reader.getOccurrences().size());
+        for (final AcraReport report : reports) {
+            assertEquals(SyncStatus.SUCCESS, report.getStatus());
+        }
+    }
+
+    @Test
+    public void testOnKnownIssueNotSynchronizedParsesOnce() throws Exception {
+
+        final ParsedIssueCache cache = new ParsedIssueCache();
+        handler = new AcraToChiliprojectSyncHandler(redmineClient, cache);
+        final Issue issue = createIssue();
+
+        handler.onKnownIssueNotSynchronized(Arrays.asList(createReport("newReport1")), issue);
+        handler.onKnownIssueNotSynchronized(Arrays.asList(createReport("newReport2")), issue);
+
+        final ArgumentCaptor<Issue> update = ArgumentCaptor.forClass(Issue.class);
+        verify(redmineClient, times(2)).updateIssue(update.capture());
+        assertEquals(issue.getDescription(), update.getValue().getDescription());
+        assertEquals("check parse count", 1, cache.getParseCount());
+        final IssueDescriptionReader reader = new IssueDescriptionReader(issue);
+        assertEquals(occurrences.size() + 2, reader.getOccurrences().size());
+        assertEquals(reader.getOccurrences().size(), cache.get(issue).getOccurrences().size());
+    }
+
+    @Test
+    public void testOnKnownIssueNotSynchronizedUpdateFailure() throws Exception {
+
+        doThrow(new RedmineException("Internal server error")).when(redmineClient).updateIssue(
+                any(Issue.class));
+        final AcraReport report = createReport("newReport1");
+        final Issue issue = createIssue();
+
+        try {
+            handler.onKnownIssueNotSynchronized(Arrays.asList(report), issue);
+            fail("the update should fail");
+        } catch (final SynchronizationException e) {
+            // expected
+        }
+
+        assertEquals("check the issue is unchanged", issueDescription, issue.getDescription());
+        assertEquals(SyncStatus.FAILURE, report.getStatus());
+    }
+
+    private AcraReport createReport(final String pReportId)
+            throws MalformedSpreadsheetLineException {
+
         final CustomElementCollection elems = new CustomElementCollection();
         for (final AcraReportHeader h : AcraReportHeader.values()) {
             elems.setValueLocal(h.tagName(), h.name());
         }
-        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), "reportID");
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.APP_VERSION_CODE.tagName(), "16");
         elems.setValueLocal(AcraReportHeader.STACK_TRACE_MD5.tagName(), stacktraceMD5);
         elems.setValueLocal(AcraReportHeader.STACK_TRACE.tagName(), stacktrace);
         elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
                 "2011-11-06T04:59:21.000+01:00");
         elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
                 "2011-11-06T05:01:39.000+01:00");
-        final AcraReport report = new AcraReport(elems);
-        report.setStatus(SyncStatus.SUCCESS);
+        return new AcraReport(elems);
+    }
+
+    private Issue createIssue() {
 
         final Issue issue = new Issue();
         issue.setId(111);
@@ -124,9 +204,6 @@ public final class AcraToChiliprojectSyncHandlerTest {
         cf.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
         cf.setValue(stacktraceMD5);
         issue.getCustomFields().add(cf);
-
-        handler.onKnownIssueNotSynchronized(report, issue);
-
-        LOGGER.debug("New issue description:\n {}", ToStringBuilder.reflectionToString(issue));
+        return issue;
     }
 }
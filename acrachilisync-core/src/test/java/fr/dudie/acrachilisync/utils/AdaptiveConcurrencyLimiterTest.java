@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.dudie.acrachilisync.exception.RequestTimeoutException;
+
+/**
+ * Test the {@link AdaptiveConcurrencyLimiter} against a {@link RedmineStubServer} whose latency
+ * depends on the number of concurrent requests.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class AdaptiveConcurrencyLimiterTest {
+
+    /** The number of concurrent callers. */
+    private static final int CALLERS = 12;
+
+    /** The target of the 95th percentile of the latencies, in milliseconds. */
+    private static final long TARGET = 40;
+
+    /** The Chiliproject server. */
+    private RedmineStubServer server;
+
+    /** Runs the concurrent callers. */
+    private ExecutorService executor;
+
+    /** The highest number of concurrent requests seen by the server. */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * Starts the server.
+     * 
+     * @throws IOException
+     *             unable to start the server
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        server = new RedmineStubServer(12);
+        server.addIssue(1, "md5");
+        server.start();
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+
+        executor.shutdownNow();
+        server.stop();
+    }
+
+    /**
+     * Checks the limit grows up to the concurrency the server handles within the target latency,
+     * then decreases when the server slows down.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testLatencyCurves() throws Exception {
+
+        final SyncMetrics metrics = new SyncMetrics();
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 16, TARGET,
+                metrics);
+
+        // 5 ms up to 6 concurrent requests, then 40 ms more per additional request
+        server.setLatency(new RedmineStubServer.LatencyCurve() {
+
+            @Override
+            public long getLatency(final int pInFlight) {
+
+                track(pInFlight);
+                return 5 + 40 * Math.max(0, pInFlight - 6);
+            }
+        });
+        run(limiter, 300);
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() >= 4);
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() <= 8);
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() <= 9);
+        assertEquals(limiter.getLimit(),
+                metrics.getGauge(SyncMetrics.WRITE_CONCURRENCY_LIMIT));
+
+        // slow down beyond 2 concurrent requests
+        final int fastLimit = limiter.getLimit();
+        server.setLatency(new RedmineStubServer.LatencyCurve() {
+
+            @Override
+            public long getLatency(final int pInFlight) {
+
+                return pInFlight > 2 ? 60 : 5;
+            }
+        });
+        run(limiter, 300);
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < fastLimit);
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() <= 3);
+    }
+
+    /**
+     * Checks the limit is halved when the server is overloaded.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testOverload() throws Exception {
+
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, TARGET,
+                null);
+        run(limiter, 300);
+        assertEquals(8, limiter.getLimit());
+
+        try {
+            limiter.call(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+
+                    throw new RequestTimeoutException("Chiliproject request timed out");
+                }
+            });
+            fail("the call should fail");
+        } catch (final RequestTimeoutException e) {
+            assertEquals(4, limiter.getLimit());
+        }
+    }
+
+    /**
+     * Sends requests to the server from {@link #CALLERS} concurrent callers.
+     * 
+     * @param pLimiter
+     *            the limiter of the requests
+     * @param pRequests
+     *            the number of requests
+     * @throws Exception
+     *             a request failed
+     */
+    private void run(final AdaptiveConcurrencyLimiter pLimiter, final int pRequests)
+            throws Exception {
+
+        final AtomicInteger remaining = new AtomicInteger(pRequests);
+        final URL url = new URL(server.getHost() + "/issues.xml?limit=1");
+        final List<Future<Void>> callers = new ArrayList<Future<Void>>();
+        for (int i = 0; i < CALLERS; i++) {
+            callers.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+
+                    while (remaining.decrementAndGet() >= 0) {
+                        pLimiter.call(new Callable<Void>() {
+
+                            @Override
+                            public Void call() throws Exception {
+
+                                get(url);
+                                return null;
+                            }
+                        });
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (final Future<Void> caller : callers) {
+            caller.get();
+        }
+    }
+
+    /**
+     * Records the number of concurrent requests seen by the server.
+     * 
+     * @param pInFlight
+     *            the number of concurrent requests
+     */
+    private void track(final int pInFlight) {
+
+        int max = maxInFlight.get();
+        while (pInFlight > max && !maxInFlight.compareAndSet(max, pInFlight)) {
+            max = maxInFlight.get();
+        }
+    }
+
+    /**
+     * Sends a request and reads the response.
+     * 
+     * @param pUrl
+     *            the URL
+     * @throws IOException
+     *             the request failed
+     */
+    private static void get(final URL pUrl) throws IOException {
+
+        final HttpURLConnection connection = (HttpURLConnection) pUrl.openConnection();
+        try {
+            final InputStream in = connection.getInputStream();
+            try {
+                while (in.read() != -1) {
+                    continue;
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
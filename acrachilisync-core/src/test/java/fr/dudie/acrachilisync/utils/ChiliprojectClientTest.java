@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.redmine.ta.NotFoundException;
+import org.redmine.ta.RedmineManager;
+import org.redmine.ta.beans.Issue;
+
+import fr.dudie.acrachilisync.exception.HttpStatusException;
+import fr.dudie.acrachilisync.exception.IssueParseException;
+
+/**
+ * Test the {@link ChiliprojectClient}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class ChiliprojectClientTest {
+
+    /** Runs the concurrent callers. */
+    private ExecutorService executor;
+
+    /** The number of requests received by the Chiliproject client. */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /** Counted down when a request is received. */
+    private final CountDownLatch received = new CountDownLatch(1);
+
+    /** Counted down to answer the requests. */
+    private final CountDownLatch answer = new CountDownLatch(1);
+
+    /** A Chiliproject client answering once {@link #answer} is counted down. */
+    private RedmineManager redmine;
+
+    /**
+     * Creates the Chiliproject client and the executor.
+     */
+    @Before
+    public void setUp() {
+
+        executor = Executors.newCachedThreadPool();
+        redmine = new RedmineManager("http://127.0.0.1:1", "key") {
+
+            @Override
+            public List<Issue> getIssues(final Map<String, String> pParameters)
+                    throws NotFoundException {
+
+                await();
+                if (pParameters.containsKey("missing")) {
+                    throw new NotFoundException("missing");
+                }
+                final Issue issue = new Issue();
+                issue.setId(requests.get());
+                return Collections.singletonList(issue);
+            }
+
+            @Override
+            public void updateIssue(final Issue pIssue) {
+
+                await();
+            }
+        };
+    }
+
+    /**
+     * Stops the executor and releases the pending requests.
+     */
+    @After
+    public void tearDown() {
+
+        answer.countDown();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Checks identical concurrent queries are sent once, whatever the order of their parameters,
+     * and each caller gets its own copies of the issues.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+
+        final ChiliprojectClient client = new ChiliprojectClient(redmine);
+        final Map<String, String> first = new LinkedHashMap<String, String>();
+        first.put("project_id", "1");
+        first.put("cf_12", "md5");
+        final Map<String, String> second = new LinkedHashMap<String, String>();
+        second.put("cf_12", "md5");
+        second.put("project_id", "1");
+
+        final Future<List<Issue>> firstResult = executor.submit(getIssues(client, first));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        final Future<List<Issue>> secondResult = executor.submit(getIssues(client, second));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (client.getCoalescedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        answer.countDown();
+
+        assertEquals(1, client.getCoalescedCount());
+        assertEquals(1, requests.get());
+        assertNotSame(firstResult.get(), secondResult.get());
+        assertEquals(1, secondResult.get().size());
+        final Issue firstIssue = firstResult.get().get(0);
+        final Issue secondIssue = secondResult.get().get(0);
+        assertEquals(firstIssue.getId(), secondIssue.getId());
+        assertNotSame("each caller must get its own copy", firstIssue, secondIssue);
+
+        client.getIssues(first);
+        assertEquals(2, requests.get());
+    }
+
+    /**
+     * Checks the exceptions of the Chiliproject client are given to the caller.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test(expected = NotFoundException.class)
+    public void testException() throws Exception {
+
+        answer.countDown();
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("missing", "true");
+        new ChiliprojectClient(redmine, 1, 1000).getIssues(parameters);
+    }
+
+    /**
+     * Checks a request times out, and keeps its slot until it completes.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testTimeout() throws Exception {
+
+        final ChiliprojectClient client = new ChiliprojectClient(redmine, 1, 100);
+        try {
+            client.updateIssue(new Issue());
+            fail("the update should time out");
+        } catch (final InterruptedIOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+        try {
+            client.updateIssue(new Issue());
+            fail("no connection should be available");
+        } catch (final InterruptedIOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No Chiliproject connection"));
+        }
+
+        answer.countDown();
+        client.getIssues(new HashMap<String, String>());
+        assertEquals(2, requests.get());
+    }
+
+    /**
+     * Checks the timeout of a request starts once it has a slot: a request waiting for the slot of
+     * a slow request gets the whole timeout.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testTimeoutAfterSlot() throws Exception {
+
+        final RedmineManager slow = new RedmineManager("http://127.0.0.1:1", "key") {
+
+            @Override
+            public void updateIssue(final Issue pIssue) throws NotFoundException {
+
+                requests.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (final InterruptedException e) {
+                    throw new NotFoundException("interrupted");
+                }
+            }
+        };
+        final ChiliprojectClient client = new ChiliprojectClient(slow, 1, 350);
+        final Callable<Void> update = new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+
+                client.updateIssue(new Issue());
+                return null;
+            }
+        };
+        final Future<Void> first = executor.submit(update);
+        final Future<Void> second = executor.submit(update);
+        first.get();
+        second.get();
+        assertEquals(2, requests.get());
+    }
+
+    /**
+     * Checks the issues are counted with a single request limited to one issue.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testCountIssues() throws Exception {
+
+        final RedmineStubServer server = new RedmineStubServer(12);
+        for (int i = 1; i <= 30; i++) {
+            server.addIssue(i, "md5-" + (i % 3));
+        }
+        server.start();
+        try {
+            final ChiliprojectClient client = new ChiliprojectClient(redmine, server.getHost()
+                    + "/", "key", 1, 1000);
+            assertEquals(30, client.countIssues(Collections.singletonMap("project_id", "1")));
+            assertEquals(10, client.countIssues(Collections.singletonMap("cf_12", "md5-0")));
+            assertEquals(2, server.getRequestCount());
+            assertEquals(1, server.getPageSize());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Checks the issue identifiers are listed page by page, one request per page.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testGetIssueIds() throws Exception {
+
+        final RedmineStubServer server = new RedmineStubServer(12);
+        for (int i = 1; i <= 25; i++) {
+            server.addIssue(i, "md5-" + (i % 3));
+        }
+        server.start();
+        try {
+            final ChiliprojectClient client = new ChiliprojectClient(redmine, server.getHost(),
+                    "key", 1, 1000);
+            final Map<String, String> selection = Collections.singletonMap("project_id", "1");
+            assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10),
+                    client.getIssueIds(selection, 0, 10));
+            assertEquals(Arrays.asList(21, 22, 23, 24, 25), client.getIssueIds(selection, 20, 10));
+            assertTrue(client.getIssueIds(selection, 25, 10).isEmpty());
+            assertEquals(3, server.getRequestCount());
+            assertEquals(10, server.getPageSize());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Checks the issues are read page by page from the issue list, one request per page.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testGetIssuePage() throws Exception {
+
+        final RedmineStubServer server = new RedmineStubServer(12);
+        for (int i = 1; i <= 15; i++) {
+            server.addIssue(i, "md5-" + (i % 3));
+        }
+        server.start();
+        try {
+            final ChiliprojectClient client = new ChiliprojectClient(redmine, server.getHost(),
+                    "key", 1, 1000);
+            final Map<String, String> selection = Collections.singletonMap("project_id", "1");
+            final List<Issue> page = client.getIssuePage(selection, 10, 10);
+            assertEquals(5, page.size());
+            final Issue issue = page.get(0);
+            assertEquals(Integer.valueOf(11), issue.getId());
+            assertEquals("issue 11", issue.getSubject());
+            assertEquals("", issue.getDescription());
+            assertEquals(Integer.valueOf(1), issue.getProject().getId());
+            assertEquals(Integer.valueOf(4), issue.getTracker().getId());
+            assertEquals(Integer.valueOf(1), issue.getStatusId());
+            assertEquals(1, issue.getCustomFields().size());
+            assertTrue(12 == issue.getCustomFields().get(0).getId());
+            assertEquals("md5-2", issue.getCustomFields().get(0).getValue());
+            assertEquals(Integer.valueOf(15), page.get(4).getId());
+            assertTrue(client.getIssuePage(selection, 15, 10).isEmpty());
+            assertEquals(2, server.getRequestCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Checks the issue list requests answered with a client error status or a malformed issue
+     * list aren't retried, unlike the server errors.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testIssueListErrors() throws Exception {
+
+        final RedmineStubServer server = new RedmineStubServer(12);
+        server.start();
+        try {
+            final ChiliprojectClient client = new ChiliprojectClient(redmine, server.getHost(),
+                    "key", 1, 1000, new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, null), null);
+            final Map<String, String> selection = Collections.singletonMap("project_id", "1");
+            server.setStatus(403);
+            try {
+                client.getIssueIds(selection, 0, 10);
+                fail("the forbidden request should fail");
+            } catch (final HttpStatusException e) {
+                assertEquals(403, e.getStatus());
+            }
+            assertEquals(1, server.getRequestCount());
+
+            server.setStatus(503);
+            try {
+                client.getIssueIds(selection, 0, 10);
+                fail("the unavailable server should fail");
+            } catch (final HttpStatusException e) {
+                assertEquals(503, e.getStatus());
+            }
+            assertEquals(4, server.getRequestCount());
+
+            server.setStatus(200);
+            // the stub server doesn't escape the custom field values
+            server.addIssue(1, "</issue>");
+            try {
+                client.getIssueIds(selection, 0, 10);
+                fail("the malformed issue list should fail");
+            } catch (final IssueParseException e) {
+                assertEquals(5, server.getRequestCount());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Creates a task querying issues.
+     * 
+     * @param pClient
+     *            the client
+     * @param pParameters
+     *            the query parameters
+     * @return the task
+     */
+    private static Callable<List<Issue>> getIssues(final ChiliprojectClient pClient,
+            final Map<String, String> pParameters) {
+
+        return new Callable<List<Issue>>() {
+
+            @Override
+            public List<Issue> call() throws Exception {
+
+                return pClient.getIssues(pParameters);
+            }
+        };
+    }
+
+    /**
+     * Counts a request and waits for the answer to be allowed. Like a blocking socket read, the
+     * wait isn't interrupted.
+     */
+    private void await() {
+
+        requests.incrementAndGet();
+        received.countDown();
+        boolean interrupted = false;
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (answer.getCount() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                answer.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+
+/**
+ * Test the {@link ChiliprojectUtils}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class ChiliprojectUtilsTest {
+
+    /**
+     * Load the application test configuration before the tests.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @BeforeClass
+    public static void loadConfiguration() throws ConfigurationException {
+
+        ConfigurationManager.getInstance(new PropertiesConfiguration("acrachilisync.properties"));
+    }
+
+    /**
+     * Checks the reports listed in an issue description are detected as synchronized.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testIsSynchronized() throws Exception {
+
+        final AcraReport known = createReport("known-report");
+        final AcraReport unknown = createReport("unknown-report");
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                "java.lang.NullPointerException\n\tat fr.dudie.Foo.bar(Foo.java:12)");
+        builder.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(createReport("other")));
+        builder.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(known));
+        final Issue issue = new Issue();
+        issue.setId(1);
+        issue.setDescription(builder.build());
+        final CustomField stacktraceMD5 = new CustomField();
+        stacktraceMD5.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        stacktraceMD5.setValue("md5");
+        issue.getCustomFields().add(stacktraceMD5);
+
+        assertTrue(ChiliprojectUtils.isSynchronized(known, issue));
+        assertFalse(ChiliprojectUtils.isSynchronized(unknown, issue));
+
+        final IssueDescriptionReader description = new IssueDescriptionReader(issue);
+        assertFalse(ChiliprojectUtils.isSynchronized(unknown, description));
+        description.addOccurrence(IssueDescriptionUtils.toErrorOccurrence(unknown));
+        assertTrue(ChiliprojectUtils.isSynchronized(unknown, description));
+    }
+
+    /**
+     * Checks a copy of an issue can be modified without modifying the original issue.
+     */
+    @Test
+    public void testCopy() {
+
+        final Issue issue = new Issue();
+        issue.setId(7);
+        issue.setSubject("subject");
+        issue.setDescription("description");
+        issue.setUpdatedOn(new Date(1000));
+        final CustomField stacktraceMD5 = new CustomField();
+        stacktraceMD5.setId(12);
+        stacktraceMD5.setValue("md5");
+        issue.getCustomFields().add(stacktraceMD5);
+
+        final Issue copy = ChiliprojectUtils.copy(issue);
+        assertEquals(Integer.valueOf(7), copy.getId());
+        assertEquals("subject", copy.getSubject());
+        assertEquals("description", copy.getDescription());
+        assertEquals(new Date(1000), copy.getUpdatedOn());
+        assertEquals(1, copy.getCustomFields().size());
+        assertEquals("md5", copy.getCustomFields().get(0).getValue());
+
+        copy.setDescription("modified");
+        copy.getUpdatedOn().setTime(2000);
+        copy.getCustomFields().get(0).setValue("other");
+        assertEquals("description", issue.getDescription());
+        assertEquals(new Date(1000), issue.getUpdatedOn());
+        assertEquals("md5", issue.getCustomFields().get(0).getValue());
+    }
+
+    /**
+     * Creates a report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return a report
+     * @throws MalformedSpreadsheetLineException
+     *             the report is malformed
+     */
+    private static AcraReport createReport(final String pReportId)
+            throws MalformedSpreadsheetLineException {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.APP_VERSION_CODE.tagName(), "16");
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+        return new AcraReport(elems);
+    }
+}
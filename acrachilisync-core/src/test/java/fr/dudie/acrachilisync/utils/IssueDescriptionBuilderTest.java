@@ -25,12 +25,19 @@ import java.io.InputStreamReader;
 import java.util.Date;
 import java.util.UUID;
 
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
 import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.model.OccurrenceRollup;
+import fr.dudie.acrachilisync.model.OccurrenceRollup.Dimension;
 
 /**
  * Test the issue description reader.
@@ -51,6 +58,18 @@ public final class IssueDescriptionBuilderTest {
     /** The MD5 checksum of the stacktrace. */
     private String md5;
 
+    /**
+     * Load the application test configuration before the tests.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @BeforeClass
+    public static void loadConfiguration() throws ConfigurationException {
+
+        ConfigurationManager.getInstance(new PropertiesConfiguration("acrachilisync.properties"));
+    }
+
     /**
      * @throws IOException
      */
@@ -94,4 +113,161 @@ public final class IssueDescriptionBuilderTest {
 
         assertNotNull("check the generated description is not null", description);
     }
+
+    /**
+     * Checks only the most recent occurrences are listed when the rollup is enabled, and the
+     * older ones are only counted in the rollup table.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRollup() throws Exception {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(stacktrace);
+        builder.setRollupKeep(2);
+        builder.addOccurrence(createOccurrence("report1", "2.2", "15"));
+        builder.addOccurrence(createOccurrence("report2", "2.3.3", "15"));
+        builder.addOccurrence(createOccurrence("report3", "2.2", "16"));
+        builder.addOccurrence(createOccurrence("report4", "2.3.3", "16"));
+
+        final IssueDescriptionReader reader = new IssueDescriptionReader(createIssue(builder
+                .build()));
+        assertEquals(2, reader.getOccurrences().size());
+        assertEquals("report3", reader.getOccurrences().get(0).getReportId());
+        assertEquals("report4", reader.getOccurrences().get(1).getReportId());
+        assertFalse(reader.containsReport("report1"));
+        assertFalse(reader.containsReport("report2"));
+        assertTrue(reader.containsReport("report3"));
+
+        final OccurrenceRollup rollup = reader.getRollup();
+        assertEquals(2, rollup.getCount());
+        assertEquals(Integer.valueOf(2), rollup.getCounts(Dimension.APP_VERSION).get("0.3.1 / 15"));
+        assertEquals(Integer.valueOf(1), rollup.getCounts(Dimension.ANDROID_VERSION).get("2.2"));
+        assertEquals(Integer.valueOf(1), rollup.getCounts(Dimension.ANDROID_VERSION).get("2.3.3"));
+        assertEquals(Integer.valueOf(2),
+                rollup.getCounts(Dimension.DEVICE).get("Nexus One / google / passion"));
+    }
+
+    /**
+     * Checks updating a description rolls up the previously listed occurrences without counting
+     * the already rolled up ones twice, nor keeping their report identifiers.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRollupUpdate() throws Exception {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(stacktrace);
+        builder.setRollupKeep(2);
+        for (int i = 0; i < 5; i++) {
+            builder.addOccurrence(createOccurrence("report" + i, "2.2", "15"));
+        }
+        final IssueDescriptionReader reader = new IssueDescriptionReader(createIssue(builder
+                .build()));
+        assertEquals(3, reader.getRollup().getCount());
+
+        final IssueDescriptionBuilder update = new IssueDescriptionBuilder(reader.getStacktrace());
+        update.setRollupKeep(2);
+        update.setOccurrences(reader.getOccurrences());
+        update.setRollup(reader.getRollup());
+        update.addOccurrence(createOccurrence("report5", "2.3.3", "16"));
+        final String description = update.build();
+        assertEquals("check build doesn't alter the builder state", description, update.build());
+
+        final IssueDescriptionReader updated = new IssueDescriptionReader(createIssue(description));
+        assertEquals(2, updated.getOccurrences().size());
+        assertEquals(4, updated.getRollup().getCount());
+        assertEquals(Integer.valueOf(4), updated.getRollup().getCounts(Dimension.ANDROID_VERSION)
+                .get("2.2"));
+        assertTrue(updated.containsReport("report5"));
+        for (int i = 0; i < 4; i++) {
+            assertFalse("check rolled up report" + i + " isn't kept",
+                    description.contains("report" + i));
+        }
+
+        // the rollup is kept when it is disabled
+        update.setRollupKeep(0);
+        final IssueDescriptionReader all = new IssueDescriptionReader(createIssue(update.build()));
+        assertEquals(3, all.getOccurrences().size());
+        assertEquals(3, all.getRollup().getCount());
+    }
+
+    /**
+     * Checks a version 2 description lists all the occurrences, and can't hold a rollup.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testVersion2() throws Exception {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(stacktrace);
+        builder.setVersion(2);
+        builder.setRollupKeep(2);
+        for (int i = 0; i < 3; i++) {
+            builder.addOccurrence(createOccurrence("report" + i, "2.2", "15"));
+        }
+        final String description = builder.build();
+        assertTrue(description.endsWith(IssueDescriptionUtils.getDescriptionVersionTag(2)));
+
+        final IssueDescriptionReader reader = new IssueDescriptionReader(createIssue(description));
+        assertEquals(3, reader.getOccurrences().size());
+        assertTrue(reader.getRollup().isEmpty());
+
+        final OccurrenceRollup rollup = new OccurrenceRollup();
+        rollup.add(createOccurrence("report3", "2.2", "15"));
+        builder.setRollup(rollup);
+        try {
+            builder.build();
+            fail("a version 2 description can't hold a rollup");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates an occurrence.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @param pAndroidVersion
+     *            the Android version
+     * @param pVersionCode
+     *            the application version code
+     * @return an occurrence
+     */
+    private static ErrorOccurrence createOccurrence(final String pReportId,
+            final String pAndroidVersion, final String pVersionCode) {
+
+        final ErrorOccurrence error = new ErrorOccurrence();
+        error.setReportId(pReportId);
+        error.setCrashDate(new Date(1320555699000L));
+        error.setRunFor(new Date(138000L));
+        error.setAndroidVersion(pAndroidVersion);
+        error.setVersionCode(pVersionCode);
+        error.setVersionName("0.3.1");
+        error.setDevice("Nexus One / google / passion");
+        return error;
+    }
+
+    /**
+     * Creates an issue.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @return an issue
+     */
+    private static Issue createIssue(final String pDescription) {
+
+        final Issue issue = new Issue();
+        issue.setId(1);
+        issue.setDescription(pDescription);
+        final CustomField stacktraceMD5 = new CustomField();
+        stacktraceMD5.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        stacktraceMD5.setValue("md5");
+        issue.getCustomFields().add(stacktraceMD5);
+        return issue;
+    }
 }
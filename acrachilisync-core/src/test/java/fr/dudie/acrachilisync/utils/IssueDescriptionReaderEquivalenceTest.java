@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+
+/**
+ * Checks the {@link IssueDescriptionReader} parses descriptions the same way the regular
+ * expression based {@link LegacyIssueDescriptionParser} does.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class IssueDescriptionReaderEquivalenceTest {
+
+    /** The number of random descriptions to compare. */
+    private static final int DESCRIPTIONS = 20000;
+
+    /** The table headers, mostly well formed. */
+    private static final String[] HEADERS = { IssueDescriptionUtils.getOccurrencesTableHeader(),
+            IssueDescriptionUtils.getOccurrencesTableHeader(),
+            IssueDescriptionUtils.getOccurrencesTableHeader().toUpperCase(),
+            IssueDescriptionUtils.getOccurrencesTableHeader().toLowerCase(),
+            "|_. ACRA report id|_. crash date|" };
+
+    /** The line terminators, mostly well formed. */
+    private static final String[] EOLS = { "\n", "\n", "\n", "\n", "\n", "\n", "\n\n", "\r\n", "\r",
+            "\u2028", "(", " ", "" };
+
+    /** The occurrence lines, mostly well formed. */
+    private static final String[] LINES = {
+            "|7a8b-c9_d|06/11/2011 05:01:39|2m 18s|2.3.3|15|0.3.1|Nexus One / google / passion|",
+            "|7a8b-c9_d|06/11/2011 05:01:39|2m 18s|2.3.3|15|0.3.1|Nexus One / google / passion|",
+            "|report1|06/11/2011 17:01:39|1d 2h 21m 55s|1.6|12|0.3.1|Dream / HTC / dream|",
+            "|report1|06/11/2011 17:01:39|1d 2h 21m 55s|1.6|12|0.3.1|Dream / HTC / dream|",
+            "|report2|31/12/2011 23:59:59|5s|2.2|1|0.2|x|",
+            "|report2|06/11/2011 05:01:39|1h 0m 5s|2.2|1|0.2|x|",
+            "|REPORT3|06/11/2011 05:01:39|1D 2H 21M 55S|2.2|1|0.2|x|",
+            "|report4|06/11/2011 05:01:39|2h 5s|2.2|1|0.2|x|",
+            "|report5|06/11/2011 05:01:39|123s|2.2|1|0.2|x|",
+            "|report6|6/11/2011 05:01:39|5s|2.2|1|0.2|x|",
+            "|report7|06/11/2011 05:01:39|5s||1|0.2|x|",
+            "|report8|06/11/2011 05:01:39|5s|2.2|1a|0.2|x|",
+            "|report 9|06/11/2011 05:01:39|5s|2.2|1|0.2|x|",
+            "|report10|06/11/2011 05:01:39|5s|2.2|1|0.2\nmultiline|x|",
+            "|report11|06/11/2011 05:01:39|5s |2.2|1|0.2|x|",
+            "|15|06/11/2011 05:01:39|7s|", "|" };
+
+    /** The stacktrace block tags. */
+    private static final String[] TAGS = { "<pre class=\"javastacktrace\">",
+            "<pre class=\"javastacktrace\">", "<PRE CLASS=\"JAVASTACKTRACE\">", "</pre>",
+            "</pre>", "</PRE>" };
+
+    /** Some text. */
+    private static final String[] TEXTS = { "",
+            "java.lang.NullPointerException\n\tat fr.dudie.Foo.bar(Foo.java:12)", "h2. text\n",
+            "*Stacktrace*\n" };
+
+    /**
+     * Load the application test configuration before the tests.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @BeforeClass
+    public static void loadConfiguration() throws ConfigurationException {
+
+        ConfigurationManager.getInstance(new PropertiesConfiguration("acrachilisync.properties"));
+    }
+
+    /**
+     * Compares the results of both parsers on random descriptions.
+     */
+    @Test
+    public void testRandomDescriptions() {
+
+        final Random random = new Random(20111106L);
+        for (int i = 0; i < DESCRIPTIONS; i++) {
+            final StringBuilder description = new StringBuilder();
+            description.append(pick(random, TEXTS));
+            for (int table = 1 + random.nextInt(2); table > 0; table--) {
+                description.append(pick(random, HEADERS)).append(pick(random, EOLS));
+                for (int line = random.nextInt(6); line >= 0; line--) {
+                    description.append(pick(random, LINES)).append(pick(random, EOLS));
+                }
+                description.append(pick(random, TEXTS)).append(pick(random, EOLS));
+            }
+            for (int tag = random.nextInt(4); tag >= 0; tag--) {
+                description.append(pick(random, TAGS)).append(pick(random, TEXTS));
+            }
+            assertSameResult(description.toString());
+        }
+    }
+
+    /**
+     * Picks a random element of an array.
+     * 
+     * @param pRandom
+     *            the random number generator
+     * @param pValues
+     *            the values
+     * @return one of the values
+     */
+    private static String pick(final Random pRandom, final String[] pValues) {
+
+        return pValues[pRandom.nextInt(pValues.length)];
+    }
+
+    /**
+     * Compares the results of both parsers on descriptions written by the
+     * {@link IssueDescriptionBuilder}.
+     */
+    @Test
+    public void testBuiltDescriptions() {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                "java.lang.NullPointerException\n\tat fr.dudie.Foo.bar(Foo.java:12)");
+        for (int i = 0; i < 50; i++) {
+            final ErrorOccurrence error = new ErrorOccurrence();
+            error.setReportId("report-" + i);
+            error.setCrashDate(new Date(1320555699000L + i * 3600000L));
+            error.setRunFor(new Date(i * 3725000L));
+            error.setAndroidVersion("2.3.3");
+            error.setVersionCode(String.valueOf(i));
+            error.setVersionName("0.3.1");
+            error.setDevice("Nexus One / google / passion");
+            builder.addOccurrence(error);
+            assertSameResult(builder.build());
+        }
+    }
+
+    /**
+     * Compares the results of both parsers on the test description files, except the ones having
+     * an occurrences rollup table the regular expression based parser doesn't know.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testDescriptionFiles() throws Exception {
+
+        final File files = new File(getClass().getResource("/files").toURI());
+        for (final File f : files.listFiles()) {
+            if (f.getName().startsWith("descriptionreader_")) {
+                final String description = read(f);
+                if (!description.contains(IssueDescriptionUtils.getRollupTableHeader())) {
+                    assertSameResult(description);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks both parsers give the same occurrences and stacktrace, or the same error.
+     * 
+     * @param pDescription
+     *            the description to parse
+     */
+    private static void assertSameResult(final String pDescription) {
+
+        final String description = pDescription + '\n'
+                + IssueDescriptionUtils.DESCRIPTION_VERSION_TAG;
+        String expected;
+        try {
+            final List<ErrorOccurrence> occurrences = LegacyIssueDescriptionParser
+                    .parseAcraOccurrencesTable(description);
+            expected = toString(occurrences,
+                    LegacyIssueDescriptionParser.parseStacktrace(description));
+        } catch (final IssueParseException e) {
+            expected = e.getMessage();
+        }
+
+        final Issue issue = new Issue();
+        issue.setId(1);
+        issue.setDescription(description);
+        final CustomField stacktraceMD5 = new CustomField();
+        stacktraceMD5.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        stacktraceMD5.setValue("md5");
+        issue.getCustomFields().add(stacktraceMD5);
+        String actual;
+        try {
+            final IssueDescriptionReader reader = new IssueDescriptionReader(issue);
+            actual = toString(reader.getOccurrences(), reader.getStacktrace());
+        } catch (final IssueParseException e) {
+            actual = e.getMessage();
+        }
+
+        assertEquals("check result for description: " + pDescription, expected, actual);
+    }
+
+    /**
+     * Formats the result of a parsing.
+     * 
+     * @param pOccurrences
+     *            the occurrences
+     * @param pStacktrace
+     *            the stacktrace
+     * @return a string representation of the occurrences and the stacktrace
+     */
+    private static String toString(final List<ErrorOccurrence> pOccurrences,
+            final String pStacktrace) {
+
+        final StringBuilder buf = new StringBuilder();
+        for (final ErrorOccurrence error : pOccurrences) {
+            buf.append(error.getReportId()).append('|').append(error.getCrashDate().getTime());
+            buf.append('|').append(error.getRunFor().getTime()).append('|');
+            buf.append(error.getAndroidVersion()).append('|').append(error.getVersionCode());
+            buf.append('|').append(error.getVersionName()).append('|').append(error.getDevice());
+            buf.append('\n');
+        }
+        return buf.append(pStacktrace).toString();
+    }
+
+    /**
+     * Reads a test file.
+     * 
+     * @param pFile
+     *            the file
+     * @return the file content
+     * @throws IOException
+     *             unable to read the file
+     */
+    private static String read(final File pFile) throws IOException {
+
+        final StringBuilder buf = new StringBuilder();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                pFile)));
+        try {
+            final char[] cbuf = new char[512];
+            int len;
+            while ((len = reader.read(cbuf)) != -1) {
+                buf.append(cbuf, 0, len);
+            }
+        } finally {
+            reader.close();
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+import fr.dudie.acrachilisync.model.OccurrenceRollup;
+
+/**
+ * Test the {@link IssueDescriptionUtils}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class IssueDescriptionUtilsTest {
+
+    /**
+     * Checks the format of an occurrences table line.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testOccurrencesTableLine() throws Exception {
+
+        final ErrorOccurrence error = createOccurrence(0);
+        final String expected = String.format("|%s|%s|%s|%s|%s|%s|%s|", error.getReportId(),
+                new SimpleDateFormat("dd/MM/yyyy hh:mm:ss").format(error.getCrashDate()),
+                RunningTimeUtils.toString(error.getRunFor()), error.getAndroidVersion(),
+                error.getVersionCode(), error.getVersionName(), error.getDevice());
+
+        assertEquals(expected, IssueDescriptionUtils.getOccurrencesTableLine(error));
+        assertEquals("#" + expected, IssueDescriptionUtils.appendOccurrencesTableLine(
+                new StringBuilder("#"), error).toString());
+    }
+
+    /**
+     * Checks the crash dates formatted and parsed by concurrent threads are the ones of a
+     * {@link SimpleDateFormat} confined to a thread.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testConcurrentDateCodec() throws Exception {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+
+                        final SimpleDateFormat reference = new SimpleDateFormat(
+                                "dd/MM/yyyy hh:mm:ss");
+                        int errors = 0;
+                        for (int i = 0; i < 2000; i++) {
+                            final ErrorOccurrence error = createOccurrence(thread * 2000 + i);
+                            final String line = IssueDescriptionUtils.getOccurrencesTableLine(
+                                    error).toString();
+                            final String date = line.split("\\|")[2];
+                            if (!reference.format(error.getCrashDate()).equals(date)
+                                    || !reference.parse(date).equals(
+                                            IssueDescriptionUtils.parseDate(date))) {
+                                errors++;
+                            }
+                        }
+                        return errors;
+                    }
+                }));
+            }
+            for (final Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(0), result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks occurrences spliced into a description give the description built with all the
+     * occurrences, with and without a rollup table.
+     */
+    @Test
+    public void testSpliceOccurrences() {
+
+        for (final boolean rolledUp : new boolean[] { false, true }) {
+            for (final int listed : new int[] { 0, 1, 30 }) {
+                final IssueDescriptionBuilder before = createBuilder(rolledUp);
+                final IssueDescriptionBuilder after = createBuilder(rolledUp);
+                final List<ErrorOccurrence> added = new ArrayList<ErrorOccurrence>();
+                for (int i = 0; i < listed + 3; i++) {
+                    if (i < listed) {
+                        before.addOccurrence(createOccurrence(i));
+                    } else {
+                        added.add(createOccurrence(i));
+                    }
+                    after.addOccurrence(createOccurrence(i));
+                }
+                assertEquals("rolled up: " + rolledUp + ", listed: " + listed, after.build(),
+                        IssueDescriptionUtils.spliceOccurrences(before.build(), added));
+            }
+        }
+    }
+
+    /**
+     * Checks occurrences are spliced into a description whose line endings have been turned into
+     * <code>\r\n</code> when it was edited through the web interface.
+     */
+    @Test
+    public void testSpliceOccurrencesCRLF() {
+
+        final IssueDescriptionBuilder before = createBuilder(true);
+        final IssueDescriptionBuilder after = createBuilder(true);
+        before.addOccurrence(createOccurrence(0));
+        after.addOccurrence(createOccurrence(0));
+        after.addOccurrence(createOccurrence(1));
+        final List<ErrorOccurrence> added = new ArrayList<ErrorOccurrence>();
+        added.add(createOccurrence(1));
+
+        assertEquals(after.build(), IssueDescriptionUtils.spliceOccurrences(before.build()
+                .replace("\n", "\r\n"), added));
+    }
+
+    /**
+     * Checks the descriptions which aren't in the current format aren't spliced.
+     */
+    @Test
+    public void testSpliceOccurrencesUnknownFormat() {
+
+        final IssueDescriptionBuilder builder = createBuilder(false);
+        builder.addOccurrence(createOccurrence(0));
+        final String description = builder.build();
+        final List<ErrorOccurrence> added = new ArrayList<ErrorOccurrence>();
+        added.add(createOccurrence(1));
+
+        assertNull(IssueDescriptionUtils.spliceOccurrences(null, added));
+        assertNull(IssueDescriptionUtils.spliceOccurrences("", added));
+        final String version2 = "%(acrachilisync-description-version)description_version_2%";
+        assertNull(IssueDescriptionUtils.spliceOccurrences(description.replace(
+                IssueDescriptionUtils.DESCRIPTION_VERSION_TAG, version2), added));
+        assertNull(IssueDescriptionUtils.spliceOccurrences("h2. ACRA occurrences\n"
+                + description, added));
+    }
+
+    /**
+     * Creates a description builder.
+     * 
+     * @param pRolledUp
+     *            true to add occurrences already rolled up
+     * @return a description builder
+     */
+    private static IssueDescriptionBuilder createBuilder(final boolean pRolledUp) {
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                "java.lang.NullPointerException\n\tat fr.dudie.Foo.bar(Foo.java:12)\n");
+        if (pRolledUp) {
+            final OccurrenceRollup rollup = new OccurrenceRollup();
+            for (int i = 100; i < 110; i++) {
+                rollup.add(createOccurrence(i));
+            }
+            builder.setRollup(rollup);
+        }
+        return builder;
+    }
+
+    /**
+     * Creates an occurrence, the crash dates spread over the day.
+     * 
+     * @param pIndex
+     *            the occurrence index
+     * @return an occurrence
+     */
+    private static ErrorOccurrence createOccurrence(final int pIndex) {
+
+        final ErrorOccurrence error = new ErrorOccurrence();
+        error.setReportId("report" + pIndex);
+        error.setCrashDate(new Date(1320555699000L + (pIndex % 12) * 3600000L + pIndex * 1000L));
+        error.setRunFor(new Date(pIndex * 61000L));
+        error.setAndroidVersion("2.3.3");
+        error.setVersionCode("16");
+        error.setVersionName("0.3.1");
+        error.setDevice("Nexus One / google / passion");
+        return error;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.redmine.ta.RedmineManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test the {@link IssueIndex} against a local Redmine stub server.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class IssueIndexTest {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IssueIndexTest.class);
+
+    /** The number of issues in the project. */
+    private static final int ISSUES = 60;
+
+    /** The number of distinct stacktraces among the project issues. */
+    private static final int STACKTRACES = 40;
+
+    /** The number of reports to resolve. */
+    private static final int REPORTS = 5000;
+
+    /** The test configuration. */
+    private static ConfigurationManager configuration;
+
+    /** The Redmine stub server. */
+    private RedmineStubServer server;
+
+    /** The Chiliproject client. */
+    private RedmineManager redmineClient;
+
+    /**
+     * Load the application test configuration before the tests.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @BeforeClass
+    public static void loadConfiguration() throws ConfigurationException {
+
+        configuration = ConfigurationManager.getInstance(new PropertiesConfiguration(
+                "acrachilisync.properties"));
+    }
+
+    /**
+     * Starts a stub server with {@value #ISSUES} issues, some of them sharing the same stacktrace.
+     * 
+     * @throws Exception
+     *             unable to start the server
+     */
+    @Before
+    public void startServer() throws Exception {
+
+        server = new RedmineStubServer(configuration.CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        for (int i = 0; i < ISSUES; i++) {
+            server.addIssue(i + 1, md5(i % STACKTRACES));
+        }
+        server.start();
+        redmineClient = new RedmineManager(server.getHost(), configuration.CHILIPROJECT_API_KEY);
+    }
+
+    /**
+     * Stops the stub server.
+     */
+    @After
+    public void stopServer() {
+
+        server.stop();
+    }
+
+    /**
+     * Resolves {@value #REPORTS} reports against the index and checks the number of HTTP requests
+     * only depends on the number of issues in the project.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRequestCountDependsOnProjectSize() throws Exception {
+
+        final IssueIndex index = IssueIndex.prefetch(redmineClient,
+                configuration.CHILIPROJECT_PROJECT_ID,
+                configuration.CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        final int prefetchRequests = server.getRequestCount();
+        LOGGER.info("prefetched {} issues with {} requests (page size {})", new Object[] { ISSUES,
+                prefetchRequests, server.getPageSize() });
+
+        final int pages = (ISSUES + server.getPageSize() - 1) / server.getPageSize();
+        assertEquals("check one request per page", pages, prefetchRequests);
+        assertEquals("check indexed stacktraces", STACKTRACES, index.size());
+
+        for (int i = 0; i < REPORTS; i++) {
+            final String md5 = md5(i % (STACKTRACES * 2));
+            assertTrue(index.isIndexed(md5));
+            final int expected;
+            if (i % (STACKTRACES * 2) < STACKTRACES) {
+                expected = ISSUES / STACKTRACES + (i % STACKTRACES < ISSUES % STACKTRACES ? 1 : 0);
+            } else {
+                expected = 0;
+            }
+            assertEquals("check issues for " + md5, expected, index.get(md5).size());
+        }
+        assertEquals("check no more request after the prefetch", prefetchRequests,
+                server.getRequestCount());
+    }
+
+    /**
+     * Checks an invalidated stacktrace isn't resolved by the index anymore.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+
+        final IssueIndex index = IssueIndex.prefetch(redmineClient,
+                configuration.CHILIPROJECT_PROJECT_ID,
+                configuration.CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        final String md5 = md5(STACKTRACES + 1);
+        assertTrue(index.isIndexed(md5));
+        assertTrue(index.get(md5).isEmpty());
+
+        index.invalidate(md5);
+        assertFalse(index.isIndexed(md5));
+    }
+
+    /**
+     * Looks up the stacktraces of {@value #REPORTS} reports by chunks and checks the duplicate
+     * issues are still resolved.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testLookup() throws Exception {
+
+        final List<String> md5s = new ArrayList<String>();
+        for (int i = 0; i < REPORTS; i++) {
+            md5s.add(md5(i % (STACKTRACES * 2)));
+        }
+        final IssueIndex index = IssueIndex.create();
+        assertFalse(index.isIndexed(md5s.get(0)));
+
+        final int chunkSize = 25;
+        final int chunks = (STACKTRACES * 2 + chunkSize - 1) / chunkSize;
+        assertEquals(chunks, index.lookup(new ChiliprojectClient(redmineClient),
+                configuration.CHILIPROJECT_PROJECT_ID,
+                configuration.CHILIPROJECT_STACKTRACE_MD5_CF_ID, md5s, chunkSize));
+        final int lookupRequests = server.getRequestCount();
+        assertTrue("check less requests than stacktraces", lookupRequests < STACKTRACES * 2);
+
+        for (int i = 0; i < STACKTRACES * 2; i++) {
+            final String md5 = md5(i);
+            assertTrue(index.isIndexed(md5));
+            final int expected;
+            if (i < STACKTRACES) {
+                expected = ISSUES / STACKTRACES + (i < ISSUES % STACKTRACES ? 1 : 0);
+            } else {
+                expected = 0;
+            }
+            assertEquals("check issues for " + md5, expected, index.get(md5).size());
+        }
+
+        assertEquals(0, index.lookup(new ChiliprojectClient(redmineClient),
+                configuration.CHILIPROJECT_PROJECT_ID,
+                configuration.CHILIPROJECT_STACKTRACE_MD5_CF_ID, md5s, chunkSize));
+        assertEquals(lookupRequests, server.getRequestCount());
+        assertFalse(index.isIndexed(md5(STACKTRACES * 2)));
+    }
+
+    /**
+     * Gets a fake stacktrace MD5 hash.
+     * 
+     * @param pStacktrace
+     *            the stacktrace number
+     * @return a fake stacktrace MD5 hash
+     */
+    private static String md5(final int pStacktrace) {
+
+        return MD5Utils.toMD5hash("stacktrace " + pStacktrace);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+
+/**
+ * The regular expression based parser {@link IssueDescriptionReader} used for the version 2
+ * description format, kept as a reference for equivalence tests and benchmarks.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class LegacyIssueDescriptionParser {
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private LegacyIssueDescriptionParser() {
+
+    }
+
+    /**
+     * Extracts the list of bug occurrences from the description.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @return the ACRA bug occurrences listed in the description
+     * @throws IssueParseException
+     *             malformed issue description
+     */
+    public static List<ErrorOccurrence> parseAcraOccurrencesTable(final String pDescription)
+            throws IssueParseException {
+
+        final List<ErrorOccurrence> occur = new ArrayList<ErrorOccurrence>();
+
+        // escape braces { and } to use strings in regexp
+        final String header = IssueDescriptionUtils.getOccurrencesTableHeader();
+        final String escHeader = Pattern.quote(header);
+
+        // regexp to find occurrences tables
+        final Pattern p = Pattern.compile(escHeader + "(?:\r\n|" + IssueDescriptionUtils.EOL
+                + ")(?:" + IssueDescriptionReader.OCCURR_LINE_PATTERN + IssueDescriptionUtils.EOL
+                + "+)+",
+                Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+        final Matcher m = p.matcher(pDescription);
+
+        if (m.find()) {
+            // regexp to find occurrences lines
+            final Pattern pLine = Pattern.compile(IssueDescriptionReader.OCCURR_LINE_PATTERN);
+            final Matcher mLine = pLine.matcher(m.group());
+            while (mLine.find()) {
+                try {
+                    final StringTokenizer line = new StringTokenizer(mLine.group(), "|");
+                    final String acraReportId = line.nextToken();
+                    final String acraUserCrashDate = line.nextToken();
+                    final String acraRunFor = line.nextToken();
+                    final String acraAndroidVersion = line.nextToken();
+                    final String acraVersionCode = line.nextToken();
+                    final String acraVersionName = line.nextToken();
+                    final String acraDevice = line.nextToken();
+                    final ErrorOccurrence error = new ErrorOccurrence();
+                    error.setReportId(acraReportId);
+                    try {
+                        error.setCrashDate(IssueDescriptionUtils.parseDate(acraUserCrashDate));
+                        error.setRunFor(RunningTimeUtils.parseRunningTime(acraRunFor));
+                    } catch (final ParseException e) {
+                        throw new IssueParseException(
+                                "Unable to parse user crash date of ACRA report " + acraReportId, e);
+                    }
+                    error.setAndroidVersion(acraAndroidVersion);
+                    error.setVersionCode(acraVersionCode);
+                    error.setVersionName(acraVersionName);
+                    error.setDevice(acraDevice);
+                    occur.add(error);
+                } catch (final NoSuchElementException e) {
+                    throw new IssueParseException("Unable to parse ACRA report line: "
+                            + mLine.group(), e);
+                }
+            }
+        } else {
+            throw new IssueParseException("No crash occurrence table found in the description");
+        }
+
+        if (m.find()) {
+            throw new IssueParseException("More than 1 occurrence table found in the description");
+        }
+
+        if (CollectionUtils.isEmpty(occur)) {
+            throw new IssueParseException("0 user crash occurrence found in the description");
+        }
+
+        return occur;
+    }
+
+    /**
+     * Extracts the bug stacktrace from the description.
+     * 
+     * @param pDescription
+     *            the issue description
+     * @return the stacktrace
+     * @throws IssueParseException
+     *             malformed issue description
+     */
+    public static String parseStacktrace(final String pDescription) throws IssueParseException {
+
+        String stacktrace = null;
+
+        // escape braces { and } to use strings in regexp
+        final String start = "<pre class=\"javastacktrace\">";
+        final String qStart = Pattern.quote(start);
+        final String end = "</pre>";
+        final String qEnd = Pattern.quote(end);
+
+        final Pattern p = Pattern.compile(qStart + "(.*)" + qEnd, Pattern.DOTALL
+                | Pattern.CASE_INSENSITIVE);
+        final Matcher m = p.matcher(pDescription);
+
+        if (m.find()) {
+            stacktrace = m.group(1);
+            // if a start tag or an end tag is found in the stacktrace, then there is a problem
+            if (StringUtils.contains(stacktrace, start) || StringUtils.contains(stacktrace, end)) {
+                throw new IssueParseException("Invalid stacktrace block");
+            }
+        } else {
+            throw new IssueParseException("0 stacktrace block found in the description");
+        }
+
+        return stacktrace;
+    }
+}
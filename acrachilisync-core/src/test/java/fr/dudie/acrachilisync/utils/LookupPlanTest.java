@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link LookupPlan}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class LookupPlanTest {
+
+    /**
+     * Checks the predicted number of requests of each plan.
+     */
+    @Test
+    public void testPredictRequests() {
+
+        assertEquals(120, LookupPlan.PER_STACKTRACE.predictRequests(120, 4, 1000, 50));
+        assertEquals(4, LookupPlan.BATCH.predictRequests(120, 4, 1000, 50));
+        assertEquals(3, LookupPlan.BATCH.predictRequests(120, 1, 1000, 50));
+        assertEquals(0, LookupPlan.BATCH.predictRequests(0, 1, 1000, 50));
+        assertEquals(40, LookupPlan.PREFETCH.predictRequests(120, 4, 1000, 50));
+        assertEquals(1, LookupPlan.PREFETCH.predictRequests(120, 4, 0, 50));
+    }
+
+    /**
+     * Checks the number of distinct stacktraces is extrapolated from the first page.
+     */
+    @Test
+    public void testEstimateStacktraces() {
+
+        assertEquals(7, LookupPlan.estimateStacktraces(20, 20, 7));
+        assertEquals(250, LookupPlan.estimateStacktraces(5000, 500, 25));
+        assertEquals(1000, LookupPlan.estimateStacktraces(1000, 10, 10));
+        assertEquals(0, LookupPlan.estimateStacktraces(1000, 0, 0));
+    }
+
+    /**
+     * Checks the plan sending the fewest requests is chosen.
+     */
+    @Test
+    public void testChoose() {
+
+        // a few stacktraces in a large project
+        assertEquals(LookupPlan.PER_STACKTRACE, LookupPlan.choose(30, 5, 500, 10000, 0));
+        // many stacktraces in a small project
+        assertEquals(LookupPlan.PREFETCH, LookupPlan.choose(10000, 2000, 500, 300, 0));
+        // many stacktraces in a large project
+        assertEquals(LookupPlan.PER_STACKTRACE, LookupPlan.choose(10000, 2000, 500, 100000, 0));
+        assertEquals(LookupPlan.BATCH, LookupPlan.choose(10000, 2000, 500, 100000, 50));
+        // nothing to look up
+        assertEquals(LookupPlan.PER_STACKTRACE, LookupPlan.choose(0, 0, 500, 300, 50));
+    }
+
+    /**
+     * Checks the number of pages of reports.
+     */
+    @Test
+    public void testGetPages() {
+
+        assertEquals(1, LookupPlan.getPages(1200, 0));
+        assertEquals(1, LookupPlan.getPages(0, 500));
+        assertEquals(1, LookupPlan.getPages(500, 500));
+        assertEquals(3, LookupPlan.getPages(1001, 500));
+    }
+}
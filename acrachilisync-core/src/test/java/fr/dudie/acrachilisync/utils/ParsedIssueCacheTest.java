@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.redmine.ta.beans.CustomField;
+import org.redmine.ta.beans.Issue;
+
+import fr.dudie.acrachilisync.model.ErrorOccurrence;
+
+/**
+ * Test the {@link ParsedIssueCache}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class ParsedIssueCacheTest {
+
+    /** The cache to test. */
+    private ParsedIssueCache cache;
+
+    /** An issue having 2 occurrences. */
+    private Issue issue;
+
+    /**
+     * Load the application test configuration before the tests.
+     * 
+     * @throws ConfigurationException
+     *             the configuration cannot be loaded
+     */
+    @BeforeClass
+    public static void loadConfiguration() throws ConfigurationException {
+
+        ConfigurationManager.getInstance(new PropertiesConfiguration("acrachilisync.properties"));
+    }
+
+    /**
+     * Creates the cache and the issue.
+     */
+    @Before
+    public void setUp() {
+
+        cache = new ParsedIssueCache();
+
+        final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                "java.lang.NullPointerException\n\tat fr.dudie.Foo.bar(Foo.java:12)");
+        builder.addOccurrence(createOccurrence("report1"));
+        builder.addOccurrence(createOccurrence("report2"));
+        issue = new Issue();
+        issue.setId(12);
+        issue.setUpdatedOn(new Date(1320555699000L));
+        issue.setDescription(builder.build());
+        final CustomField stacktraceMD5 = new CustomField();
+        stacktraceMD5.setId(ConfigurationManager.getInstance().CHILIPROJECT_STACKTRACE_MD5_CF_ID);
+        stacktraceMD5.setValue("md5");
+        issue.getCustomFields().add(stacktraceMD5);
+    }
+
+    /**
+     * Checks an issue is parsed once and the occurrences added to its parsed description are
+     * kept.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testParsedOnce() throws Exception {
+
+        final IssueDescriptionReader reader = cache.get(issue);
+        assertEquals(2, reader.getOccurrences().size());
+        reader.addOccurrence(createOccurrence("report3"));
+
+        assertSame(reader, cache.get(issue));
+        assertEquals(3, cache.get(issue).getOccurrences().size());
+        assertEquals("check parse count", 1, cache.getParseCount());
+    }
+
+    /**
+     * Checks an issue updated on the server is parsed again.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testUpdatedIssueParsedAgain() throws Exception {
+
+        final IssueDescriptionReader reader = cache.get(issue);
+        reader.addOccurrence(createOccurrence("report3"));
+
+        issue.setUpdatedOn(new Date(1320555799000L));
+        final IssueDescriptionReader updated = cache.get(issue);
+        assertNotSame(reader, updated);
+        assertEquals(2, updated.getOccurrences().size());
+        assertEquals("check parse count", 2, cache.getParseCount());
+
+        cache.clear();
+        assertNotSame(updated, cache.get(issue));
+        assertEquals("check parse count", 3, cache.getParseCount());
+    }
+
+    /**
+     * Creates an occurrence.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return an occurrence
+     */
+    private static ErrorOccurrence createOccurrence(final String pReportId) {
+
+        final ErrorOccurrence error = new ErrorOccurrence();
+        error.setReportId(pReportId);
+        error.setCrashDate(new Date(1320555699000L));
+        error.setRunFor(new Date(138000L));
+        error.setAndroidVersion("2.3.3");
+        error.setVersionCode("15");
+        error.setVersionName("0.3.1");
+        error.setDevice("Nexus One / google / passion");
+        return error;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal in-process Redmine REST server serving a fixed list of issues.
+ * <p>
+ * Only <code>GET /issues.xml</code> is supported, with the <code>offset</code>, <code>limit</code>
+ * and <code>cf_&lt;id&gt;</code> parameters, the custom field values being separated by
+ * <code>|</code>. Every request is counted, and delayed according to the {@link LatencyCurve}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class RedmineStubServer {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedmineStubServer.class);
+
+    /** The page size used when the client doesn't send a limit. */
+    private static final int DEFAULT_LIMIT = 25;
+
+    static {
+        // without it, each response waits for the delayed acknowledgement of its headers
+        if (null == System.getProperty("sun.net.httpserver.nodelay")) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /** The HTTP server. */
+    private final HttpServer server;
+
+    /** Handles the requests concurrently. */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /** The stacktrace MD5 custom field identifier. */
+    private final int stacktraceMD5CustomFieldId;
+
+    /** The stacktrace MD5 custom field value of each issue, by issue id. */
+    private final Map<Integer, String> issues = new TreeMap<Integer, String>();
+
+    /** The number of received requests. */
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    /** The highest page size requested by the client. */
+    private volatile int pageSize;
+
+    /** The number of requests being handled. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** The latency of the requests, null for no latency. */
+    private volatile LatencyCurve latency;
+
+    /** The HTTP status of the responses, 200 to serve the issue list. */
+    private volatile int status = 200;
+
+    /**
+     * Creates a server listening on an ephemeral port of the loopback interface.
+     * 
+     * @param pStacktraceMD5CustomFieldId
+     *            the stacktrace MD5 custom field identifier
+     * @throws IOException
+     *             unable to bind the server
+     */
+    public RedmineStubServer(final int pStacktraceMD5CustomFieldId) throws IOException {
+
+        stacktraceMD5CustomFieldId = pStacktraceMD5CustomFieldId;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/issues", new IssuesHandler());
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Sets the latency of the requests.
+     * 
+     * @param pLatency
+     *            the latency of the requests, null for no latency
+     */
+    public void setLatency(final LatencyCurve pLatency) {
+
+        latency = pLatency;
+    }
+
+    /**
+     * Sets the HTTP status of the responses.
+     * 
+     * @param pStatus
+     *            the HTTP status of the responses, 200 to serve the issue list
+     */
+    public void setStatus(final int pStatus) {
+
+        status = pStatus;
+    }
+
+    /**
+     * Adds an issue.
+     * 
+     * @param pId
+     *            the issue id
+     * @param pStacktraceMD5
+     *            the stacktrace MD5 custom field value
+     */
+    public void addIssue(final int pId, final String pStacktraceMD5) {
+
+        issues.put(pId, pStacktraceMD5);
+    }
+
+    /**
+     * Starts the server.
+     */
+    public void start() {
+
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the base URL of the server.
+     * 
+     * @return the base URL of the server
+     */
+    public String getHost() {
+
+        return String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    /**
+     * Gets the number of requests received since the server started.
+     * 
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the page size requested by the client.
+     * 
+     * @return the page size requested by the client
+     */
+    public int getPageSize() {
+
+        return pageSize;
+    }
+
+    /**
+     * Decodes the query string parameters.
+     * 
+     * @param pQuery
+     *            the raw query string
+     * @return the parameters
+     */
+    private static Map<String, String> decode(final String pQuery) {
+
+        final Map<String, String> params = new HashMap<String, String>();
+        if (null != pQuery) {
+            for (final String param : pQuery.split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq > 0) {
+                    try {
+                        params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+                                URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                    } catch (final UnsupportedEncodingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Serves the issue list.
+     * 
+     * @author Jérémie Huchet
+     */
+    private final class IssuesHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+
+            final int concurrent = inFlight.incrementAndGet();
+            try {
+                final LatencyCurve curve = latency;
+                if (null != curve) {
+                    TimeUnit.MILLISECONDS.sleep(curve.getLatency(concurrent));
+                }
+                serve(exchange);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        /**
+         * Serves the issue list.
+         * 
+         * @param exchange
+         *            the HTTP exchange
+         * @throws IOException
+         *             unable to send the response
+         */
+        private void serve(final HttpExchange exchange) throws IOException {
+
+            requestCount.incrementAndGet();
+            final Map<String, String> params = decode(exchange.getRequestURI().getRawQuery());
+            LOGGER.debug("{} {}", exchange.getRequestMethod(), exchange.getRequestURI());
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+
+            final String md5 = params.get("cf_" + stacktraceMD5CustomFieldId);
+            final List<String> md5s = null == md5 ? null : Arrays.asList(md5.split("\\|"));
+            final List<Integer> selection = new ArrayList<Integer>();
+            for (final Map.Entry<Integer, String> issue : issues.entrySet()) {
+                if (null == md5s || md5s.contains(issue.getValue())) {
+                    selection.add(issue.getKey());
+                }
+            }
+
+            final int offset = Integer.parseInt(StringUtils.defaultString(params.get("offset"),
+                    "0"));
+            final int limit = Integer.parseInt(StringUtils.defaultString(params.get("limit"),
+                    String.valueOf(DEFAULT_LIMIT)));
+            pageSize = Math.max(pageSize, limit);
+
+            final StringBuilder xml = new StringBuilder();
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            xml.append(String.format(
+                    "<issues type=\"array\" total_count=\"%d\" offset=\"%d\" limit=\"%d\">\n",
+                    selection.size(), offset, limit));
+            for (int i = offset; i < Math.min(selection.size(), offset + limit); i++) {
+                final Integer id = selection.get(i);
+                xml.append("<issue>");
+                xml.append("<id>").append(id).append("</id>");
+                xml.append("<project name=\"acra\" id=\"1\"/>");
+                xml.append("<tracker name=\"Bug\" id=\"4\"/>");
+                xml.append("<status name=\"New\" id=\"1\"/>");
+                xml.append("<subject>issue ").append(id).append("</subject>");
+                xml.append("<description></description>");
+                xml.append("<custom_fields type=\"array\">");
+                xml.append(String.format("<custom_field name=\"stacktrace md5\" id=\"%d\">",
+                        stacktraceMD5CustomFieldId));
+                xml.append("<value>").append(issues.get(id)).append("</value>");
+                xml.append("</custom_field>");
+                xml.append("</custom_fields>");
+                xml.append("</issue>\n");
+            }
+            xml.append("</issues>\n");
+
+            final byte[] body = xml.toString().getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Gives the latency of a request.
+     * 
+     * @author Jérémie Huchet
+     */
+    public interface LatencyCurve {
+
+        /**
+         * Gets the latency of a request.
+         * 
+         * @param pInFlight
+         *            the number of requests being handled, including this one
+         * @return the latency in milliseconds
+         */
+        long getLatency(int pInFlight);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.redmine.ta.RedmineException;
+
+import com.google.gdata.util.ServiceException;
+
+import fr.dudie.acrachilisync.exception.HttpStatusException;
+import fr.dudie.acrachilisync.exception.IssueParseException;
+import fr.dudie.acrachilisync.exception.RequestTimeoutException;
+
+/**
+ * Test the {@link RemoteCallGuard}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class RemoteCallGuardTest {
+
+    /** The metrics of the guards. */
+    private SyncMetrics metrics;
+
+    /** The number of calls. */
+    private AtomicInteger calls;
+
+    /**
+     * Creates the metrics.
+     */
+    @Before
+    public void setUp() {
+
+        metrics = new SyncMetrics();
+        calls = new AtomicInteger();
+    }
+
+    /**
+     * Checks the idempotent calls are retried on transient errors.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRetry() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, metrics);
+        assertEquals("ok", guard.call(failing(2, new IOException("reset")), true));
+        assertEquals(3, calls.get());
+        assertEquals(2, metrics.getCount(SyncMetrics.RETRY_BACKOFF));
+
+        calls.set(0);
+        try {
+            guard.call(failing(3, new IOException("reset")), true);
+            fail("the last attempt should fail");
+        } catch (final IOException e) {
+            assertEquals("reset", e.getMessage());
+        }
+        assertEquals(3, calls.get());
+    }
+
+    /**
+     * Checks the calls with side effects are only retried when the server couldn't be reached,
+     * and the client errors aren't retried.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testNoRetry() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, metrics);
+        try {
+            guard.call(failing(1, new IOException("reset")), false);
+            fail("the call with side effects shouldn't be retried");
+        } catch (final IOException e) {
+            assertEquals(1, calls.get());
+        }
+
+        calls.set(0);
+        assertEquals("ok", guard.call(failing(1, new ConnectException("refused")), false));
+        assertEquals(2, calls.get());
+
+        calls.set(0);
+        final ServiceException notFound = new ServiceException("not found");
+        notFound.setHttpErrorCodeOverride(404);
+        try {
+            guard.call(failing(1, notFound), true);
+            fail("the client error shouldn't be retried");
+        } catch (final ServiceException e) {
+            assertEquals(1, calls.get());
+        }
+
+        calls.set(0);
+        final ServiceException unavailable = new ServiceException("unavailable");
+        unavailable.setHttpErrorCodeOverride(503);
+        assertEquals("ok", guard.call(failing(1, unavailable), true));
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * Checks the Chiliproject errors are retried when their message holds an HTTP 429 or 5xx
+     * status, or when they are caused by an I/O error.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRedmineServerErrors() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, metrics);
+        assertEquals("ok", guard.call(failing(1, new RedmineException(
+                "Server returned '503 Service Unavailable'")), true));
+        assertEquals(2, calls.get());
+
+        assertTrue(RemoteCallGuard.isTransient(new RedmineException("HTTP 500")));
+        assertTrue(RemoteCallGuard.isTransient(new RedmineException("Too Many Requests")));
+        assertTrue(RemoteCallGuard.isTransient(new RedmineException("Bad Gateway")));
+        assertTrue(RemoteCallGuard.isTransient(new RedmineException("Cannot fetch data",
+                new IOException("reset"))));
+        assertFalse(RemoteCallGuard.isTransient(new RedmineException(
+                "Server returned '404 not found'")));
+        assertFalse(RemoteCallGuard.isTransient(new RedmineException(
+                "Subject is too long (maximum is 500 characters)")));
+        assertFalse(RemoteCallGuard.isTransient(new RedmineException((String) null)));
+    }
+
+    /**
+     * Checks the HTTP errors are retried for the 429 and 5xx statuses only.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testHttpStatusErrors() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, metrics);
+        assertEquals("ok", guard.call(failing(1, new HttpStatusException("HTTP 503", 503)), true));
+        assertEquals(2, calls.get());
+
+        calls.set(0);
+        try {
+            guard.call(failing(1, new HttpStatusException("HTTP 403", 403)), true);
+            fail("the client error shouldn't be retried");
+        } catch (final HttpStatusException e) {
+            assertEquals(1, calls.get());
+        }
+        assertTrue(RemoteCallGuard.isTransient(new HttpStatusException("HTTP 429", 429)));
+        assertFalse(RemoteCallGuard.isTransient(new HttpStatusException("HTTP 400", 400)));
+        assertFalse(RemoteCallGuard.isOverload(new HttpStatusException("HTTP 404", 404)));
+    }
+
+    /**
+     * Checks the issue description parse errors aren't retried, though they are I/O errors.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testParseErrorNotRetried() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, metrics);
+        try {
+            guard.call(failing(1, new IssueParseException("no occurrence table")), true);
+            fail("the parse error shouldn't be retried");
+        } catch (final IssueParseException e) {
+            assertEquals(1, calls.get());
+        }
+        assertFalse(RemoteCallGuard.isOverload(new IssueParseException("no occurrence table")));
+    }
+
+    /**
+     * Checks the requests given up after a timeout aren't retried but tell the service is
+     * overloaded, and the socket timeouts are retried.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testTimeoutNotRetried() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 3, 1, 10, 0, 0, metrics);
+        final RequestTimeoutException timeout = new RequestTimeoutException(
+                "Chiliproject request timed out after 10 ms");
+        try {
+            guard.call(failing(1, timeout), true);
+            fail("the request given up shouldn't be retried");
+        } catch (final RequestTimeoutException e) {
+            assertEquals(1, calls.get());
+        }
+        assertTrue(RemoteCallGuard.isOverload(timeout));
+        assertFalse(RemoteCallGuard.isTransient(new InterruptedIOException("interrupted")));
+
+        calls.set(0);
+        assertEquals("ok", guard.call(failing(1, new SocketTimeoutException("Read timed out")),
+                true));
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * Checks the calls are paused once the circuit opens, until a trial call succeeds.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testCircuitBreaker() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 0, 1, 0, 0, 2, 200, metrics);
+        for (int i = 0; i < 2; i++) {
+            try {
+                guard.call(failing(Integer.MAX_VALUE, new IOException("reset")), true);
+                fail("the call should fail");
+            } catch (final IOException e) {
+                assertEquals(i == 1, guard.isOpen());
+            }
+        }
+        assertTrue(guard.isOpen());
+
+        final long start = System.currentTimeMillis();
+        assertEquals("ok", guard.call(failing(0, null), true));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertFalse(guard.isOpen());
+        assertEquals(1, metrics.getCount(SyncMetrics.CIRCUIT_PAUSE));
+    }
+
+    /**
+     * Checks the calls are rate limited once the bucket is empty.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRateLimit() throws Exception {
+
+        final RemoteCallGuard guard = new RemoteCallGuard("test", 20, 1, 0, 0, 0, 0, metrics);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 30; i++) {
+            guard.call(failing(0, null), true);
+        }
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertTrue(metrics.getCount(SyncMetrics.RATE_LIMIT_WAIT) >= 9);
+    }
+
+    /**
+     * Creates a call failing the given number of times before succeeding.
+     * 
+     * @param pFailures
+     *            the number of failures
+     * @param pError
+     *            the error thrown by the failing calls
+     * @return the call, returning <code>ok</code>
+     */
+    private Callable<String> failing(final int pFailures, final Exception pError) {
+
+        return new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+
+                if (calls.incrementAndGet() <= pFailures) {
+                    throw pError;
+                }
+                return "ok";
+            }
+        };
+    }
+}
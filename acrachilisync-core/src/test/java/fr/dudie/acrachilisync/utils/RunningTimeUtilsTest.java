@@ -24,6 +24,9 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -113,4 +116,76 @@ public class RunningTimeUtilsTest {
 
         assertEquals("0d 2h 0s", "2h 0m 0s", RunningTimeUtils.toString(new Date(2 * H)));
     }
+
+    /**
+     * Checks the running times longer than 24 days don't overflow.
+     * 
+     * @throws ParseException
+     *             malformed running time
+     */
+    @Test
+    public void checkLongRunningTime() throws ParseException {
+
+        final long expected = 30L * D + 5L * H;
+        assertEquals(expected, RunningTimeUtils.parseRunningTime("30d 5h 0m 0s").getTime());
+        assertEquals("30d 5h 0m 0s", RunningTimeUtils.toString(new Date(expected)));
+        assertEquals(100000L * D, RunningTimeUtils.parseRunningTime("100000d").getTime());
+    }
+
+    /**
+     * Checks a field too large to be summed is rejected.
+     */
+    @Test(expected = ParseException.class)
+    public void checkTooLargeRunningTime() throws ParseException {
+
+        RunningTimeUtils.parseRunningTime("99999999999999999999d 1s");
+    }
+
+    /**
+     * Checks the single pass parser reads the same fields as the regular expressions it replaced:
+     * the first number followed by each unit, in any order, anything else ignored.
+     * 
+     * @throws ParseException
+     *             malformed running time
+     */
+    @Test
+    public void checkGrammar() throws ParseException {
+
+        assertEquals(2 * H + 3 * S, RunningTimeUtils.parseRunningTime("3s 2h").getTime());
+        assertEquals(H, RunningTimeUtils.parseRunningTime("1h 5h").getTime());
+        assertEquals(4 * M, RunningTimeUtils.parseRunningTime("x4m, 12").getTime());
+        assertEquals(0, RunningTimeUtils.parseRunningTime("").getTime());
+
+        final Pattern[] fields = { Pattern.compile("(\\d+)d"), Pattern.compile("(\\d+)h"),
+                Pattern.compile("(\\d+)m"), Pattern.compile("(\\d+)s") };
+        final long[] units = { D, H, M, S };
+        final String alphabet = "0123456789dhms x";
+        final Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            final StringBuilder value = new StringBuilder();
+            for (int c = random.nextInt(12); c > 0; c--) {
+                value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            long expected = 0;
+            for (int f = 0; f < fields.length; f++) {
+                final Matcher m = fields[f].matcher(value);
+                if (m.find()) {
+                    expected += Long.parseLong(m.group(1)) * units[f];
+                }
+            }
+            assertEquals(value.toString(), expected,
+                    RunningTimeUtils.parseRunningTime(value.toString()).getTime());
+        }
+    }
+
+    /**
+     * Checks the running time is appended to the given buffer.
+     */
+    @Test
+    public void checkAppend() {
+
+        assertEquals("|1h 0m 1s", RunningTimeUtils.append(new StringBuilder("|"),
+                new Date(H + S)).toString());
+        assertEquals("|0s", RunningTimeUtils.append(new StringBuilder("|"), null).toString());
+    }
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.gdata.client.spreadsheet.CellQuery;
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.data.spreadsheet.CellEntry;
+import com.google.gdata.data.spreadsheet.CellFeed;
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.EditableAcraReport;
+
+/**
+ * Test the {@link SpreadsheetBatchCommitter}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SpreadsheetBatchCommitterTest {
+
+    /** The column of the report identifiers. */
+    private static final int REPORT_ID_COL = 1;
+
+    /** The column of the stacktrace MD5 hashes. */
+    private static final int STACK_TRACE_MD5_COL = 3;
+
+    /** The row the server refuses to update by default. */
+    private static final int CONFLICT_ROW = 4;
+
+    /** The Spreadsheet client. */
+    private SpreadsheetService client;
+
+    /** The cells received by the batch update requests. */
+    private List<CellEntry> updatedCells;
+
+    /** The report identifiers of the worksheet rows, from the second row. */
+    private List<String> worksheet;
+
+    /** The row the server refuses to update, 0 for none. */
+    private int conflictRow;
+
+    /** The header row cells. */
+    private CellFeed headers;
+
+    /** The report identifier column cells. */
+    private CellFeed ids;
+
+    /**
+     * Creates a Spreadsheet client mock.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        client = mock(SpreadsheetService.class);
+        updatedCells = new ArrayList<CellEntry>();
+        worksheet = new ArrayList<String>();
+        conflictRow = CONFLICT_ROW;
+
+        headers = new CellFeed();
+        headers.getEntries().add(new CellEntry(1, REPORT_ID_COL, "REPORT_ID"));
+        headers.getEntries().add(new CellEntry(1, 2, "STACK_TRACE"));
+        headers.getEntries().add(new CellEntry(1, STACK_TRACE_MD5_COL, "STACK_TRACE_MD5"));
+
+        // report 5 has no row
+        for (int i = 0; i < 5; i++) {
+            worksheet.add("report" + i);
+        }
+        ids = createIds();
+        when(client.getFeed(any(CellQuery.class), eq(CellFeed.class))).thenReturn(headers, ids);
+
+        when(client.batch(any(URL.class), any(CellFeed.class))).thenAnswer(new Answer<CellFeed>() {
+
+            @Override
+            public CellFeed answer(final InvocationOnMock invocation) throws Throwable {
+
+                final CellFeed response = new CellFeed();
+                for (final CellEntry cell : ((CellFeed) invocation.getArguments()[1])
+                        .getEntries()) {
+                    final int row = cell.getCell().getRow();
+                    final int col = cell.getCell().getCol();
+                    final CellEntry result;
+                    final BatchStatus status = new BatchStatus();
+                    if (BatchUtils.getBatchOperationType(cell) == BatchOperationType.QUERY) {
+                        result = new CellEntry(row, col, getValue(row, col));
+                        status.setCode(200);
+                        status.setReason("Success");
+                    } else {
+                        updatedCells.add(cell);
+                        result = new CellEntry(row, col, cell.getCell().getInputValue());
+                        if (row == conflictRow) {
+                            status.setCode(409);
+                            status.setReason("Conflict");
+                        } else {
+                            status.setCode(200);
+                            status.setReason("Success");
+                        }
+                    }
+                    BatchUtils.setBatchId(result, BatchUtils.getBatchId(cell));
+                    BatchUtils.setBatchStatus(result, status);
+                    response.getEntries().add(result);
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Commits 6 reports with batch requests of 2 rows, each read then updated: one report has no
+     * row and one row is rejected by the server, they must be committed one by one.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testCommitStacktraceMD5() throws Exception {
+
+        final List<ListEntry> entries = new ArrayList<ListEntry>();
+        final List<EditableAcraReport> reports = new ArrayList<EditableAcraReport>();
+        for (int i = 0; i < 6; i++) {
+            final ListEntry entry = createListEntry("report" + i);
+            entries.add(entry);
+            reports.add(new EditableAcraReport(entry));
+        }
+
+        final SpreadsheetBatchCommitter committer = new SpreadsheetBatchCommitter(client, new URL(
+                "https://spreadsheets.google.com/feeds/cells/key/od6/private/full"), 2);
+        assertEquals("check committed with batch requests", 4,
+                committer.commitStacktraceMD5(reports));
+
+        verify(client, times(6)).batch(any(URL.class), any(CellFeed.class));
+        assertEquals("check batched cells", 5, updatedCells.size());
+        for (final CellEntry cell : updatedCells) {
+            assertEquals(STACK_TRACE_MD5_COL, cell.getCell().getCol());
+            final EditableAcraReport report = reports.get(cell.getCell().getRow() - 2);
+            assertEquals(report.getStacktraceMD5(), cell.getCell().getInputValue());
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            if (i + 2 == CONFLICT_ROW || i == 5) {
+                verify(entries.get(i), times(1)).update();
+            } else {
+                verify(entries.get(i), never()).update();
+            }
+        }
+    }
+
+    /**
+     * Commits the reports with several calls: the columns and the rows are read by the first call
+     * only, a report missing from the rows makes them to be read again once.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testCommitStacktraceMD5ReadsRowsOnce() throws Exception {
+
+        conflictRow = 0;
+        when(client.getFeed(any(CellQuery.class), eq(CellFeed.class))).thenReturn(headers, ids,
+                ids, headers, ids);
+
+        final List<EditableAcraReport> reports = new ArrayList<EditableAcraReport>();
+        for (int i = 0; i < 6; i++) {
+            reports.add(new EditableAcraReport(createListEntry("report" + i)));
+        }
+
+        final SpreadsheetBatchCommitter committer = new SpreadsheetBatchCommitter(client, new URL(
+                "https://spreadsheets.google.com/feeds/cells/key/od6/private/full"), 2);
+        assertEquals(2, committer.commitStacktraceMD5(reports.subList(0, 2)));
+        assertEquals(3, committer.commitStacktraceMD5(reports.subList(2, 5)));
+        verify(client, times(2)).getFeed(any(CellQuery.class), eq(CellFeed.class));
+
+        // report 5 is missing from the rows
+        assertEquals(0, committer.commitStacktraceMD5(reports.subList(5, 6)));
+        verify(client, times(3)).getFeed(any(CellQuery.class), eq(CellFeed.class));
+
+        // a reset forgets the columns and the rows
+        committer.reset();
+        assertEquals(2, committer.commitStacktraceMD5(reports.subList(0, 2)));
+        verify(client, times(5)).getFeed(any(CellQuery.class), eq(CellFeed.class));
+    }
+
+    /**
+     * Commits reports after a row has been inserted in the worksheet: the kept rows no longer hold
+     * their report, so these reports are committed one by one, and the rows are read again by the
+     * next commit.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testCommitStacktraceMD5RowsMoved() throws Exception {
+
+        conflictRow = 0;
+        final List<ListEntry> entries = new ArrayList<ListEntry>();
+        final List<EditableAcraReport> reports = new ArrayList<EditableAcraReport>();
+        for (int i = 0; i < 5; i++) {
+            final ListEntry entry = createListEntry("report" + i);
+            entries.add(entry);
+            reports.add(new EditableAcraReport(entry));
+        }
+
+        final SpreadsheetBatchCommitter committer = new SpreadsheetBatchCommitter(client, new URL(
+                "https://spreadsheets.google.com/feeds/cells/key/od6/private/full"), 2);
+        assertEquals(1, committer.commitStacktraceMD5(reports.subList(0, 1)));
+
+        // a row is inserted before the reports
+        worksheet.add(0, "inserted");
+        final CellFeed moved = createIds();
+        when(client.getFeed(any(CellQuery.class), eq(CellFeed.class))).thenReturn(headers, moved);
+        assertEquals(0, committer.commitStacktraceMD5(reports.subList(1, 3)));
+        assertEquals("check no cell written in the moved rows", 1, updatedCells.size());
+        verify(entries.get(1), times(1)).update();
+        verify(entries.get(2), times(1)).update();
+
+        // the rows are read again
+        assertEquals(1, committer.commitStacktraceMD5(reports.subList(3, 4)));
+        verify(client, times(4)).getFeed(any(CellQuery.class), eq(CellFeed.class));
+        assertEquals(2, updatedCells.size());
+        assertEquals(6, updatedCells.get(1).getCell().getRow());
+        verify(entries.get(3), never()).update();
+    }
+
+    /**
+     * Creates the report identifier column cells of the {@link #worksheet}.
+     * 
+     * @return the report identifier column cells
+     */
+    private CellFeed createIds() {
+
+        final CellFeed cells = new CellFeed();
+        for (int i = 0; i < worksheet.size(); i++) {
+            cells.getEntries().add(new CellEntry(i + 2, REPORT_ID_COL, worksheet.get(i)));
+        }
+        return cells;
+    }
+
+    /**
+     * Gets the value of a cell of the worksheet: the header row, the report identifiers of the
+     * {@link #worksheet}, the other cells are empty.
+     * 
+     * @param pRow
+     *            the row of the cell
+     * @param pCol
+     *            the column of the cell
+     * @return the cell value
+     */
+    private String getValue(final int pRow, final int pCol) {
+
+        if (pRow == 1) {
+            for (final CellEntry cell : headers.getEntries()) {
+                if (cell.getCell().getCol() == pCol) {
+                    return cell.getCell().getValue();
+                }
+            }
+        } else if (pCol == REPORT_ID_COL && pRow - 2 < worksheet.size()) {
+            return worksheet.get(pRow - 2);
+        }
+        return "";
+    }
+
+    /**
+     * Creates a list entry mock.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return a list entry mock
+     */
+    private static ListEntry createListEntry(final String pReportId) {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.STACK_TRACE.tagName(), "stacktrace of " + pReportId);
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+
+        final ListEntry entry = mock(ListEntry.class);
+        when(entry.getCustomElements()).thenReturn(elems);
+        return entry;
+    }
+}
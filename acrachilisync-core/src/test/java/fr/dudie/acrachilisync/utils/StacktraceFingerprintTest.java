@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link StacktraceFingerprint} and the hexadecimal encoding of the {@link MD5Utils}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class StacktraceFingerprintTest {
+
+    /** A stacktrace. */
+    private static final String STACKTRACE = "java.lang.IllegalStateException: invalid state 42\n"
+            + "second line of the message\n"
+            + "\tat com.example.app.MainActivity.onResume(MainActivity.java:120)\n"
+            + "\tat com.example.app.MainActivity$$Lambda$12/0x0000000800066840"
+            + ".run(Unknown Source)\n"
+            + "\tat com.example.app.Worker$$ExternalSyntheticLambda3.run(Unknown Source:2)\n"
+            + "\tat $Proxy17.invoke(Unknown Source)\n"
+            + "\tat com.example.app.Service$$EnhancerByCGLIB$$a1b2c3.call(<generated>)\n"
+            + "\tat com.example.app.Handler.handle(com.example.app.Message@1a2b3c4d)\n"
+            + "\tat android.os.Looper.loop(Native Method)\n"
+            + "Caused by: java.lang.NullPointerException: field is null\n"
+            + "\tat com.example.app.MainActivity.init(MainActivity.java:80)\n" + "\t... 7 more\n";
+
+    /** The same stacktrace in another build of the application. */
+    private static final String OTHER_BUILD = "java.lang.IllegalStateException: invalid state 7\r\n"
+            + "\tat com.example.app.MainActivity.onResume(MainActivity.java:134)\r\n"
+            + "\tat com.example.app.MainActivity$$Lambda$31/0x0000000800123450"
+            + ".run(Unknown Source)\r\n"
+            + "\tat com.example.app.Worker$$ExternalSyntheticLambda0.run(Unknown Source:4)\r\n"
+            + "\tat $Proxy3.invoke(Unknown Source)\r\n"
+            + "\tat com.example.app.Service$$EnhancerByCGLIB$$ff00ee.call(<generated>)\r\n"
+            + "\tat com.example.app.Handler.handle(com.example.app.Message@5e6f7a8b)\r\n"
+            + "\tat android.os.Looper.loop(Native Method)\r\n"
+            + "Caused by: java.lang.NullPointerException\r\n"
+            + "\tat com.example.app.MainActivity.init(MainActivity.java:81)\r\n"
+            + "\t... 7 more\r\n\r\n";
+
+    /**
+     * Checks the parts of a stacktrace which differ from a build to another are removed.
+     */
+    @Test
+    public void testNormalize() {
+
+        final String expected = "java.lang.IllegalStateException\n"
+                + "at com.example.app.MainActivity.onResume(MainActivity.java)\n"
+                + "at com.example.app.MainActivity$$Lambda.run(Unknown Source)\n"
+                + "at com.example.app.Worker$$ExternalSyntheticLambda.run(Unknown Source)\n"
+                + "at $Proxy.invoke(Unknown Source)\n"
+                + "at com.example.app.Service$$EnhancerByCGLIB$$.call(<generated>)\n"
+                + "at com.example.app.Handler.handle(com.example.app.Message@)\n"
+                + "at android.os.Looper.loop(Native Method)\n"
+                + "Caused by: java.lang.NullPointerException\n"
+                + "at com.example.app.MainActivity.init(MainActivity.java)\n" + "... 7 more";
+        assertEquals(expected, StacktraceFingerprint.normalize(STACKTRACE));
+        assertEquals(expected, StacktraceFingerprint.normalize(OTHER_BUILD));
+    }
+
+    /**
+     * Checks the normalized fingerprint matches the same crash in different builds, while the
+     * legacy fingerprint remains the hash of the trimmed stacktrace.
+     */
+    @Test
+    public void testCompute() {
+
+        assertEquals(StacktraceFingerprint.NORMALIZED.compute(STACKTRACE),
+                StacktraceFingerprint.NORMALIZED.compute(OTHER_BUILD));
+        assertEquals(32, StacktraceFingerprint.NORMALIZED.compute(STACKTRACE).length());
+        assertFalse(StacktraceFingerprint.MD5.compute(STACKTRACE).equals(
+                StacktraceFingerprint.MD5.compute(OTHER_BUILD)));
+        assertEquals(MD5Utils.toMD5hash(STACKTRACE.trim()),
+                StacktraceFingerprint.MD5.compute(STACKTRACE));
+        assertNull(StacktraceFingerprint.MD5.compute(null));
+        assertNull(StacktraceFingerprint.NORMALIZED.compute(null));
+    }
+
+    /**
+     * Checks the leading zeros of the legacy hashes are omitted, and the characters outside the
+     * basic multilingual plane are encoded.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testHexEncoding() throws Exception {
+
+        assertEquals("00401fe36515dfdc7edd6d0ee83d214b", MD5Utils.toFullMD5hash("stacktrace 27"));
+        assertEquals("401fe36515dfdc7edd6d0ee83d214b", MD5Utils.toMD5hash("stacktrace 27"));
+        assertEquals("bd878d1347af08bb0f86399077d97fb3", MD5Utils.toMD5hash("héllo 𝄞"));
+
+        final StringBuilder large = new StringBuilder();
+        while (large.length() < 10000) {
+            large.append(STACKTRACE);
+        }
+        final byte[] md5sum = MessageDigest.getInstance("MD5").digest(
+                large.toString().getBytes("UTF-8"));
+        assertEquals(new BigInteger(1, md5sum).toString(16), MD5Utils.toMD5hash(large.toString()));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link SyncMetrics}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SyncMetricsTest {
+
+    /**
+     * Checks the summary only reports the values recorded since the snapshot.
+     */
+    @Test
+    public void testSummarySince() {
+
+        final SyncMetrics metrics = new SyncMetrics();
+        metrics.increment(SyncMetrics.REPORTS_READ, 3);
+        metrics.record(SyncMetrics.ISSUE_CREATE, TimeUnit.MILLISECONDS.toNanos(20));
+
+        final Map<String, long[]> snapshot = metrics.snapshot();
+        metrics.increment(SyncMetrics.SYNCHRONIZATIONS, 1);
+        metrics.increment(SyncMetrics.REPORTS_READ, 2);
+        metrics.record(SyncMetrics.ISSUE_UPDATE, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.record(SyncMetrics.ISSUE_UPDATE, TimeUnit.MILLISECONDS.toNanos(12));
+        metrics.record(SyncMetrics.DESCRIPTION_LENGTH, 5000);
+
+        assertEquals("synchronizations=1 reports_read=2 reports_skipped=0 issue_update=2/42ms",
+                metrics.summarySince(snapshot));
+        assertEquals(5, metrics.getCounter(SyncMetrics.REPORTS_READ));
+        assertEquals(1, metrics.getCount(SyncMetrics.ISSUE_CREATE));
+        assertEquals(2, metrics.getCount(SyncMetrics.ISSUE_UPDATE));
+
+        final Map<String, Long> values = metrics.getValues();
+        assertEquals(Long.valueOf(2), values.get("issue_update_count"));
+        assertEquals(Long.valueOf(42), values.get("issue_update_millis"));
+        assertEquals(Long.valueOf(5000), values.get("description_length_sum"));
+    }
+
+    /**
+     * Checks the histograms are exported with cumulative buckets.
+     */
+    @Test
+    public void testPrometheusText() {
+
+        final SyncMetrics metrics = new SyncMetrics();
+        metrics.increment(SyncMetrics.REPORTS_SKIPPED, 4);
+        metrics.record(SyncMetrics.DESCRIPTION_PARSE, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.record(SyncMetrics.DESCRIPTION_PARSE, TimeUnit.SECONDS.toNanos(60));
+        metrics.record(SyncMetrics.DESCRIPTION_LENGTH, 1000);
+        metrics.set(SyncMetrics.WRITE_CONCURRENCY_LIMIT, 6);
+
+        final List<String> lines = Arrays.asList(metrics.getPrometheusText().split("\n"));
+        final String parse = "acrachilisync_description_parse_seconds";
+        assertTrue(lines.contains("# TYPE acrachilisync_reports_skipped_total counter"));
+        assertTrue(lines.contains("acrachilisync_reports_skipped_total 4"));
+        assertTrue(lines.contains("# TYPE " + parse + " histogram"));
+        assertTrue(lines.contains(parse + "_bucket{le=\"0.001\"} 0"));
+        assertTrue(lines.contains(parse + "_bucket{le=\"0.005\"} 1"));
+        assertTrue(lines.contains(parse + "_bucket{le=\"30\"} 1"));
+        assertTrue(lines.contains(parse + "_bucket{le=\"+Inf\"} 2"));
+        assertTrue(lines.contains(parse + "_sum 60.003"));
+        assertTrue(lines.contains(parse + "_count 2"));
+        assertTrue(lines.contains("acrachilisync_description_length_chars_bucket{le=\"1000\"} 1"));
+        assertTrue(lines.contains("acrachilisync_issue_create_seconds_count 0"));
+        assertTrue(lines.contains("# TYPE acrachilisync_write_concurrency_limit gauge"));
+        assertTrue(lines.contains("acrachilisync_write_concurrency_limit 6"));
+    }
+
+    /**
+     * Checks an unknown metric is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMetric() {
+
+        new SyncMetrics().record("unknown", 1);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+
+import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
+import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.SyncStatus;
+
+/**
+ * Test the {@link SyncStateStore}.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class SyncStateStoreTest {
+
+    /** The state directory. */
+    private File directory;
+
+    /**
+     * Creates an empty state directory.
+     * 
+     * @throws IOException
+     *             unable to create the directory
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        directory = File.createTempFile("syncstate", "");
+        assertTrue(directory.delete());
+    }
+
+    /**
+     * Deletes the state directory.
+     */
+    @After
+    public void tearDown() {
+
+        final File[] files = directory.listFiles();
+        if (null != files) {
+            for (final File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Checks the synchronized reports are remembered until they are committed, across restarts.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testRecordAndReopen() throws Exception {
+
+        final AcraReport synced = createReport("report1", SyncStatus.SUCCESS, 12);
+        final AcraReport committed = createReport("report2", SyncStatus.SUCCESS, 13);
+        final AcraReport failed = createReport("report3", SyncStatus.FAILURE, null);
+        final AcraReport unknownIssue = createReport("report4", SyncStatus.SUCCESS, null);
+
+        SyncStateStore store = new SyncStateStore(directory);
+        assertEquals(0, store.size());
+        store.recordSynchronized(Arrays.asList(synced, committed, failed, unknownIssue));
+        store.recordCommitted(Collections.singletonList(committed));
+        assertTrue(store.isSynchronized("report1"));
+        assertFalse(store.isSynchronized("report2"));
+        assertFalse(store.isSynchronized("report3"));
+        store.close();
+
+        store = new SyncStateStore(directory);
+        assertEquals(2, store.size());
+        assertTrue(store.isSynchronized("report1"));
+        assertEquals(Integer.valueOf(12), store.getIssueId("report1"));
+        assertTrue(store.isSynchronized("report4"));
+        assertNull(store.getIssueId("report4"));
+        assertFalse(store.isSynchronized("report2"));
+        store.close();
+    }
+
+    /**
+     * Checks an incomplete record left by a crash is ignored.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testIncompleteRecord() throws Exception {
+
+        SyncStateStore store = new SyncStateStore(directory);
+        store.recordSynchronized(Collections.singletonList(createReport("report1",
+                SyncStatus.SUCCESS, 12)));
+        store.close();
+
+        final FileOutputStream out = new FileOutputStream(new File(directory, "sync-state.log"),
+                true);
+        out.write("S\trep".getBytes("UTF-8"));
+        out.close();
+
+        store = new SyncStateStore(directory);
+        assertEquals(1, store.size());
+        assertEquals(Integer.valueOf(12), store.getIssueId("report1"));
+        store.close();
+    }
+
+    /**
+     * Checks a last record cut by a crash is ignored even if it looks complete: the issue
+     * identifier <code>123</code> cut to <code>12</code> mustn't be replayed.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testTruncatedRecord() throws Exception {
+
+        SyncStateStore store = new SyncStateStore(directory);
+        store.recordSynchronized(Collections.singletonList(createReport("report1",
+                SyncStatus.SUCCESS, 12)));
+        store.close();
+
+        final FileOutputStream out = new FileOutputStream(new File(directory, "sync-state.log"),
+                true);
+        out.write("S\treport2\t12".getBytes("UTF-8"));
+        out.close();
+
+        store = new SyncStateStore(directory);
+        assertEquals(1, store.size());
+        assertEquals(Integer.valueOf(12), store.getIssueId("report1"));
+        assertFalse(store.isSynchronized("report2"));
+        store.close();
+    }
+
+    /**
+     * Checks two stores can't share the same directory.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testLock() throws Exception {
+
+        final SyncStateStore store = new SyncStateStore(directory);
+        try {
+            new SyncStateStore(directory);
+            fail("the directory must be locked by the first store");
+        } catch (final IOException e) {
+            // expected
+        }
+        store.close();
+
+        // the lock is released on close
+        new SyncStateStore(directory).close();
+    }
+
+    /**
+     * Creates a report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @param pStatus
+     *            the synchronization status
+     * @param pIssueId
+     *            the issue identifier
+     * @return a report
+     * @throws MalformedSpreadsheetLineException
+     *             the report is malformed
+     */
+    private static AcraReport createReport(final String pReportId, final SyncStatus pStatus,
+            final Integer pIssueId) throws MalformedSpreadsheetLineException {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                "2011-11-06T05:01:39.000+01:00");
+        final AcraReport report = new AcraReport(elems);
+        report.setStatus(pStatus);
+        report.setIssueId(pIssueId);
+        return report;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.utils;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.data.spreadsheet.ListFeed;
+
+import fr.dudie.acrachilisync.model.AcraReportHeader;
+import fr.dudie.acrachilisync.model.EditableAcraReport;
+
+/**
+ * Test the {@link UnsyncedReportReader} against a list feed which loses its rows when they are
+ * committed.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class UnsyncedReportReaderTest {
+
+    /** Extracts the paging parameters of a list feed URL. */
+    private static final Pattern PAGING = Pattern
+            .compile("start-index=(\\d+)&max-results=(\\d+)");
+
+    /** The list feed URL. */
+    private static final String LIST_FEED_URL = "https://spreadsheets.google.com/feeds/list/key/"
+            + "od6/private/full?sq=stacktracemd5%3D%3D%22%22";
+
+    /** The rows of the list feed, the 5th one is malformed. */
+    private List<ListEntry> rows;
+
+    /** The Spreadsheet client. */
+    private SpreadsheetService client;
+
+    /**
+     * Creates a Spreadsheet client mock serving pages of {@link #rows}.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        rows = new ArrayList<ListEntry>();
+        for (int i = 0; i < 7; i++) {
+            rows.add(createListEntry("report" + i, i != 4));
+        }
+
+        client = mock(SpreadsheetService.class);
+        when(client.getFeed(any(URL.class), eq(ListFeed.class))).thenAnswer(new Answer<ListFeed>() {
+
+            @Override
+            public ListFeed answer(final InvocationOnMock invocation) throws Throwable {
+
+                final Matcher m = PAGING.matcher(invocation.getArguments()[0].toString());
+                assertTrue(m.find());
+                final int start = Integer.parseInt(m.group(1)) - 1;
+                final int max = Integer.parseInt(m.group(2));
+                final ListFeed feed = new ListFeed();
+                feed.setTotalResults(rows.size());
+                if (start < rows.size()) {
+                    feed.getEntries().addAll(
+                            rows.subList(start, Math.min(rows.size(), start + max)));
+                }
+                return feed;
+            }
+        });
+    }
+
+    /**
+     * Reads pages of 3 rows and commits all reports but one: every valid report must be read once.
+     * 
+     * @throws Exception
+     *             an error occurred
+     */
+    @Test
+    public void testPaging() throws Exception {
+
+        final UnsyncedReportReader reader = new UnsyncedReportReader(client, new URL(
+                LIST_FEED_URL), 3);
+        final List<String> read = new ArrayList<String>();
+        int pages = 0;
+        while (reader.hasNextPage()) {
+            final List<EditableAcraReport> page = reader.nextPage();
+            pages++;
+            assertTrue("check page size", page.size() <= 3);
+            if (pages == 1) {
+                assertEquals("check total rows", 7, reader.getTotalRows());
+            }
+            int committed = 0;
+            for (final EditableAcraReport report : page) {
+                read.add(report.getId());
+                if (!"report1".equals(report.getId())) {
+                    rows.remove(indexOf(report.getId()));
+                    committed++;
+                }
+            }
+            reader.skip(page.size() - committed);
+        }
+
+        assertEquals(Arrays.asList("report0", "report1", "report2", "report3", "report5",
+                "report6"), read);
+        assertEquals("check pages", 3, pages);
+        assertEquals("check uncommitted rows", 2, rows.size());
+    }
+
+    /**
+     * Gets the index of the row of the given report.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @return the index of the row in {@link #rows}
+     */
+    private int indexOf(final String pReportId) {
+
+        for (int i = 0; i < rows.size(); i++) {
+            if (pReportId.equals(rows.get(i).getCustomElements().getValue(
+                    AcraReportHeader.REPORT_ID.tagName()))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(pReportId);
+    }
+
+    /**
+     * Creates a list entry mock.
+     * 
+     * @param pReportId
+     *            the report identifier
+     * @param pValid
+     *            false to leave the crash date empty
+     * @return a list entry mock
+     */
+    private static ListEntry createListEntry(final String pReportId, final boolean pValid) {
+
+        final CustomElementCollection elems = new CustomElementCollection();
+        for (final AcraReportHeader h : AcraReportHeader.values()) {
+            elems.setValueLocal(h.tagName(), h.name());
+        }
+        elems.setValueLocal(AcraReportHeader.REPORT_ID.tagName(), pReportId);
+        elems.setValueLocal(AcraReportHeader.USER_APP_START_DATE.tagName(),
+                "2011-11-06T04:59:21.000+01:00");
+        elems.setValueLocal(AcraReportHeader.USER_CRASH_DATE.tagName(),
+                pValid ? "2011-11-06T05:01:39.000+01:00" : "");
+
+        final ListEntry entry = mock(ListEntry.class);
+        when(entry.getCustomElements()).thenReturn(elems);
+        return entry;
+    }
+}
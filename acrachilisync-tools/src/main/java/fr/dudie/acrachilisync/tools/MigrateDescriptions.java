@@ -17,20 +17,29 @@
 
 package fr.dudie.acrachilisync.tools;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.lang.StringUtils;
 import org.redmine.ta.RedmineManager;
 import org.redmine.ta.beans.Issue;
 import org.slf4j.Logger;
@@ -42,17 +51,35 @@ import com.google.gdata.data.spreadsheet.ListFeed;
 import com.google.gdata.util.AuthenticationException;
 import com.google.gdata.util.ServiceException;
 
+import fr.dudie.acrachilisync.AcraToChiliprojectSyncer;
+import fr.dudie.acrachilisync.exception.IssueParseException;
 import fr.dudie.acrachilisync.exception.MalformedSpreadsheetLineException;
 import fr.dudie.acrachilisync.exception.SynchronizationException;
 import fr.dudie.acrachilisync.model.AcraReport;
+import fr.dudie.acrachilisync.model.AcraReportHeader;
 import fr.dudie.acrachilisync.model.ErrorOccurrence;
 import fr.dudie.acrachilisync.tools.upgrade.DescriptionUpgradeException;
 import fr.dudie.acrachilisync.tools.upgrade.IssueDescriptionReaderV1;
+import fr.dudie.acrachilisync.utils.ChiliprojectClient;
 import fr.dudie.acrachilisync.utils.ConfigurationManager;
 import fr.dudie.acrachilisync.utils.IssueDescriptionBuilder;
+import fr.dudie.acrachilisync.utils.IssueDescriptionReader;
 import fr.dudie.acrachilisync.utils.IssueDescriptionUtils;
 
 /**
+ * Migrates the issue descriptions from a format version to another.
+ * <p>
+ * The issues are read by pages of <code>migrate.page.size</code> issues, each page is migrated
+ * by <code>migrate.threads</code> workers. The migrated issues are recorded in a
+ * {@link MigrationCheckpoint}, so a migration started again skips them.
+ * <p>
+ * The version 1 descriptions only hold the report identifiers: the reports of a page are read from
+ * the spreadsheet together and only kept while the page is migrated. They are read either with
+ * queries matching up to <code>migrate.lookup.chunk.size</code> report identifiers
+ * (<code>migrate.lookup=query</code>) or from a single scan of the whole worksheet
+ * (<code>migrate.lookup=scan</code>), whose rows are dropped once a page has taken them. The
+ * spreadsheet client isn't thread-safe, the spreadsheet is read by one thread at a time.
+ * 
  * @author Jérémie Huchet
  */
 public class MigrateDescriptions {
@@ -64,25 +91,48 @@ public class MigrateDescriptions {
     private static final String APP_NAME = "dudie-acrachilisync-0.2";
 
     /**
-     * A format string to build a worksheet list feed URL. You must provide two string arguments to
-     * format it:
+     * A format string to build a worksheet list feed URL. You must provide three string arguments
+     * to format it:
      * <ol>
+     * <li>the spreadsheet host, such as {@link AcraToChiliprojectSyncer#SPREADSHEET_HOST}</li>
      * <li>the document key</li>
      * <li>the worksheet id</li>
-     * <li>the md5stacktrace</li>
      * </ol>
      */
-    private static final String WORKSHEET_URL_FORMAT = "https://spreadsheets.google.com"
-            + "/feeds/list/%s/%s/private/full?sq=reportid%%3D%%3D%%22%s%%22";
+    private static final String WORKSHEET_URL_FORMAT = "%s/feeds/list/%s/%s/private/full";
+
+    /** The number of rows read by each request of a worksheet scan. */
+    private static final int SCAN_PAGE_SIZE = 500;
 
     private final Configuration config;
 
     /** The Chiliproject client. */
-    private final RedmineManager redmine;
+    private final ChiliprojectClient redmine;
 
     /** The Spreadsheet client. */
     private final SpreadsheetService googleDoc;
 
+    /** The worksheet list feed URL, without query. */
+    private final String listFeedUrl;
+
+    /** The number of issues listed by each request. */
+    private final int pageSize;
+
+    /** The number of issues migrated concurrently. */
+    private final int threads;
+
+    /** True to read the whole worksheet instead of querying the reports. */
+    private final boolean scan;
+
+    /** The maximum number of report identifiers matched by a spreadsheet query. */
+    private final int chunkSize;
+
+    /**
+     * The occurrences of the scanned worksheet not taken by a page yet, by report identifier; null
+     * until the worksheet has been scanned.
+     */
+    private Map<String, ErrorOccurrence> worksheet;
+
     /**
      * Constructor.
      * 
@@ -97,23 +147,113 @@ public class MigrateDescriptions {
         // load configuration
         final ConfigurationManager confManager = ConfigurationManager.getInstance(pConfiguration);
 
-        redmine = new RedmineManager(confManager.CHILIPROJECT_HOST.toString(),
-                confManager.CHILIPROJECT_API_KEY);
+        redmine = new ChiliprojectClient(new RedmineManager(
+                confManager.CHILIPROJECT_HOST.toString(), confManager.CHILIPROJECT_API_KEY),
+                confManager);
 
         googleDoc = new SpreadsheetService(APP_NAME);
         googleDoc.setUserCredentials(confManager.GOOGLE_LOGIN, confManager.GOOGLE_PASSWORD);
+
+        final String host = StringUtils.removeEnd(config.getString("google.spreadsheet.host",
+                AcraToChiliprojectSyncer.SPREADSHEET_HOST), "/");
+        listFeedUrl = String.format(WORKSHEET_URL_FORMAT, host,
+                config.getString("google.spreadsheet.document.key"),
+                config.getString("google.spreadsheet.worksheet.id"));
+        pageSize = Math.max(1, config.getInt("migrate.page.size", 100));
+        threads = Math.max(1, config.getInt("migrate.threads", 4));
+        chunkSize = Math.max(1, config.getInt("migrate.lookup.chunk.size", 50));
+        final String lookup = config.getString("migrate.lookup", "query");
+        if ("scan".equalsIgnoreCase(lookup)) {
+            scan = true;
+        } else if ("query".equalsIgnoreCase(lookup)) {
+            scan = false;
+        } else {
+            throw new IllegalArgumentException("migrate.lookup must be query or scan: " + lookup);
+        }
     }
 
+    /**
+     * Migrates the issue descriptions.
+     * <p>
+     * Arguments: <code>[old version, new version [, checkpoint file]]</code>, the versions default
+     * to <code>1 2</code>. The supported migrations are:
+     * <ul>
+     * <li><code>1 2</code>: reads the reports from the spreadsheet and lists all the occurrences,
+     * </li>
+     * <li><code>1 3</code>: the same, then rolls up the oldest occurrences according to the
+     * <code>sync.description.rollup.keep</code> option,</li>
+     * <li><code>2 3</code>: rolls up the oldest occurrences of a version 2 description.</li>
+     * </ul>
+     * The default checkpoint file is
+     * <code>migrate-descriptions-&lt;old&gt;-&lt;new&gt;.checkpoint</code>.
+     * 
+     * @param args
+     *            the command line arguments
+     * @throws AuthenticationException
+     *             invalid Google credentials
+     * @throws ConfigurationException
+     *             unable to read the configuration
+     * @throws SynchronizationException
+     *             the migration failed
+     */
     public static void main(final String[] args) throws AuthenticationException,
             ConfigurationException, SynchronizationException {
 
+        int oldVersion = 1;
+        int newVersion = 2;
+        if (args.length == 1 || args.length > 3) {
+            throw new IllegalArgumentException(
+                    "Arguments: [old version, new version [, checkpoint file]]");
+        } else if (args.length >= 2) {
+            oldVersion = Integer.parseInt(args[0]);
+            newVersion = Integer.parseInt(args[1]);
+        }
+        if (!isSupported(oldVersion, newVersion)) {
+            throw new IllegalArgumentException(String.format(
+                    "Unsupported migration from version %d to %d, expected 1 2, 1 3 or 2 3",
+                    oldVersion, newVersion));
+        }
+
         final MigrateDescriptions updater = new MigrateDescriptions(new PropertiesConfiguration(
                 "acrachilisync.properties"));
+        final File checkpoint;
+        if (args.length >= 3) {
+            checkpoint = new File(args[2]);
+        } else {
+            checkpoint = new File(String.format("migrate-descriptions-%d-%d.checkpoint",
+                    oldVersion, newVersion));
+        }
+        updater.upgrade(oldVersion, newVersion, checkpoint);
+    }
 
-        updater.upgrade(1, 2);
+    /**
+     * Gets whether or not the descriptions can be migrated from a version to another.
+     * 
+     * @param pOldVersion
+     *            the current description version
+     * @param pNewVersion
+     *            the target description version
+     * @return true if the migration is supported
+     */
+    private static boolean isSupported(final int pOldVersion, final int pNewVersion) {
+
+        return pOldVersion == 1 && (pNewVersion == 2 || pNewVersion == 3)
+                || pOldVersion == 2 && pNewVersion == 3;
     }
 
-    private void upgrade(final int pOldVersion, final int pNewVersion)
+    /**
+     * Migrates the issues of the configured project and tracker, page by page.
+     * 
+     * @param pOldVersion
+     *            the current description version
+     * @param pNewVersion
+     *            the target description version
+     * @param pCheckpoint
+     *            the file recording the migrated issues
+     * @throws SynchronizationException
+     *             unable to list the issues or to write the checkpoint
+     */
+    private void upgrade(final int pOldVersion, final int pNewVersion, final File pCheckpoint)
             throws SynchronizationException {
 
         final int project = ConfigurationManager.getInstance().CHILIPROJECT_PROJECT_ID;
@@ -123,44 +263,266 @@ public class MigrateDescriptions {
         selection.put("project_id", String.valueOf(project));
         selection.put("tracker_id", String.valueOf(tracker));
         selection.put("status_id", "*");
+
+        final MigrationCheckpoint checkpoint;
         try {
-            final List<Issue> issuesToUpgrade = redmine.getIssues(selection);
-            LOGGER.info("Starting upgrade from version {} to {} on {} issues", new Object[] {
-                    pOldVersion, pNewVersion, CollectionUtils.size(issuesToUpgrade) });
+            checkpoint = new MigrationCheckpoint(pCheckpoint);
+        } catch (final IOException e) {
+            throw new SynchronizationException("can't open the checkpoint " + pCheckpoint, e);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            LOGGER.info("Starting upgrade from version {} to {} with {} threads", new Object[] {
+                    pOldVersion, pNewVersion, threads });
+            int offset = 0;
+            int migrated = 0;
+            int failed = 0;
+            List<Issue> issues;
+            do {
+                try {
+                    issues = redmine.getIssuePage(selection, offset, pageSize);
+                } catch (final Exception e) {
+                    throw new SynchronizationException("can't retrive issues from redmine server",
+                            e);
+                }
+                offset += issues.size();
+                final List<Issue> pending = new ArrayList<Issue>(issues.size());
+                for (final Issue issue : issues) {
+                    if (!checkpoint.isDone(issue.getId())) {
+                        pending.add(issue);
+                    }
+                }
+                final int succeeded = upgradePage(pOldVersion, pNewVersion, pending, executor,
+                        checkpoint);
+                migrated += succeeded;
+                failed += pending.size() - succeeded;
+                LOGGER.info("{} issues listed: {} migrated, {} failed, {} skipped", new Object[] {
+                        offset, migrated, failed, offset - migrated - failed });
+            } while (issues.size() == pageSize);
+        } finally {
+            executor.shutdownNow();
+            try {
+                checkpoint.close();
+            } catch (final IOException e) {
+                LOGGER.error("Can't close the checkpoint " + pCheckpoint, e);
+            }
+        }
+    }
 
-            for (final Issue issue : issuesToUpgrade) {
-                upgrade(pOldVersion, pNewVersion, issue);
+    /**
+     * Migrates a page of issues on the workers and waits for them.
+     * 
+     * @param pOldVersion
+     *            the current description version
+     * @param pNewVersion
+     *            the target description version
+     * @param pIssues
+     *            the issues to migrate
+     * @param pExecutor
+     *            the workers
+     * @param pCheckpoint
+     *            records the migrated issues
+     * @return the number of issues migrated
+     * @throws SynchronizationException
+     *             unable to write the checkpoint, or interrupted
+     */
+    private int upgradePage(final int pOldVersion, final int pNewVersion,
+            final List<Issue> pIssues, final ExecutorService pExecutor,
+            final MigrationCheckpoint pCheckpoint) throws SynchronizationException {
+
+        final Map<String, ErrorOccurrence> reports;
+        if (pOldVersion == 1) {
+            reports = readReports(pIssues);
+        } else {
+            reports = Collections.emptyMap();
+        }
+
+        final List<Integer> fetched = new ArrayList<Integer>(pIssues.size());
+        final Map<Integer, Issue> byId = new HashMap<Integer, Issue>();
+        for (final Issue issue : pIssues) {
+            fetched.add(issue.getId());
+            byId.put(issue.getId(), issue);
+        }
+        final List<Boolean> results = invokeAll(pExecutor, fetched, new IssueTask<Boolean>() {
+
+            @Override
+            public Boolean call(final Integer pId) throws Exception {
+
+                return upgrade(pOldVersion, pNewVersion, byId.get(pId), reports);
             }
-        } catch (final Exception e) {
-            throw new SynchronizationException("can't retrive issues from redmine server", e);
+        });
+
+        int succeeded = 0;
+        for (int i = 0; i < fetched.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                try {
+                    pCheckpoint.record(fetched.get(i));
+                } catch (final IOException e) {
+                    throw new SynchronizationException("can't write the checkpoint", e);
+                }
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * A task processing an issue.
+     * 
+     * @param <T>
+     *            the result type
+     */
+    private interface IssueTask<T> {
+
+        /**
+         * Processes an issue.
+         * 
+         * @param pId
+         *            the issue identifier
+         * @return the result
+         * @throws Exception
+         *             the processing failed
+         */
+        T call(Integer pId) throws Exception;
+    }
+
+    /**
+     * Runs a task for each issue on the workers and waits for them.
+     * 
+     * @param <T>
+     *            the result type
+     * @param pExecutor
+     *            the workers
+     * @param pIds
+     *            the issue identifiers
+     * @param pTask
+     *            the task
+     * @return the results in the order of the identifiers, null for the failed tasks
+     * @throws SynchronizationException
+     *             interrupted
+     */
+    private static <T> List<T> invokeAll(final ExecutorService pExecutor,
+            final List<Integer> pIds, final IssueTask<T> pTask) throws SynchronizationException {
+
+        final List<Callable<T>> tasks = new ArrayList<Callable<T>>(pIds.size());
+        for (final Integer id : pIds) {
+            tasks.add(new Callable<T>() {
+
+                @Override
+                public T call() throws Exception {
+
+                    return pTask.call(id);
+                }
+            });
+        }
+        final List<T> results = new ArrayList<T>(pIds.size());
+        try {
+            final List<Future<T>> futures = pExecutor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (final ExecutionException e) {
+                    LOGGER.error("Issue #" + pIds.get(i) + " failed", e.getCause());
+                    results.add(null);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SynchronizationException("migration interrupted", e);
+        }
+        return results;
+    }
+
+    /**
+     * Migrates the description of an issue.
+     * 
+     * @param pOldVersion
+     *            the current description version
+     * @param pNewVersion
+     *            the target description version
+     * @param pIssue
+     *            the issue
+     * @return true if the issue has been migrated or doesn't need to be, false if it failed
+     */
+    public boolean upgrade(final int pOldVersion, final int pNewVersion, final Issue pIssue) {
+
+        final Map<String, ErrorOccurrence> reports;
+        if (pOldVersion == 1) {
+            reports = readReports(Collections.singletonList(pIssue));
+        } else {
+            reports = Collections.emptyMap();
         }
+        return upgrade(pOldVersion, pNewVersion, pIssue, reports);
     }
 
-    public void upgrade(final int pOldVersion, final int pNewVersion, final Issue pIssue) {
+    /**
+     * Migrates the description of an issue.
+     * 
+     * @param pOldVersion
+     *            the current description version
+     * @param pNewVersion
+     *            the target description version
+     * @param pIssue
+     *            the issue
+     * @param pReports
+     *            the occurrences of the reports of the issue, by report identifier
+     * @return true if the issue has been migrated or doesn't need to be, false if it failed
+     */
+    private boolean upgrade(final int pOldVersion, final int pNewVersion, final Issue pIssue,
+            final Map<String, ErrorOccurrence> pReports) {
 
-        if (pOldVersion == 1 && pNewVersion == 2) {
+        if (pOldVersion == 1 && (pNewVersion == 2 || pNewVersion == 3)) {
+            LOGGER.info("Issue #{}: upgrade needed from version {} to {}",
+                    new Object[] { pIssue.getId(), pOldVersion, pNewVersion });
+            try {
+                upgradeFrom1(pIssue, pNewVersion, pReports);
+            } catch (final DescriptionUpgradeException e) {
+                LOGGER.error("Can't migrate issue #" + pIssue.getId(), e);
+                return false;
+            }
+        } else if (pOldVersion == 2 && pNewVersion == 3) {
             LOGGER.info("Issue #{}: upgrade needed from version {} to {}",
                     new Object[] { pIssue.getId(), pOldVersion, pNewVersion });
             try {
-                upgradeFrom1To2(pIssue);
+                upgradeFrom2To3(pIssue);
             } catch (final DescriptionUpgradeException e) {
                 LOGGER.error("Can't migrate issue #" + pIssue.getId(), e);
+                return false;
             }
         } else {
             LOGGER.info("Issue #{}: current version is {}, no upgrade needed", pIssue.getId(),
                     pOldVersion);
         }
+        return true;
     }
 
-    private void upgradeFrom1To2(final Issue pIssue) throws DescriptionUpgradeException {
+    /**
+     * Rewrites a version 1 description in the given version: the occurrences are read from the
+     * spreadsheet, the version 3 description rolls up the oldest ones according to the
+     * <code>sync.description.rollup.keep</code> option.
+     * 
+     * @param pIssue
+     *            the issue to upgrade
+     * @param pNewVersion
+     *            the target description version, 2 or 3
+     * @param pReports
+     *            the occurrences of the reports of the issue, by report identifier
+     * @throws DescriptionUpgradeException
+     *             unable to upgrade the issue
+     */
+    private void upgradeFrom1(final Issue pIssue, final int pNewVersion,
+            final Map<String, ErrorOccurrence> pReports) throws DescriptionUpgradeException {
 
         try {
             final IssueDescriptionReaderV1 reader = new IssueDescriptionReaderV1(pIssue);
             final Map<String, Date> occurrences = reader.getOccurrences();
-            final List<ErrorOccurrence> errors = toErrorOccurrences(occurrences.keySet());
+            final List<ErrorOccurrence> errors = toErrorOccurrences(occurrences.keySet(),
+                    pReports);
             final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
                     reader.getStacktrace());
             builder.setOccurrences(errors);
+            builder.setVersion(pNewVersion);
+            builder.setRollupKeep(ConfigurationManager.getInstance().SYNC_DESCRIPTION_ROLLUP_KEEP);
             pIssue.setDescription(builder.build());
             if (LOGGER.isTraceEnabled()) {
                 final StringBuilder msg = new StringBuilder();
@@ -177,25 +539,207 @@ public class MigrateDescriptions {
         }
     }
 
-    private List<ErrorOccurrence> toErrorOccurrences(final Set<String> md5stacktraces)
-            throws MalformedURLException, IOException, ServiceException,
-            MalformedSpreadsheetLineException {
+    /**
+     * Rewrites a version 2 description: the oldest occurrences are rolled up according to the
+     * <code>sync.description.rollup.keep</code> option. The issue is updated only if its
+     * description changes.
+     * 
+     * @param pIssue
+     *            the issue to upgrade
+     * @throws DescriptionUpgradeException
+     *             unable to upgrade the issue
+     */
+    private void upgradeFrom2To3(final Issue pIssue) throws DescriptionUpgradeException {
 
-        final List<ErrorOccurrence> errors = new ArrayList<ErrorOccurrence>();
+        try {
+            final IssueDescriptionReader reader = new IssueDescriptionReader(pIssue);
+            final IssueDescriptionBuilder builder = new IssueDescriptionBuilder(
+                    reader.getStacktrace());
+            builder.setOccurrences(reader.getOccurrences());
+            builder.setRollup(reader.getRollup());
+            builder.setRollupKeep(ConfigurationManager.getInstance().SYNC_DESCRIPTION_ROLLUP_KEEP);
+            final String description = builder.build();
+            if (description.equals(pIssue.getDescription())) {
+                LOGGER.info("Issue #{}: description is up to date", pIssue.getId());
+                return;
+            }
+            pIssue.setDescription(description);
+            LOGGER.info("update Issue #{}", pIssue.getId());
+            redmine.updateIssue(pIssue);
+        } catch (final Exception e) {
+            throw new DescriptionUpgradeException(pIssue, e);
+        }
+    }
+
+    /**
+     * Gets the occurrences of the given reports.
+     * 
+     * @param pReportIds
+     *            the report identifiers
+     * @param pReports
+     *            the occurrences read from the spreadsheet, by report identifier
+     * @return the occurrences
+     * @throws IOException
+     *             a report isn't found in the spreadsheet
+     */
+    private static List<ErrorOccurrence> toErrorOccurrences(final Set<String> pReportIds,
+            final Map<String, ErrorOccurrence> pReports) throws IOException {
+
+        final List<ErrorOccurrence> errors = new ArrayList<ErrorOccurrence>(pReportIds.size());
+        for (final String reportId : pReportIds) {
+            final ErrorOccurrence error = pReports.get(reportId);
+            if (null == error) {
+                throw new IOException("Report " + reportId + " not found in the spreadsheet");
+            }
+            errors.add(error);
+        }
+        return errors;
+    }
 
-        for (final String md5stack : md5stacktraces) {
-            // retrieve ACRA report line
-            final String listFeedUrl = String.format(WORKSHEET_URL_FORMAT,
-                    config.getString("google.spreadsheet.document.key"),
-                    config.getString("google.spreadsheet.worksheet.id"), md5stack);
-            LOGGER.debug("retrieving {}", listFeedUrl);
-            final ListFeed listFeed = googleDoc.getFeed(new URL(listFeedUrl), ListFeed.class);
-            final ListEntry entry = listFeed.getEntries().iterator().next();
+    /**
+     * Reads the reports of the given version 1 issues from the spreadsheet. The issues whose
+     * description can't be parsed, or whose reports can't be read, fail during their migration.
+     * 
+     * @param pIssues
+     *            the issues
+     * @return the occurrences found in the spreadsheet, by report identifier
+     */
+    private Map<String, ErrorOccurrence> readReports(final List<Issue> pIssues) {
 
-            final AcraReport report = new AcraReport(entry.getCustomElements());
-            errors.add(IssueDescriptionUtils.toErrorOccurrence(report));
+        final Set<String> reportIds = new LinkedHashSet<String>();
+        for (final Issue issue : pIssues) {
+            try {
+                reportIds.addAll(new IssueDescriptionReaderV1(issue).getOccurrences().keySet());
+            } catch (final IssueParseException e) {
+                // reported by the migration of the issue
+                LOGGER.debug("Can't parse issue #" + issue.getId(), e);
+            }
+        }
+        final Map<String, ErrorOccurrence> reports = new HashMap<String, ErrorOccurrence>();
+        if (reportIds.isEmpty()) {
+            return reports;
         }
+        try {
+            if (scan) {
+                takeScannedReports(reportIds, reports);
+            } else {
+                queryReports(new ArrayList<String>(reportIds), reports);
+            }
+        } catch (final Exception e) {
+            // the issues whose reports are missing fail
+            LOGGER.error("Can't read the reports from the spreadsheet", e);
+        }
+        return reports;
+    }
 
-        return errors;
+    /**
+     * Queries the given reports from the spreadsheet, by chunks of
+     * <code>migrate.lookup.chunk.size</code> identifiers.
+     * 
+     * @param pReportIds
+     *            the report identifiers
+     * @param pReports
+     *            receives the occurrences found, by report identifier
+     * @throws IOException
+     *             unable to read the spreadsheet
+     * @throws ServiceException
+     *             unable to read the spreadsheet
+     */
+    private void queryReports(final List<String> pReportIds,
+            final Map<String, ErrorOccurrence> pReports) throws IOException, ServiceException {
+
+        for (int i = 0; i < pReportIds.size(); i += chunkSize) {
+            final List<String> chunk = pReportIds.subList(i,
+                    Math.min(pReportIds.size(), i + chunkSize));
+            final StringBuilder query = new StringBuilder();
+            for (final String reportId : chunk) {
+                if (query.length() > 0) {
+                    query.append(" or ");
+                }
+                query.append(AcraReportHeader.REPORT_ID.tagName()).append("==\"")
+                        .append(reportId).append('"');
+            }
+            final URL url = new URL(listFeedUrl + "?sq="
+                    + URLEncoder.encode(query.toString(), "UTF-8"));
+            addOccurrences(readRows(url), pReports);
+        }
+    }
+
+    /**
+     * Takes the given reports from the worksheet rows, scanning the whole worksheet the first
+     * time. The reports taken are dropped from the scanned rows.
+     * 
+     * @param pReportIds
+     *            the report identifiers
+     * @param pReports
+     *            receives the occurrences found, by report identifier
+     * @throws IOException
+     *             unable to read the spreadsheet
+     * @throws ServiceException
+     *             unable to read the spreadsheet
+     */
+    private synchronized void takeScannedReports(final Collection<String> pReportIds,
+            final Map<String, ErrorOccurrence> pReports) throws IOException, ServiceException {
+
+        if (null == worksheet) {
+            final Map<String, ErrorOccurrence> rows = new HashMap<String, ErrorOccurrence>();
+            int startIndex = 1;
+            List<ListEntry> entries;
+            do {
+                final URL url = new URL(String.format("%s?start-index=%d&max-results=%d",
+                        listFeedUrl, startIndex, SCAN_PAGE_SIZE));
+                entries = readRows(url);
+                addOccurrences(entries, rows);
+                startIndex += entries.size();
+            } while (entries.size() == SCAN_PAGE_SIZE);
+            worksheet = rows;
+            LOGGER.info("{} reports read from the spreadsheet", worksheet.size());
+        }
+        for (final String reportId : pReportIds) {
+            final ErrorOccurrence error = worksheet.remove(reportId);
+            if (null != error) {
+                pReports.put(reportId, error);
+            }
+        }
+    }
+
+    /**
+     * Reads spreadsheet rows. The spreadsheet client isn't thread-safe, so the rows are read by
+     * one thread at a time.
+     * 
+     * @param pUrl
+     *            the list feed URL
+     * @return the spreadsheet rows
+     * @throws IOException
+     *             unable to read the spreadsheet
+     * @throws ServiceException
+     *             unable to read the spreadsheet
+     */
+    private synchronized List<ListEntry> readRows(final URL pUrl) throws IOException,
+            ServiceException {
+
+        LOGGER.debug("retrieving {}", pUrl);
+        return googleDoc.getFeed(pUrl, ListFeed.class).getEntries();
+    }
+
+    /**
+     * Adds the occurrences of the given spreadsheet rows.
+     * 
+     * @param pEntries
+     *            the spreadsheet rows
+     * @param pReports
+     *            receives the occurrences, by report identifier
+     */
+    private static void addOccurrences(final List<ListEntry> pEntries,
+            final Map<String, ErrorOccurrence> pReports) {
+
+        for (final ListEntry entry : pEntries) {
+            try {
+                final AcraReport report = new AcraReport(entry.getCustomElements());
+                pReports.put(report.getId(), IssueDescriptionUtils.toErrorOccurrence(report));
+            } catch (final MalformedSpreadsheetLineException e) {
+                LOGGER.error(e.getMessage());
+            }
+        }
     }
 }
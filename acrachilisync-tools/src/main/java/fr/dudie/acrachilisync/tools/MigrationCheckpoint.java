@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2011 Jeremie Huchet
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.dudie.acrachilisync.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the issues whose description has been migrated, so an interrupted migration resumes
+ * where it stopped.
+ * <p>
+ * The identifiers of the migrated issues are appended to a file, one per line, and written to the
+ * disk before {@link #record(int)} returns. An incomplete last line left by a crash is ignored.
+ * 
+ * @author Jérémie Huchet
+ */
+public final class MigrationCheckpoint implements Closeable {
+
+    /** The event logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MigrationCheckpoint.class);
+
+    /** The encoding of the checkpoint file. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The checkpoint file. */
+    private final File file;
+
+    /** The identifiers of the migrated issues. */
+    private final Set<Integer> done = new HashSet<Integer>();
+
+    /** The writer appending the identifiers to the checkpoint file. */
+    private final Writer writer;
+
+    /**
+     * Opens the checkpoint file, creates it if it doesn't exist.
+     * 
+     * @param pFile
+     *            the checkpoint file
+     * @throws IOException
+     *             unable to read or write the checkpoint file
+     */
+    public MigrationCheckpoint(final File pFile) throws IOException {
+
+        file = pFile;
+        boolean newLine = true;
+        if (file.exists()) {
+            newLine = load();
+        }
+        writer = new OutputStreamWriter(new FileOutputStream(file, true), ENCODING);
+        if (!newLine) {
+            // terminate the incomplete line so the next identifier starts on its own line
+            writer.write('\n');
+            writer.flush();
+        }
+        LOGGER.info("{} issues already migrated according to {}", done.size(), file);
+    }
+
+    /**
+     * Reads the checkpoint file.
+     * 
+     * @return false if the file doesn't end with a line terminator
+     * @throws IOException
+     *             unable to read the checkpoint file
+     */
+    private boolean load() throws IOException {
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), ENCODING));
+        try {
+            final StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n') {
+                    apply(line.toString().trim());
+                    line.setLength(0);
+                } else {
+                    line.append((char) c);
+                }
+            }
+            if (line.length() > 0) {
+                LOGGER.warn("Ignoring the incomplete last line of {}: {}", file, line);
+                return false;
+            }
+            return true;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Applies a line read from the checkpoint file.
+     * 
+     * @param pLine
+     *            the issue identifier
+     */
+    private void apply(final String pLine) {
+
+        if (pLine.length() == 0) {
+            return;
+        }
+        try {
+            done.add(Integer.valueOf(pLine));
+        } catch (final NumberFormatException e) {
+            LOGGER.warn("Ignoring malformed line of {}: {}", file, pLine);
+        }
+    }
+
+    /**
+     * Gets whether or not an issue has already been migrated.
+     * 
+     * @param pIssueId
+     *            the issue identifier
+     * @return true if the issue has been migrated
+     */
+    public synchronized boolean isDone(final int pIssueId) {
+
+        return done.contains(pIssueId);
+    }
+
+    /**
+     * Records a migrated issue.
+     * 
+     * @param pIssueId
+     *            the issue identifier
+     * @throws IOException
+     *             unable to write the checkpoint file
+     */
+    public synchronized void record(final int pIssueId) throws IOException {
+
+        if (done.add(pIssueId)) {
+            writer.write(String.valueOf(pIssueId));
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * Gets the number of migrated issues.
+     * 
+     * @return the number of migrated issues
+     */
+    public synchronized int size() {
+
+        return done.size();
+    }
+
+    /**
+     * Closes the checkpoint file.
+     * 
+     * @throws IOException
+     *             unable to close the file
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        writer.close();
+    }
+}